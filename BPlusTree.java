@@ -0,0 +1,911 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * This class is a B+ tree that can be used wherever a RedBlackTree is. Every
+ * node keeps up to ORDER values in one array, so a lookup touches about
+ * log64(n) nodes and binary searches inside each of them instead of following
+ * a reference per comparison. Only the leaves hold the values, and they are
+ * linked in ascending order, so iterating a range reads neighbouring arrays.
+ * The inner nodes hold copies of the smallest value of each child but the
+ * first, to steer the search.
+ */
+public class BPlusTree<T extends Comparable<T>> implements RedBlackTreeInterface<T>, TreeShapeInterface {
+
+    /**
+     * The number of values a node holds at most, unless a different order is given
+     */
+    public static final int DEFAULT_ORDER = 64;
+
+    /**
+     * A node of the tree. The arrays have one spare slot so a node can overflow
+     * by one value before it is split.
+     */
+    private static class Node {
+        Object[] keys;
+        int count; // number of keys in use
+    }
+
+    /**
+     * A leaf holding values, linked to the next leaf in ascending order
+     */
+    private static class Leaf extends Node {
+        Leaf next;
+
+        private Leaf(int order) {
+            this.keys = new Object[order + 1];
+        }
+    }
+
+    /**
+     * An inner node: children[i] holds the values smaller than keys[i], and
+     * children[i + 1] the values not smaller than keys[i]
+     */
+    private static class Inner extends Node {
+        Node[] children;
+
+        private Inner(int order) {
+            this.keys = new Object[order + 1];
+            this.children = new Node[order + 2];
+        }
+    }
+
+    private final int order; // most keys in a node
+    private final int minKeys; // fewest keys in a node other than the root
+    private Node root; // a leaf while the tree fits into one, null when empty
+    private int size = 0; // the number of values in the tree
+    private int levels = 0; // the number of nodes on every path from the root to a leaf
+    private T splitKey; // smallest value of the node the last split made
+
+    /**
+     * this method creates an empty tree with the default order
+     */
+    public BPlusTree() {
+        this(DEFAULT_ORDER);
+    }
+
+    /**
+     * this method creates an empty tree
+     *
+     * @param order the number of values a node holds at most, at least 3
+     * @throws IllegalArgumentException when the order is smaller than 3
+     */
+    public BPlusTree(int order) throws IllegalArgumentException {
+        if (order < 3) {
+            throw new IllegalArgumentException("Order has to be at least 3, not " + order);
+        }
+        this.order = order;
+        this.minKeys = order / 2;
+    }
+
+    /**
+     * returns 0, a B+ tree splits and merges nodes instead of rotating
+     *
+     */
+    public int getLastRotations() {
+        return 0;
+    }
+
+    /**
+     * Helper method that binary searches the keys of a node
+     *
+     * @return the index of data, or -(insertion point) - 1 when it is not there
+     */
+    private static int search(Node node, Object data) {
+        return Arrays.binarySearch(node.keys, 0, node.count, data);
+    }
+
+    /**
+     * Helper method that finds the child of an inner node that data belongs into
+     */
+    private static int childIndex(Inner node, Object data) {
+        int index = search(node, data);
+        return index >= 0 ? index + 1 : -index - 1;
+    }
+
+    /**
+     * Helper method that walks down to the leaf that data belongs into
+     */
+    private Leaf findLeaf(T data) {
+        Node node = root;
+        while (node instanceof Inner) {
+            Inner inner = (Inner) node;
+            node = inner.children[childIndex(inner, data)];
+        }
+        return (Leaf) node;
+    }
+
+    /**
+     * Inserts data into the tree, splitting the nodes on its path that overflow.
+     * When the root splits, the tree grows one level at the top, so every leaf
+     * stays at the same depth.
+     *
+     * @param data to be added into this tree
+     * @return true if the value was inserted
+     * @throws NullPointerException     when the provided data argument is null
+     * @throws IllegalArgumentException when data is already contained in the tree
+     */
+    public boolean insert(T data) throws NullPointerException, IllegalArgumentException {
+        if (data == null) {
+            throw new NullPointerException("This BPlusTree cannot store null references.");
+        }
+        insertHelper(data);
+        return true;
+    }
+
+    /**
+     * The helper method that inserts data from the root without recording it
+     */
+    private void insertHelper(T data) throws IllegalArgumentException {
+        if (root == null) {
+            root = new Leaf(order);
+            levels = 1;
+        }
+        Node split = insertBelow(root, data);
+        if (split != null) {
+            Inner newRoot = new Inner(order);
+            newRoot.keys[0] = splitKey;
+            newRoot.children[0] = root;
+            newRoot.children[1] = split;
+            newRoot.count = 1;
+            root = newRoot;
+            levels++;
+        }
+        size++;
+    }
+
+    /**
+     * The helper method that inserts data into the subtree rooted at node
+     *
+     * @param node the root of the subtree
+     * @param data the value to insert
+     * @return the new right sibling when node had to be split, its smallest
+     *         value is left in splitKey, or null when node did not split
+     * @throws IllegalArgumentException when data is already contained in the tree
+     */
+    @SuppressWarnings("unchecked")
+    private Node insertBelow(Node node, T data) throws IllegalArgumentException {
+        if (node instanceof Leaf) {
+            Leaf leaf = (Leaf) node;
+            int index = search(leaf, data);
+            if (index >= 0) {
+                throw new IllegalArgumentException("This BPlusTree already contains value "
+                        + data.toString());
+            }
+            insertKey(leaf, -index - 1, data);
+            if (leaf.count <= order) {
+                return null;
+            }
+            // move the upper half into a new leaf behind this one
+            Leaf right = new Leaf(order);
+            int half = leaf.count / 2;
+            right.count = leaf.count - half;
+            System.arraycopy(leaf.keys, half, right.keys, 0, right.count);
+            Arrays.fill(leaf.keys, half, leaf.count, null);
+            leaf.count = half;
+            right.next = leaf.next;
+            leaf.next = right;
+            splitKey = (T) right.keys[0];
+            return right;
+        }
+        Inner inner = (Inner) node;
+        int child = childIndex(inner, data);
+        Node split = insertBelow(inner.children[child], data);
+        if (split == null) {
+            return null;
+        }
+        insertKey(inner, child, splitKey);
+        System.arraycopy(inner.children, child + 1, inner.children, child + 2,
+                inner.count - child - 1);
+        inner.children[child + 1] = split;
+        if (inner.count <= order) {
+            return null;
+        }
+        // the middle key moves up, the keys and children after it into a new node
+        Inner right = new Inner(order);
+        int middle = inner.count / 2;
+        right.count = inner.count - middle - 1;
+        System.arraycopy(inner.keys, middle + 1, right.keys, 0, right.count);
+        System.arraycopy(inner.children, middle + 1, right.children, 0, right.count + 1);
+        splitKey = (T) inner.keys[middle];
+        Arrays.fill(inner.keys, middle, inner.count, null);
+        Arrays.fill(inner.children, middle + 1, inner.count + 1, null);
+        inner.count = middle;
+        return right;
+    }
+
+    /**
+     * Helper method that puts a key at the given index of a node, shifting the
+     * keys after it
+     */
+    private static void insertKey(Node node, int index, Object key) {
+        System.arraycopy(node.keys, index, node.keys, index + 1, node.count - index);
+        node.keys[index] = key;
+        node.count++;
+    }
+
+    /**
+     * Helper method that takes the key at the given index out of a node
+     */
+    private static void removeKey(Node node, int index) {
+        System.arraycopy(node.keys, index + 1, node.keys, index, node.count - index - 1);
+        node.keys[--node.count] = null;
+    }
+
+    /**
+     * Inserts a batch of values that is sorted in ascending order. When the batch
+     * is at least as big as the tree, the batch and the stored values are merged
+     * and the tree is rebuilt bottom up in one linear pass, filling every node.
+     * Smaller batches are inserted one at a time. A small batch that fails part
+     * way keeps the values before the failing one.
+     *
+     * @param sortedData the values to add, sorted in ascending order
+     * @throws NullPointerException     when sortedData or one of its values is null
+     * @throws IllegalArgumentException when the batch is not sorted, holds the same
+     *                                  value twice or a value already in the tree
+     */
+    public void insertAllSorted(List<T> sortedData) throws NullPointerException, IllegalArgumentException {
+        if (sortedData == null) {
+            throw new NullPointerException("This BPlusTree cannot store null references.");
+        }
+        if (sortedData.size() < this.size) {
+            T previous = null;
+            for (T data : sortedData) {
+                checkNext(previous, data);
+                previous = data;
+                insertHelper(data);
+            }
+            return;
+        }
+        // merge the batch with the values already stored in the tree
+        List<T> merged = new ArrayList<T>(size + sortedData.size());
+        Iterator<T> current = iterator();
+        T stored = current.hasNext() ? current.next() : null;
+        T previous = null;
+        for (T data : sortedData) {
+            checkNext(previous, data);
+            previous = data;
+            while (stored != null && stored.compareTo(data) < 0) {
+                merged.add(stored);
+                stored = current.hasNext() ? current.next() : null;
+            }
+            if (stored != null && stored.compareTo(data) == 0) {
+                throw new IllegalArgumentException("This BPlusTree already contains value "
+                        + data.toString());
+            }
+            merged.add(data);
+        }
+        while (stored != null) {
+            merged.add(stored);
+            stored = current.hasNext() ? current.next() : null;
+        }
+        // rebuild only once the whole batch has been checked
+        buildFrom(merged);
+    }
+
+    /**
+     * Helper method that checks that a batch value is not null and bigger than
+     * the one before it
+     */
+    private static <T extends Comparable<T>> void checkNext(T previous, T data) {
+        if (data == null) {
+            throw new NullPointerException("This BPlusTree cannot store null references.");
+        }
+        if (previous != null && previous.compareTo(data) >= 0) {
+            throw new IllegalArgumentException("The batch is not sorted or contains value "
+                    + data.toString() + " twice");
+        }
+    }
+
+    /**
+     * The helper method that replaces the tree by one holding the given sorted
+     * values. Each level is cut into as few nodes as fit and the values are
+     * spread evenly over them, so no node is less than half full.
+     *
+     * @param sorted the values in ascending order, without duplicates
+     */
+    private void buildFrom(List<T> sorted) {
+        if (sorted.isEmpty()) {
+            clear();
+            return;
+        }
+        int leafCount = (sorted.size() + order - 1) / order;
+        List<Node> nodes = new ArrayList<Node>(leafCount);
+        List<Object> smallest = new ArrayList<Object>(leafCount); // smallest value below each node
+        Leaf previous = null;
+        int from = 0;
+        for (int i = 0; i < leafCount; i++) {
+            int to = (int) ((long) sorted.size() * (i + 1) / leafCount);
+            Leaf leaf = new Leaf(order);
+            for (int j = from; j < to; j++) {
+                leaf.keys[leaf.count++] = sorted.get(j);
+            }
+            if (previous != null) {
+                previous.next = leaf;
+            }
+            previous = leaf;
+            nodes.add(leaf);
+            smallest.add(leaf.keys[0]);
+            from = to;
+        }
+        levels = 1;
+        while (nodes.size() > 1) {
+            int parentCount = (nodes.size() + order) / (order + 1);
+            List<Node> parents = new ArrayList<Node>(parentCount);
+            List<Object> parentSmallest = new ArrayList<Object>(parentCount);
+            from = 0;
+            for (int i = 0; i < parentCount; i++) {
+                int to = (int) ((long) nodes.size() * (i + 1) / parentCount);
+                Inner inner = new Inner(order);
+                inner.children[0] = nodes.get(from);
+                for (int j = from + 1; j < to; j++) {
+                    inner.keys[inner.count] = smallest.get(j);
+                    inner.children[++inner.count] = nodes.get(j);
+                }
+                parents.add(inner);
+                parentSmallest.add(smallest.get(from));
+                from = to;
+            }
+            nodes = parents;
+            smallest = parentSmallest;
+            levels++;
+        }
+        root = nodes.get(0);
+        size = sorted.size();
+    }
+
+    /**
+     * Removes the value data from the tree. A node that falls below half full
+     * borrows a value from a sibling, or is merged with it when the sibling has
+     * none to spare. When the root is left with a single child, the tree shrinks
+     * one level at the top.
+     *
+     * @param data the value to remove
+     * @return true if the value was removed
+     * @throws NullPointerException     when the provided data argument is null
+     * @throws IllegalArgumentException when data is not stored in the tree
+     */
+    public boolean remove(T data) throws NullPointerException, IllegalArgumentException {
+        if (data == null) {
+            throw new NullPointerException("This BPlusTree cannot store null references.");
+        }
+        if (root == null) {
+            throw new IllegalArgumentException("The data is not found in the tree");
+        }
+        removeBelow(root, data);
+        size--;
+        if (root.count == 0) {
+            root = root instanceof Inner ? ((Inner) root).children[0] : null;
+            levels--;
+        }
+        return true;
+    }
+
+    /**
+     * The helper method that removes data from the subtree rooted at node and
+     * refills the child it was removed from
+     *
+     * @throws IllegalArgumentException when data is not stored in the subtree
+     */
+    private void removeBelow(Node node, T data) throws IllegalArgumentException {
+        if (node instanceof Leaf) {
+            int index = search(node, data);
+            if (index < 0) {
+                throw new IllegalArgumentException("The data is not found in the tree");
+            }
+            removeKey(node, index);
+            return;
+        }
+        Inner inner = (Inner) node;
+        int child = childIndex(inner, data);
+        removeBelow(inner.children[child], data);
+        if (inner.children[child].count < minKeys) {
+            refill(inner, child);
+        }
+    }
+
+    /**
+     * The helper method that brings the child at the given index of parent back
+     * to at least minKeys keys, by borrowing from a sibling or merging with it
+     */
+    private void refill(Inner parent, int child) {
+        Node node = parent.children[child];
+        Node left = child > 0 ? parent.children[child - 1] : null;
+        Node right = child < parent.count ? parent.children[child + 1] : null;
+        if (left != null && left.count > minKeys) {
+            borrowFromLeft(parent, child, left, node);
+        } else if (right != null && right.count > minKeys) {
+            borrowFromRight(parent, child, node, right);
+        } else if (left != null) {
+            merge(parent, child - 1, left, node);
+        } else {
+            merge(parent, child, node, right);
+        }
+    }
+
+    /**
+     * Helper method that moves the last value of left to the front of node
+     */
+    private static void borrowFromLeft(Inner parent, int child, Node left, Node node) {
+        if (node instanceof Leaf) {
+            insertKey(node, 0, left.keys[left.count - 1]);
+            parent.keys[child - 1] = node.keys[0];
+        } else {
+            Inner inner = (Inner) node;
+            Inner leftInner = (Inner) left;
+            System.arraycopy(inner.children, 0, inner.children, 1, inner.count + 1);
+            insertKey(inner, 0, parent.keys[child - 1]);
+            inner.children[0] = leftInner.children[left.count];
+            leftInner.children[left.count] = null;
+            parent.keys[child - 1] = left.keys[left.count - 1];
+        }
+        left.keys[--left.count] = null;
+    }
+
+    /**
+     * Helper method that moves the first value of right to the end of node
+     */
+    private static void borrowFromRight(Inner parent, int child, Node node, Node right) {
+        if (node instanceof Leaf) {
+            node.keys[node.count++] = right.keys[0];
+            removeKey(right, 0);
+            parent.keys[child] = right.keys[0];
+        } else {
+            Inner inner = (Inner) node;
+            Inner rightInner = (Inner) right;
+            inner.keys[inner.count] = parent.keys[child];
+            inner.children[++inner.count] = rightInner.children[0];
+            parent.keys[child] = right.keys[0];
+            System.arraycopy(rightInner.children, 1, rightInner.children, 0, right.count);
+            rightInner.children[right.count] = null;
+            removeKey(right, 0);
+        }
+    }
+
+    /**
+     * Helper method that moves everything of right into left and takes the key
+     * between them, at the given index, out of parent
+     */
+    private static void merge(Inner parent, int index, Node left, Node right) {
+        if (left instanceof Leaf) {
+            System.arraycopy(right.keys, 0, left.keys, left.count, right.count);
+            left.count += right.count;
+            ((Leaf) left).next = ((Leaf) right).next;
+        } else {
+            left.keys[left.count] = parent.keys[index];
+            System.arraycopy(right.keys, 0, left.keys, left.count + 1, right.count);
+            System.arraycopy(((Inner) right).children, 0, ((Inner) left).children, left.count + 1,
+                    right.count + 1);
+            left.count += right.count + 1;
+        }
+        removeKey(parent, index);
+        System.arraycopy(parent.children, index + 2, parent.children, index + 1,
+                parent.count - index);
+        parent.children[parent.count + 1] = null;
+    }
+
+    /**
+     * Checks whether the tree contains the value *data*.
+     *
+     * @param data the data value to test for
+     * @return true if *data* is in the tree, false if it is not in the tree
+     */
+    public boolean contains(T data) {
+        if (data == null) {
+            throw new NullPointerException("This BPlusTree cannot store null references.");
+        }
+        return root != null && search(findLeaf(data), data) >= 0;
+    }
+
+    /**
+     * Get the size of the tree (its number of values).
+     *
+     * @return the number of values in the tree
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Method to check if the tree is empty (does not contain any value).
+     *
+     * @return true of this.size() return 0, false if this.size() > 0
+     */
+    public boolean isEmpty() {
+        return this.size() == 0;
+    }
+
+    /**
+     * return the value in the tree that matches the data that user searched for
+     * by using compareTo method
+     *
+     * @param data the data value to search for
+     * @return returns a object that contains the data
+     * @throws NullPointerException     when the provided data argument is null
+     * @throws IllegalArgumentException when data is not stored in the tree
+     * @throws IllegalStateException    when the tree is empty
+     */
+    @SuppressWarnings("unchecked")
+    public T get(T data) throws IllegalArgumentException, IllegalStateException, NullPointerException {
+        if (data == null) {
+            throw new NullPointerException("Data is null");
+        }
+        if (isEmpty()) {
+            throw new IllegalStateException("The tree is empty");
+        }
+        Leaf leaf = findLeaf(data);
+        int index = search(leaf, data);
+        if (index < 0) {
+            throw new IllegalArgumentException("The data is not found in the tree");
+        }
+        return (T) leaf.keys[index];
+    }
+
+    /**
+     * Replaces the stored value that is equal to data, for example to update a
+     * song's details without removing and inserting it again
+     *
+     * @param data the new value
+     * @return the value that was replaced
+     * @throws NullPointerException     when the provided data argument is null
+     * @throws IllegalArgumentException when no equal value is stored in the tree
+     */
+    @SuppressWarnings("unchecked")
+    public T replace(T data) throws NullPointerException, IllegalArgumentException {
+        if (data == null) {
+            throw new NullPointerException("This BPlusTree cannot store null references.");
+        }
+        Leaf leaf = root == null ? null : findLeaf(data);
+        int index = leaf == null ? -1 : search(leaf, data);
+        if (index < 0) {
+            throw new IllegalArgumentException("The data is not found in the tree");
+        }
+        T old = (T) leaf.keys[index];
+        leaf.keys[index] = data;
+        return old;
+    }
+
+    /**
+     * Returns an iterator over the values of the tree in ascending order, which
+     * walks the linked leaves. The tree must not be changed while it is in use.
+     *
+     * @return the in-order iterator
+     */
+    public Iterator<T> iterator() {
+        Node first = root;
+        while (first instanceof Inner) {
+            first = ((Inner) first).children[0];
+        }
+        return new LeafIterator((Leaf) first, 0);
+    }
+
+    /**
+     * Returns an iterator over the values of the tree that are not smaller than
+     * the given value, in ascending order. Finding the first value takes one walk
+     * down the tree, so a range of k values costs O(log n + k).
+     *
+     * @param from the smallest value to return, it does not have to be in the tree
+     * @return the in-order iterator starting at from
+     * @throws NullPointerException when from is null
+     */
+    public Iterator<T> iteratorFrom(T from) throws NullPointerException {
+        if (from == null) {
+            throw new NullPointerException("Start value is null");
+        }
+        if (root == null) {
+            return new LeafIterator(null, 0);
+        }
+        Leaf leaf = findLeaf(from);
+        int index = search(leaf, from);
+        return new LeafIterator(leaf, index >= 0 ? index : -index - 1);
+    }
+
+    /**
+     * This class walks the linked leaves, starting at a given value of a leaf
+     */
+    private class LeafIterator implements Iterator<T> {
+        private Leaf leaf;
+        private int index;
+
+        private LeafIterator(Leaf leaf, int index) {
+            this.leaf = leaf;
+            this.index = index;
+            skipExhausted();
+        }
+
+        private void skipExhausted() {
+            while (leaf != null && index >= leaf.count) {
+                leaf = leaf.next;
+                index = 0;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return leaf != null;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T next() {
+            if (leaf == null) {
+                throw new NoSuchElementException();
+            }
+            T data = (T) leaf.keys[index++];
+            skipExhausted();
+            return data;
+        }
+    }
+
+    /**
+     * Looks up many values at once. The probes have to be sorted in ascending
+     * order, so a probe that falls into the leaf of the previous probe is found
+     * in that leaf without walking down from the root again.
+     *
+     * @param sortedProbes the values to search for, sorted in ascending order
+     * @return a list with the same length as sortedProbes holding the stored value
+     *         for each probe, or null where the probe is not in the tree
+     * @throws NullPointerException when sortedProbes or one of its values is null
+     */
+    @SuppressWarnings("unchecked")
+    public List<T> getAll(List<T> sortedProbes) throws NullPointerException {
+        if (sortedProbes == null) {
+            throw new NullPointerException("Probes are null");
+        }
+        List<T> found = new ArrayList<T>(sortedProbes.size());
+        Leaf leaf = null;
+        for (int i = 0; i < sortedProbes.size(); i++) {
+            T probe = sortedProbes.get(i);
+            if (probe == null) {
+                throw new NullPointerException("Probe " + i + " is null");
+            }
+            if (root == null) {
+                found.add(null);
+                continue;
+            }
+            if (leaf == null || leaf.count == 0 || probe.compareTo((T) leaf.keys[0]) < 0
+                    || probe.compareTo((T) leaf.keys[leaf.count - 1]) > 0) {
+                leaf = findLeaf(probe);
+            }
+            int index = search(leaf, probe);
+            found.add(index >= 0 ? (T) leaf.keys[index] : null);
+        }
+        return found;
+    }
+
+    /**
+     * clear the tree
+     */
+    public void clear() {
+        root = null;
+        size = 0;
+        levels = 0;
+    }
+
+    /**
+     * Removes every value from from up to but not including to. The range is
+     * read off the linked leaves; when it holds at least half of the values the
+     * rest is rebuilt in one pass, otherwise the values are removed one at a
+     * time.
+     *
+     * @param from the smallest value to remove
+     * @param to   the values removed are smaller than this one
+     * @return the removed values, in order
+     * @throws NullPointerException when from or to is null
+     */
+    public List<T> removeRange(T from, T to) throws NullPointerException {
+        if (from == null || to == null) {
+            throw new NullPointerException("This BPlusTree cannot store null references.");
+        }
+        List<T> removed = new ArrayList<T>();
+        for (Iterator<T> range = iteratorFrom(from); range.hasNext();) {
+            T data = range.next();
+            if (data.compareTo(to) >= 0) {
+                break;
+            }
+            removed.add(data);
+        }
+        if (removed.size() >= size - removed.size()) {
+            List<T> kept = new ArrayList<T>(size - removed.size());
+            for (T data : this) {
+                if (data.compareTo(from) < 0 || data.compareTo(to) >= 0) {
+                    kept.add(data);
+                }
+            }
+            buildFrom(kept);
+        } else {
+            for (T data : removed) {
+                remove(data);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Adds a batch of values that is sorted in ascending order and skips the
+     * values already stored
+     *
+     * @param sortedData the values to add, sorted in ascending order
+     * @return the values of the batch that were added, in order
+     * @throws NullPointerException     when sortedData or one of its values is null
+     * @throws IllegalArgumentException when the batch is not sorted or holds the same
+     *                                  value twice
+     */
+    public List<T> union(List<T> sortedData) throws NullPointerException, IllegalArgumentException {
+        List<T> added = new ArrayList<T>();
+        T previous = null;
+        for (T data : sortedData) {
+            checkNext(previous, data);
+            previous = data;
+        }
+        List<T> found = getAll(sortedData);
+        for (int i = 0; i < sortedData.size(); i++) {
+            if (found.get(i) == null) {
+                added.add(sortedData.get(i));
+            }
+        }
+        insertAllSorted(added);
+        return added;
+    }
+
+    /**
+     * Removes the stored values that are equal to a value of a batch that is
+     * sorted in ascending order
+     *
+     * @param sortedData the values to remove, sorted in ascending order
+     * @return the stored values that were removed, in order
+     * @throws NullPointerException     when sortedData or one of its values is null
+     * @throws IllegalArgumentException when the batch is not sorted or holds the same
+     *                                  value twice
+     */
+    public List<T> difference(List<T> sortedData) throws NullPointerException, IllegalArgumentException {
+        List<T> removed = new ArrayList<T>();
+        T previous = null;
+        for (T data : sortedData) {
+            checkNext(previous, data);
+            previous = data;
+        }
+        for (T data : getAll(sortedData)) {
+            if (data != null) {
+                removed.add(data);
+            }
+        }
+        for (T data : removed) {
+            remove(data);
+        }
+        return removed;
+    }
+
+    /**
+     * return a list of songs that start with what the user inputted
+     *
+     * @param key the string that user inputted
+     * @return returns the values whose string starts with the same letter as key
+     * @throws NullPointerException when the provided data argument is null
+     */
+    public List<T> findByInput(String key) throws NullPointerException {
+        if (key == null) {
+            throw new NullPointerException("key is null");
+        }
+        List<T> result = new ArrayList<T>();
+        char first = Character.toUpperCase(key.charAt(0));
+        for (T data : this) {
+            // same first letter test as RedBlackTree.findByInput
+            if (Character.toUpperCase(data.toString().charAt(0)) == first) {
+                result.add(data);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * returns the number of levels, all leaves of a B+ tree are on the same
+     * level, so every path from the root to a leaf has this many nodes
+     *
+     */
+    public int height() {
+        return levels;
+    }
+
+    /**
+     * returns the greatest height a B+ tree with this many values can have, when
+     * every node is only half full
+     *
+     */
+    public int heightBound() {
+        if (size == 0) {
+            return 0;
+        }
+        // a non-root leaf holds at least minKeys values, a non-root inner node has
+        // at least minKeys + 1 children, and the root has at least 2
+        int bound = 1;
+        long leaves = Math.max(size / minKeys, 1);
+        for (long reach = 2; reach <= leaves; reach *= minKeys + 1) {
+            bound++;
+        }
+        return bound;
+    }
+
+    /**
+     * Checks every invariant of the tree and throws on the first one that does
+     * not hold: the values are in ascending order inside every node and between
+     * the keys of their parents, every node but the root is at least half full,
+     * every leaf is on the same level, the leaves are linked in order, and the
+     * size matches the values. This walks the whole tree.
+     *
+     * @throws IllegalStateException describing the first violation found
+     */
+    public void verify() throws IllegalStateException {
+        if (root == null) {
+            if (size != 0 || levels != 0) {
+                throw new IllegalStateException("Empty tree has size " + size + " and "
+                        + levels + " levels");
+            }
+            return;
+        }
+        List<Leaf> leaves = new ArrayList<Leaf>();
+        verifyHelper(root, null, null, 1, leaves);
+        int values = 0;
+        for (int i = 0; i < leaves.size(); i++) {
+            Leaf next = i + 1 < leaves.size() ? leaves.get(i + 1) : null;
+            if (leaves.get(i).next != next) {
+                throw new IllegalStateException("Leaf " + i + " is not linked to the leaf after it");
+            }
+            values += leaves.get(i).count;
+        }
+        if (values != size) {
+            throw new IllegalStateException("Size is " + size + " but the tree has " + values
+                    + " values");
+        }
+    }
+
+    /**
+     * The helper method that checks a subtree whose values have to lie between
+     * low, inclusive, and high, exclusive
+     *
+     * @param node   the root of the subtree, not null
+     * @param low    every value has to be at least this, null for no bound
+     * @param high   every value has to be smaller, null for no bound
+     * @param depth  number of nodes from the root down to node
+     * @param leaves receives the leaves in order
+     */
+    @SuppressWarnings("unchecked")
+    private void verifyHelper(Node node, T low, T high, int depth, List<Leaf> leaves) {
+        if (node.count > order || (node != root && node.count < minKeys)
+                || (node != root && node.count == 0)) {
+            throw new IllegalStateException("Node at depth " + depth + " holds " + node.count
+                    + " keys");
+        }
+        for (int i = 0; i < node.count; i++) {
+            T key = (T) node.keys[i];
+            if (key == null || (i > 0 && ((T) node.keys[i - 1]).compareTo(key) >= 0)
+                    || (low != null && key.compareTo(low) < 0)
+                    || (high != null && key.compareTo(high) >= 0)) {
+                throw new IllegalStateException(key + " is out of order");
+            }
+        }
+        if (node instanceof Leaf) {
+            if (depth != levels) {
+                throw new IllegalStateException("Leaf at depth " + depth + " in a tree of "
+                        + levels + " levels");
+            }
+            leaves.add((Leaf) node);
+            return;
+        }
+        Inner inner = (Inner) node;
+        if (inner.count == 0) {
+            throw new IllegalStateException("Inner node at depth " + depth + " has one child");
+        }
+        for (int i = 0; i <= inner.count; i++) {
+            if (inner.children[i] == null) {
+                throw new IllegalStateException("Inner node at depth " + depth + " misses child " + i);
+            }
+            verifyHelper(inner.children[i], i == 0 ? low : (T) inner.keys[i - 1],
+                    i == inner.count ? high : (T) inner.keys[i], depth + 1, leaves);
+        }
+    }
+
+}
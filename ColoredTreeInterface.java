@@ -0,0 +1,16 @@
+/**
+ * The colors of a red-black tree, on top of its shape. Only the red-black
+ * tree implements it.
+ */
+public interface ColoredTreeInterface extends TreeShapeInterface {
+
+    // gets the number of black nodes within the RBT
+    public int getNumBlackNodes();
+
+    // gets the number of the red nodes within the RBT
+    public int getNumRedNodes();
+
+    // gets the number of black nodes on every path from the root to a leaf
+    public int blackHeight();
+
+}
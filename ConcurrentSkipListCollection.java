@@ -0,0 +1,374 @@
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class stores the values in a ConcurrentSkipListMap, so any number of
+ * threads can look up, insert and remove at the same time without a lock. It
+ * keeps the semantics of RedBlackTree: get returns the stored value, inserting
+ * a value twice or removing a missing one throws, and findByInput matches the
+ * first letter. The size is counted on the side, because the map counts its
+ * entries by walking them. The count is changed right after the map, so while
+ * inserts and removes are running it may be off by the number of them; once
+ * they are done it is exact.
+ *
+ * Iterators are weakly consistent: they never throw because of a concurrent
+ * change, and may or may not see values inserted or removed while they walk.
+ */
+public class ConcurrentSkipListCollection<T extends Comparable<T>> implements RedBlackTreeInterface<T> {
+
+    private ConcurrentSkipListMap<T, T> values = new ConcurrentSkipListMap<T, T>(); // each value maps to itself
+    private AtomicInteger size = new AtomicInteger();
+
+    /**
+     * returns 0, a skip list does not rotate
+     *
+     */
+    public int getLastRotations() {
+        return 0;
+    }
+
+    /**
+     * Inserts data into the collection
+     *
+     * @param data to be added into this collection
+     * @return true if the value was inserted
+     * @throws NullPointerException     when the provided data argument is null
+     * @throws IllegalArgumentException when data is already contained in the collection
+     */
+    public boolean insert(T data) throws NullPointerException, IllegalArgumentException {
+        if (data == null) {
+            throw new NullPointerException("This ConcurrentSkipListCollection cannot store null references.");
+        }
+        insertHelper(data);
+        return true;
+    }
+
+    /**
+     * The helper method that inserts data without recording it
+     */
+    private void insertHelper(T data) throws IllegalArgumentException {
+        if (values.putIfAbsent(data, data) != null) {
+            throw new IllegalArgumentException("This ConcurrentSkipListCollection already contains value "
+                    + data.toString());
+        }
+        size.incrementAndGet();
+    }
+
+    /**
+     * Inserts a batch of values that is sorted in ascending order. The whole
+     * batch is checked for order before the first insert, but the values are
+     * inserted one at a time, so other threads can see part of the batch, and a
+     * batch that fails on a value already in the collection keeps the values
+     * before the failing one.
+     *
+     * @param sortedData the values to add, sorted in ascending order
+     * @throws NullPointerException     when sortedData or one of its values is null
+     * @throws IllegalArgumentException when the batch is not sorted, holds the same
+     *                                  value twice or a value already in the collection
+     */
+    public void insertAllSorted(List<T> sortedData) throws NullPointerException, IllegalArgumentException {
+        checkSorted(sortedData);
+        for (T data : sortedData) {
+            insertHelper(data);
+        }
+    }
+
+    /**
+     * Removes the value data from the collection
+     *
+     * @param data the value to remove
+     * @return true if the value was removed
+     * @throws NullPointerException     when the provided data argument is null
+     * @throws IllegalArgumentException when data is not stored in the collection
+     */
+    public boolean remove(T data) throws NullPointerException, IllegalArgumentException {
+        if (data == null) {
+            throw new NullPointerException("This ConcurrentSkipListCollection cannot store null references.");
+        }
+        if (values.remove(data) == null) {
+            throw new IllegalArgumentException("The data is not found in the tree");
+        }
+        size.decrementAndGet();
+        return true;
+    }
+
+    /**
+     * Replaces the stored value that is equal to data, for example to update a
+     * song's details without removing and inserting it again
+     *
+     * @param data the new value
+     * @return the value that was replaced
+     * @throws NullPointerException     when the provided data argument is null
+     * @throws IllegalArgumentException when no equal value is stored in the collection
+     */
+    public T replace(T data) throws NullPointerException, IllegalArgumentException {
+        if (data == null) {
+            throw new NullPointerException("This ConcurrentSkipListCollection cannot store null references.");
+        }
+        T old = values.replace(data, data);
+        if (old == null) {
+            throw new IllegalArgumentException("The data is not found in the tree");
+        }
+        return old;
+    }
+
+    /**
+     * Checks whether the collection contains the value *data*.
+     *
+     * @param data the data value to test for
+     * @return true if *data* is in the collection, false if it is not
+     */
+    public boolean contains(T data) {
+        if (data == null) {
+            throw new NullPointerException("This ConcurrentSkipListCollection cannot store null references.");
+        }
+        return values.containsKey(data);
+    }
+
+    /**
+     * Get the number of values in the collection, approximate while other
+     * threads insert or remove
+     *
+     * @return the number of values
+     */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * Method to check if the collection is empty (does not contain any value).
+     *
+     * @return true of this.size() return 0, false if this.size() > 0
+     */
+    public boolean isEmpty() {
+        return this.size() == 0;
+    }
+
+    /**
+     * return the value in the collection that matches the data that user
+     * searched for by using compareTo method
+     *
+     * @param data the data value to search for
+     * @return returns a object that contains the data
+     * @throws NullPointerException     when the provided data argument is null
+     * @throws IllegalArgumentException when data is not stored in the collection
+     * @throws IllegalStateException    when the collection is empty
+     */
+    public T get(T data) throws IllegalArgumentException, IllegalStateException, NullPointerException {
+        if (data == null) {
+            throw new NullPointerException("Data is null");
+        }
+        T stored = values.get(data);
+        if (stored == null) {
+            if (values.isEmpty()) {
+                throw new IllegalStateException("The tree is empty");
+            }
+            throw new IllegalArgumentException("The data is not found in the tree");
+        }
+        return stored;
+    }
+
+    /**
+     * Looks up many values at once
+     *
+     * @param sortedProbes the values to search for, sorted in ascending order
+     * @return a list with the same length as sortedProbes holding the stored value
+     *         for each probe, or null where the probe is not in the collection
+     * @throws NullPointerException when sortedProbes or one of its values is null
+     */
+    public List<T> getAll(List<T> sortedProbes) throws NullPointerException {
+        if (sortedProbes == null) {
+            throw new NullPointerException("Probes are null");
+        }
+        List<T> found = new ArrayList<T>(sortedProbes.size());
+        for (int i = 0; i < sortedProbes.size(); i++) {
+            T probe = sortedProbes.get(i);
+            if (probe == null) {
+                throw new NullPointerException("Probe " + i + " is null");
+            }
+            found.add(values.get(probe));
+        }
+        return found;
+    }
+
+    /**
+     * Returns a weakly consistent iterator over the values in ascending order
+     *
+     * @return the in-order iterator
+     */
+    public Iterator<T> iterator() {
+        return values.values().iterator();
+    }
+
+    /**
+     * Returns a weakly consistent iterator over the values that are not smaller
+     * than the given value, in ascending order
+     *
+     * @param from the smallest value to return, it does not have to be stored
+     * @return the in-order iterator starting at from
+     * @throws NullPointerException when from is null
+     */
+    public Iterator<T> iteratorFrom(T from) throws NullPointerException {
+        if (from == null) {
+            throw new NullPointerException("Start value is null");
+        }
+        return values.tailMap(from, true).values().iterator();
+    }
+
+    /**
+     * clear the collection, values inserted by other threads at the same time
+     * may stay
+     */
+    public void clear() {
+        for (T data : values.keySet()) {
+            if (values.remove(data) != null) {
+                size.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Removes every value from from up to but not including to. Each value is
+     * removed on its own, so other threads can see part of the range gone.
+     *
+     * @param from the smallest value to remove
+     * @param to   the values removed are smaller than this one
+     * @return the removed values, in order
+     * @throws NullPointerException when from or to is null
+     */
+    public List<T> removeRange(T from, T to) throws NullPointerException {
+        if (from == null || to == null) {
+            throw new NullPointerException("This ConcurrentSkipListCollection cannot store null references.");
+        }
+        List<T> removed = new ArrayList<T>();
+        if (from.compareTo(to) >= 0) {
+            return removed;
+        }
+        for (T data : values.subMap(from, true, to, false).keySet()) {
+            T old = values.remove(data);
+            if (old != null) {
+                size.decrementAndGet();
+                removed.add(old);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Adds a batch of values that is sorted in ascending order and skips the
+     * values already stored
+     *
+     * @param sortedData the values to add, sorted in ascending order
+     * @return the values of the batch that were added, in order
+     * @throws NullPointerException     when sortedData or one of its values is null
+     * @throws IllegalArgumentException when the batch is not sorted or holds the same
+     *                                  value twice
+     */
+    public List<T> union(List<T> sortedData) throws NullPointerException, IllegalArgumentException {
+        checkSorted(sortedData);
+        List<T> added = new ArrayList<T>();
+        for (T data : sortedData) {
+            if (values.putIfAbsent(data, data) == null) {
+                size.incrementAndGet();
+                added.add(data);
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Removes the stored values that are equal to a value of a batch that is
+     * sorted in ascending order
+     *
+     * @param sortedData the values to remove, sorted in ascending order
+     * @return the stored values that were removed, in order
+     * @throws NullPointerException     when sortedData or one of its values is null
+     * @throws IllegalArgumentException when the batch is not sorted or holds the same
+     *                                  value twice
+     */
+    public List<T> difference(List<T> sortedData) throws NullPointerException, IllegalArgumentException {
+        checkSorted(sortedData);
+        List<T> removed = new ArrayList<T>();
+        for (T data : sortedData) {
+            T old = values.remove(data);
+            if (old != null) {
+                size.decrementAndGet();
+                removed.add(old);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Helper method that checks that a batch is sorted and holds no null or
+     * value twice
+     */
+    private static <T extends Comparable<T>> void checkSorted(List<T> sortedData) {
+        if (sortedData == null) {
+            throw new NullPointerException("This ConcurrentSkipListCollection cannot store null references.");
+        }
+        T previous = null;
+        for (T data : sortedData) {
+            if (data == null) {
+                throw new NullPointerException("This ConcurrentSkipListCollection cannot store null references.");
+            }
+            if (previous != null && previous.compareTo(data) >= 0) {
+                throw new IllegalArgumentException("The batch is not sorted or contains value "
+                        + data.toString() + " twice");
+            }
+            previous = data;
+        }
+    }
+
+    /**
+     * return a list of songs that start with what the user inputted
+     *
+     * @param key the string that user inputted
+     * @return returns the values whose string starts with the same letter as key
+     * @throws NullPointerException when the provided data argument is null
+     */
+    public List<T> findByInput(String key) throws NullPointerException {
+        if (key == null) {
+            throw new NullPointerException("key is null");
+        }
+        List<T> result = new ArrayList<T>();
+        for (T data : values.values()) {
+            // same first letter test as RedBlackTree.findByInput
+            if (Character.toUpperCase(data.toString().charAt(0)) == Character.toUpperCase(key.charAt(0))) {
+                result.add(data);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Checks that the values are in ascending order and that every value maps to
+     * itself and is counted. Only meaningful while no other thread changes the
+     * collection.
+     *
+     * @throws IllegalStateException describing the first violation found
+     */
+    public void verify() throws IllegalStateException {
+        T previous = null;
+        int count = 0;
+        for (Map.Entry<T, T> entry : values.entrySet()) {
+            if (entry.getKey().compareTo(entry.getValue()) != 0) {
+                throw new IllegalStateException(entry.getKey() + " maps to " + entry.getValue());
+            }
+            if (previous != null && previous.compareTo(entry.getKey()) >= 0) {
+                throw new IllegalStateException(entry.getKey() + " is out of order");
+            }
+            previous = entry.getKey();
+            count++;
+        }
+        if (count != size.get()) {
+            throw new IllegalStateException("Size is " + size.get() + " but the collection has "
+                    + count + " values");
+        }
+    }
+
+}
@@ -0,0 +1,138 @@
+import java.util.Arrays;
+
+/**
+ * This class estimates how often every string was counted, in constant
+ * memory. It keeps a few rows of counters, every row hashes a string to one
+ * of its counters and adds the count there. Other strings that land on the
+ * same counter only ever add to it, so the smallest counter of a string is the
+ * best estimate and never too low while no count is taken back. With w
+ * counters per row the estimate is off by at most 2 / w of the total count
+ * with a probability of 1 - 2^-depth.
+ *
+ * Counts can be taken back by adding a negative count. Two sketches of the
+ * same size can be merged, the result counts the strings counted by either.
+ */
+public class CountMinSketch {
+
+    private int depth;
+    private int mask; // counters per row minus 1, the width is a power of two
+    private long[] counters; // row after row
+    private long total;
+
+    /**
+     * this method creates an empty sketch
+     *
+     * @param depth number of rows, from 1 to 16
+     * @param width counters per row, rounded up to a power of two
+     * @throws IllegalArgumentException when depth or width are out of range
+     */
+    public CountMinSketch(int depth, int width) throws IllegalArgumentException {
+        if (depth < 1 || depth > 16 || width < 1 || width > (1 << 24)) {
+            throw new IllegalArgumentException("A sketch needs 1 to 16 rows of 1 to 2^24 counters");
+        }
+        int rounded = Integer.highestOneBit(width);
+        if (rounded < width) {
+            rounded <<= 1;
+        }
+        this.depth = depth;
+        this.mask = rounded - 1;
+        this.counters = new long[depth * rounded];
+    }
+
+    /**
+     * this method counts a string
+     *
+     * @param value the string
+     * @param count how often to count it, negative to take counts back
+     * @return the estimated count of the string afterwards
+     * @throws NullPointerException when the string is null
+     */
+    public long add(String value, long count) throws NullPointerException {
+        long hash = HyperLogLog.hash(value);
+        int first = (int) hash;
+        int second = (int) (hash >>> 32) | 1;
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            int index = indexOf(row, first, second);
+            counters[index] += count;
+            estimate = Math.min(estimate, counters[index]);
+        }
+        total += count;
+        return Math.max(0, estimate);
+    }
+
+    /**
+     * Helper method that finds the counter of a string in a row, the rows use
+     * the combinations first + row * second of two hashes of the string
+     */
+    private int indexOf(int row, int first, int second) {
+        return row * (mask + 1) + ((first + row * second) & mask);
+    }
+
+    /**
+     * get the estimated count of a string
+     *
+     * @param value the string
+     * @return the smallest counter of the string, never below 0
+     * @throws NullPointerException when the string is null
+     */
+    public long estimate(String value) throws NullPointerException {
+        long hash = HyperLogLog.hash(value);
+        int first = (int) hash;
+        int second = (int) (hash >>> 32) | 1;
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            estimate = Math.min(estimate, counters[indexOf(row, first, second)]);
+        }
+        return Math.max(0, estimate);
+    }
+
+    /**
+     * get the sum of all counts
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * this method adds the counts of another sketch
+     *
+     * @param other a sketch with as many rows and counters
+     * @throws IllegalArgumentException when the sizes differ
+     */
+    public void merge(CountMinSketch other) throws IllegalArgumentException {
+        if (other.depth != depth || other.mask != mask) {
+            throw new IllegalArgumentException("Cannot merge sketches of different sizes");
+        }
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] += other.counters[i];
+        }
+        total += other.total;
+    }
+
+    /**
+     * get an independent copy of this sketch
+     */
+    public CountMinSketch copy() {
+        CountMinSketch copy = new CountMinSketch(depth, mask + 1);
+        System.arraycopy(counters, 0, copy.counters, 0, counters.length);
+        copy.total = total;
+        return copy;
+    }
+
+    /**
+     * this method forgets all counts
+     */
+    public void clear() {
+        Arrays.fill(counters, 0);
+        total = 0;
+    }
+
+    /**
+     * get the size of the counters in bytes
+     */
+    public int sizeInBytes() {
+        return counters.length * 8;
+    }
+
+}
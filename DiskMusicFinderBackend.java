@@ -0,0 +1,532 @@
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * This class serves a read-only playlist from a DiskSongIndex, for playlists
+ * bigger than the heap: only the pages in the index's buffer pool are kept in
+ * memory, besides the popularity rankings and the statistics, which do not
+ * grow with the playlist. Lookups, prefix and range queries walk the index
+ * like they walk a tree; artist, genre and similarity queries read every
+ * page, since there is no in-memory index for them.
+ *
+ * Songs cannot be added or removed one at a time. Loading a csv file replaces
+ * the playlist: the file is sorted and written to the index file, and later
+ * starts open the index without reading the csv file again. Files bigger than
+ * one run are sorted outside the heap: every run of songs is sorted and
+ * written to a temporary index, and the runs are merged into the index file,
+ * so a load keeps one run and one page per run in memory.
+ */
+public class DiskMusicFinderBackend implements MusicFinderBackendInterface {
+
+    /**
+     * The number of pages kept in memory when none is given, 32 MB of 8 KB pages
+     */
+    public static final int DEFAULT_POOL_PAGES = 4096;
+
+    private static final int RANKING_SIZE = 50; // songs kept by every popularity ranking
+    private static final int RUN_SONGS = 100000; // songs sorted in memory at once by a load
+
+    private String indexFile;
+    private int poolPages;
+    private SongReaderInterface songReader;
+    private DiskSongIndex index;
+    private SongRankings rankings;
+    private SongStatistics statistics;
+    private LoadProgress backgroundLoad; // the last load started in the background, or null
+    // reads share the lock, a load takes it only to swap in the new index
+    private ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * this method opens the index file, or creates an empty one when there is none
+     *
+     * @param indexFile  the file of the index
+     * @param poolPages  the most pages kept in memory at once
+     * @param songReader reader for the csv files that are loaded
+     * @throws IOException              when the file cannot be read, written or is not an index
+     * @throws IllegalArgumentException when poolPages is not positive
+     */
+    public DiskMusicFinderBackend(String indexFile, int poolPages, SongReaderInterface songReader)
+            throws IOException, IllegalArgumentException {
+        this.indexFile = indexFile;
+        this.poolPages = poolPages;
+        this.songReader = songReader;
+        if (!new File(indexFile).exists()) {
+            DiskSongIndex.write(indexFile, Collections.<SongInterface>emptyList(),
+                    DiskSongIndex.DEFAULT_PAGE_SIZE);
+        }
+        open(new DiskSongIndex(indexFile, poolPages));
+    }
+
+    /**
+     * Helper method that makes an index the playlist and counts its songs into
+     * new rankings and statistics, in one pass over the index
+     */
+    private void open(DiskSongIndex opened) {
+        SongRankings newRankings = new SongRankings(RANKING_SIZE, () -> opened);
+        SongStatistics newStatistics = new SongStatistics(() -> opened);
+        for (SongInterface song : opened) {
+            newRankings.changed(null, song);
+            newStatistics.changed(null, song);
+        }
+        index = opened;
+        rankings = newRankings;
+        statistics = newStatistics;
+    }
+
+    /**
+     * Replaces the playlist with the songs of a csv file. The new index is
+     * written next to the old one, which answers the lookups until the new one
+     * takes its place.
+     *
+     * @param filename csv file to load
+     * @throws FileNotFoundException    when the file does not exist
+     * @throws IllegalArgumentException when a title is in the file twice
+     * @throws UncheckedIOException     when the index cannot be written
+     */
+    @Override
+    public void loadData(String filename) throws FileNotFoundException {
+        load(filename, null);
+    }
+
+    /**
+     * Helper method that loads a csv file into a new index and swaps it in
+     *
+     * @param progress counts the bytes read, null when there is none
+     */
+    private void load(String filename, LoadProgress progress) throws FileNotFoundException {
+        Path path = Paths.get(indexFile);
+        Path temporary = path.resolveSibling(".load-" + path.getFileName());
+        List<Path> runFiles = new ArrayList<Path>();
+        List<DiskSongIndex> runs = new ArrayList<DiskSongIndex>();
+        DiskSongIndex opened;
+        try {
+            List<SongInterface> run = new ArrayList<SongInterface>();
+            Consumer<SongInterface> collect = song -> {
+                run.add(song);
+                if (run.size() == RUN_SONGS) {
+                    runFiles.add(path.resolveSibling(".run" + runFiles.size() + "-" + path.getFileName()));
+                    writeRun(run, runFiles.get(runFiles.size() - 1), filename);
+                    run.clear();
+                }
+            };
+            if (progress == null) {
+                songReader.readMusicFromFile(filename, collect);
+            } else {
+                songReader.readMusicFromFile(filename, collect, progress::setBytesRead);
+            }
+            if (runFiles.isEmpty()) {
+                writeRun(run, temporary, filename); // the file fits into one run
+            } else {
+                if (!run.isEmpty()) {
+                    runFiles.add(path.resolveSibling(".run" + runFiles.size() + "-" + path.getFileName()));
+                    writeRun(run, runFiles.get(runFiles.size() - 1), filename);
+                }
+                run.clear();
+                for (Path runFile : runFiles) {
+                    runs.add(new DiskSongIndex(runFile.toString(), 2));
+                }
+                DiskSongIndex.write(temporary.toString(), () -> merge(runs, filename),
+                        DiskSongIndex.DEFAULT_PAGE_SIZE);
+            }
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            opened = new DiskSongIndex(indexFile, poolPages);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write the index " + indexFile, e);
+        } finally {
+            for (DiskSongIndex run : runs) {
+                try {
+                    run.close();
+                } catch (IOException e) {
+                    // the run is deleted anyway
+                }
+            }
+            for (Path runFile : runFiles) {
+                runFile.toFile().delete();
+            }
+            temporary.toFile().delete(); // only left when the load failed
+        }
+        DiskSongIndex old;
+        lock.writeLock().lock();
+        try {
+            old = index;
+            open(opened);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (progress != null) {
+            progress.addSongsLoaded(opened.size());
+        }
+        try {
+            old.close(); // no reader holds it any more, the answers are lists
+        } catch (IOException e) {
+            // the new index is in place, the old file is gone either way
+        }
+    }
+
+    /**
+     * Helper method that sorts a run of songs and writes it to an index file
+     *
+     * @throws IllegalArgumentException when a title is in the run twice
+     * @throws UncheckedIOException     when the file cannot be written
+     */
+    private static void writeRun(List<SongInterface> run, Path file, String filename) {
+        run.sort(null);
+        for (int i = 1; i < run.size(); i++) {
+            if (run.get(i).compareTo(run.get(i - 1)) == 0) {
+                throw new IllegalArgumentException(run.get(i).getTitle() + " is in " + filename
+                        + " twice");
+            }
+        }
+        try {
+            DiskSongIndex.write(file.toString(), run, DiskSongIndex.DEFAULT_PAGE_SIZE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write the run " + file, e);
+        }
+    }
+
+    /**
+     * Helper method that merges sorted runs: a heap holds the next song of
+     * every run, ordered by title
+     *
+     * @return the songs of all runs in title order
+     * @throws IllegalArgumentException while merging, when two runs hold the same title
+     */
+    private static Iterator<SongInterface> merge(List<DiskSongIndex> runs, String filename) {
+        PriorityQueue<Map.Entry<SongInterface, Iterator<SongInterface>>> heads =
+                new PriorityQueue<Map.Entry<SongInterface, Iterator<SongInterface>>>(
+                        Math.max(runs.size(), 1), Map.Entry.comparingByKey());
+        for (DiskSongIndex run : runs) {
+            Iterator<SongInterface> songs = run.iterator();
+            if (songs.hasNext()) {
+                heads.add(new AbstractMap.SimpleEntry<SongInterface, Iterator<SongInterface>>(
+                        songs.next(), songs));
+            }
+        }
+        return new Iterator<SongInterface>() {
+            private SongInterface last;
+
+            @Override
+            public boolean hasNext() {
+                return !heads.isEmpty();
+            }
+
+            @Override
+            public SongInterface next() {
+                Map.Entry<SongInterface, Iterator<SongInterface>> head = heads.poll();
+                if (head == null) {
+                    throw new NoSuchElementException("No more songs");
+                }
+                SongInterface song = head.getKey();
+                if (last != null && last.compareTo(song) == 0) {
+                    throw new IllegalArgumentException(song.getTitle() + " is in " + filename
+                            + " twice");
+                }
+                last = song;
+                Iterator<SongInterface> rest = head.getValue();
+                if (rest.hasNext()) {
+                    heads.add(new AbstractMap.SimpleEntry<SongInterface, Iterator<SongInterface>>(
+                            rest.next(), rest));
+                }
+                return song;
+            }
+        };
+    }
+
+    @Override
+    public synchronized LoadProgress loadDataInBackground(String filename)
+            throws FileNotFoundException, IllegalStateException {
+        File file = new File(filename);
+        if (!file.isFile()) {
+            throw new FileNotFoundException(filename + " does not exist");
+        }
+        if (backgroundLoad != null && !backgroundLoad.isDone()) {
+            throw new IllegalStateException("Still loading " + backgroundLoad);
+        }
+        LoadProgress progress = new LoadProgress(filename, file.length());
+        backgroundLoad = progress;
+        Thread loader = new Thread(() -> {
+            try {
+                load(filename, progress);
+                progress.finish(null);
+            } catch (FileNotFoundException e) {
+                progress.finish(new UncheckedIOException(filename + " vanished during the load", e));
+            } catch (RuntimeException e) {
+                progress.finish(e);
+            }
+        }, "music-finder-loader");
+        loader.setDaemon(true);
+        loader.start();
+        return progress;
+    }
+
+    @Override
+    public synchronized LoadProgress getLoadProgress() {
+        return backgroundLoad;
+    }
+
+    @Override
+    public String findSongByTitle(String words)
+            throws IllegalArgumentException, IllegalStateException, NullPointerException {
+        SongInterface song = findSong(words);
+        return song.getArtist() + ", " + MusicFinderBackendInterface.formatDuration(song.getDuration());
+    }
+
+    @Override
+    public SongInterface findSong(String title)
+            throws IllegalArgumentException, IllegalStateException, NullPointerException {
+        lock.readLock().lock();
+        try {
+            return index.get(title);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public String getDurationByTitle(String words)
+            throws IllegalArgumentException, IllegalStateException, NullPointerException {
+        return MusicFinderBackendInterface.formatDuration(findSong(words).getDuration());
+    }
+
+    @Override
+    public String getArtistByTitle(String words)
+            throws IllegalArgumentException, IllegalStateException, NullPointerException {
+        return findSong(words).getArtist();
+    }
+
+    @Override
+    public SongLookupResult findSongsByTitles(Collection<String> titles) throws NullPointerException {
+        if (titles == null) {
+            throw new NullPointerException("Titles are null");
+        }
+        // sorted, so neighbouring titles find their leaf in the pool
+        List<String> sorted = new ArrayList<String>(new TreeSet<String>(titles));
+        lock.readLock().lock();
+        try {
+            List<SongInterface> songs = index.getAll(sorted);
+            Map<String, SongInterface> found = new LinkedHashMap<String, SongInterface>();
+            List<String> missing = new ArrayList<String>();
+            for (int i = 0; i < sorted.size(); i++) {
+                if (songs.get(i) != null) {
+                    found.put(sorted.get(i), songs.get(i));
+                } else {
+                    missing.add(sorted.get(i));
+                }
+            }
+            return new SongLookupResult(found, missing);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<SongInterface> findSongsByPrefix(String prefix, int limit) throws NullPointerException {
+        if (prefix == null) {
+            throw new NullPointerException("Prefix is null");
+        }
+        return findSongs(prefix, song -> song.getTitle().startsWith(prefix), song -> true, limit);
+    }
+
+    @Override
+    public List<SongInterface> findSongsInRange(String fromTitle, String toTitle, int limit)
+            throws NullPointerException {
+        if (fromTitle == null) {
+            throw new NullPointerException("Range bound is null");
+        }
+        return findSongs(fromTitle, song -> toTitle == null || song.getTitle().compareTo(toTitle) < 0,
+                song -> true, limit);
+    }
+
+    @Override
+    public List<SongInterface> findSongsByArtist(String artist, int limit) throws NullPointerException {
+        if (artist == null) {
+            throw new NullPointerException("Artist is null");
+        }
+        // songs are sorted by title, so every page has to be read
+        return findSongs("", song -> true, song -> song.getArtist().equals(artist), limit);
+    }
+
+    /**
+     * Helper method that walks the index from the first title not smaller than
+     * from for as long as the songs stay in the run, and keeps the songs that
+     * pass the filter
+     *
+     * @param from   title to start at
+     * @param inRun  the walk stops at the first song that fails this test
+     * @param filter test the returned songs have to pass
+     * @param limit  most songs to return
+     * @return the matching songs sorted by title
+     */
+    private List<SongInterface> findSongs(String from, Predicate<SongInterface> inRun,
+            Predicate<SongInterface> filter, int limit) {
+        lock.readLock().lock();
+        try {
+            List<SongInterface> songs = new ArrayList<SongInterface>();
+            Iterator<SongInterface> run = index.iteratorFrom(from);
+            while (songs.size() < limit && run.hasNext()) {
+                SongInterface song = run.next();
+                if (!inRun.test(song)) {
+                    break;
+                }
+                if (filter.test(song)) {
+                    songs.add(song);
+                }
+            }
+            return songs;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Finds the songs whose audio features are closest to the given song's by
+     * comparing with every song of the index, keeping the k closest in a heap
+     */
+    @Override
+    public List<SongInterface> findSimilarSongs(String title, int k)
+            throws IllegalArgumentException, IllegalStateException, NullPointerException {
+        lock.readLock().lock();
+        try {
+            SongInterface song = index.get(title);
+            if (song.getFeatures() == null) {
+                throw new IllegalArgumentException(title + " has no audio features");
+            }
+            Comparator<SongInterface> closer =
+                    Comparator.comparingDouble(other -> SongFeatureIndex.distance(song, other));
+            // the farthest of the k closest so far on top
+            PriorityQueue<SongInterface> nearest = new PriorityQueue<SongInterface>(closer.reversed());
+            for (SongInterface other : index) {
+                if (k <= 0) {
+                    break;
+                }
+                if (other.getFeatures() == null || other.compareTo(song) == 0) {
+                    continue;
+                }
+                nearest.add(other);
+                if (nearest.size() > k) {
+                    nearest.poll();
+                }
+            }
+            List<SongInterface> songs = new ArrayList<SongInterface>(nearest);
+            songs.sort(closer);
+            return songs;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<SongInterface> findSongsByGenres(Collection<String> genres, Boolean explicit, String prefix,
+            int limit) throws NullPointerException {
+        if (prefix == null) {
+            throw new NullPointerException("Prefix is null");
+        }
+        Set<String> wanted = genres == null ? Collections.<String>emptySet() : new HashSet<String>(genres);
+        return findSongs(prefix, song -> song.getTitle().startsWith(prefix), song -> {
+            if (explicit != null && song.isExplicit() != explicit) {
+                return false;
+            }
+            if (wanted.isEmpty()) {
+                return true;
+            }
+            for (String genre : song.getGenres()) {
+                if (wanted.contains(genre)) {
+                    return true;
+                }
+            }
+            return false;
+        }, limit);
+    }
+
+    @Override
+    public List<SongInterface> findTopSongs(String genre, int year, int count) throws IllegalArgumentException {
+        if (genre != null && year > 0) {
+            throw new IllegalArgumentException("Rankings are kept per genre or per year, not both");
+        }
+        lock.readLock().lock();
+        try {
+            if (genre != null) {
+                return rankings.topOfGenre(genre, count);
+            }
+            return year > 0 ? rankings.topOfYear(year, count) : rankings.top(count);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * not supported, the index is written from a csv file and cannot be changed
+     *
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public boolean addOneSong(String title, String duration, String artist)
+            throws UnsupportedOperationException {
+        throw new UnsupportedOperationException("The playlist on disk is read-only");
+    }
+
+    /**
+     * not supported, the index is written from a csv file and cannot be changed
+     *
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public boolean removeOneSong(String title) throws UnsupportedOperationException {
+        throw new UnsupportedOperationException("The playlist on disk is read-only");
+    }
+
+    @Override
+    public int displaySongCount() {
+        lock.readLock().lock();
+        try {
+            return index.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public SongStatistics getStatistics() {
+        lock.readLock().lock();
+        try {
+            return statistics.copy();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public String dumpMetrics() {
+        lock.readLock().lock();
+        try {
+            return "Disk index: " + index;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+}
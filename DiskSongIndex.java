@@ -0,0 +1,650 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * This class is a read-only B+ tree of songs kept in a file of fixed-size
+ * pages, for playlists bigger than the heap. Page 0 describes the tree, the
+ * other pages are leaves, which hold whole songs in title order and are
+ * linked to the next leaf, or inner nodes, which hold the page of every child
+ * and the first title of every child but the first. The file is written in
+ * one pass over songs in title order, e.g. the in-order walk of a tree.
+ *
+ * Pages are read with positional FileChannel reads into a PageBufferPool of
+ * a bounded number of decoded pages, rather than mapped, so the memory used
+ * is set by the pool and not by the operating system, and every page fault
+ * is counted. The inner pages near the root are used by every lookup and so
+ * stay cached; hot titles keep their leaves cached too.
+ *
+ * Lookups, prefix queries and iteration work like those of the trees. The
+ * index cannot be changed once written, so any number of threads can read it.
+ */
+public class DiskSongIndex implements Iterable<SongInterface>, Closeable {
+
+    /**
+     * The size of a page when none is given
+     */
+    public static final int DEFAULT_PAGE_SIZE = 8192;
+
+    private static final int MAGIC = 0x4D465349; // "MFSI"
+    private static final int VERSION = 1;
+    private static final byte LEAF = 1;
+    private static final byte INNER = 2;
+    private static final int LEAF_HEADER = 7; // kind, number of songs, page of the next leaf
+    private static final int INNER_HEADER = 3; // kind, number of children
+
+    /**
+     * A leaf page: songs in title order and the page of the next leaf, -1 for
+     * the last leaf
+     */
+    private static class Leaf {
+        private SongInterface[] songs;
+        private int next;
+    }
+
+    /**
+     * An inner page: children[i + 1] holds the titles not smaller than keys[i],
+     * children[0] the titles smaller than keys[0]
+     */
+    private static class Inner {
+        private String[] keys;
+        private int[] children;
+    }
+
+    private FileChannel channel;
+    private int pageSize;
+    private int size; // number of songs
+    private int root; // page of the root, -1 when the index is empty
+    private int height; // pages on every path from the root to a leaf
+    private int pageCount;
+    private PageBufferPool<Object> pool;
+
+    /**
+     * this method opens an index written by write
+     *
+     * @param fileName  the file of the index
+     * @param poolPages the most pages kept in memory at once
+     * @throws IOException              when the file cannot be read or is not an index
+     * @throws IllegalArgumentException when poolPages is not positive
+     */
+    public DiskSongIndex(String fileName, int poolPages) throws IOException, IllegalArgumentException {
+        this.channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(28);
+            readFully(header, 0);
+            header.flip();
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException(fileName + " is not a song index");
+            }
+            this.pageSize = header.getInt();
+            this.size = header.getInt();
+            this.root = header.getInt();
+            this.height = header.getInt();
+            this.pageCount = header.getInt();
+            this.pool = new PageBufferPool<Object>(poolPages, this::readPage);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * writes songs in title order to a new index file
+     *
+     * @param fileName    the file to write, it is overwritten
+     * @param sortedSongs the songs, in ascending title order
+     * @param pageSize    the size of a page, from 256 to 65536 bytes
+     * @return the number of songs written
+     * @throws IOException              when the file cannot be written
+     * @throws IllegalArgumentException when the songs are not in ascending title
+     *                                  order, a song does not fit into a page or
+     *                                  the page size is out of range
+     */
+    public static int write(String fileName, Iterable<? extends SongInterface> sortedSongs, int pageSize)
+            throws IOException, IllegalArgumentException {
+        if (pageSize < 256 || pageSize > 65536) {
+            throw new IllegalArgumentException("Pages need 256 to 65536 bytes, not " + pageSize);
+        }
+        try (FileChannel out = FileChannel.open(Paths.get(fileName), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            Writer writer = new Writer(out, pageSize);
+            for (SongInterface song : sortedSongs) {
+                writer.add(song);
+            }
+            writer.finish();
+            return writer.songs;
+        }
+    }
+
+    /**
+     * Writes the pages of an index while the songs come in: leaves are filled
+     * one after the other, and every finished page adds an entry to the level
+     * above it, which is written out when it is full as well
+     */
+    private static class Writer {
+
+        /**
+         * The inner page of one level that is being filled
+         */
+        private static class Level {
+            private List<Integer> children = new ArrayList<Integer>();
+            private ByteArrayOutputStream keys = new ByteArrayOutputStream();
+            private String first; // first title below the page, handed to the level above
+        }
+
+        private FileChannel out;
+        private int pageSize;
+        private int nextPage = 1; // page 0 is the header
+        private ByteArrayOutputStream leaf = new ByteArrayOutputStream();
+        private int leafCount;
+        private String leafFirst;
+        // a finished leaf is written once the page of the next leaf is known
+        private byte[] pendingLeaf;
+        private int pendingCount;
+        private int pendingPage;
+        private List<Level> levels = new ArrayList<Level>();
+        private int songs;
+        private String last;
+
+        private Writer(FileChannel out, int pageSize) {
+            this.out = out;
+            this.pageSize = pageSize;
+        }
+
+        /**
+         * this method adds the next song
+         */
+        private void add(SongInterface song) throws IOException, IllegalArgumentException {
+            if (last != null && last.compareTo(song.getTitle()) >= 0) {
+                throw new IllegalArgumentException("Songs are not in ascending title order: " + last
+                        + " comes before " + song.getTitle());
+            }
+            byte[] record = encode(song);
+            if (LEAF_HEADER + record.length > pageSize) {
+                throw new IllegalArgumentException(song.getTitle() + " does not fit into a page of "
+                        + pageSize + " bytes");
+            }
+            if (leafCount > 0 && LEAF_HEADER + leaf.size() + record.length > pageSize) {
+                finishLeaf();
+            }
+            if (leafCount == 0) {
+                leafFirst = song.getTitle();
+            }
+            leaf.write(record);
+            leafCount++;
+            songs++;
+            last = song.getTitle();
+        }
+
+        /**
+         * Helper method that gives the leaf being filled its page and writes the
+         * leaf before it, which now knows its next leaf
+         */
+        private void finishLeaf() throws IOException {
+            int page = nextPage++;
+            if (pendingLeaf != null) {
+                writeLeaf(pendingPage, pendingLeaf, pendingCount, page);
+            }
+            pendingLeaf = leaf.toByteArray();
+            pendingCount = leafCount;
+            pendingPage = page;
+            leaf.reset();
+            leafCount = 0;
+            addEntry(0, leafFirst, page);
+        }
+
+        /**
+         * Helper method that adds a child to the inner page of a level, writing
+         * the page out first when the child does not fit anymore
+         */
+        private void addEntry(int level, String key, int child) throws IOException {
+            if (level == levels.size()) {
+                levels.add(new Level());
+            }
+            Level inner = levels.get(level);
+            byte[] keyBytes = utf(key);
+            if (!inner.children.isEmpty() && INNER_HEADER + 4 * (inner.children.size() + 1)
+                    + inner.keys.size() + keyBytes.length > pageSize) {
+                int page = writeInner(inner);
+                addEntry(level + 1, inner.first, page);
+                inner.children.clear();
+                inner.keys.reset();
+            }
+            if (inner.children.isEmpty()) {
+                inner.first = key;
+            } else {
+                inner.keys.write(keyBytes);
+            }
+            inner.children.add(child);
+        }
+
+        /**
+         * this method writes what is left and the header
+         */
+        private void finish() throws IOException {
+            if (leafCount > 0) {
+                finishLeaf();
+            }
+            if (pendingLeaf != null) {
+                writeLeaf(pendingPage, pendingLeaf, pendingCount, -1);
+            }
+            int root = -1;
+            int height = 0;
+            for (int i = 0; i < levels.size(); i++) {
+                Level inner = levels.get(i);
+                if (i == levels.size() - 1 && inner.children.size() == 1) {
+                    root = inner.children.get(0);
+                    height = i + 1;
+                    break;
+                }
+                addEntry(i + 1, inner.first, writeInner(inner));
+            }
+            ByteBuffer header = ByteBuffer.allocate(pageSize);
+            header.putInt(MAGIC).putInt(VERSION).putInt(pageSize).putInt(songs).putInt(root)
+                    .putInt(height).putInt(nextPage);
+            writePage(0, header);
+        }
+
+        /**
+         * Helper method that writes a leaf page
+         */
+        private void writeLeaf(int page, byte[] records, int count, int next) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(pageSize);
+            buffer.put(LEAF).putShort((short) count).putInt(next).put(records);
+            writePage(page, buffer);
+        }
+
+        /**
+         * Helper method that writes the inner page of a level to a new page
+         *
+         * @return the page it was written to
+         */
+        private int writeInner(Level inner) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(pageSize);
+            buffer.put(INNER).putShort((short) inner.children.size());
+            for (int child : inner.children) {
+                buffer.putInt(child);
+            }
+            buffer.put(inner.keys.toByteArray());
+            int page = nextPage++;
+            writePage(page, buffer);
+            return page;
+        }
+
+        /**
+         * Helper method that writes a whole page at its place in the file
+         */
+        private void writePage(int page, ByteBuffer buffer) throws IOException {
+            buffer.clear(); // the whole page, the unused end stays zero
+            long position = (long) page * pageSize;
+            while (buffer.hasRemaining()) {
+                out.write(buffer, position + buffer.position());
+            }
+        }
+    }
+
+    /**
+     * Helper method that turns a song into the bytes stored in a leaf
+     */
+    private static byte[] encode(SongInterface song) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeUTF(song.getTitle());
+        out.writeUTF(song.getArtist());
+        out.writeUTF(song.getDuration());
+        float[] features = song.getFeatures();
+        out.writeByte((song.isExplicit() ? 1 : 0) | (features != null ? 2 : 0));
+        out.writeShort(song.getYear());
+        out.writeByte(song.getPopularity());
+        if (features != null) {
+            out.writeByte(features.length);
+            for (float feature : features) {
+                out.writeFloat(feature);
+            }
+        }
+        out.writeByte(song.getGenres().size());
+        for (String genre : song.getGenres()) {
+            out.writeUTF(genre);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Helper method that turns a song back from the bytes stored in a leaf
+     */
+    private static SongInterface decode(DataInputStream in) throws IOException {
+        String title = in.readUTF();
+        String artist = in.readUTF();
+        String duration = in.readUTF();
+        int flags = in.readByte();
+        int year = in.readShort();
+        int popularity = in.readByte();
+        float[] features = null;
+        if ((flags & 2) != 0) {
+            features = new float[in.readUnsignedByte()];
+            for (int i = 0; i < features.length; i++) {
+                features[i] = in.readFloat();
+            }
+        }
+        int genreCount = in.readUnsignedByte();
+        List<String> genres = new ArrayList<String>(genreCount);
+        for (int i = 0; i < genreCount; i++) {
+            genres.add(in.readUTF());
+        }
+        return new Song(title, artist, duration, features, genres, (flags & 1) != 0, year, popularity);
+    }
+
+    /**
+     * Helper method that turns a title into its bytes as written by writeUTF
+     */
+    private static byte[] utf(String title) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(title.length() + 2);
+        new DataOutputStream(bytes).writeUTF(title);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Helper method that reads bytes of the file until the buffer is full
+     */
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("The index ends before byte " + (position + buffer.limit()));
+            }
+        }
+    }
+
+    /**
+     * Helper method that reads and decodes a page, called by the pool on a page
+     * fault
+     */
+    private Object readPage(int page) {
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate(pageSize);
+            readFully(buffer, (long) page * pageSize);
+            buffer.flip();
+            byte kind = buffer.get();
+            int count = buffer.getShort() & 0xFFFF;
+            if (kind == LEAF) {
+                Leaf leaf = new Leaf();
+                leaf.next = buffer.getInt();
+                leaf.songs = new SongInterface[count];
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(buffer.array(),
+                        LEAF_HEADER, pageSize - LEAF_HEADER));
+                for (int i = 0; i < count; i++) {
+                    leaf.songs[i] = decode(in);
+                }
+                return leaf;
+            }
+            Inner inner = new Inner();
+            inner.children = new int[count];
+            for (int i = 0; i < count; i++) {
+                inner.children[i] = buffer.getInt();
+            }
+            inner.keys = new String[count - 1];
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(buffer.array(),
+                    buffer.position(), buffer.remaining()));
+            for (int i = 0; i < inner.keys.length; i++) {
+                inner.keys[i] = in.readUTF();
+            }
+            return inner;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read page " + page, e);
+        }
+    }
+
+    /**
+     * Helper method that walks from the root to the leaf that holds a title, if
+     * any leaf does
+     */
+    private Leaf findLeaf(String title) {
+        int page = root;
+        for (int level = height; level > 1; level--) {
+            Inner inner = (Inner) pool.get(page);
+            // the number of keys not bigger than the title picks the child
+            int low = 0;
+            int high = inner.keys.length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (inner.keys[middle].compareTo(title) <= 0) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            page = inner.children[low];
+        }
+        return (Leaf) pool.get(page);
+    }
+
+    /**
+     * Helper method that finds a title in a leaf
+     *
+     * @return its index, or -(insertion point) - 1 when the leaf does not hold it
+     */
+    private static int search(Leaf leaf, String title) {
+        int low = 0;
+        int high = leaf.songs.length - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int compare = leaf.songs[middle].getTitle().compareTo(title);
+            if (compare < 0) {
+                low = middle + 1;
+            } else if (compare > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -low - 1;
+    }
+
+    /**
+     * get the song with a title
+     *
+     * @param title the title of the song
+     * @return the song
+     * @throws IllegalArgumentException when no song has this title
+     * @throws IllegalStateException    when the index is empty
+     * @throws NullPointerException     when the title is null
+     */
+    public SongInterface get(String title)
+            throws IllegalArgumentException, IllegalStateException, NullPointerException {
+        if (title == null) {
+            throw new NullPointerException("Title is null");
+        }
+        if (isEmpty()) {
+            throw new IllegalStateException("The index is empty");
+        }
+        Leaf leaf = findLeaf(title);
+        int index = search(leaf, title);
+        if (index < 0) {
+            throw new IllegalArgumentException("The data is not found in the index");
+        }
+        return leaf.songs[index];
+    }
+
+    /**
+     * checks whether a song has a title
+     *
+     * @param title the title
+     * @return true if the index holds a song with this title
+     * @throws NullPointerException when the title is null
+     */
+    public boolean contains(String title) throws NullPointerException {
+        if (title == null) {
+            throw new NullPointerException("Title is null");
+        }
+        return !isEmpty() && search(findLeaf(title), title) >= 0;
+    }
+
+    /**
+     * get the songs of many titles
+     *
+     * @param titles the titles
+     * @return the song of every title, in the same order, null where no song has
+     *         the title
+     * @throws NullPointerException when the list or a title is null
+     */
+    public List<SongInterface> getAll(List<String> titles) throws NullPointerException {
+        List<SongInterface> songs = new ArrayList<SongInterface>(titles.size());
+        for (String title : titles) {
+            if (title == null) {
+                throw new NullPointerException("Title is null");
+            }
+            if (isEmpty()) {
+                songs.add(null);
+                continue;
+            }
+            Leaf leaf = findLeaf(title);
+            int index = search(leaf, title);
+            songs.add(index < 0 ? null : leaf.songs[index]);
+        }
+        return songs;
+    }
+
+    /**
+     * finds the songs whose title starts with a prefix
+     *
+     * @param prefix the start of the titles
+     * @param limit  the most songs to return
+     * @return up to limit songs in title order
+     * @throws NullPointerException when the prefix is null
+     */
+    public List<SongInterface> findByPrefix(String prefix, int limit) throws NullPointerException {
+        List<SongInterface> songs = new ArrayList<SongInterface>();
+        Iterator<SongInterface> run = iteratorFrom(prefix);
+        while (songs.size() < limit && run.hasNext()) {
+            SongInterface song = run.next();
+            if (!song.getTitle().startsWith(prefix)) {
+                break;
+            }
+            songs.add(song);
+        }
+        return songs;
+    }
+
+    /**
+     * get the songs in title order
+     */
+    @Override
+    public Iterator<SongInterface> iterator() {
+        return iteratorFrom("");
+    }
+
+    /**
+     * get the songs whose title is not smaller than a title, in title order.
+     * Finding the first song takes one walk down the tree, the rest follows the
+     * links between the leaves.
+     *
+     * @param fromTitle the smallest title to return, it does not have to be in
+     *                  the index
+     * @return the songs from fromTitle on
+     * @throws NullPointerException when fromTitle is null
+     */
+    public Iterator<SongInterface> iteratorFrom(String fromTitle) throws NullPointerException {
+        if (fromTitle == null) {
+            throw new NullPointerException("Start title is null");
+        }
+        Leaf start = isEmpty() ? null : findLeaf(fromTitle);
+        int index = start == null ? 0 : search(start, fromTitle);
+        return new Iterator<SongInterface>() {
+            private Leaf leaf = start;
+            private int next = index >= 0 ? index : -index - 1;
+
+            @Override
+            public boolean hasNext() {
+                while (leaf != null && next >= leaf.songs.length) {
+                    leaf = leaf.next < 0 ? null : (Leaf) pool.get(leaf.next);
+                    next = 0;
+                }
+                return leaf != null;
+            }
+
+            @Override
+            public SongInterface next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException("No more songs");
+                }
+                return leaf.songs[next++];
+            }
+        };
+    }
+
+    /**
+     * get the number of songs
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * checks whether the index holds no song
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * get the number of pages on every path from the root to a leaf
+     */
+    public int height() {
+        return height;
+    }
+
+    /**
+     * get the size of a page in bytes
+     */
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * get the number of pages of the file, the header included
+     */
+    public int getPageCount() {
+        return pageCount;
+    }
+
+    /**
+     * get the pool of cached pages, for its hit rate and page faults
+     */
+    public PageBufferPool<Object> getBufferPool() {
+        return pool;
+    }
+
+    /**
+     * this method closes the file
+     *
+     * @throws IOException when closing fails
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * this method will make the index as a string
+     *
+     * @return the songs, pages and height of the index and the state of its pool
+     */
+    @Override
+    public String toString() {
+        return size + " songs in " + pageCount + " pages of " + pageSize + " bytes, height " + height
+                + ", " + pool;
+    }
+
+}
@@ -0,0 +1,480 @@
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * This class keeps a sorted set of titles in a fraction of the memory a
+ * String per title takes. The titles are front coded in blocks of a fixed
+ * size: the first title of a block is stored whole, every other title as the
+ * number of chars it shares with the title before it and the rest of it, in
+ * UTF-8. A lookup does a binary search over the first titles of the blocks,
+ * found through the offset of every block, and then walks one block. Titles
+ * are compared with the key on their bytes, and a title that shares more with
+ * the one before it than that one shares with the key is skipped unread.
+ *
+ * The dictionary cannot be changed once it is built, so any number of threads
+ * can read it at the same time.
+ */
+public class FrontCodedTitleDictionary implements Iterable<String> {
+
+    /**
+     * Titles per block when none is given: longer blocks save a little more
+     * memory but make every lookup decode more titles
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 16;
+
+    private byte[] data; // the blocks one after the other
+    private int[] blockStarts; // offset of every block in data
+    private int size;
+    private int blockSize;
+
+    /**
+     * this method sets the encoded blocks, use build to make them
+     */
+    private FrontCodedTitleDictionary(byte[] data, int[] blockStarts, int size, int blockSize) {
+        this.data = data;
+        this.blockStarts = blockStarts;
+        this.size = size;
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * builds a dictionary from titles in ascending order, with the default block
+     * size
+     *
+     * @param sortedTitles the titles, each bigger than the one before
+     * @return the dictionary
+     * @throws IllegalArgumentException when the titles are not in ascending order
+     *                                  or one is there twice
+     * @throws NullPointerException     when a title is null
+     */
+    public static FrontCodedTitleDictionary build(Iterable<String> sortedTitles)
+            throws IllegalArgumentException, NullPointerException {
+        return build(sortedTitles, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * builds a dictionary from the titles of songs in title order, as a tree
+     * gives them in one in-order pass
+     *
+     * @param sortedSongs the songs, in ascending title order
+     * @return the dictionary
+     * @throws IllegalArgumentException when the songs are not in title order
+     */
+    public static FrontCodedTitleDictionary fromSongs(Iterable<? extends SongInterface> sortedSongs)
+            throws IllegalArgumentException {
+        return build(() -> new Iterator<String>() {
+            private Iterator<? extends SongInterface> songs = sortedSongs.iterator();
+
+            @Override
+            public boolean hasNext() {
+                return songs.hasNext();
+            }
+
+            @Override
+            public String next() {
+                return songs.next().getTitle();
+            }
+        }, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * builds a dictionary from titles in ascending order
+     *
+     * @param sortedTitles the titles, each bigger than the one before
+     * @param blockSize    titles per block
+     * @return the dictionary
+     * @throws IllegalArgumentException when the titles are not in ascending order
+     *                                  or one is there twice, or the block size is
+     *                                  not positive
+     * @throws NullPointerException     when a title is null
+     */
+    public static FrontCodedTitleDictionary build(Iterable<String> sortedTitles, int blockSize)
+            throws IllegalArgumentException, NullPointerException {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("Blocks need a positive size, not " + blockSize);
+        }
+        byte[] data = new byte[1024];
+        int length = 0;
+        int[] blockStarts = new int[16];
+        int size = 0;
+        String previous = null;
+        for (String title : sortedTitles) {
+            if (title == null) {
+                throw new NullPointerException("Title is null");
+            }
+            if (previous != null && previous.compareTo(title) >= 0) {
+                throw new IllegalArgumentException("Titles are not in ascending order: " + previous
+                        + " comes before " + title);
+            }
+            int shared = 0;
+            if (size % blockSize == 0) {
+                if (size / blockSize == blockStarts.length) {
+                    blockStarts = Arrays.copyOf(blockStarts, blockStarts.length * 2);
+                }
+                blockStarts[size / blockSize] = length;
+            } else {
+                shared = sharedPrefix(previous, title);
+            }
+            byte[] suffix = title.substring(shared).getBytes(StandardCharsets.UTF_8);
+            if (length + suffix.length + 10 > data.length) {
+                data = Arrays.copyOf(data, Math.max(data.length * 2, length + suffix.length + 10));
+            }
+            if (size % blockSize != 0) {
+                length = writeNumber(data, length, shared);
+            }
+            length = writeNumber(data, length, suffix.length);
+            System.arraycopy(suffix, 0, data, length, suffix.length);
+            length += suffix.length;
+            previous = title;
+            size++;
+        }
+        int blocks = (size + blockSize - 1) / blockSize;
+        return new FrontCodedTitleDictionary(Arrays.copyOf(data, length),
+                Arrays.copyOf(blockStarts, blocks), size, blockSize);
+    }
+
+    /**
+     * Helper method that counts the chars two titles start with, without ending
+     * in the middle of a surrogate pair, so the rest encodes to valid UTF-8
+     */
+    private static int sharedPrefix(String a, String b) {
+        int end = Math.min(a.length(), b.length());
+        int shared = 0;
+        while (shared < end && a.charAt(shared) == b.charAt(shared)) {
+            shared++;
+        }
+        if (shared > 0 && Character.isHighSurrogate(a.charAt(shared - 1))) {
+            shared--;
+        }
+        return shared;
+    }
+
+    /**
+     * Helper method that writes a number 7 bits at a time, the low bits first
+     *
+     * @return the offset after the number
+     */
+    private static int writeNumber(byte[] data, int offset, int value) {
+        while (value >= 0x80) {
+            data[offset++] = (byte) (value | 0x80);
+            value >>>= 7;
+        }
+        data[offset++] = (byte) value;
+        return offset;
+    }
+
+    /**
+     * Reads the titles of one block in order, rebuilding every title in place
+     * from the one before it, or compares them with a key
+     */
+    private class BlockReader {
+        private StringBuilder title = new StringBuilder();
+        private int offset; // where the next title starts in data
+        private int index; // index of the title that is read next
+        private int matched; // chars the title compared last starts with that the key has too
+
+        /**
+         * this method moves the reader to the first title of a block
+         */
+        private void seek(int block) {
+            offset = blockStarts[block];
+            index = block * blockSize;
+        }
+
+        /**
+         * this method decodes the next title into title
+         */
+        private void next() {
+            int shared = 0;
+            if (index % blockSize != 0) {
+                shared = readNumber();
+            }
+            int length = readNumber();
+            title.setLength(shared);
+            appendUtf8(title, offset, length);
+            offset += length;
+            index++;
+        }
+
+        /**
+         * this method compares the next title with a key, when the first shared
+         * chars of both are known to be the same, without rebuilding the title
+         *
+         * @return below 0, 0 or above 0 when the title is smaller than, equal to
+         *         or bigger than the key
+         */
+        private int compareNext(String key, int shared) {
+            int length = readNumber();
+            int start = offset;
+            int end = offset + length;
+            offset = end;
+            index++;
+            int position = shared;
+            for (int i = start; i < end; i++) {
+                if (data[i] < 0) { // not ASCII, the rest is decoded first
+                    return compareDecoded(key, position, i, end);
+                }
+                if (position == key.length()) {
+                    matched = position;
+                    return 1;
+                }
+                int compare = data[i] - key.charAt(position);
+                if (compare != 0) {
+                    matched = position;
+                    return compare;
+                }
+                position++;
+            }
+            matched = position;
+            return position - key.length();
+        }
+
+        /**
+         * Helper method that compares the UTF-8 bytes of data from an offset on
+         * with a key from a position on
+         */
+        private int compareDecoded(String key, int position, int from, int end) {
+            title.setLength(0);
+            appendUtf8(title, from, end - from);
+            int i = 0;
+            while (i < title.length() && position < key.length()
+                    && title.charAt(i) == key.charAt(position)) {
+                i++;
+                position++;
+            }
+            matched = position;
+            if (i < title.length() && position < key.length()) {
+                return title.charAt(i) - key.charAt(position);
+            }
+            return (title.length() - i) - (key.length() - position);
+        }
+
+        /**
+         * this method steps over the next title without looking at it
+         */
+        private void skipNext() {
+            int length = readNumber(); // moves offset past the number first
+            offset += length;
+            index++;
+        }
+
+        /**
+         * Helper method that reads a number written by writeNumber
+         */
+        private int readNumber() {
+            int value = 0;
+            for (int shift = 0;; shift += 7) {
+                byte b = data[offset++];
+                value |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+        }
+    }
+
+    /**
+     * Helper method that decodes UTF-8 bytes of data into chars, without making a
+     * String of them first
+     */
+    private void appendUtf8(StringBuilder out, int offset, int length) {
+        int end = offset + length;
+        while (offset < end) {
+            int b = data[offset++];
+            if (b >= 0) {
+                out.append((char) b);
+            } else if ((b & 0xE0) == 0xC0) {
+                out.append((char) (((b & 0x1F) << 6) | (data[offset++] & 0x3F)));
+            } else if ((b & 0xF0) == 0xE0) {
+                out.append((char) (((b & 0x0F) << 12) | ((data[offset++] & 0x3F) << 6)
+                        | (data[offset++] & 0x3F)));
+            } else {
+                int codePoint = ((b & 0x07) << 18) | ((data[offset++] & 0x3F) << 12)
+                        | ((data[offset++] & 0x3F) << 6) | (data[offset++] & 0x3F);
+                out.appendCodePoint(codePoint);
+            }
+        }
+    }
+
+    /**
+     * get the number of titles
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * get the number of titles per block
+     */
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * get the memory the encoded titles and the block offsets take
+     *
+     * @return the size in bytes, without the few bytes of the object itself
+     */
+    public long sizeInBytes() {
+        return data.length + 4L * blockStarts.length;
+    }
+
+    /**
+     * get the title at an index of the sorted order
+     *
+     * @param index the index, from 0 to size() - 1
+     * @return the title
+     * @throws IndexOutOfBoundsException when there is no title at the index
+     */
+    public String get(int index) throws IndexOutOfBoundsException {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("No title at " + index + " of " + size);
+        }
+        BlockReader reader = new BlockReader();
+        reader.seek(index / blockSize);
+        while (reader.index <= index) {
+            reader.next();
+        }
+        return reader.title.toString();
+    }
+
+    /**
+     * finds a title
+     *
+     * @param title the title to find
+     * @return its index in the sorted order, or -(insertion point) - 1 when it is
+     *         not in the dictionary, like Arrays.binarySearch
+     * @throws NullPointerException when the title is null
+     */
+    public int indexOf(String title) throws NullPointerException {
+        if (title == null) {
+            throw new NullPointerException("Title is null");
+        }
+        if (size == 0) {
+            return -1;
+        }
+        BlockReader reader = new BlockReader();
+        // the last block whose first title is not bigger than the title
+        int low = 0;
+        int high = blockStarts.length - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            reader.seek(middle);
+            if (reader.compareNext(title, 0) <= 0) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        reader.seek(low);
+        int end = Math.min(size, (low + 1) * blockSize);
+        int compare = reader.compareNext(title, 0);
+        while (compare < 0 && reader.index < end) {
+            // a title that shares more with the title before it than that one shares with the
+            // key is smaller than the key too, so it is not decoded
+            int shared = reader.readNumber();
+            if (shared > reader.matched) {
+                reader.skipNext();
+            } else {
+                compare = reader.compareNext(title, shared);
+            }
+        }
+        if (compare == 0) {
+            return reader.index - 1;
+        }
+        return compare > 0 ? -reader.index : -reader.index - 1;
+    }
+
+    /**
+     * checks whether a title is in the dictionary
+     *
+     * @param title the title
+     * @return true if it is
+     * @throws NullPointerException when the title is null
+     */
+    public boolean contains(String title) throws NullPointerException {
+        return indexOf(title) >= 0;
+    }
+
+    /**
+     * finds the titles that start with a prefix
+     *
+     * @param prefix the start of the titles
+     * @param limit  the most titles to return
+     * @return up to limit titles in ascending order
+     * @throws NullPointerException when the prefix is null
+     */
+    public List<String> findByPrefix(String prefix, int limit) throws NullPointerException {
+        int index = indexOf(prefix);
+        List<String> titles = new ArrayList<String>();
+        Iterator<String> run = iteratorFrom(index >= 0 ? index : -index - 1);
+        while (titles.size() < limit && run.hasNext()) {
+            String title = run.next();
+            if (!title.startsWith(prefix)) {
+                break;
+            }
+            titles.add(title);
+        }
+        return titles;
+    }
+
+    /**
+     * get the titles in ascending order
+     */
+    @Override
+    public Iterator<String> iterator() {
+        return iteratorFrom(0);
+    }
+
+    /**
+     * get the titles in ascending order from an index on
+     *
+     * @param index the index of the first title, size() for none
+     * @return the titles from the index to the end
+     * @throws IndexOutOfBoundsException when the index is below 0 or above size()
+     */
+    public Iterator<String> iteratorFrom(int index) throws IndexOutOfBoundsException {
+        if (index < 0 || index > size) {
+            throw new IndexOutOfBoundsException("No title at " + index + " of " + size);
+        }
+        BlockReader reader = new BlockReader();
+        if (index < size) {
+            reader.seek(index / blockSize);
+            while (reader.index < index) {
+                reader.next();
+            }
+        } else {
+            reader.index = size;
+        }
+        return new Iterator<String>() {
+            @Override
+            public boolean hasNext() {
+                return reader.index < size;
+            }
+
+            @Override
+            public String next() {
+                if (reader.index >= size) {
+                    throw new NoSuchElementException("No more titles");
+                }
+                reader.next(); // blocks follow each other in data
+                return reader.title.toString();
+            }
+        };
+    }
+
+    /**
+     * this method will make the dictionary as a string
+     *
+     * @return the number of titles and the memory they take
+     */
+    @Override
+    public String toString() {
+        return size + " titles in " + sizeInBytes() + " bytes, " + blockSize + " per block";
+    }
+
+}
@@ -0,0 +1,143 @@
+import java.util.Arrays;
+
+/**
+ * This class estimates how many distinct strings it was given, in constant
+ * memory. Every string is hashed to 64 bits: the first bits pick one of 2^p
+ * registers and the register keeps the longest run of leading zeros seen in
+ * the other bits. Many distinct strings make long runs likely, so the
+ * harmonic mean of the registers gives the count, with a standard error of
+ * about 1.04 / sqrt(2^p), 0.8% for the default p of 14, in 16 KB. Small counts
+ * are estimated from the number of empty registers instead.
+ *
+ * Strings cannot be taken out again. Two estimators of the same precision can
+ * be merged, the result counts the strings given to either.
+ */
+public class HyperLogLog {
+
+    /**
+     * The precision when none is given
+     */
+    public static final int DEFAULT_PRECISION = 14;
+
+    private int precision;
+    private byte[] registers;
+
+    /**
+     * this method creates an empty estimator of the default precision
+     */
+    public HyperLogLog() {
+        this(DEFAULT_PRECISION);
+    }
+
+    /**
+     * this method creates an empty estimator
+     *
+     * @param precision the estimator keeps 2^precision registers, from 4 to 18
+     * @throws IllegalArgumentException when the precision is out of range
+     */
+    public HyperLogLog(int precision) throws IllegalArgumentException {
+        if (precision < 4 || precision > 18) {
+            throw new IllegalArgumentException("Precision must be from 4 to 18, not " + precision);
+        }
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+    }
+
+    /**
+     * hashes a string to 64 bits: FNV-1a over its chars, then the finalizer of
+     * MurmurHash3 so every bit depends on every char
+     *
+     * @param value the string
+     * @return the hash
+     */
+    public static long hash(String value) {
+        long hash = 0xCBF29CE484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash = (hash ^ value.charAt(i)) * 0x100000001B3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        return hash ^ (hash >>> 33);
+    }
+
+    /**
+     * this method counts a string
+     *
+     * @param value the string
+     * @throws NullPointerException when the string is null
+     */
+    public void add(String value) throws NullPointerException {
+        long hash = hash(value);
+        int register = (int) (hash >>> (64 - precision));
+        // the set bit stops the run once the bits after the register number are used up
+        int run = Long.numberOfLeadingZeros((hash << precision) | (1L << (precision - 1))) + 1;
+        if (run > registers[register]) {
+            registers[register] = (byte) run;
+        }
+    }
+
+    /**
+     * get the estimated number of distinct strings
+     */
+    public long estimate() {
+        int m = registers.length;
+        double sum = 0;
+        int empty = 0;
+        for (byte run : registers) {
+            sum += Double.longBitsToDouble((1023L - run) << 52); // 2^-run
+            if (run == 0) {
+                empty++;
+            }
+        }
+        double alpha = 0.7213 / (1 + 1.079 / m);
+        double estimate = alpha * m * m / sum;
+        if (estimate <= 2.5 * m && empty > 0) {
+            estimate = m * Math.log((double) m / empty); // linear counting
+        }
+        return Math.round(estimate);
+    }
+
+    /**
+     * this method adds the strings counted by another estimator
+     *
+     * @param other an estimator of the same precision
+     * @throws IllegalArgumentException when the precisions differ
+     */
+    public void merge(HyperLogLog other) throws IllegalArgumentException {
+        if (other.precision != precision) {
+            throw new IllegalArgumentException("Cannot merge precision " + other.precision
+                    + " into precision " + precision);
+        }
+        for (int i = 0; i < registers.length; i++) {
+            if (other.registers[i] > registers[i]) {
+                registers[i] = other.registers[i];
+            }
+        }
+    }
+
+    /**
+     * get an independent copy of this estimator
+     */
+    public HyperLogLog copy() {
+        HyperLogLog copy = new HyperLogLog(precision);
+        System.arraycopy(registers, 0, copy.registers, 0, registers.length);
+        return copy;
+    }
+
+    /**
+     * this method forgets all strings
+     */
+    public void clear() {
+        Arrays.fill(registers, (byte) 0);
+    }
+
+    /**
+     * get the size of the registers in bytes
+     */
+    public int sizeInBytes() {
+        return registers.length;
+    }
+
+}
@@ -0,0 +1,143 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class records latencies in buckets whose width grows with the value,
+ * like an HDR histogram: values below 32 ns get a bucket each, and every
+ * power of two above that is split into 32 buckets, so any percentile is
+ * reported within about 3% of the true value while the whole range up to
+ * hours fits into under 2000 counters. Recording takes no lock, it is one
+ * atomic increment plus two striped adders, so it can be called from many
+ * threads on the hot path.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = SUB_BUCKETS + (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private LongAdder count = new LongAdder();
+    private LongAdder sum = new LongAdder();
+    private AtomicLong max = new AtomicLong();
+
+    /**
+     * this method records one latency
+     *
+     * @param nanos the latency in ns, negative values are recorded as 0
+     */
+    public void record(long nanos) {
+        long value = Math.max(nanos, 0);
+        counts.incrementAndGet(indexOf(value));
+        count.increment();
+        sum.add(value);
+        long currentMax = max.get();
+        while (value > currentMax && !max.compareAndSet(currentMax, value)) {
+            currentMax = max.get();
+        }
+    }
+
+    /**
+     * Helper method that finds the bucket of a value
+     */
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        int shift = magnitude - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return SUB_BUCKETS + shift * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Helper method that finds the highest value that falls into a bucket
+     */
+    private static long highestValueOf(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+        long subBucket = (index - SUB_BUCKETS) % SUB_BUCKETS;
+        long lowest = (1L << (shift + SUB_BUCKET_BITS)) | (subBucket << shift);
+        return lowest + (1L << shift) - 1;
+    }
+
+    /**
+     * get the number of recorded latencies
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * get the mean latency
+     *
+     * @return the mean in ns, 0 when nothing was recorded
+     */
+    public double getMean() {
+        long recorded = count.sum();
+        return recorded == 0 ? 0 : (double) sum.sum() / recorded;
+    }
+
+    /**
+     * get the highest recorded latency
+     *
+     * @return the maximum in ns
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * get the latency that the given share of the recorded latencies do not exceed
+     *
+     * @param fraction share between 0 and 1, e.g. 0.99 for the 99th percentile
+     * @return the percentile in ns, within the precision of its bucket
+     */
+    public long getPercentile(double fraction) {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += counts.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(fraction * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(highestValueOf(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * this method forgets all recorded latencies
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.reset();
+        sum.reset();
+        max.set(0);
+    }
+
+    /**
+     * this method will make the summary as a string
+     *
+     * @return count, mean and percentiles in microseconds on one line
+     */
+    @Override
+    public String toString() {
+        return String.format("count %d  mean %.2f  p50 %.2f  p90 %.2f  p99 %.2f  p99.9 %.2f  "
+                + "max %.2f (us)", getCount(), getMean() / 1e3, getPercentile(0.5) / 1e3,
+                getPercentile(0.9) / 1e3, getPercentile(0.99) / 1e3, getPercentile(0.999) / 1e3,
+                getMax() / 1e3);
+    }
+
+}
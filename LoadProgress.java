@@ -0,0 +1,161 @@
+/**
+ * This class tells how far a load that runs in the background has come. The
+ * loading thread updates it after every chunk of the file it reads and every
+ * batch of songs it publishes, any other thread can read it at any time. The
+ * shards of a sharded backend all count into the same progress.
+ */
+public class LoadProgress {
+
+    private final String fileName;
+    private final long totalBytes; // length of the file when the load started
+    private final long startNanos;
+    private volatile long bytesRead;
+    private volatile int songsLoaded; // songs that lookups can find already
+    private volatile long endNanos;
+    private volatile boolean done;
+    private volatile RuntimeException failure; // why the load stopped early, null when it did not
+
+    /**
+     * this method starts the progress of a load
+     *
+     * @param fileName   the file that is loaded
+     * @param totalBytes the length of the file
+     */
+    public LoadProgress(String fileName, long totalBytes) {
+        this.fileName = fileName;
+        this.totalBytes = totalBytes;
+        this.startNanos = System.nanoTime();
+    }
+
+    /**
+     * get the file that is loaded
+     *
+     */
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * get the number of bytes of the file read so far
+     *
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * get the length of the file
+     *
+     */
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * get the number of songs that were loaded and can be found. A file that
+     * was loaded before is reloaded in one go and its songs are not counted.
+     *
+     */
+    public int getSongsLoaded() {
+        return songsLoaded;
+    }
+
+    /**
+     * get the part of the file that was read
+     *
+     * @return a number from 0 to 1, 1 once the load is done
+     */
+    public double getFraction() {
+        if (done) {
+            return 1;
+        }
+        return totalBytes <= 0 ? 0 : Math.min(1, (double) bytesRead / totalBytes);
+    }
+
+    /**
+     * get whether the load finished, with or without a failure
+     *
+     */
+    public boolean isDone() {
+        return done;
+    }
+
+    /**
+     * get why the load stopped early
+     *
+     * @return the failure, or null when the load is still running or succeeded
+     */
+    public RuntimeException getFailure() {
+        return failure;
+    }
+
+    /**
+     * get the time the load took so far, or took in total once it is done
+     *
+     */
+    public long getElapsedMillis() {
+        return ((done ? endNanos : System.nanoTime()) - startNanos) / 1000000;
+    }
+
+    /**
+     * this method sets the number of bytes read, called by the loading thread
+     *
+     * @param bytesRead the bytes of the file read so far
+     */
+    public void setBytesRead(long bytesRead) {
+        this.bytesRead = bytesRead;
+    }
+
+    /**
+     * this method counts songs that were published, shards may call it at the
+     * same time
+     *
+     * @param songs the number of songs that can be found now
+     */
+    public synchronized void addSongsLoaded(int songs) {
+        songsLoaded += songs;
+    }
+
+    /**
+     * this method marks the load as done and wakes up the threads waiting for it
+     *
+     * @param failure why the load stopped early, null when it succeeded
+     */
+    public synchronized void finish(RuntimeException failure) {
+        this.failure = failure;
+        this.endNanos = System.nanoTime();
+        this.done = true;
+        notifyAll();
+    }
+
+    /**
+     * waits until the load is done
+     *
+     * @throws InterruptedException when the waiting thread is interrupted
+     */
+    public synchronized void await() throws InterruptedException {
+        while (!done) {
+            wait();
+        }
+    }
+
+    /**
+     * this method will make the progress as a string
+     *
+     * @return the file, the songs loaded and how much of the file was read, or
+     *         why the load failed
+     */
+    @Override
+    public String toString() {
+        boolean finished = done; // read first, the song count is final once it is set
+        String loaded = fileName + ": " + songsLoaded + " songs loaded";
+        if (finished && failure != null) {
+            return loaded + ", failed: " + failure.getMessage();
+        }
+        if (finished) {
+            return loaded + " in " + getElapsedMillis() + " ms";
+        }
+        return loaded + ", " + Math.round(getFraction() * 100) + "% of the file read";
+    }
+
+}
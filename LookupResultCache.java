@@ -0,0 +1,238 @@
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class caches the songs found by title lookups, including the fact that
+ * a title was not found. The entries are spread over segments that are locked
+ * separately, and every segment drops its least recently used entry when it is
+ * full. A new title only takes the place of that entry if it has been asked for
+ * more often recently, which is estimated with a small count-min sketch whose
+ * counts are halved now and then (TinyLFU). That way a burst of one-off titles
+ * cannot push the popular titles out of the cache. The sketch is shared by all
+ * segments and locked on its own, only for the few counters of one title.
+ */
+public class LookupResultCache {
+
+    /**
+     * Returned by get for a title that is cached as not found
+     */
+    public static final SongInterface NOT_FOUND = new Song("", "", "");
+
+    private static final int SEGMENT_COUNT = 16;
+    private static final int SKETCH_ROWS = 4;
+    private static final int MAX_COUNT = 15;
+
+    private List<LinkedHashMap<String, SongInterface>> segments;
+    private int segmentCapacity;
+    private byte[][] sketch; // locked on itself
+    private int sketchMask;
+    private int sampleSize; // number of counted accesses after which all counts are halved
+    private int sampled;
+
+    private LongAdder hits = new LongAdder();
+    private LongAdder misses = new LongAdder();
+    private LongAdder evictions = new LongAdder();
+    private LongAdder rejections = new LongAdder();
+
+    /**
+     * this method set the number of results the cache holds
+     *
+     * @param capacity maximum number of cached results
+     * @throws IllegalArgumentException when the capacity is not positive
+     */
+    public LookupResultCache(int capacity) throws IllegalArgumentException {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.segmentCapacity = Math.max(1, (capacity + SEGMENT_COUNT - 1) / SEGMENT_COUNT);
+        this.segments = new ArrayList<LinkedHashMap<String, SongInterface>>(SEGMENT_COUNT);
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            segments.add(new LinkedHashMap<String, SongInterface>(16, 0.75f, true)); // access order
+        }
+        int width = Integer.highestOneBit(Math.max(capacity, 16) * 2 - 1) * 2;
+        this.sketch = new byte[SKETCH_ROWS][width];
+        this.sketchMask = width - 1;
+        this.sampleSize = 10 * Math.max(capacity, 16);
+    }
+
+    /**
+     * get a cached result and count the access towards the title's popularity
+     *
+     * @param title title that was looked up
+     * @return the cached song, NOT_FOUND for a cached miss, or null when nothing is cached
+     */
+    public SongInterface get(String title) {
+        int hash = spread(title.hashCode());
+        recordAccess(hash);
+        LinkedHashMap<String, SongInterface> segment = segments.get(hash & (SEGMENT_COUNT - 1));
+        SongInterface result;
+        synchronized (segment) {
+            result = segment.get(title);
+        }
+        if (result == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return result;
+    }
+
+    /**
+     * this method caches a result, unless the segment is full and the entry that
+     * would have to make room has been asked for more often
+     *
+     * @param title  title that was looked up
+     * @param result the song found, or NOT_FOUND
+     */
+    public void put(String title, SongInterface result) {
+        int hash = spread(title.hashCode());
+        LinkedHashMap<String, SongInterface> segment = segments.get(hash & (SEGMENT_COUNT - 1));
+        synchronized (segment) {
+            if (segment.containsKey(title) || segment.size() < segmentCapacity) {
+                segment.put(title, result);
+                return;
+            }
+            Iterator<Map.Entry<String, SongInterface>> eldest = segment.entrySet().iterator();
+            String victim = eldest.next().getKey();
+            if (frequency(hash) <= frequency(spread(victim.hashCode()))) {
+                rejections.increment();
+                return;
+            }
+            eldest.remove();
+            segment.put(title, result);
+        }
+        evictions.increment();
+    }
+
+    /**
+     * this method drops the cached result of a title, called whenever the song
+     * with this title is added, changed or removed
+     *
+     * @param title title whose result is out of date
+     */
+    public void invalidate(String title) {
+        LinkedHashMap<String, SongInterface> segment =
+                segments.get(spread(title.hashCode()) & (SEGMENT_COUNT - 1));
+        synchronized (segment) {
+            segment.remove(title);
+        }
+    }
+
+    /**
+     * this method drops all cached results
+     */
+    public void clear() {
+        for (LinkedHashMap<String, SongInterface> segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    /**
+     * Helper method that counts an access in the sketch
+     */
+    private void recordAccess(int hash) {
+        synchronized (sketch) {
+            for (int row = 0; row < SKETCH_ROWS; row++) {
+                int index = indexOf(hash, row);
+                if (sketch[row][index] < MAX_COUNT) {
+                    sketch[row][index]++;
+                }
+            }
+            if (++sampled >= sampleSize) {
+                age();
+            }
+        }
+    }
+
+    /**
+     * Helper method that halves all counts, so titles that were popular long ago
+     * lose their advantage. Called with the sketch locked.
+     */
+    private void age() {
+        sampled = 0;
+        for (byte[] row : sketch) {
+            for (int i = 0; i < row.length; i++) {
+                row[i] = (byte) (row[i] >> 1);
+            }
+        }
+    }
+
+    /**
+     * Helper method that estimates how often a title was asked for recently
+     */
+    private int frequency(int hash) {
+        int min = MAX_COUNT;
+        synchronized (sketch) {
+            for (int row = 0; row < SKETCH_ROWS; row++) {
+                min = Math.min(min, sketch[row][indexOf(hash, row)]);
+            }
+        }
+        return min;
+    }
+
+    /**
+     * Helper method that picks the counter of a title in one row of the sketch
+     */
+    private int indexOf(int hash, int row) {
+        int h = hash * (0x9E3779B1 + 2 * row);
+        return (h ^ (h >>> 16)) & sketchMask;
+    }
+
+    /**
+     * Helper method that spreads the bits of a hash code
+     */
+    private static int spread(int hashCode) {
+        int h = hashCode * 0x85EBCA6B;
+        return h ^ (h >>> 15);
+    }
+
+    /**
+     * get the number of lookups answered from the cache
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * get the number of lookups that were not cached
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * get the number of entries dropped to make room for a more popular title
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * get the number of results that were not cached because the title was not
+     * popular enough
+     */
+    public long getRejections() {
+        return rejections.sum();
+    }
+
+    /**
+     * this method will make the counters as a string
+     *
+     * @return hits, misses, evictions and rejections on one line
+     */
+    @Override
+    public String toString() {
+        long hitCount = getHits();
+        long total = hitCount + getMisses();
+        return String.format("%d hits, %d misses (%.1f%% hit rate), %d evictions, %d rejected",
+                hitCount, getMisses(), total == 0 ? 0 : 100.0 * hitCount / total, getEvictions(),
+                getRejections());
+    }
+
+}
@@ -0,0 +1,136 @@
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * This class passes every call on to another tree and records the latency of
+ * inserts, lookups and removes, and the rotations of inserts and removes, in a
+ * MusicFinderMetrics. The trees themselves know nothing of metrics, and a
+ * backend that records none uses its tree without this wrapper.
+ */
+public class MeasuredTree<T extends Comparable<T>> implements RedBlackTreeInterface<T> {
+
+    private RedBlackTreeInterface<T> tree;
+    private MusicFinderMetrics metrics;
+
+    /**
+     * this method wraps a tree
+     *
+     * @param tree    the tree that stores the values
+     * @param metrics the metrics to record in
+     */
+    public MeasuredTree(RedBlackTreeInterface<T> tree, MusicFinderMetrics metrics) {
+        this.tree = tree;
+        this.metrics = metrics;
+    }
+
+    /**
+     * get the tree that stores the values
+     */
+    public RedBlackTreeInterface<T> getTree() {
+        return tree;
+    }
+
+    @Override
+    public boolean insert(T data) throws NullPointerException, IllegalArgumentException {
+        long start = System.nanoTime();
+        boolean inserted = tree.insert(data);
+        metrics.recordRotations(true, tree.getLastRotations());
+        metrics.record(MusicFinderMetrics.Operation.TREE_INSERT, start);
+        return inserted;
+    }
+
+    @Override
+    public boolean remove(T data) throws NullPointerException, IllegalArgumentException {
+        long start = System.nanoTime();
+        boolean removed = tree.remove(data);
+        metrics.recordRotations(false, tree.getLastRotations());
+        metrics.record(MusicFinderMetrics.Operation.TREE_REMOVE, start);
+        return removed;
+    }
+
+    @Override
+    public T get(T data) throws IllegalArgumentException, IllegalStateException, NullPointerException {
+        long start = System.nanoTime();
+        try {
+            return tree.get(data);
+        } finally {
+            metrics.record(MusicFinderMetrics.Operation.TREE_GET, start);
+        }
+    }
+
+    @Override
+    public void insertAllSorted(List<T> sortedData) throws NullPointerException, IllegalArgumentException {
+        tree.insertAllSorted(sortedData);
+    }
+
+    @Override
+    public T replace(T data) throws NullPointerException, IllegalArgumentException {
+        return tree.replace(data);
+    }
+
+    @Override
+    public boolean contains(T data) {
+        return tree.contains(data);
+    }
+
+    @Override
+    public List<T> getAll(List<T> sortedProbes) throws NullPointerException {
+        return tree.getAll(sortedProbes);
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return tree.iterator();
+    }
+
+    @Override
+    public Iterator<T> iteratorFrom(T from) throws NullPointerException {
+        return tree.iteratorFrom(from);
+    }
+
+    @Override
+    public int size() {
+        return tree.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return tree.isEmpty();
+    }
+
+    @Override
+    public void clear() {
+        tree.clear();
+    }
+
+    @Override
+    public List<T> findByInput(String key) throws NullPointerException {
+        return tree.findByInput(key);
+    }
+
+    @Override
+    public int getLastRotations() {
+        return tree.getLastRotations();
+    }
+
+    @Override
+    public void verify() throws IllegalStateException {
+        tree.verify();
+    }
+
+    @Override
+    public List<T> removeRange(T from, T to) throws NullPointerException {
+        return tree.removeRange(from, to);
+    }
+
+    @Override
+    public List<T> union(List<T> sortedData) throws NullPointerException, IllegalArgumentException {
+        return tree.union(sortedData);
+    }
+
+    @Override
+    public List<T> difference(List<T> sortedData) throws NullPointerException, IllegalArgumentException {
+        return tree.difference(sortedData);
+    }
+
+}
@@ -1,28 +1,884 @@
+import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
 
 /**
  *
  */
 public class MusicFinderBackend implements MusicFinderBackendInterface {
 
-  private RedBlackTree<SongInterface> tree;
+  private static final int RANKING_SIZE = 50; // songs kept by every popularity ranking
+  private static final int LOAD_BATCH = 4096; // songs a background load publishes at a time
+  private static final int TITLE_LOCKS = 64; // stripes of the title locks of a concurrent store
+  private static final int FEATURE_REBUILD_FRACTION = 8; // changed songs, per song, that trip a rebuild
+
+  private RedBlackTreeInterface<SongInterface> tree;
   private SongReaderInterface songReader;
-  private int songCount;
+  private SongWriteBuffer writeBuffer; // songs added but not yet merged, null when unbuffered
+  private TitleBloomFilter knownTitles; // saves the tree walk when checking new titles
+  private SongWriteAheadLog log; // records runtime adds and removes, null when not durable
+  private boolean logReplayed;
+  // syncs the log and flushes the write buffer once they are due, started with the first task
+  private ScheduledExecutorService timer;
+  private ScheduledFuture<?> logSync; // the timer's task for the log, null when there is none
+  private long checkpointEvery; // logged changes between two checkpoints, 0 for none
+  private ReentrantLock checkpointLock = new ReentrantLock(); // one checkpoint at a time
+  private AtomicLong changesSinceCheckpoint = new AtomicLong();
+  // sorted titles of every loaded file, by path, front coded since they are only walked on reloads
+  private Map<String, FrontCodedTitleDictionary> loadedTitles;
+  private LookupResultCache resultCache; // songs found by title lookups, null when uncached
+  private MusicFinderMetrics metrics; // latencies of the operations, null when not recorded
+  private SongDirectoryWatcher watcher; // ingests csv files, null when there is none
+  // changed under the write lock, or under indexLock by the adds and removes of a concurrent store
+  private volatile int songCount;
+  // audio features of every song, built on the first similarity query, with the changes since
+  private volatile SongFeatureIndex featureIndex;
+  // changes made while a new feature index is built, handed to it once it is done; null when no
+  // build runs. Guarded by indexLock.
+  private Map<String, SongInterface> featureBuildChanges;
+  private ReentrantLock featureBuild = new ReentrantLock(); // one build of the feature index at a time
+  // genre and explicit bitmaps over dense song ids, kept up to date on every change
+  private SongGenreIndex genreIndex;
+  // most popular songs overall, per year and per genre, kept up to date on every change
+  private SongRankings rankings;
+  // distinct artists, quantiles and frequent artists and genres, kept up to date on every change
+  private SongStatistics statistics;
+  // the last load started in the background, null when there was none
+  private volatile LoadProgress backgroundLoad;
+  // while a background load runs on a file sorted by title, every title up to this one that is
+  // in the file is loaded already; null when the file is not sorted
+  private String loadWatermark;
+  // titles the log added or removed after a background load failed part way, so a retry of the
+  // load skips their rows, since the log is newer than the file; null unless a load failed
+  private Set<String> loggedTitles;
+  // reads share the lock, changes and merges of the write buffer take it exclusively. With a
+  // concurrent store, single adds and removes share it too and only loads and batches take it
+  // exclusively.
+  private ReentrantReadWriteLock lock;
+  // orders the adds and removes of one title in a concurrent store, null for other stores
+  private ReentrantLock[] titleLocks;
+  // guards the genre index and the song count while adds and removes of a concurrent store run at
+  // the same time
+  private final Object indexLock = new Object();
   
   
-  public MusicFinderBackend(RedBlackTree<SongInterface> tree,
+  public MusicFinderBackend(RedBlackTreeInterface<SongInterface> tree,
       SongReaderInterface songReader) {
+    this(tree, songReader, 1, 0);
+  }
+
+  /**
+   * Creates a backend whose added songs are buffered and merged into the tree in batches. A
+   * ConcurrentSkipListCollection takes adds and removes of different titles at the same time, so
+   * its songs are never buffered and single adds and removes do not lock out each other.
+   * 
+   * @param tree                - tree that stores the songs
+   * @param songReader          - reader for the csv files
+   * @param flushSize           - number of buffered songs that trips a merge, 1 inserts every song
+   *                            into the tree right away
+   * @param flushIntervalMillis - time in ms a buffered song may wait for a merge
+   */
+  public MusicFinderBackend(RedBlackTreeInterface<SongInterface> tree,
+      SongReaderInterface songReader, int flushSize, long flushIntervalMillis) {
     this.tree = tree;
     this.songReader = songReader;
+    if (tree instanceof ConcurrentSkipListCollection) {
+      this.titleLocks = new ReentrantLock[TITLE_LOCKS];
+      for (int i = 0; i < TITLE_LOCKS; i++) {
+        titleLocks[i] = new ReentrantLock();
+      }
+    } else if (flushSize > 1) {
+      this.writeBuffer = new SongWriteBuffer(flushSize, flushIntervalMillis);
+      this.knownTitles = new TitleBloomFilter(Math.max(flushSize, tree.size()));
+      // songs already in the tree have to be known, or their titles could be added twice
+      for (SongInterface song : tree) {
+        knownTitles.add(song.getTitle());
+      }
+    }
+    this.loadedTitles = new HashMap<String, FrontCodedTitleDictionary>();
     this.songCount = 0;
+    this.genreIndex = new SongGenreIndex();
+    this.rankings = new SongRankings(RANKING_SIZE, this::allSongs);
+    this.statistics = new SongStatistics(this::allSongs);
+    this.lock = new ReentrantReadWriteLock();
+    if (writeBuffer != null && flushIntervalMillis > 0) {
+      // the end of a burst is merged by the timer, no later add would merge it
+      every(flushIntervalMillis, this::flushIfDue);
+    }
   }
   
   @Override
   public void loadData(String filename) throws FileNotFoundException {
+    long start = startTiming();
+    try {
+      if (isLoaded(filename)) {
+        reloadData(filename); // only apply what changed since the last load
+      } else {
+        loadNewData(filename);
+      }
+    } finally {
+      record(MusicFinderMetrics.Operation.LOAD_DATA, start);
+    }
+  }
+
+  /**
+   * Helper method that loads a file that was not loaded before
+   * 
+   * @param filename - csv file to load
+   * @throws FileNotFoundException when the file does not exist
+   */
+  private void loadNewData(String filename) throws FileNotFoundException {
+    // the file is read before taking the lock, so readers are only blocked for the inserts
     List<SongInterface> songs = songReader.readMusicFromFile(filename);
-    for (SongInterface song : songs) {
-        addPostToRedBlackTree(song);
+    lock.writeLock().lock();
+    try {
+      flush(); // so duplicates of buffered songs are caught by the tree
+      for (SongInterface song : songs) {
+          addPostToRedBlackTree(song);
+      }
+      String[] titles = new String[songs.size()];
+      for (int i = 0; i < titles.length; i++) {
+        titles[i] = songs.get(i).getTitle();
+      }
+      loaded(filename, titles);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Helper method that remembers the titles of a file that was loaded, for the next reload, and
+   * replays the log after the first load. Called with the write lock held.
+   * 
+   * @param filename - csv file that was loaded
+   * @param titles   - titles of the file, in any order
+   * @throws IllegalArgumentException when a title is in the file twice
+   */
+  private void loaded(String filename, String[] titles) throws IllegalArgumentException {
+    Arrays.sort(titles);
+    for (int i = 1; i < titles.length; i++) {
+      if (titles[i].equals(titles[i - 1])) { // a background load skips the second row
+        throw new IllegalArgumentException(titles[i] + " is in " + filename + " twice");
+      }
+    }
+    loadedTitles.put(fileKey(filename), FrontCodedTitleDictionary.build(Arrays.asList(titles)));
+    if (log != null && !logReplayed) {
+      try {
+        replayWriteAheadLog();
+      } catch (IOException e) {
+        throw new UncheckedIOException("Could not replay the log", e);
+      }
+    }
+  }
+
+  @Override
+  public LoadProgress loadDataInBackground(String filename)
+      throws FileNotFoundException, IllegalStateException {
+    File file = new File(filename);
+    if (!file.isFile()) {
+      throw new FileNotFoundException(filename + " does not exist");
+    }
+    LoadProgress progress = new LoadProgress(filename, file.length());
+    boolean reload = isLoaded(filename);
+    startLoading(progress);
+    Thread loader = new Thread(() -> {
+      long start = startTiming();
+      try {
+        if (reload) {
+          reloadData(filename); // only apply what changed since the last load
+        } else {
+          loadInBatches(filename, progress);
+        }
+        progress.finish(null);
+      } catch (FileNotFoundException e) {
+        progress.finish(failLoading(
+            new UncheckedIOException(filename + " vanished during the load", e)));
+      } catch (RuntimeException e) {
+        progress.finish(failLoading(e));
+      } finally {
+        record(MusicFinderMetrics.Operation.LOAD_DATA, start);
+      }
+    }, "music-finder-loader");
+    loader.setDaemon(true);
+    loader.start();
+    return progress;
+  }
+
+  /**
+   * Helper method that streams a file into the tree one batch of rows at a time, so the first
+   * songs can be found long before the last ones are read
+   * 
+   * @param filename - csv file that was not loaded before
+   * @param progress - progress of the load, updated while the file is read
+   * @throws FileNotFoundException when the file does not exist
+   */
+  private void loadInBatches(String filename, LoadProgress progress) throws FileNotFoundException {
+    List<SongInterface> batch = new ArrayList<SongInterface>(LOAD_BATCH);
+    List<String> titles = new ArrayList<String>();
+    boolean[] sorted = {true}; // whether the rows so far came in title order
+    songReader.readMusicFromFile(filename, song -> {
+      if (!titles.isEmpty() && song.getTitle().compareTo(titles.get(titles.size() - 1)) <= 0) {
+        sorted[0] = false;
+      }
+      titles.add(song.getTitle());
+      batch.add(song);
+      if (batch.size() == LOAD_BATCH) {
+        loadBatch(batch, sorted[0] ? song.getTitle() : null);
+        batch.clear();
+      }
+    }, progress::setBytesRead);
+    loadBatch(batch, sorted[0] && !titles.isEmpty() ? titles.get(titles.size() - 1) : null);
+    finishLoading(filename, titles);
+  }
+
+  @Override
+  public LoadProgress getLoadProgress() {
+    return backgroundLoad;
+  }
+
+  /**
+   * Marks the start of a load that publishes its songs batch by batch through loadBatch. Until the
+   * progress is done, lookups of titles that are not found yet but may still come are answered
+   * with an IllegalStateException instead of a miss.
+   * 
+   * @param progress - progress of the load, its song count grows with every batch
+   * @throws IllegalStateException when another background load is still running
+   */
+  public void startLoading(LoadProgress progress) throws IllegalStateException {
+    lock.writeLock().lock();
+    try {
+      LoadProgress running = backgroundLoad;
+      if (running != null && !running.isDone()) {
+        throw new IllegalStateException("Still loading " + running);
+      }
+      backgroundLoad = progress;
+      loadWatermark = null;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Inserts one batch of a load that runs in the background, with the write lock held only for
+   * this batch, so lookups get in between batches and always see whole batches. Titles that are
+   * in the playlist already are skipped, like the rows an earlier try of a failed load inserted
+   * or songs a watched directory ingested meanwhile, and so are titles the log changed after a
+   * failed load.
+   * 
+   * @param songs     - the next rows of the file
+   * @param watermark - every title of the file up to this one is loaded after this batch, null
+   *                  when the file is not sorted by title
+   */
+  public void loadBatch(List<SongInterface> songs, String watermark) {
+    lock.writeLock().lock();
+    int inserted = 0;
+    try {
+      flush(); // so duplicates of buffered songs are caught by the tree
+      for (SongInterface song : songs) {
+        if (loggedTitles != null && loggedTitles.contains(song.getTitle())) {
+          continue;
+        }
+        try {
+          addPostToRedBlackTree(song);
+          inserted++;
+        } catch (IllegalArgumentException e) { // title is already in the playlist
+        }
+      }
+      loadWatermark = watermark;
+    } finally {
+      lock.writeLock().unlock();
+      if (backgroundLoad != null) {
+        backgroundLoad.addSongsLoaded(inserted);
+      }
+    }
+  }
+
+  /**
+   * Ends a load that published its songs through loadBatch: the titles are remembered for the next
+   * reload and the log is replayed after the first load. The progress is finished by the caller.
+   * 
+   * @param filename - csv file that was loaded
+   * @param titles   - every title of the file
+   * @throws IllegalArgumentException when a title is in the file twice
+   */
+  public void finishLoading(String filename, List<String> titles) throws IllegalArgumentException {
+    lock.writeLock().lock();
+    try {
+      loaded(filename, titles.toArray(new String[0]));
+      loadWatermark = null;
+      loggedTitles = null;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Ends a load that failed part way: the songs loaded so far stay, and the log is replayed on top
+   * of them if it was not yet, so the changes it holds are not lost. The titles the log changed
+   * are remembered, and loading the file again skips them along with the rows that are loaded
+   * already. The log is not compacted until a load finishes. The progress is finished by the
+   * caller.
+   * 
+   * @param failure - why the load failed
+   * @return the failure, with a failure to replay the log added as suppressed
+   */
+  public RuntimeException failLoading(RuntimeException failure) {
+    lock.writeLock().lock();
+    try {
+      loadWatermark = null;
+      if (log != null && !logReplayed) {
+        loggedTitles = new HashSet<String>();
+        replay(loggedTitles);
+      }
+    } catch (IOException e) {
+      failure.addSuppressed(e);
+    } finally {
+      lock.writeLock().unlock();
+    }
+    return failure;
+  }
+
+  /**
+   * Helper method that is called when a title was not found. While a load runs in the background,
+   * a title past the part of the file loaded so far may still come, which is reported instead of
+   * a miss.
+   * 
+   * @param title - the title that was not found
+   * @throws IllegalStateException when the title may still be loaded
+   */
+  private void checkLoaded(String title) throws IllegalStateException {
+    if (mayStillLoad(title)) {
+      throw new IllegalStateException(title + " is not loaded yet, " + backgroundLoad);
+    }
+  }
+
+  /**
+   * Helper method that checks whether a title that was not found may still come with a load that
+   * runs in the background
+   */
+  private boolean mayStillLoad(String title) {
+    LoadProgress load = backgroundLoad;
+    return load != null && !load.isDone()
+        && (loadWatermark == null || title.compareTo(loadWatermark) > 0);
+  }
+
+  /**
+   * Loads a file again and applies only the difference to the songs it held last time: new rows
+   * are inserted, changed rows are updated in place and rows that vanished from the file are
+   * removed. The file is read once, and the sorted rows are diffed against the tree in one merge
+   * pass, so the tree is only changed where the file changed.
+   * 
+   * @param filename - csv file that was loaded before
+   * @return the number of songs that were inserted, updated or removed
+   * @throws FileNotFoundException    when the file does not exist
+   * @throws IllegalArgumentException when the file holds the same title twice
+   */
+  public int reloadData(String filename) throws FileNotFoundException, IllegalArgumentException {
+    List<SongInterface> rows = new ArrayList<SongInterface>();
+    songReader.readMusicFromFile(filename, rows::add);
+    rows.sort(null);
+    String[] titles = new String[rows.size()];
+    for (int i = 0; i < titles.length; i++) {
+      titles[i] = rows.get(i).getTitle();
+      if (i > 0 && titles[i].equals(titles[i - 1])) {
+        throw new IllegalArgumentException(filename + " contains " + titles[i] + " twice");
+      }
+    }
+    lock.writeLock().lock();
+    try {
+      flush(); // buffered songs have to be in the tree for the merge pass
+      FrontCodedTitleDictionary loaded = loadedTitles.get(fileKey(filename));
+      Iterator<String> previousTitles =
+          loaded == null ? Collections.<String>emptyIterator() : loaded.iterator();
+      String previous = previousTitles.hasNext() ? previousTitles.next() : null;
+
+      // merge the sorted rows with the tree, collecting the changes
+      List<SongInterface> inserts = new ArrayList<SongInterface>();
+      List<SongInterface> updates = new ArrayList<SongInterface>();
+      List<SongInterface> removals = new ArrayList<SongInterface>();
+      Iterator<SongInterface> stored = tree.iterator();
+      SongInterface storedSong = stored.hasNext() ? stored.next() : null;
+      for (SongInterface row : rows) {
+        while (storedSong != null && storedSong.compareTo(row) < 0) {
+          previous = checkVanished(storedSong, previousTitles, previous, removals);
+          storedSong = stored.hasNext() ? stored.next() : null;
+        }
+        if (storedSong != null && storedSong.compareTo(row) == 0) {
+          if (!storedSong.getArtist().equals(row.getArtist())
+              || !storedSong.getDuration().equals(row.getDuration())
+              || !Arrays.equals(storedSong.getFeatures(), row.getFeatures())
+              || !storedSong.getGenres().equals(row.getGenres())
+              || storedSong.isExplicit() != row.isExplicit()
+              || storedSong.getYear() != row.getYear()
+              || storedSong.getPopularity() != row.getPopularity()) {
+            updates.add(row);
+          }
+          storedSong = stored.hasNext() ? stored.next() : null;
+        } else {
+          inserts.add(row);
+        }
+      }
+      while (storedSong != null) {
+        previous = checkVanished(storedSong, previousTitles, previous, removals);
+        storedSong = stored.hasNext() ? stored.next() : null;
+      }
+
+      // the tree is only touched once the merge pass is done
+      for (SongInterface song : updates) {
+        tree.replace(song);
+        songChanged(song.getTitle(), song);
+      }
+      for (SongInterface song : removals) {
+        tree.remove(song);
+        songChanged(song.getTitle(), null);
+      }
+      tree.insertAllSorted(inserts);
+      for (SongInterface song : inserts) {
+        songChanged(song.getTitle(), song);
+      }
+      if (knownTitles != null) {
+        for (SongInterface song : inserts) {
+          knownTitles.add(song.getTitle());
+        }
+      }
+      songCount += inserts.size() - removals.size();
+      loadedTitles.put(fileKey(filename), FrontCodedTitleDictionary.build(Arrays.asList(titles)));
+      return inserts.size() + updates.size() + removals.size();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Helper method for the reload merge pass that marks a stored song for removal when it came
+   * from the file but is no longer in it
+   * 
+   * @param storedSong     - song of the tree that has no row in the file
+   * @param previousTitles - the rest of the sorted titles of the last load of the file
+   * @param previous       - title of the last load to continue from, null when there is none
+   * @param removals       - receives the song if it has to be removed
+   * @return the title of the last load to continue from next time
+   */
+  private String checkVanished(SongInterface storedSong, Iterator<String> previousTitles,
+      String previous, List<SongInterface> removals) {
+    String title = storedSong.getTitle();
+    while (previous != null && previous.compareTo(title) < 0) {
+      previous = previousTitles.hasNext() ? previousTitles.next() : null;
+    }
+    if (previous != null && previous.equals(title)) {
+      removals.add(storedSong);
+    }
+    return previous;
+  }
+
+  /**
+   * Builds a front coded dictionary of every title in one in-order pass over the tree, after the
+   * buffered songs are merged. A read-mostly replica can keep it to answer title and prefix
+   * lookups in a fraction of the memory the titles take as Strings.
+   * 
+   * @return the titles of the playlist
+   */
+  public FrontCodedTitleDictionary buildTitleDictionary() {
+    flush();
+    lock.readLock().lock();
+    try {
+      return FrontCodedTitleDictionary.fromSongs(tree);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Checks whether a file has been loaded before, so loading it again only applies what changed
+   * 
+   * @param filename - csv file to check
+   * @return true if the file was loaded before
+   */
+  public boolean isLoaded(String filename) {
+    lock.readLock().lock();
+    try {
+      return loadedTitles.containsKey(fileKey(filename));
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Helper method that turns a file name into the key its titles are remembered under
+   */
+  private static String fileKey(String filename) {
+    return Paths.get(filename).toAbsolutePath().normalize().toString();
+  }
+
+  /**
+   * Makes adds and removes durable by recording them in the given log. The log is replayed
+   * after the first loadData, or by calling replayWriteAheadLog when there is no data to load.
+   * Once a checkpoint wrote the log's base snapshot, the first load has to be that snapshot.
+   * 
+   * @param log - the log to record to and replay from
+   */
+  public void setWriteAheadLog(SongWriteAheadLog log) {
+    this.log = log;
+    this.logReplayed = false;
+    if (logSync != null) {
+      logSync.cancel(false);
+      logSync = null;
+    }
+    if (log != null && log.getSyncIntervalMillis() > 0) {
+      // the end of a burst is forced by the timer, no later append would force it
+      logSync = every(log.getSyncIntervalMillis(), () -> {
+        try {
+          log.syncIfDue();
+        } catch (IOException e) {
+          // the next append or tick tries again
+        }
+      });
+    }
+  }
+
+  /**
+   * Helper method that runs a task on the timer at twice the rate of the given interval, so a
+   * due task waits at most half an interval longer
+   * 
+   * @param intervalMillis - time in ms the task may be late
+   * @param task           - the task, it must not throw
+   * @return the scheduled task, to cancel it
+   */
+  private synchronized ScheduledFuture<?> every(long intervalMillis, Runnable task) {
+    if (timer == null) {
+      timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "music-finder-timer");
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+    long period = Math.max(intervalMillis / 2, 1);
+    return timer.scheduleAtFixedRate(task, period, period, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Compacts the write-ahead log into its base snapshot after every given number of logged
+   * changes, see checkpoint
+   * 
+   * @param everyChanges - number of logged adds and removes between two checkpoints
+   * @throws IllegalArgumentException when everyChanges is not positive
+   */
+  public void setCheckpoint(long everyChanges) throws IllegalArgumentException {
+    if (everyChanges < 1) {
+      throw new IllegalArgumentException("Checkpoints need at least one change");
+    }
+    lock.writeLock().lock();
+    try {
+      this.checkpointEvery = everyChanges;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Compacts the write-ahead log into its base snapshot: the log moves on to a new segment, every
+   * song is written to the snapshot, and then the old segment is dropped, so the next start loads
+   * the snapshot and only replays the changes made since. The songs go to a temporary file first,
+   * which then replaces the snapshot at once, so a crash leaves either the old snapshot and both
+   * segments or the new snapshot. Only the rotation keeps readers out, the songs are written
+   * under the read lock.
+   * 
+   * @return the number of songs written
+   * @throws IOException           when the snapshot cannot be written or the log cannot be rotated
+   * @throws IllegalStateException when there is no log, it was not replayed yet, or a load is
+   *                               still running or failed part way
+   */
+  public int checkpoint() throws IOException, IllegalStateException {
+    checkpointLock.lock();
+    try {
+      lock.writeLock().lock();
+      try {
+        LoadProgress load = backgroundLoad;
+        if (log == null || !logReplayed || (load != null && !load.isDone())
+            || loggedTitles != null) {
+          throw new IllegalStateException("The log can only be compacted once the data is loaded");
+        }
+        flush(); // buffered songs were logged to the segment that is rotated out
+        log.rotate();
+        changesSinceCheckpoint.set(0);
+        lock.readLock().lock(); // downgraded, so no change slips in before the export
+      } finally {
+        lock.writeLock().unlock();
+      }
+      int songs = 0;
+      Path base = Paths.get(log.getBaseFile());
+      Path temporary = base.resolveSibling(".checkpoint-" + base.getFileName());
+      try {
+        try (Writer out = SongExporter.open(temporary.toString())) {
+          SongExporter exporter = new SongExporter(out, SongExporter.Format.CSV);
+          exporter.writeHeader();
+          for (SongInterface song : tree) {
+            exporter.write(song);
+            songs++;
+          }
+        }
+      } finally {
+        lock.readLock().unlock();
+      }
+      Files.move(temporary, base, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+      log.dropRotated();
+      return songs;
+    } finally {
+      checkpointLock.unlock();
+    }
+  }
+
+  /**
+   * Helper method that counts changes that were logged
+   * 
+   * @param changes - number of changes that were logged
+   */
+  private void logged(int changes) {
+    changesSinceCheckpoint.addAndGet(changes);
+  }
+
+  /**
+   * Helper method that compacts the log into the base data when a checkpoint is due. Called after
+   * a change released its lock, since the adds and removes of a concurrent store only hold the
+   * read lock, which cannot be upgraded. A checkpoint that fails is tried again with the next
+   * change, the log keeps every change until then.
+   */
+  private void checkpointIfDue() {
+    LoadProgress load = backgroundLoad;
+    if (checkpointEvery == 0 || changesSinceCheckpoint.get() < checkpointEvery || !logReplayed
+        || (load != null && !load.isDone()) || loggedTitles != null) {
+      return;
+    }
+    if (!checkpointLock.tryLock()) {
+      return; // another change is writing the snapshot already
+    }
+    try {
+      if (changesSinceCheckpoint.get() >= checkpointEvery) {
+        checkpoint();
+      }
+    } catch (IOException | IllegalStateException e) {
+      // the changes are durable in the log, so the add or remove itself still succeeded
+    } finally {
+      checkpointLock.unlock();
+    }
+  }
+
+  /**
+   * Caches the songs found by the title lookups, including titles that were not found. Every add
+   * and remove drops the cached result of its title, so the cache never answers with an old
+   * result.
+   * 
+   * @param cache - the cache to use, or null to stop caching
+   */
+  public void setResultCache(LookupResultCache cache) {
+    lock.writeLock().lock();
+    try {
+      this.resultCache = cache;
+      if (cache != null) {
+        cache.clear();
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Records the latencies of the backend's operations and of its tree in the given metrics
+   * 
+   * @param metrics - the metrics to record in, or null to stop recording
+   */
+  public void setMetrics(MusicFinderMetrics metrics) {
+    lock.writeLock().lock();
+    try {
+      this.metrics = metrics;
+      // the tree's operations are recorded by a wrapper, so the trees know nothing of metrics
+      if (tree instanceof MeasuredTree) {
+        tree = ((MeasuredTree<SongInterface>) tree).getTree();
+      }
+      if (metrics != null) {
+        tree = new MeasuredTree<SongInterface>(tree, metrics);
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Reports the ingest metrics of a directory watcher that adds songs to this backend, like its
+   * lag and rows per second, with dumpMetrics
+   * 
+   * @param watcher - the watcher, or null to stop reporting
+   */
+  public void setDirectoryWatcher(SongDirectoryWatcher watcher) {
+    lock.writeLock().lock();
+    try {
+      this.watcher = watcher;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public SongStatistics getStatistics() {
+    lock.readLock().lock();
+    try {
+      return statistics.copy(); // may rebuild the sketches from the songs
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public String dumpMetrics() {
+    lock.readLock().lock();
+    try {
+      String dump = metrics == null ? "Metrics are not recorded." : metrics.dump(tree);
+      return watcher == null ? dump : dump + "\nIngest: " + watcher;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Helper method that reads the clock if metrics are recorded
+   * 
+   * @return the start time for record
+   */
+  private long startTiming() {
+    return metrics == null ? 0 : System.nanoTime();
+  }
+
+  /**
+   * Helper method that records an operation that began at start, if metrics are recorded
+   */
+  private void record(MusicFinderMetrics.Operation operation, long start) {
+    if (metrics != null) {
+      metrics.record(operation, start);
+    }
+  }
+
+  /**
+   * Helper method that is called for every title that is added, changed or removed
+   * 
+   * @param title - title of the song
+   * @param song  - the song as it is now, null when it was removed
+   */
+  private void songChanged(String title, SongInterface song) {
+    if (resultCache != null) {
+      resultCache.invalidate(title);
+    }
+    synchronized (indexLock) {
+      SongFeatureIndex features = featureIndex;
+      if (features != null) {
+        features.changed(title, song);
+      }
+      if (featureBuildChanges != null) {
+        featureBuildChanges.put(title, song);
+      }
+      SongInterface old = song == null ? genreIndex.remove(title) : genreIndex.put(song);
+      rankings.changed(old, song);
+      statistics.changed(old, song);
+    }
+  }
+
+  /**
+   * Helper method that returns the lock single adds and removes take: the read lock for a
+   * concurrent store, whose changes are ordered per title, the write lock otherwise
+   */
+  private Lock changeLock() {
+    return titleLocks != null ? lock.readLock() : lock.writeLock();
+  }
+
+  /**
+   * Helper method that returns the lock of a title, null when the store is not concurrent and
+   * every change holds the write lock anyway
+   */
+  private ReentrantLock titleLock(String title) {
+    return titleLocks == null ? null : titleLocks[(title.hashCode() & 0x7fffffff) % TITLE_LOCKS];
+  }
+
+  /**
+   * Re-applies the adds and removes recorded in the log on top of the loaded data. Operations
+   * that no longer apply, like adding a title that is already loaded, are skipped.
+   * 
+   * @return the number of log records that were read
+   * @throws IOException when the log cannot be read
+   */
+  public long replayWriteAheadLog() throws IOException {
+    return replay(null);
+  }
+
+  /**
+   * Helper method that replays the log
+   * 
+   * @param titles - collects the titles of the records, null when they are not needed
+   * @return the number of log records that were read
+   * @throws IOException when the log cannot be read
+   */
+  private long replay(Set<String> titles) throws IOException {
+    lock.writeLock().lock();
+    try {
+      logReplayed = true;
+      long records = log.replay(new SongWriteAheadLog.ReplayTarget() {
+        @Override
+        public boolean add(String title, String artist, String duration) {
+          if (titles != null) {
+            titles.add(title);
+          }
+          try {
+            addSong(new Song(title, artist, duration));
+            return true;
+          } catch (IllegalArgumentException e) {
+            return false;
+          }
+        }
+
+        @Override
+        public boolean remove(String title) {
+          if (titles != null) {
+            titles.add(title);
+          }
+          try {
+            removeSong(title);
+            return true;
+          } catch (IllegalArgumentException | IllegalStateException e) {
+            return false;
+          }
+        }
+      });
+      flush();
+      return records;
+    } finally {
+      lock.writeLock().unlock();
     }
   }
   
@@ -34,55 +890,758 @@ public class MusicFinderBackend implements MusicFinderBackendInterface {
    * @param post contains the data to add to the searchable dataset
    */
   private void addPostToRedBlackTree(SongInterface song) {
-    Song newSong = new Song(song.getTitle(), song.getArtist(), song.getDuration());
+    Song newSong = new Song(song.getTitle(), song.getArtist(), song.getDuration(),
+        song.getFeatures(), song.getGenres(), song.isExplicit(), song.getYear(),
+        song.getPopularity());
     tree.insert(newSong);
+    if (knownTitles != null) {
+      knownTitles.add(newSong.getTitle());
+    }
+    songChanged(newSong.getTitle(), newSong);
     songCount++;
   }
 
-  public Song findSong(String title) {
-    Song song = new Song(title, "", "");
-    return song;
+  /**
+   * Merges all buffered songs into the tree as one sorted batch. The songs stay buffered until
+   * the merge is done, so a merge that fails part way loses none of them.
+   */
+  public void flush() {
+    lock.writeLock().lock();
+    try {
+      if (writeBuffer != null && writeBuffer.size() > 0) {
+        List<SongInterface> songs = writeBuffer.sorted();
+        try {
+          tree.insertAllSorted(songs);
+        } catch (IllegalArgumentException e) {
+          // a title is in the tree already, and part of the batch may be in it too
+          flushOneByOne(songs);
+        }
+        writeBuffer.clear();
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Helper method that merges the write buffer once its oldest song waited the flush interval,
+   * run by the timer
+   */
+  private void flushIfDue() {
+    boolean due;
+    lock.readLock().lock();
+    try {
+      due = writeBuffer.isFlushDue();
+    } finally {
+      lock.readLock().unlock();
+    }
+    if (due) {
+      try {
+        flush();
+      } catch (RuntimeException e) {
+        // the songs stay buffered, the next tick or add tries again
+      }
+    }
+  }
+
+  /**
+   * Helper method that merges buffered songs one at a time, after the batch merge failed. Songs
+   * the failed merge inserted already are skipped. A song whose title was in the tree before is
+   * dropped, and the indexes and the song count go back to the song in the tree.
+   * 
+   * @param songs - the buffered songs sorted by title
+   */
+  private void flushOneByOne(List<SongInterface> songs) {
+    for (SongInterface song : songs) {
+      SongInterface stored = tree.contains(song) ? tree.get(song) : null;
+      if (stored == null) {
+        tree.insert(song);
+      } else if (stored != song) {
+        songChanged(song.getTitle(), stored);
+        songCount--;
+      }
+    }
+  }
+
+  /**
+   * Helper method that looks a song up in the write buffer first and then in the tree. Readers
+   * only hold the read lock, so they never merge the buffer themselves.
+   * 
+   * @param title - title of the song
+   * @return the song with this title
+   * @throws IllegalArgumentException when no song has this title
+   * @throws IllegalStateException    when the playlist is empty, or the title is not loaded yet
+   * @throws NullPointerException     when the title is null
+   */
+  private SongInterface lookupSong(String title)
+      throws IllegalArgumentException, IllegalStateException, NullPointerException {
+    if (title == null) {
+      throw new NullPointerException("Title is null");
+    }
+    try {
+      if (writeBuffer != null) {
+        SongInterface buffered = writeBuffer.get(title);
+        if (buffered != null) {
+          return buffered;
+        }
+        if (tree.size() == 0 && writeBuffer.size() > 0) { // the playlist is not empty yet
+          throw new IllegalArgumentException("The data is not found in the tree");
+        }
+      }
+      return tree.get(new Song(title, "", ""));
+    } catch (IllegalArgumentException | IllegalStateException e) {
+      checkLoaded(title);
+      throw e;
+    }
+  }
+
+  /**
+   * Helper method that looks a song up through the result cache when there is one, and caches
+   * the song or the miss. Called with the read lock held, so no change can come between the
+   * lookup and caching its result, except in a concurrent store, where the title's lock is held
+   * for that.
+   * 
+   * @param title - title of the song
+   * @return the song with this title
+   * @throws IllegalArgumentException when no song has this title
+   * @throws IllegalStateException    when the playlist is empty, or the title is not loaded yet
+   * @throws NullPointerException     when the title is null
+   */
+  private SongInterface cachedLookup(String title)
+      throws IllegalArgumentException, IllegalStateException, NullPointerException {
+    if (resultCache == null) {
+      return lookupSong(title);
+    }
+    if (title == null) {
+      throw new NullPointerException("Title is null");
+    }
+    SongInterface song = resultCache.get(title);
+    if (song == LookupResultCache.NOT_FOUND) {
+      checkLoaded(title);
+      throw new IllegalArgumentException("The data is not found in the tree");
+    }
+    if (song != null) {
+      return song;
+    }
+    ReentrantLock titleLock = titleLock(title);
+    if (titleLock != null) {
+      titleLock.lock();
+    }
+    try {
+      song = lookupSong(title);
+      resultCache.put(title, song);
+      return song;
+    } catch (IllegalArgumentException e) {
+      resultCache.put(title, LookupResultCache.NOT_FOUND);
+      throw e;
+    } finally {
+      if (titleLock != null) {
+        titleLock.unlock();
+      }
+    }
+  }
+
+  @Override
+  public SongInterface findSong(String title)
+      throws IllegalArgumentException, IllegalStateException, NullPointerException {
+    long start = startTiming();
+    lock.readLock().lock();
+    try {
+      return cachedLookup(title);
+    } finally {
+      lock.readLock().unlock();
+      record(MusicFinderMetrics.Operation.FIND_SONG, start);
+    }
   }
 
 @Override
   public String findSongByTitle(String title) throws IllegalArgumentException, IllegalStateException, NullPointerException {
-    String artist = getArtistByTitle(title);
-    String duration = getDurationByTitle(title);
-    
-    return artist + ", " + duration;
+    long start = startTiming();
+    lock.readLock().lock();
+    try {
+      SongInterface song = cachedLookup(title);
+      return song.getArtist() + ", "
+          + MusicFinderBackendInterface.formatDuration(song.getDuration());
+    } finally {
+      lock.readLock().unlock();
+      record(MusicFinderMetrics.Operation.FIND_SONG_BY_TITLE, start);
+    }
   }
 
 @Override
   public String getDurationByTitle(String title) throws IllegalArgumentException, IllegalStateException, NullPointerException {
-    Song song = new Song(title, "", "");
-    if (!tree.get(song).getDuration().contains(":")) {
-      long duration = Long.parseLong(((Song) tree.get(song)).getDuration());
-    
-    int seconds = (int) (duration / 1000) % 60;
-    int minutes = (int) ((duration / (1000*60)) % 60);
-    return "" + minutes + ":" + seconds;
+    long start = startTiming();
+    lock.readLock().lock();
+    try {
+      return MusicFinderBackendInterface.formatDuration(cachedLookup(title).getDuration());
+    } finally {
+      lock.readLock().unlock();
+      record(MusicFinderMetrics.Operation.GET_DURATION_BY_TITLE, start);
     }
-    else return tree.get(song).getDuration();
   }
 
   @Override
   public String getArtistByTitle(String title) throws IllegalArgumentException, IllegalStateException, NullPointerException {
-    Song song = new Song(title, "", "");
-    return ((Song) tree.get(song)).getArtist();
+    long start = startTiming();
+    lock.readLock().lock();
+    try {
+      return cachedLookup(title).getArtist();
+    } finally {
+      lock.readLock().unlock();
+      record(MusicFinderMetrics.Operation.GET_ARTIST_BY_TITLE, start);
+    }
+  }
+
+  @Override
+  public SongLookupResult findSongsByTitles(Collection<String> titles) throws NullPointerException {
+    if (titles == null) {
+      throw new NullPointerException("Titles are null");
+    }
+    lock.readLock().lock();
+    try {
+      // sorts and deduplicates the probes so the tree is walked only once
+      TreeSet<String> sortedTitles = new TreeSet<String>(titles);
+      List<SongInterface> probes = new ArrayList<SongInterface>(sortedTitles.size());
+      for (String title : sortedTitles) {
+        probes.add(new Song(title, "", ""));
+      }
+      List<SongInterface> songs = tree.getAll(probes);
+
+      Map<String, SongInterface> found = new LinkedHashMap<String, SongInterface>();
+      List<String> missing = new ArrayList<String>();
+      List<String> notLoaded = new ArrayList<String>();
+      for (int i = 0; i < probes.size(); i++) {
+        if (songs.get(i) == null && writeBuffer != null) {
+          songs.set(i, writeBuffer.get(probes.get(i).getTitle()));
+        }
+        if (songs.get(i) != null) {
+          found.put(probes.get(i).getTitle(), songs.get(i));
+          continue;
+        }
+        if (mayStillLoad(probes.get(i).getTitle())) {
+          notLoaded.add(probes.get(i).getTitle());
+        } else {
+          missing.add(probes.get(i).getTitle());
+        }
+      }
+      return new SongLookupResult(found, missing, notLoaded);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public List<SongInterface> findSongsByPrefix(String prefix, int limit)
+      throws NullPointerException {
+    if (prefix == null) {
+      throw new NullPointerException("Prefix is null");
+    }
+    // the matching titles are one run of the tree, starting at the prefix itself
+    return findSongs(prefix, song -> song.getTitle().startsWith(prefix), song -> true, limit);
+  }
+
+  @Override
+  public List<SongInterface> findSongsInRange(String fromTitle, String toTitle, int limit)
+      throws NullPointerException {
+    if (fromTitle == null) {
+      throw new NullPointerException("Range bound is null");
+    }
+    return findSongs(fromTitle, song -> toTitle == null || song.getTitle().compareTo(toTitle) < 0,
+        song -> true, limit);
+  }
+
+  @Override
+  public List<SongInterface> findSongsByArtist(String artist, int limit)
+      throws NullPointerException {
+    if (artist == null) {
+      throw new NullPointerException("Artist is null");
+    }
+    // songs are sorted by title, so every song has to be looked at
+    return findSongs("", song -> true, song -> song.getArtist().equals(artist), limit);
+  }
+
+  /**
+   * Helper method that walks the tree from the first title not smaller than from for as long as
+   * the songs stay in the run, and keeps the songs that pass the filter. Buffered songs are
+   * merged in.
+   * 
+   * @param from   - title to start at
+   * @param inRun  - the walk stops at the first song that fails this test
+   * @param filter - test the returned songs have to pass
+   * @param limit  - most songs to return
+   * @return the matching songs sorted by title
+   */
+  private List<SongInterface> findSongs(String from, Predicate<SongInterface> inRun,
+      Predicate<SongInterface> filter, int limit) {
+    lock.readLock().lock();
+    try {
+      List<SongInterface> songs = new ArrayList<SongInterface>();
+      Iterator<SongInterface> run = tree.iteratorFrom(new Song(from, "", ""));
+      while (songs.size() < limit && run.hasNext()) {
+        SongInterface song = run.next();
+        if (!inRun.test(song)) {
+          break;
+        }
+        if (filter.test(song)) {
+          songs.add(song);
+        }
+      }
+      if (writeBuffer != null && writeBuffer.size() > 0) {
+        songs.addAll(writeBuffer.findAll(song -> song.getTitle().compareTo(from) >= 0
+            && inRun.test(song) && filter.test(song)));
+        songs.sort(null);
+        if (songs.size() > limit) {
+          songs = new ArrayList<SongInterface>(songs.subList(0, Math.max(limit, 0)));
+        }
+      }
+      return songs;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public List<SongInterface> findSimilarSongs(String title, int k)
+      throws IllegalArgumentException, IllegalStateException, NullPointerException {
+    SongInterface song;
+    lock.readLock().lock();
+    try {
+      song = lookupSong(title);
+    } finally {
+      lock.readLock().unlock();
+    }
+    return similarityIndex().nearest(song, k);
+  }
+
+  /**
+   * Finds the songs of this backend whose audio features are closest to the given song's, which
+   * does not have to be in this backend
+   * 
+   * @param song - song to compare with, it is left out of the answer
+   * @param k    - number of songs to return
+   * @return up to k songs, closest first
+   * @throws IllegalArgumentException when the song has no audio features
+   */
+  public List<SongInterface> findSimilarSongs(SongInterface song, int k)
+      throws IllegalArgumentException {
+    return similarityIndex().nearest(song, k);
+  }
+
+  /**
+   * Helper method that returns the feature index, building it on the first similarity query.
+   * Later changes are answered from the index plus the changes since its build. Once they pass a
+   * fraction of the songs, the query that notices builds a new index while the others keep using
+   * the old one.
+   */
+  private SongFeatureIndex similarityIndex() {
+    SongFeatureIndex index = featureIndex;
+    if (index == null) {
+      featureBuild.lock();
+      try {
+        index = featureIndex;
+        if (index == null) {
+          index = buildFeatureIndex();
+        }
+      } finally {
+        featureBuild.unlock();
+      }
+    } else if (index.changes() > songCount / FEATURE_REBUILD_FRACTION && featureBuild.tryLock()) {
+      try {
+        index = featureIndex == index ? buildFeatureIndex() : featureIndex;
+      } finally {
+        featureBuild.unlock();
+      }
+    }
+    return index;
+  }
+
+  /**
+   * Helper method that builds a new feature index. Only copying the songs keeps writers out, the
+   * k-d tree is built without a lock, and the changes made in the meantime are handed to it.
+   */
+  private SongFeatureIndex buildFeatureIndex() {
+    List<SongInterface> songs;
+    lock.readLock().lock();
+    try {
+      synchronized (indexLock) {
+        featureBuildChanges = new HashMap<String, SongInterface>();
+      }
+      songs = allSongs();
+    } finally {
+      lock.readLock().unlock();
+    }
+    SongFeatureIndex index = new SongFeatureIndex(songs);
+    synchronized (indexLock) {
+      for (Map.Entry<String, SongInterface> change : featureBuildChanges.entrySet()) {
+        index.changed(change.getKey(), change.getValue());
+      }
+      featureBuildChanges = null;
+      featureIndex = index;
+    }
+    return index;
+  }
+
+  /**
+   * Helper method that lists every song of the tree and the write buffer
+   */
+  private List<SongInterface> allSongs() {
+    List<SongInterface> songs = new ArrayList<SongInterface>(songCount);
+    tree.forEach(songs::add);
+    if (writeBuffer != null) {
+      songs.addAll(writeBuffer.findAll(song -> true));
+    }
+    return songs;
+  }
+
+  @Override
+  public List<SongInterface> findTopSongs(String genre, int year, int count)
+      throws IllegalArgumentException {
+    if (genre != null && year > 0) {
+      throw new IllegalArgumentException("Rankings are kept per genre or per year, not both");
+    }
+    lock.readLock().lock();
+    try {
+      if (genre != null) {
+        return rankings.topOfGenre(genre, count);
+      }
+      return year > 0 ? rankings.topOfYear(year, count) : rankings.top(count);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public List<SongInterface> findSongsByGenres(Collection<String> genres, Boolean explicit,
+      String prefix, int limit) throws NullPointerException {
+    if (prefix == null) {
+      throw new NullPointerException("Prefix is null");
+    }
+    Predicate<SongInterface> accepts = SongGenreIndex.accepts(genres, explicit);
+    if (!prefix.isEmpty()) {
+      // the titles with the prefix are next to each other in the tree, so walk them and keep the
+      // ones that pass, which needs no genre index
+      lock.readLock().lock();
+      try {
+        return findSongs(prefix, song -> song.getTitle().startsWith(prefix), accepts, limit);
+      } finally {
+        lock.readLock().unlock();
+      }
+    }
+    RoaringBitmap matches;
+    SongInterface[] songsById;
+    lock.readLock().lock();
+    try {
+      // the adds and removes of a concurrent store change the genre index under the read lock,
+      // so only the bitmap and the songs are taken under indexLock
+      synchronized (indexLock) {
+        matches = genreIndex.filter(genres, explicit);
+        songsById = genreIndex.songsById();
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+    if (limit <= 0) {
+      return new ArrayList<SongInterface>();
+    }
+    // the first titles in a max-heap of limit songs. An id handed out again meanwhile may hold
+    // another song, or a song that moved, so the songs are checked again.
+    PriorityQueue<SongInterface> first =
+        new PriorityQueue<SongInterface>(Collections.reverseOrder());
+    matches.forEach(id -> {
+      SongInterface song = id < songsById.length ? songsById[id] : null;
+      if (song != null && accepts.test(song)
+          && (first.size() < limit || song.compareTo(first.peek()) < 0) && !first.contains(song)) {
+        first.add(song);
+        if (first.size() > limit) {
+          first.poll();
+        }
+      }
+    });
+    List<SongInterface> songs = new ArrayList<SongInterface>(first);
+    songs.sort(null);
+    return songs;
   }
 
   @Override
   public int displaySongCount() {
-    return songCount;
+    lock.readLock().lock();
+    try {
+      return songCount;
+    } finally {
+      lock.readLock().unlock();
+    }
   }
 
 
   @Override
   public boolean addOneSong(String title, String duration, String artist)
       throws NullPointerException, IllegalArgumentException {
+    long start = startTiming();
+    if (title == null) {
+      throw new NullPointerException("Title is null");
+    }
+    Lock changeLock = changeLock();
+    ReentrantLock titleLock = titleLock(title);
+    changeLock.lock();
+    if (titleLock != null) {
+      titleLock.lock();
+    }
+    try {
+      // the load would find the title in the playlist already when it gets to its row
+      checkLoaded(title);
       Song song = new Song(title, artist, duration);
+      addSong(song);
+      if (log != null) {
+        try {
+          log.appendAdd(song);
+        } catch (IOException e) {
+          removeSong(title); // the add is only kept once it is durable
+          throw new UncheckedIOException("Could not record the new song", e);
+        }
+        logged(1);
+      }
+    } finally {
+      if (titleLock != null) {
+        titleLock.unlock();
+      }
+      changeLock.unlock();
+      record(MusicFinderMetrics.Operation.ADD_ONE_SONG, start);
+    }
+    checkpointIfDue();
+    return true;
+  }
+
+  @Override
+  public boolean removeOneSong(String title) throws NullPointerException, IllegalArgumentException {
+    long start = startTiming();
+    if (title == null) {
+      throw new NullPointerException("Title is null");
+    }
+    Lock changeLock = changeLock();
+    ReentrantLock titleLock = titleLock(title);
+    changeLock.lock();
+    if (titleLock != null) {
+      titleLock.lock();
+    }
+    try {
+      SongInterface removed = removeSong(title);
+      if (log != null) {
+        try {
+          log.appendRemove(title);
+        } catch (IOException e) {
+          addSong(removed); // the remove is only kept once it is durable
+          throw new UncheckedIOException("Could not record the removal", e);
+        }
+        logged(1);
+      }
+    } finally {
+      if (titleLock != null) {
+        titleLock.unlock();
+      }
+      changeLock.unlock();
+      record(MusicFinderMetrics.Operation.REMOVE_ONE_SONG, start);
+    }
+    checkpointIfDue();
+    return true;
+  }
+
+  /**
+   * Adds a batch of songs that arrived from outside, like a watched directory of csv files.
+   * Songs whose title is already in the playlist are skipped. The whole batch is added under
+   * one lock, so readers wait for at most one batch at a time.
+   * 
+   * @param songs - the songs to add
+   * @return the number of songs that were added
+   */
+  public int ingestBatch(List<SongInterface> songs) {
+    List<SongInterface> sorted = new ArrayList<SongInterface>(songs);
+    sorted.sort(null); // neighbouring titles share most of their path in the tree
+    lock.writeLock().lock();
+    try {
+      int added = 0;
+      for (SongInterface song : sorted) {
+        try {
+          addSong(song);
+          added++;
+        } catch (IllegalArgumentException e) { // title is already in the playlist
+        }
+      }
+      return added;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Removes every song whose title is from fromTitle up to but not including toTitle, like a
+   * takedown of a whole label or prefix. The tree cuts the range out and joins what is left, so
+   * this costs O(log n) plus the songs removed instead of one rebalancing remove per song.
+   * 
+   * @param fromTitle - the smallest title to remove
+   * @param toTitle   - the titles removed are below this one
+   * @return the removed songs in title order
+   * @throws NullPointerException when a title is null
+   */
+  public List<SongInterface> removeSongsInRange(String fromTitle, String toTitle)
+      throws NullPointerException {
+    if (fromTitle == null || toTitle == null) {
+      throw new NullPointerException("Range bound is null");
+    }
+    lock.writeLock().lock();
+    try {
+      flush(); // buffered songs in the range have to go too
+      List<SongInterface> removed = tree.removeRange(new Song(fromTitle, "", ""),
+          new Song(toTitle, "", ""));
+      songsRemoved(removed);
+      return removed;
+    } finally {
+      lock.writeLock().unlock();
+      checkpointIfDue();
+    }
+  }
+
+  /**
+   * Removes the songs with the given titles in one batch, titles that are not in the playlist are
+   * skipped. The titles are sorted and handed to the tree at once, which takes them out as a set
+   * difference when they are at least as many as the songs.
+   * 
+   * @param titles - titles of the songs to remove
+   * @return the removed songs in title order
+   * @throws NullPointerException when titles or one of them is null
+   */
+  public List<SongInterface> removeSongs(Collection<String> titles) throws NullPointerException {
+    List<SongInterface> probes = new ArrayList<SongInterface>(titles.size());
+    for (String title : new TreeSet<String>(titles)) {
+      probes.add(new Song(title, "", ""));
+    }
+    lock.writeLock().lock();
+    try {
+      flush();
+      List<SongInterface> removed = tree.difference(probes);
+      songsRemoved(removed);
+      return removed;
+    } finally {
+      lock.writeLock().unlock();
+      checkpointIfDue();
+    }
+  }
+
+  /**
+   * Helper method that updates the indexes and the log after songs were taken out of the tree.
+   * When the log cannot record them, the songs are put back.
+   * 
+   * @param removed - the removed songs in title order
+   */
+  private void songsRemoved(List<SongInterface> removed) {
+    for (SongInterface song : removed) {
+      songChanged(song.getTitle(), null);
+    }
+    songCount -= removed.size();
+    if (log != null) {
+      try {
+        for (SongInterface song : removed) {
+          log.appendRemove(song.getTitle());
+        }
+      } catch (IOException e) {
+        tree.union(removed); // the removes are only kept once they are durable
+        for (SongInterface song : removed) {
+          songChanged(song.getTitle(), song);
+        }
+        songCount += removed.size();
+        throw new UncheckedIOException("Could not record the removals", e);
+      }
+      logged(removed.size());
+    }
+  }
+
+  /**
+   * Merges another catalog into the playlist: the songs of the file whose title is not in the
+   * playlist yet are added, songs already there are kept as they are. The file is sorted and
+   * handed to the tree at once, which merges it in as a set union when it is at least as big as
+   * the playlist. Like ingestBatch, the added songs are not logged.
+   * 
+   * @param filename - csv file with the catalog
+   * @return the number of songs that were added
+   * @throws FileNotFoundException when the file does not exist
+   */
+  public int mergeCatalog(String filename) throws FileNotFoundException {
+    List<SongInterface> songs = songReader.readMusicFromFile(filename);
+    songs.sort(null);
+    List<SongInterface> sorted = new ArrayList<SongInterface>(songs.size());
+    for (SongInterface song : songs) {
+      // the first row of a title wins
+      if (sorted.isEmpty() || sorted.get(sorted.size() - 1).compareTo(song) != 0) {
+        sorted.add(song);
+      }
+    }
+    lock.writeLock().lock();
+    try {
+      flush();
+      List<SongInterface> added = tree.union(sorted);
+      for (SongInterface song : added) {
+        if (knownTitles != null) {
+          knownTitles.add(song.getTitle());
+        }
+        songChanged(song.getTitle(), song);
+      }
+      songCount += added.size();
+      return added.size();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Helper method that adds a song to the write buffer or the tree, without logging it
+   * 
+   * @param song - the song to add
+   * @throws IllegalArgumentException when the playlist already has a song with this title
+   */
+  private void addSong(SongInterface song) throws IllegalArgumentException {
+    if (writeBuffer == null) {
+      tree.insert(song);
+      synchronized (indexLock) {
+        songChanged(song.getTitle(), song);
+        songCount++;
+      }
+      return;
+    }
+    String title = song.getTitle();
+    // duplicates have to be rejected right away, even though the song is merged later
+    if (writeBuffer.get(title) != null
+        || (knownTitles.mightContain(title) && tree.contains(song))) {
+      throw new IllegalArgumentException("The playlist already contains " + title);
+    }
+    writeBuffer.add(song);
+    knownTitles.add(title);
+    songChanged(title, song);
     songCount++;
-      return tree.insert(song);
+    if (writeBuffer.isFlushDue()) {
+      flush();
+    }
+  }
+
+  /**
+   * Helper method that removes a song from the write buffer or the tree, without logging it
+   * 
+   * @param title - title of the song to remove
+   * @return the song that was removed
+   * @throws IllegalArgumentException when no song has this title
+   * @throws IllegalStateException    when the playlist is empty
+   * @throws NullPointerException     when the title is null
+   */
+  private SongInterface removeSong(String title)
+      throws IllegalArgumentException, IllegalStateException, NullPointerException {
+    SongInterface song = writeBuffer == null ? null : writeBuffer.remove(title);
+    if (song == null) {
+      song = lookupSong(title);
+      tree.remove(song);
+    }
+    synchronized (indexLock) {
+      songChanged(title, null);
+      songCount--;
+    }
+    return song;
   }
 
 }
@@ -1,4 +1,6 @@
 import java.io.FileNotFoundException;
+import java.util.Collection;
+import java.util.List;
 
 public interface MusicFinderBackendInterface {
   // public MusicFinderBackend(RedBlackTreeInterface<SongInterface> redBlackTree,
@@ -7,19 +9,69 @@ public interface MusicFinderBackendInterface {
   //load csv data into rbtree
   public void loadData(String filename) throws FileNotFoundException;
   
+  //starts loading csv data on a background thread and returns right away, songs can be searched while the load runs, titles that may still come are reported as not loaded yet
+  public LoadProgress loadDataInBackground(String filename) throws FileNotFoundException, IllegalStateException;
+  
+  //returns the progress of the last background load, null when there was none
+  public LoadProgress getLoadProgress();
+  
   //returns a complete string with title, artist, and duration information
   public String  findSongByTitle(String words) throws IllegalArgumentException, IllegalStateException, NullPointerException;
   
+  //returns the song with the given title, so callers can keep it instead of searching again
+  public SongInterface findSong(String title) throws IllegalArgumentException, IllegalStateException, NullPointerException;
+  
   //returns only the title in a string
   public String  getDurationByTitle(String words) throws IllegalArgumentException, IllegalStateException, NullPointerException;
   
   //returns only the artist in a string
   public String getArtistByTitle(String words) throws IllegalArgumentException, IllegalStateException, NullPointerException;
   
-  //adds a song to the tree with song detail input from user
-  public boolean addOneSong(String title, String duration, String artist)throws NullPointerException, IllegalArgumentException;
+  //looks up many titles in one sorted pass over the rbtree, misses are reported instead of thrown
+  public SongLookupResult findSongsByTitles(Collection<String> titles) throws NullPointerException;
+  
+  //returns up to limit songs whose title starts with prefix, sorted by title
+  public List<SongInterface> findSongsByPrefix(String prefix, int limit) throws NullPointerException;
+
+  //returns up to limit songs whose title is at least fromTitle and below toTitle (no upper bound when toTitle is null), sorted by title
+  public List<SongInterface> findSongsInRange(String fromTitle, String toTitle, int limit) throws NullPointerException;
+
+  //returns up to limit songs of the given artist, sorted by title, this looks at every song
+  public List<SongInterface> findSongsByArtist(String artist, int limit) throws NullPointerException;
+
+  //returns up to k songs whose audio features are closest to the given song's, closest first
+  public List<SongInterface> findSimilarSongs(String title, int k) throws IllegalArgumentException, IllegalStateException, NullPointerException;
+
+  //returns up to limit songs with any of the genres (all songs when genres is null or empty), only explicit or only clean ones unless explicit is null, whose title starts with prefix, sorted by title
+  public List<SongInterface> findSongsByGenres(Collection<String> genres, Boolean explicit, String prefix, int limit) throws NullPointerException;
+
+  //returns up to count (at most 50) of the most popular songs of a genre, of a year (when year is positive) or overall when genre is null and year is not positive
+  public List<SongInterface> findTopSongs(String genre, int year, int count) throws IllegalArgumentException;
+  
+  //adds a song to the tree with song detail input from user, throws IllegalStateException while a load in the background may still bring the title and UnsupportedOperationException when the playlist is read-only
+  public boolean addOneSong(String title, String duration, String artist)throws NullPointerException, IllegalArgumentException, IllegalStateException, UnsupportedOperationException;
+  
+  //removes the song with the given title from the tree, throws UnsupportedOperationException when the playlist is read-only
+  public boolean removeOneSong(String title) throws NullPointerException, IllegalArgumentException, UnsupportedOperationException;
   
   //returns the numbers of songs in the rbtree in a string
   public int displaySongCount();
+  
+  //returns a copy of the statistics of the songs, estimated with sketches that are kept up to date on every change, so this does not look at the songs
+  public SongStatistics getStatistics();
+  
+  //returns a report of the recorded operation latencies and the shape of the rbtree
+  public String dumpMetrics();
+  
+  //turns a duration in ms into minutes:seconds, durations that already hold a colon are kept
+  public static String formatDuration(String duration) {
+    if (!duration.contains(":")) {
+      long ms = Long.parseLong(duration);
+      int seconds = (int) (ms / 1000) % 60;
+      int minutes = (int) ((ms / (1000*60)) % 60);
+      return "" + minutes + ":" + seconds;
+    }
+    else return duration;
+  }
 
 }
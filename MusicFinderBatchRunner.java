@@ -0,0 +1,351 @@
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This class runs frontend commands from a script instead of the menu. Every
+ * line holds one command, using the letters of the menu followed by its
+ * argument:
+ *
+ * L [file]                   loads a playlist
+ * + [title/duration/artist]  adds a song
+ * - [title]                  removes a song
+ * D [title]                  prints the duration of a song
+ * A [title]                  prints the artist of a song
+ * I [title]                  prints the artist and duration of a song
+ * N [title]                  prints the 10 songs that sound most like a song
+ * G [genres/flag/prefix]     prints the first 20 songs of any of the genres,
+ *                            separated by commas; flag is clean, explicit or
+ *                            any, flag and prefix may be left out
+ * P [year or genre]          prints the 50 most popular songs of a year, of a
+ *                            genre, or overall without an argument
+ * E [file] [prefix]          writes the songs whose title starts with prefix
+ *                            to a CSV or .jsonl file, gzipped for .gz, all
+ *                            songs when the prefix is left out
+ * H                          prints the search history
+ * C                          prints the number of songs
+ * S                          prints the statistics of the songs
+ * M                          prints the recorded metrics
+ * Q                          stops reading the script
+ *
+ * Empty lines and lines starting with # are skipped. Lookups run in parallel,
+ * while loads, adds, removes and the history wait for all earlier commands and
+ * run alone, so every command sees the effect of the commands before it. The
+ * results are written in script order through the given writer, without the
+ * menu.
+ */
+public class MusicFinderBatchRunner {
+
+    /**
+     * The outcome of a lookup: the lines to print and the song for the history
+     */
+    private static class Result {
+        private String text;
+        private SongInterface song;
+
+        private Result(String text, SongInterface song) {
+            this.text = text;
+            this.song = song;
+        }
+    }
+
+    private MusicFinderBackendInterface backend;
+    private SearchHistory history;
+    private Writer out;
+    private ExecutorService lookups;
+    private int maxPending; // lookups that may wait to be written, bounds the memory used
+    private ArrayDeque<Future<Result>> pending;
+
+    /**
+     * this method sets up the runner
+     *
+     * @param backend backend that runs the commands
+     * @param history search history the lookups are recorded in
+     * @param out     receives the results, it is flushed when the script is done
+     * @param threads number of lookups that run at the same time
+     */
+    public MusicFinderBatchRunner(MusicFinderBackendInterface backend, SearchHistory history,
+            Writer out, int threads) {
+        this.backend = backend;
+        this.history = history;
+        this.out = out;
+        this.lookups = Executors.newFixedThreadPool(Math.max(threads, 1), task -> {
+            Thread thread = new Thread(task, "music-finder-batch");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.maxPending = Math.max(threads, 1) * 256;
+        this.pending = new ArrayDeque<Future<Result>>();
+    }
+
+    /**
+     * runs every command of a script
+     *
+     * @param script the commands, one per line
+     * @return the number of commands that were run
+     * @throws IOException when the script cannot be read or the results cannot be written
+     */
+    public int run(Reader script) throws IOException {
+        BufferedReader lines = new BufferedReader(script, 1 << 16);
+        int commands = 0;
+        try {
+            String line;
+            while ((line = lines.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                char command = Character.toUpperCase(line.charAt(0));
+                if (command == 'Q') {
+                    break;
+                }
+                commands++;
+                runCommand(command, line.substring(1).trim());
+            }
+            writePending(0);
+        } finally {
+            lookups.shutdown();
+            out.flush();
+        }
+        return commands;
+    }
+
+    /**
+     * Helper method that runs one command: lookups are queued, everything else
+     * waits until the queued lookups are written
+     */
+    private void runCommand(char command, String argument) throws IOException {
+        switch (command) {
+            case 'D':
+            case 'A':
+            case 'I':
+            case 'N':
+            case 'G':
+            case 'P':
+                pending.add(lookups.submit(() -> lookup(command, argument)));
+                writePending(maxPending);
+                return;
+            default:
+                writePending(0); // later commands have to see the earlier lookups' results
+                out.write(change(command, argument));
+        }
+    }
+
+    /**
+     * Helper method that runs a lookup on the lookup threads. A lookup that
+     * fails only answers its own command with an error line, the script goes on.
+     */
+    private Result lookup(char command, String argument) {
+        try {
+            return answer(command, argument);
+        } catch (RuntimeException e) {
+            return new Result("Error: " + command + " " + argument + " failed: " + e.getMessage()
+                    + "\n", null);
+        }
+    }
+
+    /**
+     * Helper method that looks a song up
+     */
+    private Result answer(char command, String title) {
+        if (command == 'N') {
+            return nearest(title);
+        } else if (command == 'G') {
+            return byGenre(title);
+        } else if (command == 'P') {
+            return top(title);
+        }
+        SongInterface song;
+        try {
+            song = backend.findSong(title);
+        } catch (IllegalArgumentException | IllegalStateException | NullPointerException e) {
+            return new Result("Song title doesn't exist.\n", null);
+        }
+        String duration = MusicFinderBackendInterface.formatDuration(song.getDuration());
+        if (command == 'D') {
+            return new Result("Duration of " + title + ": " + duration + "\n", song);
+        } else if (command == 'A') {
+            return new Result("Artist of " + title + ": " + song.getArtist() + "\n", song);
+        }
+        return new Result(title + "\n" + song.getArtist() + ", " + duration + "\n", song);
+    }
+
+    /**
+     * Helper method that lists the songs that sound most like a song, runs on
+     * the lookup threads
+     */
+    private Result nearest(String title) {
+        List<SongInterface> songs;
+        try {
+            songs = backend.findSimilarSongs(title, 10);
+        } catch (IllegalArgumentException | IllegalStateException | NullPointerException e) {
+            return new Result("Song title doesn't exist or has no audio features.\n", null);
+        }
+        StringBuilder text = new StringBuilder("Songs like ").append(title).append(":\n");
+        int i = 1;
+        for (SongInterface song : songs) {
+            text.append(i++).append(". ").append(song.getTitle()).append(" by ")
+                    .append(song.getArtist()).append(", ")
+                    .append(MusicFinderBackendInterface.formatDuration(song.getDuration()))
+                    .append("\n");
+        }
+        return new Result(text.toString(), null);
+    }
+
+    /**
+     * Helper method that lists the songs of some genres, runs on the lookup
+     * threads
+     */
+    private Result byGenre(String argument) {
+        String[] parts = argument.split("/", 3);
+        List<String> genres = new ArrayList<String>();
+        for (String genre : parts[0].split(",")) {
+            if (!genre.isBlank()) {
+                genres.add(genre.trim());
+            }
+        }
+        String flag = parts.length > 1 ? parts[1].trim().toLowerCase() : "any";
+        Boolean explicit = flag.equals("explicit") ? Boolean.TRUE : flag.equals("clean") ? Boolean.FALSE : null;
+        String prefix = parts.length > 2 ? parts[2].trim() : "";
+        StringBuilder text = new StringBuilder("Songs of ").append(parts[0].trim()).append(":\n");
+        int i = 1;
+        for (SongInterface song : backend.findSongsByGenres(genres, explicit, prefix, 20)) {
+            text.append(i++).append(". ").append(song.getTitle()).append(" by ")
+                    .append(song.getArtist()).append(", ")
+                    .append(MusicFinderBackendInterface.formatDuration(song.getDuration()))
+                    .append("\n");
+        }
+        return new Result(text.toString(), null);
+    }
+
+    /**
+     * Helper method that lists the most popular songs, runs on the lookup
+     * threads
+     */
+    private Result top(String argument) {
+        List<SongInterface> songs;
+        if (argument.matches("[0-9]+")) {
+            int year;
+            try {
+                year = Integer.parseInt(argument);
+            } catch (NumberFormatException e) {
+                return new Result("Year " + argument + " is out of range.\n", null);
+            }
+            songs = backend.findTopSongs(null, year, 50);
+        } else {
+            songs = backend.findTopSongs(argument.isEmpty() ? null : argument, 0, 50);
+        }
+        StringBuilder text = new StringBuilder("Most popular songs")
+                .append(argument.isEmpty() ? "" : " of " + argument).append(":\n");
+        int i = 1;
+        for (SongInterface song : songs) {
+            text.append(i++).append(". ").append(song.getTitle()).append(" by ")
+                    .append(song.getArtist()).append(", popularity ").append(song.getPopularity())
+                    .append("\n");
+        }
+        return new Result(text.toString(), null);
+    }
+
+    /**
+     * Helper method that runs a command that is not a lookup
+     *
+     * @return the lines to print
+     */
+    private String change(char command, String argument) {
+        switch (command) {
+            case 'L':
+                try {
+                    backend.loadData(argument);
+                    return argument + " loaded successfully!\n";
+                } catch (FileNotFoundException e) {
+                    return "Error: Could not find or load file " + argument + "\n";
+                }
+            case '+':
+                String[] details = argument.split("/");
+                if (details.length != 3 || !details[1].trim().matches("[0-9:]+")) {
+                    return "Invalid data/format entered!\n";
+                }
+                try {
+                    backend.addOneSong(details[0].trim(), details[1].trim(), details[2].trim());
+                    return "Song successfully added!\n";
+                } catch (NullPointerException e) {
+                    return "Missing data!\n";
+                } catch (IllegalArgumentException e) {
+                    return "Song already exists!\n";
+                } catch (IllegalStateException | UnsupportedOperationException e) {
+                    return e.getMessage() + "\n";
+                }
+            case '-':
+                try {
+                    backend.removeOneSong(argument);
+                    return "Song successfully removed!\n";
+                } catch (IllegalArgumentException | IllegalStateException e) {
+                    return "Song title doesn't exist.\n";
+                } catch (UnsupportedOperationException e) {
+                    return e.getMessage() + "\n";
+                }
+            case 'E':
+                String[] export = argument.split(" ", 2);
+                String fileName = export[0].trim();
+                String prefix = export.length > 1 ? export[1].trim() : "";
+                try (Writer file = SongExporter.open(fileName)) {
+                    int count = new SongExporter(file, SongExporter.formatOf(fileName))
+                            .export(backend, prefix, SongExporter.prefixEnd(prefix));
+                    return count + " songs exported to " + fileName + "\n";
+                } catch (IOException e) {
+                    return "Error: Could not write file " + fileName + "\n";
+                }
+            case 'C':
+                return "Total songs in playlist: " + backend.displaySongCount() + "\n";
+            case 'S':
+                return backend.getStatistics() + "\n";
+            case 'M':
+                return backend.dumpMetrics() + "\n";
+            case 'H':
+                StringBuilder text = new StringBuilder();
+                text.append("Total searched songs: ").append(history.size()).append("\n");
+                int i = 1;
+                for (SongInterface song : history.recent()) {
+                    text.append(i++).append(". ").append(song.getTitle()).append(" by ")
+                            .append(song.getArtist()).append(", ")
+                            .append(MusicFinderBackendInterface.formatDuration(song.getDuration()))
+                            .append("\n");
+                }
+                return text.toString();
+            default:
+                return "Unrecognizable command: " + command + "\n";
+        }
+    }
+
+    /**
+     * Helper method that writes finished lookups in script order until at most
+     * the given number are left waiting
+     */
+    private void writePending(int keep) throws IOException {
+        while (pending.size() > keep) {
+            Result result;
+            try {
+                result = pending.poll().get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for a lookup", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Lookup failed", e.getCause());
+            }
+            if (result.song != null) {
+                history.record(result.song); // recorded in script order
+            }
+            out.write(result.text);
+        }
+    }
+
+}
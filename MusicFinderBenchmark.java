@@ -0,0 +1,2070 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Simple benchmark driver for the Music Finder backend. Each scenario builds a
+ * synthetic playlist, warms up and then prints the time taken by the competing
+ * approaches. Run with the name of the scenario as the first argument, e.g.
+ * "java MusicFinderBenchmark batchLookup".
+ */
+public class MusicFinderBenchmark {
+
+  private static final int WARMUP_ROUNDS = 20;
+  private static final int MEASURED_ROUNDS = 10;
+
+  /**
+   * Builds a backend holding the given number of songs with random titles
+   *
+   * @param backend   - backend to fill
+   * @param songCount - number of songs to add
+   * @param random    - source of the titles
+   * @return the titles that were added, in insertion order
+   */
+  private static List<String> fillBackend(MusicFinderBackendInterface backend, int songCount,
+      Random random) {
+    List<String> titles = new ArrayList<String>(songCount);
+    while (titles.size() < songCount) {
+      String title = randomTitle(random);
+      try {
+        backend.addOneSong(title, "" + (120000 + random.nextInt(180000)), "Artist " + random.nextInt(1000));
+        titles.add(title);
+      } catch (IllegalArgumentException e) { // duplicate title, pick another one
+      }
+    }
+    return titles;
+  }
+
+  /**
+   * Generates a random song title
+   *
+   * @param random - source of the title
+   * @return a title made of two random words
+   */
+  private static String randomTitle(Random random) {
+    return "Song " + Long.toString(random.nextLong() & Long.MAX_VALUE, 36) + " "
+        + Integer.toString(random.nextInt(1 << 20), 36);
+  }
+
+  /**
+   * Prints the average time of a task over the measured rounds, after warming it up
+   *
+   * @param label - name of the task to print
+   * @param task  - the task to time
+   */
+  private static void time(String label, Runnable task) {
+    time(label, WARMUP_ROUNDS, MEASURED_ROUNDS, task);
+  }
+
+  /**
+   * Prints the average time of a task, for tasks too slow for the default number of rounds
+   *
+   * @param label          - name of the task to print
+   * @param warmupRounds   - number of untimed runs
+   * @param measuredRounds - number of timed runs
+   * @param task           - the task to time
+   */
+  private static void time(String label, int warmupRounds, int measuredRounds, Runnable task) {
+    for (int i = 0; i < warmupRounds; i++) {
+      task.run();
+    }
+    long start = System.nanoTime();
+    for (int i = 0; i < measuredRounds; i++) {
+      task.run();
+    }
+    long average = (System.nanoTime() - start) / measuredRounds;
+    System.out.printf("  %-40s %10.3f ms%n", label, average / 1e6);
+  }
+
+  /**
+   * Compares N individual getArtistByTitle calls against one findSongsByTitles
+   * call. Half of the probes are hits and half are misses.
+   */
+  private static void batchLookup() {
+    Random random = new Random(42);
+    MusicFinderBackendInterface backend =
+        new MusicFinderBackend(new RedBlackTree<SongInterface>(), new SongReader());
+    List<String> titles = fillBackend(backend, 200000, random);
+    System.out.println("batchLookup over " + titles.size() + " songs");
+
+    for (int probeCount : new int[] {1000, 10000, 100000}) {
+      List<String> probes = new ArrayList<String>(probeCount);
+      for (int i = 0; i < probeCount; i++) {
+        probes.add(i % 2 == 0 ? titles.get(random.nextInt(titles.size())) : randomTitle(random));
+      }
+      Collections.shuffle(probes, random);
+
+      System.out.println(" " + probeCount + " probes");
+      time("individual getArtistByTitle", () -> {
+        int hits = 0;
+        for (String probe : probes) {
+          try {
+            backend.getArtistByTitle(probe);
+            hits++;
+          } catch (IllegalArgumentException e) { // miss
+          }
+        }
+        blackhole(hits);
+      });
+      time("findSongsByTitles", () -> blackhole(backend.findSongsByTitles(probes).getFound().size()));
+    }
+  }
+
+  /**
+   * Compares adding songs straight into the tree with buffered, batched adds,
+   * both on top of an already loaded playlist.
+   */
+  private static void bufferedInsert() {
+    int baseCount = 500000;
+    int addCount = 200000;
+    Random random = new Random(7);
+    List<SongInterface> base = new ArrayList<SongInterface>(baseCount);
+    for (int i = 0; i < baseCount; i++) {
+      base.add(new Song(randomTitle(random) + " " + i, "Artist", "200000"));
+    }
+    base.sort(null);
+    List<String> titles = new ArrayList<String>(addCount);
+    for (int i = 0; i < addCount; i++) {
+      titles.add(randomTitle(random) + " new " + i);
+    }
+    System.out.println("bufferedInsert of " + addCount + " songs into " + baseCount + " songs");
+
+    time("building the playlist only", 2, 3, () -> blackhole(loadedTree(base).size()));
+    time("addOneSong, unbuffered", 2, 3, () -> addAll(
+        new MusicFinderBackend(loadedTree(base), new SongReader(), 1, 0), titles));
+    time("addOneSong, buffered by 8192", 2, 3, () -> addAll(
+        new MusicFinderBackend(loadedTree(base), new SongReader(), 8192, 1000), titles));
+    time("addOneSong, buffered by 65536", 2, 3, () -> addAll(
+        new MusicFinderBackend(loadedTree(base), new SongReader(), 65536, 1000), titles));
+  }
+
+  /**
+   * Compares findSongByTitle with and without the result cache, and findSong through the cache,
+   * on a skewed workload: titles are drawn from a Zipf distribution, so a few songs get most of
+   * the lookups, and one lookup in ten is for a title that is not in the playlist.
+   */
+  private static void cachedLookup() {
+    Random random = new Random(11);
+    MusicFinderBackend plain = new MusicFinderBackend(new RedBlackTree<SongInterface>(), new SongReader());
+    List<String> titles = fillBackend(plain, 200000, random);
+    MusicFinderBackend cached = new MusicFinderBackend(new RedBlackTree<SongInterface>(), new SongReader());
+    for (String title : titles) {
+      cached.addOneSong(title, plain.getDurationByTitle(title), plain.getArtistByTitle(title));
+    }
+    LookupResultCache cache = new LookupResultCache(10000);
+    cached.setResultCache(cache);
+
+    // cumulative Zipf weights with exponent 1 over the titles
+    double[] cumulative = new double[titles.size()];
+    double total = 0;
+    for (int i = 0; i < cumulative.length; i++) {
+      total += 1.0 / (i + 1);
+      cumulative[i] = total;
+    }
+    List<String> probes = new ArrayList<String>(200000);
+    for (int i = 0; i < 200000; i++) {
+      if (random.nextInt(10) == 0) {
+        probes.add(randomTitle(random));
+      } else {
+        int rank = Arrays.binarySearch(cumulative, random.nextDouble() * total);
+        probes.add(titles.get(rank < 0 ? -rank - 1 : rank));
+      }
+    }
+    System.out.println("cachedLookup of " + probes.size() + " Zipf titles over " + titles.size()
+        + " songs, cache of 10000");
+
+    time("findSongByTitle, uncached", 5, 5, () -> blackhole(lookupAll(plain, probes)));
+    time("findSongByTitle, cached", 5, 5, () -> blackhole(lookupAll(cached, probes)));
+    time("findSong, cached", 5, 5, () -> {
+      int hits = 0;
+      for (String title : probes) {
+        try {
+          hits += cached.findSong(title) != null ? 1 : 0;
+        } catch (IllegalArgumentException e) { // miss
+        }
+      }
+      blackhole(hits);
+    });
+    System.out.println("  " + cache);
+  }
+
+  /**
+   * Looks every title up and counts the hits
+   */
+  private static int lookupAll(MusicFinderBackendInterface backend, List<String> titles) {
+    int hits = 0;
+    for (String title : titles) {
+      try {
+        hits += backend.findSongByTitle(title).length() > 0 ? 1 : 0;
+      } catch (IllegalArgumentException e) { // miss
+      }
+    }
+    return hits;
+  }
+
+  /**
+   * Randomized property check of the trees rather than a timing: runs millions of random
+   * inserts, removes and sorted batch inserts against a TreeSet and calls verify along the way,
+   * so any broken invariant or lost value stops the run with an exception.
+   */
+  private static void propertyCheck() {
+    long start = System.nanoTime();
+    System.out.println(" RedBlackTree");
+    propertyCheck(() -> new RedBlackTree<Integer>());
+    // a small order makes the B+ tree split, borrow and merge on almost every change
+    System.out.println(" BPlusTree of order 4");
+    propertyCheck(() -> new BPlusTree<Integer>(4));
+    System.out.println(" BPlusTree of order " + BPlusTree.DEFAULT_ORDER);
+    propertyCheck(() -> new BPlusTree<Integer>());
+    System.out.printf("  all invariants held, %.1f s%n", (System.nanoTime() - start) / 1e9);
+  }
+
+  /**
+   * Runs the property check on trees made by the given supplier
+   */
+  private static <R extends RedBlackTreeInterface<Integer> & TreeShapeInterface> void propertyCheck(
+      Supplier<R> newTree) {
+    Random random = new Random(36);
+    // many small trees, verified after every change, catch local mistakes in the fix-ups
+    long operations = 0;
+    for (int round = 0; round < 1000; round++) {
+      RedBlackTreeInterface<Integer> tree = newTree.get();
+      TreeSet<Integer> expected = new TreeSet<Integer>();
+      for (int i = 0; i < 1000; i++) {
+        randomChange(tree, expected, random, 2000);
+        tree.verify();
+        operations++;
+      }
+      checkSameValues(tree, expected);
+    }
+    System.out.println("  " + operations + " changes on small trees, verified after each");
+
+    // a batch ending in a stored value, from a new value just below it, has to fail wherever
+    // the stored value sits in the tree
+    for (int stored = 10; stored <= 150; stored += 10) {
+      RedBlackTreeInterface<Integer> small = newTree.get();
+      for (int value = 10; value <= 150; value += 10) {
+        small.insert(value);
+      }
+      try {
+        small.insertAllSorted(Arrays.asList(stored - 5, stored));
+        throw new IllegalStateException("Batch [" + (stored - 5) + ", " + stored
+            + "] did not fail");
+      } catch (IllegalArgumentException e) { // stored already
+      }
+      small.verify();
+      if (small.size() > 16 || small.contains(stored - 5) != (small.size() == 16)) {
+        throw new IllegalStateException("Failed batch left " + small.size() + " values");
+      }
+    }
+
+    // one big tree, verified now and then
+    R tree = newTree.get();
+    TreeSet<Integer> expected = new TreeSet<Integer>();
+    for (int i = 0; i < 3000000; i++) {
+      randomChange(tree, expected, random, 4000000);
+      if (i % 500000 == 0) {
+        tree.verify();
+      }
+    }
+    tree.verify();
+    checkSameValues(tree, expected);
+    System.out.println("  3000000 changes on one tree, " + tree.size() + " values, height "
+        + tree.height() + " (bound " + tree.heightBound() + ")");
+
+    // ascending keys are the classic worst case for an unbalanced tree
+    R ascending = newTree.get();
+    for (int i = 0; i < 1000000; i++) {
+      ascending.insert(i);
+    }
+    ascending.verify();
+    System.out.println("  1000000 ascending inserts, height " + ascending.height() + " (bound "
+        + ascending.heightBound() + ")");
+  }
+
+  /**
+   * Applies one random insert, remove, small sorted batch insert or bulk change to the tree and
+   * the expected set
+   */
+  private static void randomChange(RedBlackTreeInterface<Integer> tree, TreeSet<Integer> expected,
+      Random random, int valueRange) {
+    int dice = random.nextInt(100);
+    if (dice < 60) {
+      int value = random.nextInt(valueRange);
+      if (expected.add(value)) {
+        tree.insert(value);
+      }
+    } else if (dice < 97) {
+      Integer value = expected.ceiling(random.nextInt(valueRange));
+      if (value != null) {
+        expected.remove(value);
+        tree.remove(value);
+      }
+    } else if (dice == 97) {
+      bulkChange(tree, expected, random, valueRange);
+    } else {
+      List<Integer> batch = new ArrayList<Integer>();
+      for (int i = random.nextInt(20); i > 0; i--) {
+        int value = random.nextInt(valueRange);
+        if (!expected.contains(value) && !batch.contains(value)) {
+          batch.add(value);
+        }
+      }
+      // every other batch also holds a stored value, which has to fail it
+      Integer stored = random.nextBoolean() ? expected.ceiling(random.nextInt(valueRange)) : null;
+      if (stored != null) {
+        batch.add(stored);
+      }
+      Collections.sort(batch);
+      try {
+        tree.insertAllSorted(batch);
+        if (stored != null) {
+          throw new IllegalStateException("Batch " + batch + " holds the stored " + stored);
+        }
+        expected.addAll(batch);
+      } catch (IllegalArgumentException e) {
+        if (stored == null) {
+          throw e;
+        }
+        // a batch that fails may keep the values before the duplicate, never the ones after it
+        for (Integer value : batch) {
+          if (value < stored && tree.contains(value)) {
+            expected.add(value);
+          } else if (value > stored && tree.contains(value)) {
+            throw new IllegalStateException("Failed batch " + batch + " kept " + value);
+          }
+        }
+      }
+      if (stored != null && tree.size() != expected.size()) {
+        throw new IllegalStateException("Failed batch " + batch + " left " + tree.size()
+            + " values instead of " + expected.size());
+      }
+    }
+  }
+
+  /**
+   * Applies one removeRange, union or difference over a short span of values to the tree and
+   * the expected set, and checks the values they return
+   */
+  private static void bulkChange(RedBlackTreeInterface<Integer> tree, TreeSet<Integer> expected,
+      Random random, int valueRange) {
+    int from = random.nextInt(valueRange);
+    int to = from + random.nextInt(Math.max(valueRange / 500, 2));
+    List<Integer> batch = new ArrayList<Integer>();
+    for (int value = from; value < to; value++) {
+      if (random.nextBoolean()) {
+        batch.add(value);
+      }
+    }
+    List<Integer> returned;
+    List<Integer> wanted = new ArrayList<Integer>();
+    switch (random.nextInt(3)) {
+      case 0:
+        wanted.addAll(expected.subSet(from, to));
+        expected.removeAll(wanted);
+        returned = tree.removeRange(from, to);
+        break;
+      case 1:
+        for (Integer value : batch) {
+          if (expected.add(value)) {
+            wanted.add(value);
+          }
+        }
+        returned = tree.union(batch);
+        break;
+      default:
+        for (Integer value : batch) {
+          if (expected.remove(value)) {
+            wanted.add(value);
+          }
+        }
+        returned = tree.difference(batch);
+        break;
+    }
+    if (!returned.equals(wanted)) {
+      throw new IllegalStateException("Bulk change returned " + returned + ", expected " + wanted);
+    }
+  }
+
+  /**
+   * Makes sure the tree holds exactly the expected values
+   */
+  private static void checkSameValues(RedBlackTreeInterface<Integer> tree,
+      TreeSet<Integer> expected) {
+    if (tree.size() != expected.size()) {
+      throw new IllegalStateException("Tree has " + tree.size() + " values, expected "
+          + expected.size());
+    }
+    Iterator<Integer> values = tree.iterator();
+    for (Integer value : expected) {
+      Integer stored = values.next();
+      if (!value.equals(stored)) {
+        throw new IllegalStateException("Tree holds " + stored + " where " + value
+            + " was expected");
+      }
+    }
+  }
+
+  /**
+   * Compares the red-black tree with the B+ tree at 10^5 songs and every power of ten up to the
+   * given count: building by single inserts and by one sorted batch, random lookups, short range
+   * scans and a full walk. 10^7 songs need a heap of about 4 GB (-Xmx4g).
+   *
+   * @param maxSongs - the biggest playlist to try
+   */
+  private static void storeCompare(int maxSongs) {
+    Random random = new Random(37);
+    for (int songCount = 100000; songCount <= maxSongs; songCount *= 10) {
+      List<SongInterface> songs = new ArrayList<SongInterface>(songCount);
+      for (int i = 0; i < songCount; i++) {
+        songs.add(new Song(randomTitle(random) + " " + i, "Artist", "200000"));
+      }
+      List<SongInterface> sorted = new ArrayList<SongInterface>(songs);
+      sorted.sort(null);
+      List<SongInterface> probes = new ArrayList<SongInterface>(1000000);
+      for (int i = 0; i < 1000000; i++) {
+        // half of the probes miss
+        probes.add(i % 2 == 0 ? songs.get(random.nextInt(songCount))
+            : new Song(randomTitle(random), "", ""));
+      }
+      System.out.println("storeCompare over " + songCount + " songs");
+      int rounds = songCount >= 1000000 ? 1 : 5;
+      storeCompare("RedBlackTree", () -> new RedBlackTree<SongInterface>(), songs, sorted, probes,
+          rounds);
+      storeCompare("BPlusTree", () -> new BPlusTree<SongInterface>(), songs, sorted, probes,
+          rounds);
+      if ((long) songCount * 10 > maxSongs) {
+        break;
+      }
+    }
+  }
+
+  /**
+   * Times the storeCompare tasks on one kind of tree
+   */
+  private static void storeCompare(String name, Supplier<RedBlackTreeInterface<SongInterface>> newTree,
+      List<SongInterface> songs, List<SongInterface> sorted, List<SongInterface> probes,
+      int rounds) {
+    System.out.println(" " + name);
+    time("insert one at a time", rounds, rounds, () -> {
+      RedBlackTreeInterface<SongInterface> tree = newTree.get();
+      for (SongInterface song : songs) {
+        tree.insert(song);
+      }
+      blackhole(tree.size());
+    });
+    time("insertAllSorted", rounds, rounds, () -> {
+      RedBlackTreeInterface<SongInterface> tree = newTree.get();
+      tree.insertAllSorted(sorted);
+      blackhole(tree.size());
+    });
+    RedBlackTreeInterface<SongInterface> tree = newTree.get();
+    tree.insertAllSorted(sorted);
+    time("1000000 random lookups", rounds, rounds, () -> {
+      int hits = 0;
+      for (SongInterface probe : probes) {
+        if (tree.contains(probe)) {
+          hits++;
+        }
+      }
+      blackhole(hits);
+    });
+    time("10000 scans of 100 songs", rounds, rounds, () -> {
+      int length = 0;
+      for (int i = 0; i < 10000; i++) {
+        Iterator<SongInterface> run = tree.iteratorFrom(probes.get(i));
+        for (int j = 0; j < 100 && run.hasNext(); j++) {
+          length += run.next().getTitle().length();
+        }
+      }
+      blackhole(length);
+    });
+    time("full walk", rounds, rounds, () -> {
+      int length = 0;
+      for (SongInterface song : tree) {
+        length += song.getTitle().length();
+      }
+      blackhole(length);
+    });
+  }
+
+  /**
+   * Compares a ConcurrentSkipListCollection with a RedBlackTree behind a read-write lock, as
+   * the backend guards it, when several threads share them: 95% of the operations look up a
+   * song, 5% insert a new song or remove one inserted earlier. Prints the throughput at 1 to 2x
+   * the number of cores threads, for the collections alone and behind a MusicFinderBackend, and
+   * checks that the backend's song count matches its store after the concurrent changes.
+   */
+  private static void concurrentMix() {
+    int songCount = 500000;
+    Random random = new Random(38);
+    List<SongInterface> sorted = new ArrayList<SongInterface>(songCount);
+    for (int i = 0; i < songCount; i++) {
+      sorted.add(new Song(randomTitle(random) + " " + i, "Artist", "200000"));
+    }
+    List<SongInterface> songs = new ArrayList<SongInterface>(sorted);
+    sorted.sort(null);
+    int cores = Runtime.getRuntime().availableProcessors();
+    System.out.println("concurrentMix over " + songCount + " songs, " + cores + " cores");
+    for (int threads = 1; threads <= Math.max(2 * cores, 4); threads *= 2) {
+      System.out.println(" " + threads + " threads");
+      RedBlackTree<SongInterface> tree = new RedBlackTree<SongInterface>();
+      tree.insertAllSorted(sorted);
+      concurrentMix("RedBlackTree with a read-write lock", tree, new ReentrantReadWriteLock(),
+          songs, threads);
+      ConcurrentSkipListCollection<SongInterface> skipList =
+          new ConcurrentSkipListCollection<SongInterface>();
+      skipList.insertAllSorted(sorted);
+      concurrentMix("ConcurrentSkipListCollection", skipList, null, songs, threads);
+      backendMix("backend over RedBlackTree", new RedBlackTree<SongInterface>(), sorted, threads);
+      backendMix("backend over ConcurrentSkipListCollection",
+          new ConcurrentSkipListCollection<SongInterface>(), sorted, threads);
+    }
+  }
+
+  /**
+   * Runs the concurrentMix workload through findSong, addOneSong and removeOneSong of a
+   * MusicFinderBackend and prints its throughput. The backend takes its write lock for the adds
+   * and removes of a RedBlackTree, but only the read lock and a per-title lock for a
+   * ConcurrentSkipListCollection.
+   */
+  private static void backendMix(String label, RedBlackTreeInterface<SongInterface> store,
+      List<SongInterface> sorted, int threads) {
+    MusicFinderBackend backend = new MusicFinderBackend(store, new SongReader());
+    backend.ingestBatch(sorted);
+    int operationsPerThread = 2000000 / threads;
+    Thread[] workers = new Thread[threads];
+    for (int t = 0; t < threads; t++) {
+      int id = t;
+      workers[t] = new Thread(() -> {
+        Random random = new Random(id);
+        ArrayDeque<String> added = new ArrayDeque<String>();
+        int hits = 0;
+        for (int i = 0; i < operationsPerThread; i++) {
+          int dice = random.nextInt(100);
+          if (dice >= 5) {
+            hits += backend.findSong(sorted.get(random.nextInt(sorted.size())).getTitle()) != null
+                ? 1 : 0;
+          } else if (dice < 3 || added.isEmpty()) {
+            String title = "Thread " + id + " song " + i;
+            backend.addOneSong(title, "200000", "Artist");
+            added.add(title);
+          } else {
+            backend.removeOneSong(added.poll());
+          }
+        }
+        blackhole(hits);
+      });
+    }
+    long start = System.nanoTime();
+    for (Thread worker : workers) {
+      worker.start();
+    }
+    for (Thread worker : workers) {
+      try {
+        worker.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+    long elapsed = System.nanoTime() - start;
+    store.verify();
+    if (backend.displaySongCount() != store.size()) {
+      throw new IllegalStateException(label + " counts " + backend.displaySongCount()
+          + " songs but stores " + store.size());
+    }
+    System.out.printf("  %-40s %10.0f ops/ms%n", label,
+        (double) operationsPerThread * threads / (elapsed / 1e6));
+  }
+
+  /**
+   * Runs the concurrentMix workload on one collection and prints its throughput
+   *
+   * @param lock - lock that guards the collection, or null when it needs none
+   */
+  private static void concurrentMix(String label, RedBlackTreeInterface<SongInterface> store,
+      ReentrantReadWriteLock lock, List<SongInterface> songs, int threads) {
+    int operationsPerThread = 2000000 / threads;
+    Thread[] workers = new Thread[threads];
+    for (int t = 0; t < threads; t++) {
+      int id = t;
+      workers[t] = new Thread(() -> {
+        Random random = new Random(id);
+        ArrayDeque<SongInterface> added = new ArrayDeque<SongInterface>();
+        int hits = 0;
+        for (int i = 0; i < operationsPerThread; i++) {
+          int dice = random.nextInt(100);
+          if (dice >= 5) {
+            SongInterface probe = songs.get(random.nextInt(songs.size()));
+            if (lock != null) {
+              lock.readLock().lock();
+            }
+            try {
+              hits += store.contains(probe) ? 1 : 0;
+            } finally {
+              if (lock != null) {
+                lock.readLock().unlock();
+              }
+            }
+            continue;
+          }
+          // adds and removes take turns, so the collection keeps its size
+          boolean insert = dice < 3 || added.isEmpty();
+          SongInterface song = insert ? new Song("Thread " + id + " song " + i, "Artist", "200000")
+              : added.poll();
+          if (lock != null) {
+            lock.writeLock().lock();
+          }
+          try {
+            if (insert) {
+              store.insert(song);
+              added.add(song);
+            } else {
+              store.remove(song);
+            }
+          } finally {
+            if (lock != null) {
+              lock.writeLock().unlock();
+            }
+          }
+        }
+        blackhole(hits);
+      });
+    }
+    long start = System.nanoTime();
+    for (Thread worker : workers) {
+      worker.start();
+    }
+    for (Thread worker : workers) {
+      try {
+        worker.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+    long elapsed = System.nanoTime() - start;
+    System.out.printf("  %-40s %10.0f ops/ms%n", label,
+        (double) operationsPerThread * threads / (elapsed / 1e6));
+  }
+
+  /**
+   * Loads the same csv file into a ShardedMusicFinderBackend with 1 to 8 shards and times the
+   * load, prefix and artist queries and single lookups, checking that every shard count gives
+   * the same answers.
+   */
+  private static void shardedLoad() {
+    int songCount = 1000000;
+    Random random = new Random(39);
+    File csv;
+    List<String> titles = new ArrayList<String>(songCount);
+    try {
+      csv = File.createTempFile("music-finder", ".csv");
+      csv.deleteOnExit();
+      try (PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(csv), 1 << 16))) {
+        out.println("artist,song,duration_ms");
+        for (int i = 0; i < songCount; i++) {
+          String title = randomTitle(random) + " " + i;
+          titles.add(title);
+          out.println("Artist " + random.nextInt(1000) + "," + title + ","
+              + (120000 + random.nextInt(180000)));
+        }
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    System.out.println("shardedLoad of " + songCount + " songs, "
+        + Runtime.getRuntime().availableProcessors() + " cores");
+    List<String> expectedPrefix = null;
+    List<String> expectedArtist = null;
+    for (int shardCount = 1; shardCount <= 8; shardCount *= 2) {
+      System.out.println(" " + shardCount + " shards");
+      int shards = shardCount;
+      ShardedMusicFinderBackend[] loaded = new ShardedMusicFinderBackend[1];
+      time("loadData", 1, 3, () -> {
+        loaded[0] = new ShardedMusicFinderBackend(shards, RedBlackTree::new, new SongReader());
+        try {
+          loaded[0].loadData(csv.getPath());
+        } catch (FileNotFoundException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+      ShardedMusicFinderBackend backend = loaded[0];
+      time("1000 prefix queries of 20 songs", () -> {
+        int found = 0;
+        for (int i = 0; i < 1000; i++) {
+          found += backend.findSongsByPrefix("Song " + Integer.toString(i % 36, 36), 20).size();
+        }
+        blackhole(found);
+      });
+      time("10 artist queries", 2, 5, () -> {
+        int found = 0;
+        for (int i = 0; i < 10; i++) {
+          found += backend.findSongsByArtist("Artist " + i, Integer.MAX_VALUE).size();
+        }
+        blackhole(found);
+      });
+      time("100000 lookups", () -> blackhole(lookupAll(backend, titles.subList(0, 100000))));
+      List<String> prefix = titlesOf(backend.findSongsByPrefix("Song a", 100));
+      List<String> artist = titlesOf(backend.findSongsByArtist("Artist 7", Integer.MAX_VALUE));
+      if (expectedPrefix == null) {
+        expectedPrefix = prefix;
+        expectedArtist = artist;
+      } else if (!prefix.equals(expectedPrefix) || !artist.equals(expectedArtist)
+          || backend.displaySongCount() != songCount) {
+        throw new IllegalStateException(shardCount + " shards answer differently than one");
+      }
+    }
+  }
+
+  /**
+   * Times how soon a background load answers its first lookup against how long the whole load
+   * takes, for a file sorted by title and a shuffled one, on one backend and on 4 shards. While
+   * the load runs, another thread looks up titles of the file and titles that are not in it: a
+   * title of the file may be reported as not loaded yet but never as missing, and once the load
+   * is done every title of the file has to be found. A file holding a title twice has to end the
+   * load with a failure in its progress.
+   *
+   * @param songCount - number of songs in the file
+   */
+  private static void backgroundLoad(int songCount) {
+    Random random = new Random(47);
+    List<String> titles = new ArrayList<String>(songCount);
+    for (int i = 0; i < songCount; i++) {
+      titles.add(randomTitle(random) + " " + i);
+    }
+    List<String> sorted = new ArrayList<String>(titles);
+    Collections.sort(sorted);
+    System.out.println("backgroundLoad of " + songCount + " songs");
+    for (boolean sortedFile : new boolean[] {true, false}) {
+      File csv = writeCsv(sortedFile ? sorted : titles, random);
+      for (int shardCount : new int[] {1, 4}) {
+        System.out.println(" " + (sortedFile ? "sorted" : "shuffled") + " file, " + shardCount
+            + (shardCount == 1 ? " backend" : " shards"));
+        MusicFinderBackendInterface blocking = newBackend(shardCount);
+        long start = System.nanoTime();
+        try {
+          blocking.loadData(csv.getPath());
+        } catch (FileNotFoundException e) {
+          throw new UncheckedIOException(e);
+        }
+        System.out.printf("  %-40s %10.3f ms%n", "loadData", (System.nanoTime() - start) / 1e6);
+        blocking = null;
+        System.gc();
+        checkBackgroundLoad(newBackend(shardCount), csv, sortedFile ? sorted : titles, random);
+      }
+      csv.delete();
+    }
+    List<String> twice = new ArrayList<String>(sorted.subList(0, Math.min(songCount, 10000)));
+    twice.add(twice.get(twice.size() / 2));
+    File csv = writeCsv(twice, random);
+    LoadProgress progress = loadInBackground(newBackend(1), csv);
+    csv.delete();
+    if (progress.getFailure() == null) {
+      throw new IllegalStateException("A title that is in the file twice did not fail the load");
+    }
+    System.out.println(" duplicate title: " + progress);
+  }
+
+  /**
+   * Helper method that makes a plain backend or a sharded one
+   */
+  private static MusicFinderBackendInterface newBackend(int shardCount) {
+    if (shardCount == 1) {
+      return new MusicFinderBackend(new RedBlackTree<SongInterface>(), new SongReader());
+    }
+    return new ShardedMusicFinderBackend(shardCount, RedBlackTree::new, new SongReader());
+  }
+
+  /**
+   * Helper method that writes songs with the given titles to a temporary csv file, in order
+   */
+  private static File writeCsv(List<String> titles, Random random) {
+    try {
+      File csv = File.createTempFile("music-finder", ".csv");
+      csv.deleteOnExit();
+      try (PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(csv), 1 << 16))) {
+        out.println("artist,song,duration_ms");
+        for (String title : titles) {
+          out.println("Artist " + random.nextInt(1000) + "," + title + ","
+              + (120000 + random.nextInt(180000)));
+        }
+      }
+      return csv;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Helper method that starts a background load and waits for it
+   */
+  private static LoadProgress loadInBackground(MusicFinderBackendInterface backend, File csv) {
+    try {
+      LoadProgress progress = backend.loadDataInBackground(csv.getPath());
+      progress.await();
+      return progress;
+    } catch (FileNotFoundException e) {
+      throw new UncheckedIOException(e);
+    } catch (InterruptedException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Helper method that loads a file in the background while looking up its titles, and prints
+   * when the first title of the file was answered and when the load was done
+   */
+  private static void checkBackgroundLoad(MusicFinderBackendInterface backend, File csv,
+      List<String> fileTitles, Random random) {
+    long start = System.nanoTime();
+    LoadProgress progress;
+    try {
+      progress = backend.loadDataInBackground(csv.getPath());
+    } catch (FileNotFoundException e) {
+      throw new UncheckedIOException(e);
+    }
+    long started = System.nanoTime();
+    String first = fileTitles.get(0);
+    long firstAnswer = 0;
+    int found = 0;
+    int notLoaded = 0;
+    int missing = 0;
+    while (!progress.isDone() || firstAnswer == 0) {
+      String title = firstAnswer == 0 ? first : fileTitles.get(random.nextInt(fileTitles.size()));
+      try {
+        backend.findSong(title);
+        found++;
+        if (firstAnswer == 0) {
+          firstAnswer = System.nanoTime();
+        }
+      } catch (IllegalStateException e) {
+        notLoaded++;
+      } catch (IllegalArgumentException e) {
+        throw new IllegalStateException(title + " was reported missing during the load");
+      }
+      try {
+        backend.findSong(randomTitle(random) + " x"); // never in the file
+        throw new IllegalStateException("A title that is not in the file was found");
+      } catch (IllegalStateException | IllegalArgumentException e) {
+        missing++;
+      }
+      if (progress.getFailure() != null) {
+        throw progress.getFailure();
+      }
+    }
+    long done = System.nanoTime();
+    if (progress.getFailure() != null) {
+      throw progress.getFailure();
+    }
+    SongLookupResult all = backend.findSongsByTitles(fileTitles);
+    if (all.getFound().size() != fileTitles.size() || !all.getNotLoaded().isEmpty()
+        || backend.displaySongCount() != fileTitles.size()) {
+      throw new IllegalStateException("The background load lost songs: " + all);
+    }
+    System.out.printf("  %-40s %10.3f ms%n", "loadDataInBackground returns",
+        (started - start) / 1e6);
+    System.out.printf("  %-40s %10.3f ms%n", "first title answered", (firstAnswer - start) / 1e6);
+    System.out.printf("  %-40s %10.3f ms%n", "load done", (done - start) / 1e6);
+    System.out.println("  lookups during the load: " + found + " found, " + notLoaded
+        + " not loaded yet, " + missing + " probes of absent titles");
+  }
+
+  /**
+   * Compares a FrontCodedTitleDictionary with the titles kept as Strings: the heap they hold and
+   * the time of exact and prefix lookups, at block sizes from 8 to 64. The titles are made of
+   * words of a small vocabulary, most of them starting with a few common words, so sorted
+   * neighbours share long prefixes as real titles do. Every dictionary has to give back the
+   * sorted titles and the same lookup answers as a binary search over them.
+   *
+   * @param titleCount - number of titles
+   */
+  private static void titleDictionary(int titleCount) {
+    Random random = new Random(48);
+    String[] firstWords = {"The", "Love", "I", "You", "My", "Don't", "All", "Baby", "Night",
+        "Heart", "Come", "Down", "Let", "One", "When", "What"};
+    String[] words = new String[2000];
+    for (int i = 0; i < words.length; i++) {
+      StringBuilder word = new StringBuilder();
+      for (int length = 3 + random.nextInt(6); word.length() < length;) {
+        word.append((char) ('a' + random.nextInt(26)));
+      }
+      words[i] = word.toString();
+    }
+    TreeSet<String> unique = new TreeSet<String>();
+    while (unique.size() < titleCount) {
+      StringBuilder title = new StringBuilder(firstWords[random.nextInt(firstWords.length)]);
+      for (int i = 1 + random.nextInt(3); i > 0; i--) {
+        title.append(' ').append(words[random.nextInt(words.length)]);
+      }
+      unique.add(title.toString());
+    }
+    List<String> sorted = new ArrayList<String>(unique);
+    unique = null;
+    List<String> probes = new ArrayList<String>(1000000);
+    for (int i = 0; i < 1000000; i++) {
+      // half of the probes miss
+      probes.add(i % 2 == 0 ? new String(sorted.get(random.nextInt(titleCount)))
+          : firstWords[random.nextInt(firstWords.length)] + " " + words[random.nextInt(words.length)]
+              + " x");
+    }
+    List<String> prefixes = new ArrayList<String>(10000);
+    for (int i = 0; i < 10000; i++) {
+      prefixes.add(firstWords[random.nextInt(firstWords.length)] + " "
+          + words[random.nextInt(words.length)].substring(0, 2));
+    }
+    System.out.println("titleDictionary of " + titleCount + " titles");
+    String[][] copies = new String[1][];
+    memoryAndTime("String[] of the titles", () -> {
+      String[] copy = new String[titleCount];
+      for (int i = 0; i < titleCount; i++) {
+        copy[i] = new String(sorted.get(i)); // not shared with the list
+      }
+      return copies[0] = copy;
+    });
+    String[] array = copies[0];
+    copies[0] = null;
+    time("1000000 lookups, binary search", 2, 5, () -> {
+      int hits = 0;
+      for (String probe : probes) {
+        if (Arrays.binarySearch(array, probe) >= 0) {
+          hits++;
+        }
+      }
+      blackhole(hits);
+    });
+    time("10000 prefix queries of 20, binary search", 2, 5, () -> {
+      int found = 0;
+      for (String prefix : prefixes) {
+        int index = Arrays.binarySearch(array, prefix);
+        int start = index >= 0 ? index : -index - 1;
+        for (int i = start; i < array.length && i < start + 20 && array[i].startsWith(prefix);
+            i++) {
+          found++;
+        }
+      }
+      blackhole(found);
+    });
+    for (int blockSize = 8; blockSize <= 64; blockSize *= 2) {
+      int size = blockSize;
+      FrontCodedTitleDictionary[] built = new FrontCodedTitleDictionary[1];
+      memoryAndTime("dictionary, " + blockSize + " per block",
+          () -> built[0] = FrontCodedTitleDictionary.build(sorted, size));
+      FrontCodedTitleDictionary dictionary = built[0];
+      built[0] = null;
+      System.out.println("  " + dictionary);
+      checkDictionary(dictionary, sorted, array, probes, prefixes, random);
+      time("1000000 lookups", 2, 5, () -> {
+        int hits = 0;
+        for (String probe : probes) {
+          if (dictionary.contains(probe)) {
+            hits++;
+          }
+        }
+        blackhole(hits);
+      });
+      time("10000 prefix queries of 20", 2, 5, () -> {
+        int found = 0;
+        for (String prefix : prefixes) {
+          found += dictionary.findByPrefix(prefix, 20).size();
+        }
+        blackhole(found);
+      });
+    }
+  }
+
+  /**
+   * Helper method that checks a dictionary against the sorted titles it was built from
+   */
+  private static void checkDictionary(FrontCodedTitleDictionary dictionary, List<String> sorted,
+      String[] array, List<String> probes, List<String> prefixes, Random random) {
+    Iterator<String> titles = dictionary.iterator();
+    for (String title : sorted) {
+      if (!titles.hasNext() || !titles.next().equals(title)) {
+        throw new IllegalStateException("The dictionary walk differs at " + title);
+      }
+    }
+    if (titles.hasNext() || dictionary.size() != sorted.size()) {
+      throw new IllegalStateException("The dictionary holds more titles");
+    }
+    for (int i = 0; i < 10000; i++) {
+      int index = random.nextInt(sorted.size());
+      if (!dictionary.get(index).equals(sorted.get(index))) {
+        throw new IllegalStateException("get(" + index + ") differs");
+      }
+    }
+    for (String probe : probes.subList(0, 100000)) {
+      if (dictionary.indexOf(probe) != Arrays.binarySearch(array, probe)) {
+        throw new IllegalStateException("indexOf(" + probe + ") differs");
+      }
+    }
+    for (String prefix : prefixes.subList(0, 1000)) {
+      List<String> expected = new ArrayList<String>();
+      int index = Arrays.binarySearch(array, prefix);
+      for (int i = index >= 0 ? index : -index - 1; i < array.length && expected.size() < 20
+          && array[i].startsWith(prefix); i++) {
+        expected.add(array[i]);
+      }
+      if (!dictionary.findByPrefix(prefix, 20).equals(expected)) {
+        throw new IllegalStateException("findByPrefix(" + prefix + ") differs");
+      }
+    }
+  }
+
+  /**
+   * Writes songs with features and genres to a DiskSongIndex and reads them back through buffer
+   * pools that hold 1%, 10% and all of its pages. Times uniform lookups, skewed lookups where 90%
+   * of the probes ask for 1000 hot titles, prefix queries and a full scan, and prints the hit
+   * rate, page faults and evictions of the pool after each. Every index has to give back the
+   * sorted songs and the same answers as a binary search over them.
+   *
+   * @param songCount - number of songs
+   */
+  private static void diskIndex(int songCount) {
+    Random random = new Random(49);
+    String[] genreNames = {"pop", "hip hop", "r&b", "dance/electronic", "rock", "latin",
+        "country", "metal"};
+    TreeSet<String> unique = new TreeSet<String>();
+    while (unique.size() < songCount) {
+      unique.add(randomTitle(random));
+    }
+    List<SongInterface> sorted = new ArrayList<SongInterface>(songCount);
+    for (String title : unique) {
+      float[] features = new float[SongFeatureIndex.FEATURES.length];
+      for (int i = 0; i < features.length; i++) {
+        features[i] = random.nextFloat();
+      }
+      sorted.add(new Song(title, "Artist " + random.nextInt(10000), "200000", features,
+          Arrays.asList(genreNames[random.nextInt(genreNames.length)]), random.nextInt(5) == 0,
+          1998 + random.nextInt(23), random.nextInt(101)));
+    }
+    unique = null;
+    String[] titles = new String[songCount];
+    for (int i = 0; i < songCount; i++) {
+      titles[i] = sorted.get(i).getTitle();
+    }
+    List<String> uniform = new ArrayList<String>(200000);
+    List<String> skewed = new ArrayList<String>(200000);
+    for (int i = 0; i < 200000; i++) {
+      uniform.add(i % 2 == 0 ? titles[random.nextInt(songCount)] : randomTitle(random));
+      skewed.add(random.nextInt(10) < 9 ? titles[random.nextInt(1000) * (songCount / 1000)]
+          : titles[random.nextInt(songCount)]);
+    }
+    List<String> prefixes = new ArrayList<String>(10000);
+    for (int i = 0; i < 10000; i++) {
+      prefixes.add("Song " + Long.toString(random.nextInt(36 * 36), 36));
+    }
+
+    File file;
+    try {
+      file = File.createTempFile("music-finder", ".index");
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    file.deleteOnExit();
+    System.out.println("diskIndex of " + songCount + " songs");
+    long start = System.nanoTime();
+    try {
+      DiskSongIndex.write(file.getPath(), sorted, DiskSongIndex.DEFAULT_PAGE_SIZE);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    System.out.printf("  %-40s %10.3f ms, %.1f MB on disk%n", "write", (System.nanoTime() - start)
+        / 1e6, file.length() / 1e6);
+    for (int percent : new int[] {1, 10, 100}) {
+      long pageCount = file.length() / DiskSongIndex.DEFAULT_PAGE_SIZE;
+      int poolPages = Math.max(1, (int) (pageCount * percent / 100));
+      try (DiskSongIndex pooled = new DiskSongIndex(file.getPath(), poolPages)) {
+        System.out.println("  pool of " + percent + "% of the pages: " + pooled);
+        checkDiskIndex(pooled, sorted, titles, uniform, prefixes);
+        PageBufferPool<Object> pool = pooled.getBufferPool();
+        pool.resetStatistics();
+        time("200000 uniform lookups", 1, 3, () -> {
+          int hits = 0;
+          for (String title : uniform) {
+            if (pooled.contains(title)) {
+              hits++;
+            }
+          }
+          blackhole(hits);
+        });
+        System.out.println("    " + pool);
+        pool.resetStatistics();
+        time("200000 skewed lookups", 1, 3, () -> {
+          int years = 0;
+          for (String title : skewed) {
+            years += pooled.get(title).getYear();
+          }
+          blackhole(years);
+        });
+        System.out.println("    " + pool);
+        pool.resetStatistics();
+        time("10000 prefix queries of 20", 1, 3, () -> {
+          int found = 0;
+          for (String prefix : prefixes) {
+            found += pooled.findByPrefix(prefix, 20).size();
+          }
+          blackhole(found);
+        });
+        System.out.println("    " + pool);
+        pool.resetStatistics();
+        time("full scan", 1, 3, () -> {
+          int count = 0;
+          for (SongInterface song : pooled) {
+            count += song.getPopularity();
+          }
+          blackhole(count);
+        });
+        System.out.println("    " + pool);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+    time("200000 uniform lookups, binary search", 1, 3, () -> {
+      int hits = 0;
+      for (String title : uniform) {
+        if (Arrays.binarySearch(titles, title) >= 0) {
+          hits++;
+        }
+      }
+      blackhole(hits);
+    });
+    file.delete();
+  }
+
+  /**
+   * Helper method that checks a DiskSongIndex against the sorted songs it was written from
+   */
+  private static void checkDiskIndex(DiskSongIndex index, List<SongInterface> sorted,
+      String[] titles, List<String> probes, List<String> prefixes) {
+    if (index.size() != sorted.size()) {
+      throw new IllegalStateException("The index holds " + index.size() + " songs");
+    }
+    Iterator<SongInterface> songs = index.iterator();
+    for (SongInterface expected : sorted) {
+      SongInterface song = songs.hasNext() ? songs.next() : null;
+      if (song == null || !song.getTitle().equals(expected.getTitle())
+          || !song.getArtist().equals(expected.getArtist())
+          || !Arrays.equals(song.getFeatures(), expected.getFeatures())
+          || !song.getGenres().equals(expected.getGenres()) || song.getYear() != expected.getYear()
+          || song.getPopularity() != expected.getPopularity()
+          || song.isExplicit() != expected.isExplicit()) {
+        throw new IllegalStateException("The index walk differs at " + expected.getTitle());
+      }
+    }
+    if (songs.hasNext()) {
+      throw new IllegalStateException("The index holds more songs");
+    }
+    for (String probe : probes.subList(0, 20000)) {
+      boolean present = Arrays.binarySearch(titles, probe) >= 0;
+      if (index.contains(probe) != present) {
+        throw new IllegalStateException("contains(" + probe + ") differs");
+      }
+      try {
+        if (!index.get(probe).getTitle().equals(probe) || !present) {
+          throw new IllegalStateException("get(" + probe + ") differs");
+        }
+      } catch (IllegalArgumentException e) {
+        if (present) {
+          throw new IllegalStateException("get(" + probe + ") misses");
+        }
+      }
+    }
+    List<SongInterface> all = index.getAll(probes.subList(0, 1000));
+    for (int i = 0; i < all.size(); i++) {
+      if ((all.get(i) != null) != (Arrays.binarySearch(titles, probes.get(i)) >= 0)) {
+        throw new IllegalStateException("getAll differs at " + probes.get(i));
+      }
+    }
+    for (String prefix : prefixes.subList(0, 1000)) {
+      List<String> expected = new ArrayList<String>();
+      int first = Arrays.binarySearch(titles, prefix);
+      for (int i = first >= 0 ? first : -first - 1; i < titles.length && expected.size() < 20
+          && titles[i].startsWith(prefix); i++) {
+        expected.add(titles[i]);
+      }
+      List<String> found = new ArrayList<String>();
+      for (SongInterface song : index.findByPrefix(prefix, 20)) {
+        found.add(song.getTitle());
+      }
+      if (!found.equals(expected)) {
+        throw new IllegalStateException("findByPrefix(" + prefix + ") differs");
+      }
+    }
+  }
+
+  /**
+   * Times a mix of lookups, prefix queries, adds and removes on a backend with and without a
+   * RecordingMusicFinderBackend in front, then replays the recorded log at max speed on 1 and 4
+   * threads. The log has to read back as the same calls, with their arguments, in order.
+   *
+   * @param callCount - number of calls in the mix
+   */
+  private static void workloadReplay(int callCount) {
+    Random random = new Random(50);
+    List<String> titles = new ArrayList<String>();
+    MusicFinderBackend backend =
+        new MusicFinderBackend(new RedBlackTree<SongInterface>(), new SongReader());
+    for (int i = 0; i < 100000; i++) {
+      titles.add(randomTitle(random));
+    }
+    addAll(backend, titles);
+    File file;
+    try {
+      file = File.createTempFile("music-finder", ".workload");
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    file.deleteOnExit();
+    System.out.println("workloadReplay of " + callCount + " calls");
+    time("calls, not recorded", 1, 3, () -> runMix(backend, titles, callCount, new Random(51)));
+    RecordingMusicFinderBackend[] recording = new RecordingMusicFinderBackend[1];
+    time("calls, recorded", 1, 3, () -> {
+      try {
+        recording[0] = new RecordingMusicFinderBackend(backend, new WorkloadLog(file.getPath()));
+        runMix(recording[0], titles, callCount, new Random(51));
+        recording[0].close();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    });
+    System.out.printf("  %-40s %10.1f bytes per call%n", "log size",
+        (double) file.length() / callCount);
+    List<WorkloadLog.Operation> operations;
+    try {
+      operations = WorkloadLog.read(file.getPath());
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    // the same calls once more, written down by a stand-in backend and compared with the log
+    List<String> calls = new ArrayList<String>();
+    MusicFinderBackendInterface describer = (MusicFinderBackendInterface) Proxy
+        .newProxyInstance(MusicFinderBackendInterface.class.getClassLoader(),
+            new Class<?>[] {MusicFinderBackendInterface.class}, (proxy, method, args) -> {
+              calls.add(method.getName() + " " + Arrays.toString(args));
+              Class<?> type = method.getReturnType();
+              return type == boolean.class ? Boolean.TRUE
+                  : type == List.class ? Collections.emptyList() : null;
+            });
+    runMix(describer, titles, callCount, new Random(51));
+    List<String> expected = new ArrayList<String>(calls);
+    calls.clear();
+    for (WorkloadLog.Operation operation : operations) {
+      try {
+        operation.applyTo(describer);
+      } catch (FileNotFoundException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+    if (!calls.equals(expected)) {
+      throw new IllegalStateException("The log does not read back as the recorded calls");
+    }
+    for (int threads : new int[] {1, 4}) {
+      MusicFinderReplayer replayer = new MusicFinderReplayer(operations, 0, threads);
+      try {
+        replayer.report(replayer.replay(backend));
+      } catch (InterruptedException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+    file.delete();
+  }
+
+  /**
+   * Helper method that makes a mix of calls: 80% lookups, half of them of titles that are not
+   * there, 10% prefix queries, 5% adds and 5% removes
+   */
+  private static void runMix(MusicFinderBackendInterface backend, List<String> titles,
+      int callCount, Random random) {
+    int found = 0;
+    for (int i = 0; i < callCount; i++) {
+      int dice = random.nextInt(100);
+      String title = titles.get(random.nextInt(titles.size()));
+      try {
+        if (dice < 80) {
+          found += backend.findSong(dice < 40 ? title : title + " x") == null ? 0 : 1;
+        } else if (dice < 90) {
+          found += backend.findSongsByPrefix(title.substring(0, 7), 10).size();
+        } else if (dice < 95) {
+          backend.addOneSong("Added " + title, "200000", "Artist");
+        } else {
+          backend.removeOneSong("Added " + title);
+        }
+      } catch (IllegalArgumentException e) {
+        // a title that is not there, or added already
+      }
+    }
+    blackhole(found);
+  }
+
+  /**
+   * Compares the k-d tree of SongFeatureIndex with a scan over every song when looking for the 10
+   * songs that sound most like a given one, at 10^5 to 10^6 songs (more with a size argument).
+   * The synthetic features are grouped around 50 random centers, the way songs of one genre sound
+   * alike. The tree has to give the same answers as the scan.
+   *
+   * @param maxSongs - the biggest playlist to try
+   */
+  private static void similarity(int maxSongs) {
+    Random random = new Random(40);
+    int dimensions = SongFeatureIndex.FEATURES.length;
+    float[][] centers = new float[50][dimensions];
+    for (float[] center : centers) {
+      for (int d = 0; d < dimensions; d++) {
+        center[d] = random.nextFloat();
+      }
+    }
+    for (int songCount = 100000; songCount <= maxSongs; songCount *= 10) {
+      List<SongInterface> songs = new ArrayList<SongInterface>(songCount);
+      for (int i = 0; i < songCount; i++) {
+        float[] center = centers[random.nextInt(centers.length)];
+        float[] features = new float[dimensions];
+        for (int d = 0; d < dimensions; d++) {
+          features[d] = (float) (center[d] + random.nextGaussian() * 0.08);
+        }
+        features[dimensions - 2] = 60 + features[dimensions - 2] * 140; // tempo in bpm
+        features[dimensions - 1] = -30 + features[dimensions - 1] * 30; // loudness in dB
+        songs.add(new Song("Song " + i, "Artist", "200000", features));
+      }
+      long start = System.nanoTime();
+      SongFeatureIndex index = new SongFeatureIndex(songs);
+      System.out.printf("similarity over %d songs, index built in %.1f ms%n", songCount,
+          (System.nanoTime() - start) / 1e6);
+      List<SongInterface> queries = new ArrayList<SongInterface>(1000);
+      for (int i = 0; i < 1000; i++) {
+        queries.add(songs.get(random.nextInt(songCount)));
+      }
+      for (SongInterface query : queries.subList(0, 100)) {
+        List<SongInterface> byTree = index.nearest(query, 10);
+        List<SongInterface> byScan = index.nearestByScan(query, 10);
+        for (int i = 0; i < 10; i++) {
+          if (SongFeatureIndex.distance(query, byTree.get(i))
+              != SongFeatureIndex.distance(query, byScan.get(i))) {
+            throw new IllegalStateException("k-d tree and scan disagree for " + query);
+          }
+        }
+      }
+      int rounds = songCount >= 1000000 ? 2 : 5;
+      time("1000 queries, k-d tree", rounds, rounds, () -> {
+        int found = 0;
+        for (SongInterface query : queries) {
+          found += index.nearest(query, 10).size();
+        }
+        blackhole(found);
+      });
+      time("1000 queries, scan", rounds, rounds, () -> {
+        int found = 0;
+        for (SongInterface query : queries) {
+          found += index.nearestByScan(query, 10).size();
+        }
+        blackhole(found);
+      });
+      if ((long) songCount * 10 > maxSongs) {
+        break;
+      }
+    }
+  }
+
+  /**
+   * Compares the genre bitmaps of SongGenreIndex with a scan over every song when filtering for
+   * clean pop or R&B songs, over 10^6 songs (or the given number) with 1 to 3 of 20 genres each,
+   * the first genres being the most common ones, and 30% explicit songs. The backend has to give
+   * the same answers as a scan, alone and together with a title prefix.
+   *
+   * @param songCount - number of songs
+   */
+  private static void genreFilter(int songCount) {
+    Random random = new Random(41);
+    String[] genreNames = {"pop", "hip hop", "r&b", "dance/electronic", "rock", "latin",
+        "country", "metal", "folk/acoustic", "easy listening", "jazz", "blues", "classical",
+        "world/traditional", "soul", "funk", "reggae", "punk", "indie", "k-pop"};
+    List<SongInterface> songs = new ArrayList<SongInterface>(songCount);
+    for (int i = 0; i < songCount; i++) {
+      List<String> genres = new ArrayList<String>(3);
+      for (int g = 1 + random.nextInt(3); g > 0; g--) {
+        // squaring skews the picks towards the first genres
+        double pick = random.nextDouble();
+        String genre = genreNames[(int) (pick * pick * genreNames.length)];
+        if (!genres.contains(genre)) {
+          genres.add(genre);
+        }
+      }
+      songs.add(new Song(randomTitle(random) + " " + i, "Artist", "200000", null, genres,
+          random.nextInt(10) < 3, 0, 0));
+    }
+    MusicFinderBackend backend =
+        new MusicFinderBackend(new RedBlackTree<SongInterface>(), new SongReader());
+    backend.ingestBatch(songs);
+    List<String> pickedGenres = Arrays.asList("pop", "r&b");
+    List<SongInterface> sortedSongs = new ArrayList<SongInterface>(songs);
+    sortedSongs.sort(null);
+    String prefix = sortedSongs.get(songCount / 2).getTitle().substring(0, 7); // "Song" and two letters
+    List<SongInterface> expected = new ArrayList<SongInterface>();
+    List<SongInterface> expectedWithPrefix = new ArrayList<SongInterface>();
+    for (SongInterface song : sortedSongs) {
+      if (!song.isExplicit()
+          && (song.getGenres().contains("pop") || song.getGenres().contains("r&b"))) {
+        expected.add(song);
+        if (song.getTitle().startsWith(prefix)) {
+          expectedWithPrefix.add(song);
+        }
+      }
+    }
+    if (!titlesOf(backend.findSongsByGenres(pickedGenres, false, "", Integer.MAX_VALUE))
+        .equals(titlesOf(expected))
+        || !titlesOf(backend.findSongsByGenres(pickedGenres, false, prefix, Integer.MAX_VALUE))
+            .equals(titlesOf(expectedWithPrefix))) {
+      throw new IllegalStateException("genre bitmaps and scan disagree");
+    }
+    System.out.printf("genre filter over %d songs, %d clean pop or r&b songs, %d starting with %s%n",
+        songCount, expected.size(), expectedWithPrefix.size(), prefix);
+
+    SongGenreIndex index = new SongGenreIndex();
+    songs.forEach(index::put);
+    time("count (pop OR r&b) ANDNOT explicit, bitmaps", () -> blackhole(
+        index.genre("pop").or(index.genre("r&b")).andNot(index.explicitSongs()).cardinality()));
+    time("count clean pop or r&b, scan", () -> {
+      int count = 0;
+      for (SongInterface song : songs) {
+        if (!song.isExplicit()
+            && (song.getGenres().contains("pop") || song.getGenres().contains("r&b"))) {
+          count++;
+        }
+      }
+      blackhole(count);
+    });
+    time("first 20 with prefix, backend", () -> blackhole(
+        backend.findSongsByGenres(pickedGenres, false, prefix, 20).size()));
+  }
+
+  /**
+   * Compares the popularity rankings the backend keeps up to date with sorting the playlist on
+   * demand, for the top 50 songs overall, of a year and of a genre over 10^6 songs (or the given
+   * number). The rankings have to give the same answers as sorting, also after the most popular
+   * songs were removed, which makes the rankings rebuild, and after new songs were added.
+   *
+   * @param songCount - number of songs
+   */
+  private static void topSongs(int songCount) {
+    Random random = new Random(42);
+    String[] genreNames = {"pop", "hip hop", "r&b", "dance/electronic", "rock", "latin",
+        "country", "metal"};
+    List<SongInterface> songs = new ArrayList<SongInterface>(songCount);
+    for (int i = 0; i < songCount; i++) {
+      songs.add(new Song(randomTitle(random) + " " + i, "Artist", "200000", null,
+          Arrays.asList(genreNames[random.nextInt(genreNames.length)]), false,
+          1998 + random.nextInt(23), (int) (100 * Math.pow(random.nextDouble(), 3))));
+    }
+    MusicFinderBackend backend =
+        new MusicFinderBackend(new RedBlackTree<SongInterface>(), new SongReader());
+    long start = System.nanoTime();
+    backend.ingestBatch(songs);
+    System.out.printf("top songs over %d songs, added with rankings in %.1f ms%n", songCount,
+        (System.nanoTime() - start) / 1e6);
+    checkTopSongs(backend, songs);
+
+    // removing the top songs empties the reserve of the rankings, so they are rebuilt
+    List<SongInterface> removed = sortedTop(songs, song -> true, 120);
+    removed.addAll(sortedTop(songs, song -> song.getGenres().contains("rock"), 120));
+    for (SongInterface song : removed) {
+      if (songs.remove(song)) {
+        backend.removeOneSong(song.getTitle());
+      }
+    }
+    checkTopSongs(backend, songs);
+    for (int i = 0; i < 1000; i++) {
+      SongInterface song = new Song("New song " + i, "Artist", "200000", null,
+          Arrays.asList("rock"), false, 2010, 90 + random.nextInt(11));
+      songs.add(song);
+      backend.ingestBatch(Arrays.asList(song));
+    }
+    checkTopSongs(backend, songs);
+
+    time("top 50 overall, rankings", () -> blackhole(backend.findTopSongs(null, 0, 50).size()));
+    time("top 50 of 2010, rankings", () -> blackhole(backend.findTopSongs(null, 2010, 50).size()));
+    time("top 50 of rock, rankings", () -> blackhole(backend.findTopSongs("rock", 0, 50).size()));
+    time("top 50 overall, sorting", 2, 5,
+        () -> blackhole(sortedTop(songs, song -> true, 50).size()));
+    time("top 50 of 2010, sorting", 2, 5,
+        () -> blackhole(sortedTop(songs, song -> song.getYear() == 2010, 50).size()));
+    time("top 50 of rock, sorting", 2, 5,
+        () -> blackhole(sortedTop(songs, song -> song.getGenres().contains("rock"), 50).size()));
+  }
+
+  /**
+   * Helper method that compares the rankings of a backend with sorting the songs
+   */
+  private static void checkTopSongs(MusicFinderBackend backend, List<SongInterface> songs) {
+    if (!titlesOf(backend.findTopSongs(null, 0, 50))
+        .equals(titlesOf(sortedTop(songs, song -> true, 50)))
+        || !titlesOf(backend.findTopSongs(null, 2010, 50))
+            .equals(titlesOf(sortedTop(songs, song -> song.getYear() == 2010, 50)))
+        || !titlesOf(backend.findTopSongs("rock", 0, 50))
+            .equals(titlesOf(sortedTop(songs, song -> song.getGenres().contains("rock"), 50)))) {
+      throw new IllegalStateException("rankings and sorting disagree");
+    }
+  }
+
+  /**
+   * Helper method that sorts the songs that pass a filter by popularity and keeps the first ones
+   */
+  private static List<SongInterface> sortedTop(List<SongInterface> songs,
+      Predicate<SongInterface> filter, int count) {
+    List<SongInterface> matching = new ArrayList<SongInterface>();
+    for (SongInterface song : songs) {
+      if (filter.test(song)) {
+        matching.add(song);
+      }
+    }
+    matching.sort(SongRankings.MOST_POPULAR);
+    return new ArrayList<SongInterface>(matching.subList(0, Math.min(count, matching.size())));
+  }
+
+  /**
+   * Compares the statistics a backend keeps with sketches against computing them exactly from
+   * every song: the time to answer, the time the sketches add to ingesting the songs, and how
+   * close the estimates are. Artists are picked with a skewed distribution, so a few have many
+   * songs. The distinct artists have to be within 3%, the duration, tempo and popularity
+   * quantiles within 1% of rank, and the five most frequent artists and genres have to be the
+   * true ones, also after a fifth of the songs were removed and the sketches were rebuilt.
+   *
+   * @param songCount - number of songs
+   */
+  private static void statistics(int songCount) {
+    Random random = new Random(50);
+    String[] genreNames = {"pop", "hip hop", "r&b", "dance/electronic", "rock", "latin",
+        "country", "metal"};
+    int tempo = Arrays.asList(SongFeatureIndex.FEATURES).indexOf("tempo");
+    List<SongInterface> songs = new ArrayList<SongInterface>(songCount);
+    for (int i = 0; i < songCount; i++) {
+      float[] features = new float[SongFeatureIndex.FEATURES.length];
+      features[tempo] = (float) (120 + 25 * random.nextGaussian());
+      int artist = (int) (songCount / 4 * Math.pow(random.nextDouble(), 4));
+      songs.add(new Song(randomTitle(random) + " " + i, "Artist " + artist,
+          "" + (int) (210000 + 45000 * random.nextGaussian()), features,
+          Arrays.asList(genreNames[(int) (genreNames.length * Math.pow(random.nextDouble(), 2))]),
+          false, 1998 + random.nextInt(23), (int) (100 * Math.pow(random.nextDouble(), 3))));
+    }
+    System.out.println("statistics of " + songCount + " songs");
+    time("count every song in new sketches", 1, 3, () -> {
+      SongStatistics statistics = new SongStatistics(null);
+      for (SongInterface song : songs) {
+        statistics.changed(null, song);
+      }
+      blackhole(statistics.getSongs());
+    });
+    MusicFinderBackend backend =
+        new MusicFinderBackend(new RedBlackTree<SongInterface>(), new SongReader());
+    long start = System.nanoTime();
+    backend.ingestBatch(songs);
+    System.out.printf("  %-40s %10.3f ms%n", "ingest, sketches included",
+        (System.nanoTime() - start) / 1e6);
+    checkStatistics(backend.getStatistics(), songs);
+    time("getStatistics, median duration", () -> blackhole(
+        (int) backend.getStatistics().getDurationQuantile(0.5)));
+    time("exact, median duration", 1, 3, () -> {
+      double[] durations = new double[songs.size()];
+      for (int i = 0; i < durations.length; i++) {
+        durations[i] = Double.parseDouble(songs.get(i).getDuration());
+      }
+      Arrays.sort(durations);
+      blackhole((int) durations[durations.length / 2]);
+    });
+    time("getStatistics, distinct artists", () -> blackhole(
+        (int) backend.getStatistics().getDistinctArtists()));
+    time("exact, distinct artists", 1, 3, () -> {
+      Set<String> artists = new HashSet<String>();
+      for (SongInterface song : songs) {
+        artists.add(song.getArtist());
+      }
+      blackhole(artists.size());
+    });
+
+    Collections.shuffle(songs, random);
+    List<SongInterface> removed = new ArrayList<SongInterface>(songs.subList(0, songCount / 5));
+    List<SongInterface> kept = new ArrayList<SongInterface>(songs.subList(songCount / 5, songCount));
+    start = System.nanoTime();
+    for (SongInterface song : removed) {
+      backend.removeOneSong(song.getTitle());
+    }
+    System.out.printf("  %-40s %10.3f ms%n", "remove a fifth of the songs",
+        (System.nanoTime() - start) / 1e6);
+    start = System.nanoTime();
+    SongStatistics rebuilt = backend.getStatistics();
+    System.out.printf("  %-40s %10.3f ms, %d rebuilds%n", "getStatistics after the removes",
+        (System.nanoTime() - start) / 1e6, rebuilt.getRebuilds());
+    checkStatistics(rebuilt, kept);
+    System.out.println(rebuilt.toString().replaceAll("(?m)^", "  "));
+  }
+
+  /**
+   * Helper method that compares statistics with the exact values of the songs
+   */
+  private static void checkStatistics(SongStatistics statistics, List<SongInterface> songs) {
+    if (statistics.getSongs() != songs.size()) {
+      throw new IllegalStateException("The statistics count " + statistics.getSongs() + " songs");
+    }
+    Map<String, Long> artists = new HashMap<String, Long>();
+    Map<String, Long> genres = new HashMap<String, Long>();
+    double[] durations = new double[songs.size()];
+    double[] tempos = new double[songs.size()];
+    double[] popularities = new double[songs.size()];
+    int tempo = Arrays.asList(SongFeatureIndex.FEATURES).indexOf("tempo");
+    for (int i = 0; i < songs.size(); i++) {
+      SongInterface song = songs.get(i);
+      artists.merge(song.getArtist(), 1L, Long::sum);
+      for (String genre : song.getGenres()) {
+        genres.merge(genre, 1L, Long::sum);
+      }
+      durations[i] = Double.parseDouble(song.getDuration());
+      tempos[i] = song.getFeatures()[tempo];
+      popularities[i] = song.getPopularity();
+    }
+    double error = Math.abs(statistics.getDistinctArtists() - artists.size())
+        / (double) artists.size();
+    System.out.printf("  distinct artists %d, estimated %d, off by %.2f%%%n", artists.size(),
+        statistics.getDistinctArtists(), error * 100);
+    if (error > 0.03) {
+      throw new IllegalStateException("The distinct artists are off by " + error);
+    }
+    double worst = 0;
+    for (double q : new double[] {0.01, 0.1, 0.25, 0.5, 0.75, 0.9, 0.99}) {
+      worst = Math.max(worst, rankError(durations, statistics.getDurationQuantile(q), q));
+      worst = Math.max(worst, rankError(tempos, statistics.getTempoQuantile(q), q));
+      // popularity only takes whole numbers, the estimate falls between them
+      worst = Math.max(worst,
+          rankError(popularities, Math.round(statistics.getPopularityQuantile(q)), q));
+    }
+    System.out.printf("  quantiles off by at most %.3f%% of rank%n", worst * 100);
+    if (worst > 0.01) {
+      throw new IllegalStateException("A quantile is off by " + worst + " of rank");
+    }
+    checkTop("artists", statistics.getTopArtists(5), artists);
+    checkTop("genres", statistics.getTopGenres(5), genres);
+  }
+
+  /**
+   * Helper method that tells how far from q the ranks of a value among the values are
+   *
+   * @return 0 when q is between the shares of values below and not above the value
+   */
+  private static double rankError(double[] values, double value, double q) {
+    double[] sorted = values.clone();
+    Arrays.sort(sorted);
+    int below = 0;
+    int notAbove = 0;
+    for (double other : sorted) {
+      below += other < value ? 1 : 0;
+      notAbove += other <= value ? 1 : 0;
+    }
+    double low = (double) below / sorted.length;
+    double high = (double) notAbove / sorted.length;
+    return q < low ? low - q : q > high ? q - high : 0;
+  }
+
+  /**
+   * Helper method that checks the most frequent strings against the exact counts
+   */
+  private static void checkTop(String name, List<Map.Entry<String, Long>> top,
+      Map<String, Long> counts) {
+    List<Map.Entry<String, Long>> exact = new ArrayList<Map.Entry<String, Long>>(counts.entrySet());
+    exact.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+    for (int i = 0; i < top.size(); i++) {
+      String estimated = top.get(i).getKey();
+      // ties and near ties may come in any order, the count has to be among the true top counts
+      if (counts.get(estimated) == null || counts.get(estimated) < exact.get(top.size() - 1)
+          .getValue() || top.get(i).getValue() < counts.get(estimated)) {
+        throw new IllegalStateException("The most frequent " + name + " differ at " + estimated);
+      }
+    }
+    if (top.size() != Math.min(5, exact.size())) {
+      throw new IllegalStateException("Only " + top.size() + " frequent " + name);
+    }
+  }
+
+  /**
+   * Compares the memory and time of RedBlackTree.toInOrderString with a SongExporter writing the
+   * same songs to a csv file, plain and gzipped, at 10^5 and 10^6 songs (more with a size
+   * argument). Memory is what the result of each keeps alive on the heap: the string grows with
+   * the playlist, the exporter keeps nothing. Loading the exported file into a new backend and
+   * exporting it again has to give the same file.
+   *
+   * @param maxSongs - the biggest playlist to try
+   */
+  private static void export(int maxSongs) {
+    Random random = new Random(43);
+    for (int songCount = 100000; songCount <= maxSongs; songCount *= 10) {
+      List<SongInterface> songs = new ArrayList<SongInterface>(songCount);
+      for (int i = 0; i < songCount; i++) {
+        songs.add(new Song(randomTitle(random) + ", " + i, "Artist " + random.nextInt(1000),
+            Integer.toString(120000 + random.nextInt(180000)), null, Arrays.asList("pop", "rock"),
+            random.nextBoolean(), 2000 + random.nextInt(20), random.nextInt(100)));
+      }
+      RedBlackTree<SongInterface> tree = new RedBlackTree<SongInterface>();
+      MusicFinderBackend backend = new MusicFinderBackend(tree, new SongReader());
+      backend.ingestBatch(songs);
+      songs = null;
+      System.out.println("export of " + songCount + " songs");
+      File csv;
+      File gzipped;
+      File again;
+      try {
+        csv = File.createTempFile("music-finder", ".csv");
+        gzipped = File.createTempFile("music-finder", ".csv.gz");
+        again = File.createTempFile("music-finder", ".csv");
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      csv.deleteOnExit();
+      gzipped.deleteOnExit();
+      again.deleteOnExit();
+      memoryAndTime("toInOrderString", () -> tree.toInOrderString());
+      memoryAndTime("export to csv", () -> exportTo(backend, csv));
+      memoryAndTime("export to csv.gz", () -> exportTo(backend, gzipped));
+      System.out.printf("  csv %.1f MB, csv.gz %.1f MB%n", csv.length() / 1e6,
+          gzipped.length() / 1e6);
+      MusicFinderBackend reloaded =
+          new MusicFinderBackend(new RedBlackTree<SongInterface>(), new SongReader());
+      try {
+        reloaded.loadData(csv.getPath());
+        exportTo(reloaded, again);
+        if (Files.mismatch(csv.toPath(), again.toPath()) != -1) {
+          throw new IllegalStateException("export of the reloaded export differs");
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      if ((long) songCount * 10 > maxSongs) {
+        break;
+      }
+    }
+  }
+
+  /**
+   * Helper method that exports every song of a backend to a file
+   *
+   * @return the number of songs written
+   */
+  private static int exportTo(MusicFinderBackendInterface backend, File file) {
+    try (Writer out = SongExporter.open(file.getPath())) {
+      return new SongExporter(out, SongExporter.formatOf(file.getName())).export(backend, null,
+          null);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Prints how long a task took and how much more heap is in use after a full collection while
+   * its result is still held
+   */
+  private static void memoryAndTime(String label, Supplier<Object> task) {
+    Runtime runtime = Runtime.getRuntime();
+    System.gc();
+    long before = runtime.totalMemory() - runtime.freeMemory();
+    long start = System.nanoTime();
+    Object result = task.get();
+    long time = System.nanoTime() - start;
+    System.gc();
+    long after = runtime.totalMemory() - runtime.freeMemory();
+    System.out.printf("  %-40s %10.3f ms, holds %.1f MB%n", label, time / 1e6,
+        (after - before) / 1e6);
+    blackhole(result.hashCode());
+  }
+
+  /**
+   * Times inserting 10^6 keys one at a time into a RedBlackTree in ascending, descending and
+   * random order, and counts the rotations the inserts needed, on average and at most. Every
+   * tree is verified afterwards.
+   */
+  private static void insertOrders() {
+    int keyCount = 1000000;
+    Integer[] ascending = new Integer[keyCount];
+    for (int i = 0; i < keyCount; i++) {
+      ascending[i] = i;
+    }
+    Integer[] descending = new Integer[keyCount];
+    for (int i = 0; i < keyCount; i++) {
+      descending[i] = keyCount - 1 - i;
+    }
+    List<Integer> shuffled = new ArrayList<Integer>(Arrays.asList(ascending));
+    Collections.shuffle(shuffled, new Random(44));
+    Integer[] random = shuffled.toArray(new Integer[0]);
+    String[] labels = {"ascending", "descending", "random"};
+    Integer[][] orders = {ascending, descending, random};
+    for (int o = 0; o < orders.length; o++) {
+      Integer[] keys = orders[o];
+      time(keyCount + " inserts, " + labels[o], 3, 5, () -> {
+        RedBlackTree<Integer> tree = new RedBlackTree<Integer>();
+        for (Integer key : keys) {
+          tree.insert(key);
+        }
+        blackhole(tree.size());
+      });
+      RedBlackTree<Integer> tree = new RedBlackTree<Integer>();
+      MusicFinderMetrics metrics = new MusicFinderMetrics();
+      MeasuredTree<Integer> measured = new MeasuredTree<Integer>(tree, metrics);
+      for (Integer key : keys) {
+        measured.insert(key);
+      }
+      tree.verify();
+      System.out.printf("    %.3f rotations per insert, at most %d, height %d%n",
+          metrics.getRotationsPerInsert(), metrics.getMaxRotationsPerInsert(), tree.height());
+    }
+  }
+
+  /**
+   * Compares the bulk operations of the RedBlackTree with doing the same one song at a time, on a
+   * tree of 10^6 songs: taking out a range of 10^4 neighbouring titles, taking down 10^4 spread
+   * titles, taking down and merging in a catalog of 10^6 songs of which half are stored, and
+   * splitting the tree in two and joining it back. Every result is checked and the trees are
+   * verified.
+   */
+  private static void bulkOps() {
+    int songCount = 1000000;
+    Random random = new Random(45);
+    TreeSet<String> titles = new TreeSet<String>();
+    while (titles.size() < songCount) {
+      titles.add(randomTitle(random));
+    }
+    List<SongInterface> songs = new ArrayList<SongInterface>(songCount);
+    for (String title : titles) {
+      songs.add(new Song(title, "Artist", "200000"));
+    }
+    // 10^4 neighbouring titles from the middle of the playlist
+    List<SongInterface> range = songs.subList(songCount / 2, songCount / 2 + 10000);
+    SongInterface from = range.get(0);
+    SongInterface to = songs.get(songCount / 2 + range.size());
+    System.out.println(" remove " + range.size() + " neighbouring titles");
+    bulkTime("one remove per song", songs, range, tree -> removeEach(tree, range));
+    bulkTime("removeRange", songs, range, tree -> tree.removeRange(from, to));
+
+    List<SongInterface> spread = new ArrayList<SongInterface>();
+    for (int i = 0; i < songCount; i += songCount / 10000) {
+      spread.add(songs.get(i));
+    }
+    System.out.println(" take down " + spread.size() + " spread titles");
+    bulkTime("one remove per song", songs, spread, tree -> removeEach(tree, spread));
+    bulkTime("difference", songs, spread, tree -> tree.difference(spread));
+
+    // a catalog of 10^6 songs, every other stored song and as many new ones
+    List<SongInterface> stored = new ArrayList<SongInterface>();
+    for (int i = 0; i < songCount; i += 2) {
+      stored.add(songs.get(i));
+    }
+    List<SongInterface> newSongs = new ArrayList<SongInterface>();
+    while (newSongs.size() < songCount / 2) {
+      String title = randomTitle(random);
+      if (!titles.contains(title)) {
+        newSongs.add(new Song(title, "Other artist", "180000"));
+      }
+    }
+    newSongs.sort(null);
+    List<SongInterface> catalog = new ArrayList<SongInterface>(stored);
+    catalog.addAll(newSongs);
+    catalog.sort(null);
+    System.out.println(" take down the " + catalog.size() + " songs of a catalog");
+    bulkTime("one remove per stored song", songs, stored, tree -> removeEach(tree, catalog));
+    bulkTime("difference", songs, stored, tree -> tree.difference(catalog));
+    System.out.println(" merge in the " + catalog.size() + " songs of a catalog");
+    bulkTime("one insert per new song", songs, newSongs, tree -> {
+      List<SongInterface> added = new ArrayList<SongInterface>();
+      for (SongInterface song : catalog) {
+        if (!tree.contains(song)) {
+          tree.insert(song);
+          added.add(song);
+        }
+      }
+      return added;
+    });
+    bulkTime("union", songs, newSongs, tree -> tree.union(catalog));
+
+    System.out.println(" split in the middle and join back");
+    bulkTime("split and join", songs, null, tree -> {
+      RedBlackTree<SongInterface> upper = tree.split(to);
+      SongInterface pivot = upper.iterator().next();
+      upper.remove(pivot);
+      RedBlackTree<SongInterface> joined = RedBlackTree.join(tree, pivot, upper);
+      tree.union(joined); // hands the nodes back to the tree that is verified
+      return null;
+    });
+  }
+
+  /**
+   * Helper method that removes the stored ones of the given songs one at a time
+   *
+   * @return the removed songs
+   */
+  private static List<SongInterface> removeEach(RedBlackTree<SongInterface> tree,
+      List<SongInterface> songs) {
+    List<SongInterface> removed = new ArrayList<SongInterface>();
+    for (SongInterface song : songs) {
+      if (tree.contains(song)) {
+        tree.remove(song);
+        removed.add(song);
+      }
+    }
+    return removed;
+  }
+
+  /**
+   * Helper method that times a change on fresh trees holding the given sorted songs, then checks
+   * the songs it returned and that the last tree is still valid
+   *
+   * @param expected - the songs the change has to return, null to skip the check
+   */
+  private static void bulkTime(String label, List<SongInterface> sortedSongs,
+      List<SongInterface> expected,
+      Function<RedBlackTree<SongInterface>, List<SongInterface>> change) {
+    int warmupRounds = 10;
+    int rounds = 5;
+    long total = 0;
+    RedBlackTree<SongInterface> tree = null;
+    List<SongInterface> result = null;
+    for (int round = 0; round < warmupRounds + rounds; round++) {
+      tree = null;
+      result = null;
+      System.gc(); // so the garbage of the last round is not collected during this one
+      tree = loadedTree(sortedSongs);
+      long start = System.nanoTime();
+      result = change.apply(tree);
+      if (round >= warmupRounds) {
+        total += System.nanoTime() - start;
+      }
+    }
+    if (expected != null && !titlesOf(result).equals(titlesOf(expected))) {
+      throw new IllegalStateException(label + " returned " + result.size() + " songs, expected "
+          + expected.size());
+    }
+    tree.verify();
+    System.out.printf("  %-40s %10.3f ms, %d songs left%n", label, total / rounds / 1e6,
+        tree.size());
+  }
+
+  /**
+   * Helper method that lists the titles of songs, in order
+   */
+  private static List<String> titlesOf(List<SongInterface> songs) {
+    List<String> titles = new ArrayList<String>(songs.size());
+    for (SongInterface song : songs) {
+      titles.add(song.getTitle());
+    }
+    return titles;
+  }
+
+  /**
+   * Builds a tree holding the given sorted songs
+   */
+  private static RedBlackTree<SongInterface> loadedTree(List<SongInterface> sortedSongs) {
+    RedBlackTree<SongInterface> tree = new RedBlackTree<SongInterface>();
+    tree.insertAllSorted(sortedSongs);
+    return tree;
+  }
+
+  /**
+   * Adds a song for every title and makes sure they all reached the tree
+   */
+  private static void addAll(MusicFinderBackend backend, List<String> titles) {
+    for (String title : titles) {
+      backend.addOneSong(title, "200000", "Artist");
+    }
+    backend.flush();
+    blackhole(backend.displaySongCount());
+  }
+
+  private static volatile int sink;
+
+  /**
+   * Keeps the JIT from dropping the work whose result is passed in
+   */
+  private static void blackhole(int value) {
+    sink += value;
+  }
+
+  public static void main(String[] args) {
+    String scenario = args.length == 0 ? "batchLookup" : args[0];
+    switch (scenario) {
+      case "batchLookup":
+        batchLookup();
+        break;
+      case "bufferedInsert":
+        bufferedInsert();
+        break;
+      case "cachedLookup":
+        cachedLookup();
+        break;
+      case "propertyCheck":
+        propertyCheck();
+        break;
+      case "concurrentMix":
+        concurrentMix();
+        break;
+      case "shardedLoad":
+        shardedLoad();
+        break;
+      case "backgroundLoad":
+        backgroundLoad(args.length > 1 ? Integer.parseInt(args[1]) : 1000000);
+        break;
+      case "titleDictionary":
+        titleDictionary(args.length > 1 ? Integer.parseInt(args[1]) : 1000000);
+        break;
+      case "workloadReplay":
+        workloadReplay(args.length > 1 ? Integer.parseInt(args[1]) : 1000000);
+        break;
+      case "statistics":
+        statistics(args.length > 1 ? Integer.parseInt(args[1]) : 1000000);
+        break;
+      case "diskIndex":
+        diskIndex(args.length > 1 ? Integer.parseInt(args[1]) : 1000000);
+        break;
+      case "similarity":
+        similarity(args.length > 1 ? Integer.parseInt(args[1]) : 1000000);
+        break;
+      case "genreFilter":
+        genreFilter(args.length > 1 ? Integer.parseInt(args[1]) : 1000000);
+        break;
+      case "topSongs":
+        topSongs(args.length > 1 ? Integer.parseInt(args[1]) : 1000000);
+        break;
+      case "export":
+        export(args.length > 1 ? Integer.parseInt(args[1]) : 1000000);
+        break;
+      case "insertOrders":
+        insertOrders();
+        break;
+      case "bulkOps":
+        bulkOps();
+        break;
+      case "storeCompare":
+        storeCompare(args.length > 1 ? Integer.parseInt(args[1]) : 10000000);
+        break;
+      default:
+        System.out.println("Unknown scenario: " + scenario);
+        break;
+    }
+  }
+}
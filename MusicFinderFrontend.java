@@ -1,7 +1,19 @@
+import java.io.BufferedWriter;
+import java.io.FileDescriptor;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Scanner;
+import java.util.function.Supplier;
 
 /**
  * This is the Frontend class for the Music Finder Project. It implements the
@@ -10,10 +22,14 @@ import java.util.Scanner;
  * 
  */
 public class MusicFinderFrontend implements MusicFinderFrontendInterface {
+  private static final int NEAREST_SONGS = 10; // songs listed by the [N] command
+  private static final int GENRE_SONGS = 20; // songs listed by the [G] command
+  private static final int TOP_SONGS = 50; // songs listed by the [P] command
   private Scanner userInput; // to get user's input
   private MusicFinderBackendInterface backend; // to use methods from backend
   private String title; // to store most recently search title
-  private List<String> history; // stores song search history
+  private SearchHistory history; // stores song search history
+  private LoadProgress reportedLoad; // last background load whose outcome was shown
 
   /**
    * Constructor to initialize instance variables
@@ -22,10 +38,23 @@ public class MusicFinderFrontend implements MusicFinderFrontendInterface {
    * @param backend   - backend implementation
    */
   public MusicFinderFrontend(Scanner userInput, MusicFinderBackendInterface backend) {
+    this(userInput, backend, new SearchHistory());
+  }
+
+  /**
+   * Constructor for a frontend that serves one of several users of the same backend, each user
+   * gets their own search history
+   * 
+   * @param userInput - to read user input/ files
+   * @param backend   - backend implementation
+   * @param history   - search history of the user this frontend serves
+   */
+  public MusicFinderFrontend(Scanner userInput, MusicFinderBackendInterface backend,
+      SearchHistory history) {
     this.userInput = userInput;
     this.backend = backend;
     this.title = "";
-    this.history = new ArrayList<String>();
+    this.history = history;
   }
 
   /**
@@ -47,6 +76,9 @@ public class MusicFinderFrontend implements MusicFinderFrontendInterface {
         case '+': // Add[+] Song
           addSong();
           break;
+        case '-': // Remove[-] Song
+          removeSong();
+          break;
         case 'D': // Search Song [D]uration
           title = searchTitleCommand();
           searchDurationByTitle(title);
@@ -64,6 +96,24 @@ public class MusicFinderFrontend implements MusicFinderFrontendInterface {
         case 'H': // Display Search [H]istory
           displaySearchHistory();
           break;
+        case 'N': // [N]earest Songs
+          searchNearestSongs();
+          break;
+        case 'G': // Search Songs by [G]enre
+          searchGenreSongs();
+          break;
+        case 'P': // Most [P]opular Songs
+          displayTopSongs();
+          break;
+        case 'S': // Playlist [S]tatistics
+          displayStatistics();
+          break;
+        case 'E': // [E]xport Songs
+          exportSongsCommand();
+          break;
+        case 'M': // Display [M]etrics
+          System.out.println(backend.dumpMetrics());
+          break;
         case 'Q': // [Q]uit
           System.out.println("Thanks for using Music Finder!");
           break;
@@ -80,10 +130,20 @@ public class MusicFinderFrontend implements MusicFinderFrontendInterface {
    */
   @Override
   public char mainMenuPrompt() {
+    LoadProgress load = backend.getLoadProgress();
+    if (load != null && load != reportedLoad) {
+      if (load.isDone()) {
+        reportedLoad = load; // the outcome of a load is told once
+      }
+      System.out.println("Load of " + load);
+    }
     // prints prompt
     System.out.println("Pick a command from the list below!\n" + "    [L]oads playlist from file\n"
-        + "    Add Songs [+]\n" + "    Search Song [D]uration\n" + "    Search Song [A]rtist\n"
-        + "    Search Song [I]nformation\n" + "    Display Search [H]istory\n" + "    [Q]uit\n");
+        + "    Add Songs [+]\n" + "    Remove Song [-]\n" + "    Search Song [D]uration\n"
+        + "    Search Song [A]rtist\n"
+        + "    Search Song [I]nformation\n" + "    Display Search [H]istory\n"
+        + "    [N]earest Songs\n" + "    Search Songs by [G]enre\n" + "    Most [P]opular Songs\n"
+        + "    Playlist [S]tatistics\n" + "    [E]xport Songs\n" + "    Display [M]etrics\n" + "    [Q]uit\n");
     System.out.print("Enter command: ");
 
     String input = userInput.nextLine().trim();
@@ -94,18 +154,21 @@ public class MusicFinderFrontend implements MusicFinderFrontendInterface {
   }
 
   /**
-   * Loads data from a csv file to the playlist. Error will be thrown when file is not found or
-   * fails to load.
+   * Loads data from a csv file to the playlist in the background, so songs can be searched while
+   * it loads. Its progress is shown above the menu. Error will be thrown when file is not found or
+   * another file is still loading.
    */
   @Override
   public void loadDataCommand() {
     System.out.print("Enter the name of the file to load: ");
     String filename = userInput.nextLine().trim();
     try {
-      backend.loadData(filename);
-      System.out.println(filename + " loaded successfully!");
+      backend.loadDataInBackground(filename);
+      System.out.println("Loading " + filename + ", songs can be searched in the meantime.");
     } catch (FileNotFoundException e) {
       System.out.println("Error: Could not find or load file " + filename);
+    } catch (IllegalStateException e) {
+      System.out.println("Error: " + e.getMessage());
     }
   }
 
@@ -158,6 +221,27 @@ public class MusicFinderFrontend implements MusicFinderFrontendInterface {
     } catch (IllegalArgumentException iae) { // duplicate song
       System.out.println("Song already exists! Try again.");
       addSong();
+    } catch (IllegalStateException ise) { // the load in the background may still bring it
+      System.out.println(ise.getMessage());
+    } catch (UnsupportedOperationException uoe) { // read-only playlist
+      System.out.println(uoe.getMessage());
+    }
+  }
+
+  /**
+   * Prompts user for the title of the song to be removed. Errors are shown if the song doesn't
+   * exist.
+   */
+  @Override
+  public void removeSong() {
+    title = searchTitleCommand();
+    try {
+      backend.removeOneSong(title);
+      System.out.println("Song successfully removed!");
+    } catch (IllegalArgumentException | IllegalStateException e) { // song doesn't exist
+      System.out.println("Song title doesn't exist.");
+    } catch (UnsupportedOperationException e) { // read-only playlist
+      System.out.println(e.getMessage());
     }
   }
 
@@ -184,16 +268,12 @@ public class MusicFinderFrontend implements MusicFinderFrontendInterface {
   @Override
   public void searchDurationByTitle(String words) {
     try {
-      String result = backend.getDurationByTitle(words);
-
-      if (result == null) {// if result is null then the song doesn't exist
-        System.out.println("Song title doesn't exist.");
-      } else {
-        storeSong(words);
-        System.out.println("Duration of " + words + ": " + result);
-      }
+      SongInterface song = backend.findSong(words);
+      history.record(song);
+      System.out.println("Duration of " + words + ": "
+          + MusicFinderBackendInterface.formatDuration(song.getDuration()));
     } catch (Exception e) {
-      System.out.println("Song title doesn't exist.");
+      System.out.println(missMessage(e));
     }
   }
 
@@ -203,16 +283,11 @@ public class MusicFinderFrontend implements MusicFinderFrontendInterface {
   @Override
   public void searchArtistsByTitle(String words) {
     try {
-      String result = backend.getArtistByTitle(words);
-
-      if (result == null) { // if result is null then the song doesn't exist
-        System.out.println("Song title doesn't exist.");
-      } else {
-        storeSong(words);
-        System.out.println("Artist of " + words + ": " + result);
-      }
+      SongInterface song = backend.findSong(words);
+      history.record(song);
+      System.out.println("Artist of " + words + ": " + song.getArtist());
     } catch (Exception e) {
-      System.out.println("Song title doesn't exist.");
+      System.out.println(missMessage(e));
     }
   }
 
@@ -224,19 +299,26 @@ public class MusicFinderFrontend implements MusicFinderFrontendInterface {
   public void displayStatsCommand() {
     title = searchTitleCommand();
     try {
-      String stats = backend.findSongByTitle(title);
-
-      if (stats == null) { // if stats is null then the song doesn't exist
-        System.out.println("Song title doesn't exist.");
-      } else {
-        storeSong(title); // adds to search history
-        System.out.println(title + "\n" + stats);
-      }
+      SongInterface song = backend.findSong(title);
+      history.record(song); // adds to search history
+      System.out.println(title + "\n" + describe(song));
     } catch (Exception e) {
-      System.out.println("Song title doesn't exist.");
+      System.out.println(missMessage(e));
     }
   }
 
+  /**
+   * Helper method that tells why a song was not found: a title that may still come with a load
+   * that runs in the background is not loaded yet rather than missing
+   */
+  private String missMessage(Exception e) {
+    LoadProgress load = backend.getLoadProgress();
+    if (e instanceof IllegalStateException && load != null && !load.isDone()) {
+      return e.getMessage();
+    }
+    return "Song title doesn't exist.";
+  }
+
   /**
    * Displays list of song search history (previously searched songs either from duration, artist or
    * information)
@@ -249,37 +331,284 @@ public class MusicFinderFrontend implements MusicFinderFrontendInterface {
       System.out.println("Total songs in playlist: " + backend.displaySongCount()
           + "\nTotal searched songs: " + history.size());
       int i = 1;
-      for (String s : history) {
-        System.out.println(i++ + ". " + s);
+      for (SongInterface song : history.recent()) { // most recent search first
+        System.out.println(i++ + ". " + song.getTitle() + " by " + describe(song));
       }
     }
   }
 
   /**
-   * Helper method to store song search history with title, artist & duration
-   * 
-   * @param title - of the song to be stored
+   * Lists the songs whose audio features are closest to the song with the title the user enters.
    */
-  private void storeSong(String title) {
+  private void searchNearestSongs() {
+    title = searchTitleCommand();
     try {
-      // formats the string to be stored by title, then details
-	String format = title + " by " + backend.findSongByTitle(title);
-      // checks if the song has already been searched before
-      if (!history.contains(format)) {
-        history.add(format);
+      List<SongInterface> songs = backend.findSimilarSongs(title, NEAREST_SONGS);
+      System.out.println("Songs like " + title + ":");
+      int i = 1;
+      for (SongInterface song : songs) {
+        System.out.println(i++ + ". " + song.getTitle() + " by " + describe(song));
       }
-    } catch (Exception e) {
+    } catch (IllegalArgumentException | IllegalStateException e) {
+      System.out.println("Song title doesn't exist or has no audio features.");
     }
   }
 
-  public static void main(String[] args) {
-    RedBlackTree<SongInterface> rbt = new RedBlackTree<SongInterface>();
-    MusicFinderBackendInterface back = new MusicFinderBackend(rbt, new SongReader());
-    Scanner sc = new Scanner(System.in);
-    MusicFinderFrontendInterface front = new MusicFinderFrontend(sc, back);
-    
-    front.runCommandLoop();
+  /**
+   * Lists the songs of the genres the user enters, optionally only clean or only explicit ones
+   * and only titles with a given start.
+   */
+  private void searchGenreSongs() {
+    System.out.print("Enter genres separated by commas, empty for any genre: ");
+    List<String> genres = new ArrayList<String>();
+    for (String genre : userInput.nextLine().split(",")) {
+      if (!genre.isBlank()) {
+        genres.add(genre.trim());
+      }
+    }
+    System.out.print("Explicit songs? [Y]es, [N]o or [A]ny: ");
+    String answer = userInput.nextLine().trim().toUpperCase();
+    Boolean explicit = answer.startsWith("Y") ? Boolean.TRUE
+        : answer.startsWith("N") ? Boolean.FALSE : null;
+    System.out.print("Enter the start of the title, empty for any title: ");
+    String prefix = userInput.nextLine().trim();
+    List<SongInterface> songs = backend.findSongsByGenres(genres, explicit, prefix, GENRE_SONGS);
+    if (songs.isEmpty()) {
+      System.out.println("No song matches.");
+    }
+    int i = 1;
+    for (SongInterface song : songs) {
+      System.out.println(i++ + ". " + song.getTitle() + " by " + describe(song));
+    }
   }
-}
 
+  /**
+   * Lists the most popular songs overall, of the year or of the genre the user enters.
+   */
+  private void displayTopSongs() {
+    System.out.print("Enter a year or a genre, empty for all songs: ");
+    String input = userInput.nextLine().trim();
+    List<SongInterface> songs;
+    if (input.matches("[0-9]+")) {
+      songs = backend.findTopSongs(null, Integer.parseInt(input), TOP_SONGS);
+    } else {
+      songs = backend.findTopSongs(input.isEmpty() ? null : input, 0, TOP_SONGS);
+    }
+    if (songs.isEmpty()) {
+      System.out.println("No song matches.");
+    }
+    int i = 1;
+    for (SongInterface song : songs) {
+      System.out.println(i++ + ". " + song.getTitle() + " by " + describe(song) + ", popularity "
+          + song.getPopularity());
+    }
+  }
 
+  /**
+   * Shows the number of songs, distinct artists, the spread of duration, tempo and popularity and
+   * the most frequent artists and genres. They are kept up to date as songs come and go, so this
+   * is quick however big the playlist is.
+   */
+  private void displayStatistics() {
+    System.out.println(backend.getStatistics());
+  }
+
+  /**
+   * Writes the songs whose title starts with what the user enters to a file, as JSON Lines when
+   * the file name ends with .jsonl and as CSV otherwise, gzipped when it also ends with .gz.
+   */
+  private void exportSongsCommand() {
+    System.out.print("Enter the file to export to: ");
+    String fileName = userInput.nextLine().trim();
+    System.out.print("Enter the start of the titles, empty for all songs: ");
+    String prefix = userInput.nextLine().trim();
+    try (Writer out = SongExporter.open(fileName)) {
+      int count = new SongExporter(out, SongExporter.formatOf(fileName)).export(backend, prefix,
+          SongExporter.prefixEnd(prefix));
+      System.out.println(count + " songs exported to " + fileName);
+    } catch (IOException e) {
+      System.out.println("Error: Could not write file " + fileName);
+    }
+  }
+
+  /**
+   * Helper method that formats the artist and duration of a song
+   * 
+   * @param song - song to describe
+   * @return artist and duration separated by a comma
+   */
+  private static String describe(SongInterface song) {
+    return song.getArtist() + ", " + MusicFinderBackendInterface.formatDuration(song.getDuration());
+  }
+
+  /**
+   * Starts the Music Finder app. Optional arguments:
+   * --load=[csv file] loads a playlist on startup, in the background so the menu shows up right
+   * away, or before the first command with --batch,
+   * --wal=[log file] records added and removed songs so they survive a restart,
+   * --checkpoint=[n] writes the songs to a snapshot next to the --wal log and drops the logged
+   * changes after every n of them, later starts load the snapshot instead of the --load file,
+   * --watch=[directory] adds the csv files dropped into the directory,
+   * --cache=[n] caches the results of n lookups,
+   * --metrics records operation latencies, shown with the [M] command,
+   * --batch[=script] runs the commands of a script, or of stdin, without the menu,
+   * --store=[rbtree|bplustree|skiplist] picks the structure that stores the songs, rbtree by
+   * default, --store=disk:[index file] serves a read-only playlist from an index file, which
+   * --load (re)writes from a csv file,
+   * --shards=[n] splits the songs over n backends that load and change in parallel,
+   * --record=[log file] records the calls made to the backend, to replay them with
+   * MusicFinderReplayer.
+   * 
+   * @param args - command line arguments
+   */
+  public static void main(String[] args) throws IOException {
+    String loadFile = null;
+    String logFile = null;
+    long checkpointEvery = 0;
+    String watchDir = null;
+    int cacheSize = 0;
+    boolean recordMetrics = false;
+    String batchScript = null; // "-" reads the commands from stdin
+    String store = "rbtree";
+    String diskIndex = null;
+    int shardCount = 1;
+    String recordFile = null;
+    for (String arg : args) {
+      if (arg.startsWith("--load=")) {
+        loadFile = arg.substring("--load=".length());
+      } else if (arg.startsWith("--wal=")) {
+        logFile = arg.substring("--wal=".length());
+      } else if (arg.startsWith("--checkpoint=")) {
+        checkpointEvery = Long.parseLong(arg.substring("--checkpoint=".length()));
+      } else if (arg.startsWith("--watch=")) {
+        watchDir = arg.substring("--watch=".length());
+      } else if (arg.startsWith("--cache=")) {
+        cacheSize = Integer.parseInt(arg.substring("--cache=".length()));
+      } else if (arg.equals("--metrics")) {
+        recordMetrics = true;
+      } else if (arg.equals("--batch")) {
+        batchScript = "-";
+      } else if (arg.startsWith("--batch=")) {
+        batchScript = arg.substring("--batch=".length());
+      } else if (arg.equals("--store=rbtree") || arg.equals("--store=bplustree")
+          || arg.equals("--store=skiplist")) {
+        store = arg.substring("--store=".length());
+      } else if (arg.startsWith("--store=disk:")) {
+        diskIndex = arg.substring("--store=disk:".length());
+      } else if (arg.startsWith("--shards=")) {
+        shardCount = Integer.parseInt(arg.substring("--shards=".length()));
+      } else if (arg.startsWith("--record=")) {
+        recordFile = arg.substring("--record=".length());
+      } else {
+        System.out.println("Unknown argument: " + arg);
+        return;
+      }
+    }
+
+    // the B+ tree keeps its values in arrays, which pays off for big playlists, the skip list
+    // can be changed by many threads at once
+    Supplier<RedBlackTreeInterface<SongInterface>> newTree;
+    if (store.equals("bplustree")) {
+      newTree = BPlusTree::new;
+    } else if (store.equals("skiplist")) {
+      newTree = ConcurrentSkipListCollection::new;
+    } else {
+      newTree = RedBlackTree::new;
+    }
+    MusicFinderBackendInterface back;
+    if (diskIndex != null) {
+      if (shardCount > 1 || cacheSize > 0 || logFile != null || checkpointEvery > 0
+          || watchDir != null) {
+        System.out.println("--shards, --cache, --wal, --checkpoint and --watch cannot be combined "
+            + "with --store=disk, its songs are read-only");
+        return;
+      }
+      DiskMusicFinderBackend disk = new DiskMusicFinderBackend(diskIndex,
+          DiskMusicFinderBackend.DEFAULT_POOL_PAGES, new SongReader());
+      if (loadFile != null && batchScript == null) {
+        disk.loadDataInBackground(loadFile); // the old index answers until the new one is written
+      } else if (loadFile != null) {
+        disk.loadData(loadFile);
+      }
+      back = disk;
+    } else if (shardCount > 1) {
+      if (cacheSize > 0 || logFile != null || checkpointEvery > 0 || watchDir != null) {
+        System.out.println("--cache, --wal, --checkpoint and --watch cannot be combined with "
+            + "--shards");
+        return;
+      }
+      ShardedMusicFinderBackend sharded =
+          new ShardedMusicFinderBackend(shardCount, newTree, new SongReader());
+      if (recordMetrics) {
+        sharded.enableMetrics();
+      }
+      if (loadFile != null && batchScript == null) {
+        sharded.loadDataInBackground(loadFile);
+      } else if (loadFile != null) {
+        sharded.loadData(loadFile);
+      }
+      back = sharded;
+    } else {
+      MusicFinderBackend single = new MusicFinderBackend(newTree.get(), new SongReader());
+      if (cacheSize > 0) {
+        single.setResultCache(new LookupResultCache(cacheSize));
+      }
+      if (recordMetrics) {
+        single.setMetrics(new MusicFinderMetrics());
+      }
+      if (logFile != null) {
+        // songs are typed in one at a time, so every record is forced to disk right away
+        SongWriteAheadLog log = new SongWriteAheadLog(logFile, 1, 0, 1000000);
+        single.setWriteAheadLog(log);
+        if (log.hasBase()) {
+          loadFile = log.getBaseFile(); // the last checkpoint holds the --load file's songs too
+        }
+      }
+      if (checkpointEvery > 0) {
+        if (logFile == null) {
+          System.out.println("--checkpoint needs --wal");
+          return;
+        }
+        single.setCheckpoint(checkpointEvery);
+      }
+      if (loadFile != null && batchScript == null) {
+        single.loadDataInBackground(loadFile); // also replays the log once it is done
+      } else if (loadFile != null) {
+        single.loadData(loadFile); // also replays the log
+      } else if (logFile != null) {
+        single.replayWriteAheadLog();
+      }
+      if (watchDir != null) {
+        // csv files dropped into this directory are added in the background
+        SongDirectoryWatcher watcher =
+            new SongDirectoryWatcher(single, new SongReader(), Paths.get(watchDir), 1000, 16);
+        watcher.start();
+        single.setDirectoryWatcher(watcher); // its lag and rate are shown with [M]
+      }
+      back = single;
+    }
+    RecordingMusicFinderBackend recording = null;
+    if (recordFile != null) {
+      // the load given with --load is not recorded, the replayer loads the playlist itself
+      back = recording = new RecordingMusicFinderBackend(back, new WorkloadLog(recordFile));
+    }
+    if (batchScript != null) {
+      Writer out = new BufferedWriter(
+          new OutputStreamWriter(new FileOutputStream(FileDescriptor.out), StandardCharsets.UTF_8),
+          1 << 16);
+      Reader script = batchScript.equals("-")
+          ? new InputStreamReader(System.in, StandardCharsets.UTF_8)
+          : new FileReader(batchScript, StandardCharsets.UTF_8);
+      new MusicFinderBatchRunner(back, new SearchHistory(), out,
+          Runtime.getRuntime().availableProcessors()).run(script);
+    } else {
+      Scanner sc = new Scanner(System.in);
+      MusicFinderFrontendInterface front = new MusicFinderFrontend(sc, back);
+
+      front.runCommandLoop();
+    }
+    if (recording != null) {
+      recording.close();
+    }
+  }
+}
@@ -7,6 +7,7 @@ public interface MusicFinderFrontendInterface {
     public char mainMenuPrompt();
     public void loadDataCommand();
     public void addSong();
+    public void removeSong();
     public String searchTitleCommand();
     public void searchDurationByTitle(String title);
     public void searchArtistsByTitle(String title);
@@ -0,0 +1,344 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * This class serves the backend over HTTP, so many users can query the same
+ * playlist at once. Every request runs on its own virtual thread when the JVM
+ * has them (JDK 21 and later), and on a thread of a cached pool otherwise. The
+ * backend takes care of the locking. Answers are JSON objects:
+ *
+ * GET  /lookup?title=[title]              the song, or 404
+ * GET  /prefix?q=[prefix]&amp;limit=[n]   songs whose title starts with prefix
+ * POST /add   title=..&amp;artist=..&amp;duration=..  form encoded, 201, 409 for a duplicate or
+ *                                         503 while a load may still bring the title, 403
+ *                                         when the playlist is read-only
+ * GET  /stats                             song count and request counters
+ */
+public class MusicFinderHttpService {
+
+    private static final int DEFAULT_PREFIX_LIMIT = 20;
+    private static final int MAX_PREFIX_LIMIT = 1000;
+
+    private MusicFinderBackendInterface backend;
+    private HttpServer server;
+    private ExecutorService executor;
+    private LookupResultCache cache; // only read for the stats, may be null
+
+    private LongAdder requests = new LongAdder();
+    private LongAdder errors = new LongAdder();
+
+    /**
+     * this method creates the service, call start to accept requests
+     *
+     * @param backend backend that answers the requests
+     * @param port    port to listen on, 0 picks a free one
+     * @param cache   the result cache of the backend for the stats, or null
+     * @throws IOException when the port cannot be bound
+     */
+    public MusicFinderHttpService(MusicFinderBackendInterface backend, int port, LookupResultCache cache)
+            throws IOException {
+        this.backend = backend;
+        this.cache = cache;
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        this.executor = newRequestExecutor();
+        server.setExecutor(executor);
+        server.createContext("/lookup", exchange -> handle(exchange, "GET", this::lookup));
+        server.createContext("/prefix", exchange -> handle(exchange, "GET", this::prefix));
+        server.createContext("/add", exchange -> handle(exchange, "POST", this::add));
+        server.createContext("/stats", exchange -> handle(exchange, "GET", this::stats));
+    }
+
+    /**
+     * Helper method that runs each request on a virtual thread when the JVM has
+     * them, looked up by reflection so the service still runs on JDK 17
+     */
+    private static ExecutorService newRequestExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor")
+                    .invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(task -> {
+                Thread thread = new Thread(task, "music-finder-http");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * starts accepting requests
+     */
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * stops accepting requests and waits up to the given time for running ones
+     *
+     * @param delaySeconds time the running requests get to finish
+     */
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+        executor.shutdown();
+    }
+
+    /**
+     * get the port the service listens on
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * An answer to a request: a status code and a JSON body
+     */
+    private static class Response {
+        private int status;
+        private String body;
+
+        private Response(int status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+    }
+
+    /**
+     * A request handler working on the decoded parameters
+     */
+    private interface Handler {
+        // answers a request, the parameters come from the query string or a form body
+        public Response answer(Map<String, String> parameters);
+    }
+
+    /**
+     * Helper method that checks the method, decodes the parameters, runs the
+     * handler and writes its answer
+     */
+    private void handle(HttpExchange exchange, String method, Handler handler) throws IOException {
+        requests.increment();
+        Response response;
+        try {
+            if (!exchange.getRequestMethod().equals(method)) {
+                response = error(405, "Use " + method);
+            } else {
+                String parameters = exchange.getRequestURI().getRawQuery();
+                if (method.equals("POST")) {
+                    try (InputStream body = exchange.getRequestBody()) {
+                        parameters = new String(body.readAllBytes(), StandardCharsets.UTF_8);
+                    }
+                }
+                Map<String, String> decoded;
+                try {
+                    decoded = decode(parameters);
+                } catch (IllegalArgumentException e) { // a broken %xx escape
+                    decoded = null;
+                }
+                response = decoded == null ? error(400, "Malformed parameters")
+                        : handler.answer(decoded);
+            }
+        } catch (RuntimeException e) {
+            // the details stay on the server, clients only learn that the request failed
+            System.err.println(exchange.getRequestURI().getPath() + " failed: " + e);
+            response = error(500, "Internal error");
+        }
+        if (response.status >= 400) {
+            errors.increment();
+        }
+        byte[] body = response.body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(response.status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Helper method that splits a query string or form body into its parameters
+     */
+    private static Map<String, String> decode(String encoded) {
+        Map<String, String> parameters = new HashMap<String, String>();
+        if (encoded == null || encoded.isEmpty()) {
+            return parameters;
+        }
+        for (String pair : encoded.split("&")) {
+            int equals = pair.indexOf('=');
+            String name = equals < 0 ? pair : pair.substring(0, equals);
+            String value = equals < 0 ? "" : pair.substring(equals + 1);
+            parameters.put(URLDecoder.decode(name, StandardCharsets.UTF_8),
+                    URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return parameters;
+    }
+
+    /**
+     * GET /lookup?title=[title]
+     */
+    private Response lookup(Map<String, String> parameters) {
+        String title = parameters.get("title");
+        if (title == null) {
+            return error(400, "Missing title");
+        }
+        try {
+            return new Response(200, toJson(backend.findSong(title)));
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            return error(404, "No song with this title");
+        }
+    }
+
+    /**
+     * GET /prefix?q=[prefix]&amp;limit=[n]
+     */
+    private Response prefix(Map<String, String> parameters) {
+        String prefix = parameters.get("q");
+        if (prefix == null) {
+            return error(400, "Missing q");
+        }
+        int limit = DEFAULT_PREFIX_LIMIT;
+        if (parameters.containsKey("limit")) {
+            try {
+                limit = Math.min(Integer.parseInt(parameters.get("limit")), MAX_PREFIX_LIMIT);
+            } catch (NumberFormatException e) {
+                return error(400, "limit is not a number");
+            }
+        }
+        List<SongInterface> songs = backend.findSongsByPrefix(prefix, limit);
+        StringBuilder json = new StringBuilder("{\"songs\":[");
+        for (int i = 0; i < songs.size(); i++) {
+            json.append(i == 0 ? "" : ",").append(toJson(songs.get(i)));
+        }
+        return new Response(200, json.append("]}").toString());
+    }
+
+    /**
+     * POST /add with title, artist and duration form encoded in the body
+     */
+    private Response add(Map<String, String> parameters) {
+        String title = parameters.get("title");
+        String artist = parameters.get("artist");
+        String duration = parameters.get("duration");
+        if (title == null || title.isEmpty() || artist == null || duration == null
+                || !duration.matches("[0-9:]+")) {
+            return error(400, "Expected title, artist and duration in ms or min:sec");
+        }
+        try {
+            backend.addOneSong(title, duration, artist);
+            return new Response(201, toJson(new Song(title, artist, duration)));
+        } catch (IllegalArgumentException e) {
+            return error(409, "Song already exists");
+        } catch (IllegalStateException e) {
+            return error(503, "Still loading, try again later");
+        } catch (UnsupportedOperationException e) {
+            return error(403, "The playlist is read-only");
+        }
+    }
+
+    /**
+     * GET /stats
+     */
+    private Response stats(Map<String, String> parameters) {
+        StringBuilder json = new StringBuilder("{\"songs\":").append(backend.displaySongCount())
+                .append(",\"requests\":").append(requests.sum())
+                .append(",\"errors\":").append(errors.sum());
+        if (cache != null) {
+            json.append(",\"cache\":{\"hits\":").append(cache.getHits())
+                    .append(",\"misses\":").append(cache.getMisses())
+                    .append(",\"evictions\":").append(cache.getEvictions()).append("}");
+        }
+        return new Response(200, json.append("}").toString());
+    }
+
+    /**
+     * Helper method that builds an error answer
+     */
+    private static Response error(int status, String message) {
+        return new Response(status, "{\"error\":" + quote(message) + "}");
+    }
+
+    /**
+     * Helper method that turns a song into a JSON object
+     */
+    private static String toJson(SongInterface song) {
+        String duration = MusicFinderBackendInterface.formatDuration(song.getDuration());
+        return "{\"title\":" + quote(song.getTitle()) + ",\"artist\":" + quote(song.getArtist())
+                + ",\"duration\":" + quote(duration) + "}";
+    }
+
+    /**
+     * Helper method that turns a string into a quoted JSON string
+     */
+    private static String quote(String value) {
+        return SongExporter.jsonString(value);
+    }
+
+    /**
+     * Starts the service. Optional arguments:
+     * --port=[port] port to listen on, 8080 by default,
+     * --load=[csv file] loads a playlist on startup,
+     * --cache=[n] caches the results of n lookups,
+     * --store=disk:[index file] serves a read-only playlist from an index file,
+     * which --load (re)writes from a csv file, for playlists bigger than the heap.
+     *
+     * @param args command line arguments
+     * @throws IOException when the port cannot be bound
+     */
+    public static void main(String[] args) throws IOException {
+        int port = 8080;
+        String loadFile = null;
+        int cacheSize = 0;
+        String diskIndex = null;
+        for (String arg : args) {
+            if (arg.startsWith("--port=")) {
+                port = Integer.parseInt(arg.substring("--port=".length()));
+            } else if (arg.startsWith("--load=")) {
+                loadFile = arg.substring("--load=".length());
+            } else if (arg.startsWith("--cache=")) {
+                cacheSize = Integer.parseInt(arg.substring("--cache=".length()));
+            } else if (arg.startsWith("--store=disk:")) {
+                diskIndex = arg.substring("--store=disk:".length());
+            } else {
+                System.out.println("Unknown argument: " + arg);
+                return;
+            }
+        }
+        // headers and body are written separately, without this every keep-alive answer waits
+        // for the client's delayed ack. It is read once by the JDK's server, so it is set before
+        // the first service is created.
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        MusicFinderBackendInterface backend;
+        LookupResultCache cache = null;
+        if (diskIndex != null) {
+            if (cacheSize > 0) {
+                System.out.println("--cache cannot be combined with --store=disk");
+                return;
+            }
+            backend = new DiskMusicFinderBackend(diskIndex, DiskMusicFinderBackend.DEFAULT_POOL_PAGES,
+                    new SongReader());
+        } else {
+            MusicFinderBackend single =
+                    new MusicFinderBackend(new RedBlackTree<SongInterface>(), new SongReader());
+            cache = cacheSize > 0 ? new LookupResultCache(cacheSize) : null;
+            single.setResultCache(cache);
+            backend = single;
+        }
+        if (loadFile != null) {
+            backend.loadData(loadFile);
+        }
+        MusicFinderHttpService service = new MusicFinderHttpService(backend, port, cache);
+        service.start();
+        System.out.println("Music Finder is listening on port " + service.getPort());
+    }
+
+}
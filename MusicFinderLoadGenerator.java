@@ -0,0 +1,251 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This class puts load on a MusicFinderHttpService and reports the p50 and p99
+ * latency and the throughput at increasing numbers of concurrent clients. Every
+ * client sends its next request as soon as the last one was answered. Most
+ * requests look up a known title, some search a prefix and a few add a song.
+ *
+ * Run with --url=[service url] to load a running service, otherwise a service
+ * holding synthetic songs is started in this JVM. Other arguments:
+ * --seconds=[s] measured time per level, --levels=[1,2,4,..] client counts,
+ * --writes=[percent] share of requests that add a song.
+ */
+public class MusicFinderLoadGenerator {
+
+    private static final Pattern TITLE = Pattern.compile("\"title\":\"((?:[^\"\\\\]|\\\\.)*)\"");
+
+    private HttpClient client;
+    private String url;
+    private List<String> titles;
+    private int writePercent;
+
+    /**
+     * this method sets up the generator
+     *
+     * @param url          base url of the service
+     * @param titles       titles that are in the playlist
+     * @param writePercent share of requests that add a song
+     */
+    public MusicFinderLoadGenerator(String url, List<String> titles, int writePercent) {
+        this.client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        this.url = url;
+        this.titles = titles;
+        this.writePercent = writePercent;
+    }
+
+    /**
+     * The latencies one client measured
+     */
+    private static class Recorder {
+        private long[] nanos = new long[1 << 12];
+        private int count;
+        private int failures;
+
+        private void record(long latency) {
+            if (count == nanos.length) {
+                nanos = Arrays.copyOf(nanos, count * 2);
+            }
+            nanos[count++] = latency;
+        }
+    }
+
+    /**
+     * runs the given number of clients for a while
+     *
+     * @param clients number of concurrent clients
+     * @param millis  time to run
+     * @return the latencies of all requests that finished in time
+     * @throws InterruptedException when interrupted while waiting for the clients
+     */
+    private Recorder[] run(int clients, long millis) throws InterruptedException {
+        Recorder[] recorders = new Recorder[clients];
+        Thread[] threads = new Thread[clients];
+        long end = System.nanoTime() + millis * 1000000L;
+        for (int i = 0; i < clients; i++) {
+            Recorder recorder = recorders[i] = new Recorder();
+            Random random = new Random(i * 31L + clients);
+            threads[i] = new Thread(() -> {
+                while (System.nanoTime() < end) {
+                    HttpRequest request = nextRequest(random);
+                    long start = System.nanoTime();
+                    try {
+                        HttpResponse<String> response =
+                                client.send(request, HttpResponse.BodyHandlers.ofString());
+                        recorder.record(System.nanoTime() - start);
+                        if (response.statusCode() >= 500) {
+                            recorder.failures++;
+                        }
+                    } catch (IOException e) {
+                        recorder.failures++;
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return recorders;
+    }
+
+    /**
+     * Helper method that picks the next request: mostly lookups, some prefix
+     * searches and a few adds
+     */
+    private HttpRequest nextRequest(Random random) {
+        int dice = random.nextInt(100);
+        if (dice < writePercent) {
+            String body = "title=" + encode("Load " + random.nextLong())
+                    + "&artist=Load&duration=200000";
+            return HttpRequest.newBuilder(URI.create(url + "/add"))
+                    .header("Content-Type", "application/x-www-form-urlencoded")
+                    .POST(HttpRequest.BodyPublishers.ofString(body)).build();
+        }
+        String title = titles.get(random.nextInt(titles.size()));
+        if (dice < writePercent + 10) {
+            String prefix = title.substring(0, Math.min(3, title.length()));
+            String query = url + "/prefix?limit=10&q=" + encode(prefix);
+            return HttpRequest.newBuilder(URI.create(query)).build();
+        }
+        return HttpRequest.newBuilder(URI.create(url + "/lookup?title=" + encode(title))).build();
+    }
+
+    /**
+     * Helper method that encodes a query parameter
+     */
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Helper method that prints one line of results
+     */
+    private static void report(int clients, Recorder[] recorders, long millis) {
+        int count = 0;
+        int failures = 0;
+        for (Recorder recorder : recorders) {
+            count += recorder.count;
+            failures += recorder.failures;
+        }
+        long[] all = new long[count];
+        int at = 0;
+        for (Recorder recorder : recorders) {
+            System.arraycopy(recorder.nanos, 0, all, at, recorder.count);
+            at += recorder.count;
+        }
+        Arrays.sort(all);
+        System.out.printf("  %4d clients %10.0f req/s   p50 %8.3f ms   p99 %8.3f ms   "
+                + "max %8.3f ms   %d failed%n", clients, count * 1000.0 / millis,
+                percentile(all, 0.50) / 1e6, percentile(all, 0.99) / 1e6,
+                (count == 0 ? 0 : all[count - 1]) / 1e6, failures);
+    }
+
+    /**
+     * Helper method that reads a percentile from sorted latencies
+     */
+    private static long percentile(long[] sorted, double fraction) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[(int) Math.min(sorted.length - 1, Math.ceil(fraction * sorted.length) - 1)];
+    }
+
+    /**
+     * Helper method that asks the service for titles to look up
+     */
+    private static List<String> sampleTitles(String url) throws IOException, InterruptedException {
+        HttpClient client = HttpClient.newHttpClient();
+        List<String> titles = new ArrayList<String>();
+        for (char first = ' '; first < 0x7f && titles.size() < 100000; first++) {
+            String query = url + "/prefix?limit=1000&q=" + encode("" + first);
+            String body = client.send(HttpRequest.newBuilder(URI.create(query)).build(),
+                    HttpResponse.BodyHandlers.ofString()).body();
+            Matcher matcher = TITLE.matcher(body);
+            while (matcher.find()) {
+                titles.add(matcher.group(1).replaceAll("\\\\(.)", "$1"));
+            }
+        }
+        return titles;
+    }
+
+    /**
+     * Runs every level and prints its results, see the class comment for the arguments
+     *
+     * @param args command line arguments
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        String url = null;
+        long millis = 5000;
+        int writePercent = 1;
+        int[] levels = {1, 2, 4, 8, 16, 32, 64};
+        for (String arg : args) {
+            if (arg.startsWith("--url=")) {
+                url = arg.substring("--url=".length());
+            } else if (arg.startsWith("--seconds=")) {
+                millis = Long.parseLong(arg.substring("--seconds=".length())) * 1000;
+            } else if (arg.startsWith("--writes=")) {
+                writePercent = Integer.parseInt(arg.substring("--writes=".length()));
+            } else if (arg.startsWith("--levels=")) {
+                levels = Arrays.stream(arg.substring("--levels=".length()).split(","))
+                        .mapToInt(Integer::parseInt).toArray();
+            } else {
+                System.out.println("Unknown argument: " + arg);
+                return;
+            }
+        }
+
+        MusicFinderHttpService local = null;
+        List<String> titles;
+        if (url == null) {
+            // answers are written in two parts, see MusicFinderHttpService.main
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+            MusicFinderBackend backend =
+                    new MusicFinderBackend(new RedBlackTree<SongInterface>(), new SongReader());
+            titles = new ArrayList<String>();
+            Random random = new Random(3);
+            while (titles.size() < 200000) {
+                String title = "Song " + Long.toString(random.nextLong() & Long.MAX_VALUE, 36);
+                backend.addOneSong(title, "" + (120000 + random.nextInt(180000)),
+                        "Artist " + random.nextInt(1000));
+                titles.add(title);
+            }
+            local = new MusicFinderHttpService(backend, 0, null);
+            local.start();
+            url = "http://localhost:" + local.getPort();
+        } else {
+            titles = sampleTitles(url);
+        }
+        if (titles.isEmpty()) {
+            System.out.println("The service has no songs to look up");
+            return;
+        }
+        System.out.println("Loading " + url + " with " + titles.size() + " known titles, "
+                + writePercent + "% adds");
+
+        MusicFinderLoadGenerator generator =
+                new MusicFinderLoadGenerator(url, titles, writePercent);
+        generator.run(levels[levels.length - 1], 2000); // warm up both ends
+        for (int clients : levels) {
+            report(clients, generator.run(clients, millis), millis);
+        }
+        if (local != null) {
+            local.stop(0);
+        }
+    }
+
+}
@@ -0,0 +1,154 @@
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class collects what the backend and its tree are doing: a latency
+ * histogram per operation and the number of rotations the tree made. It is
+ * handed to the backend, which records into it on its hot paths without taking
+ * a lock, and wraps its tree in a MeasuredTree to record the tree's operations.
+ * Call dump to get a report at any time.
+ */
+public class MusicFinderMetrics {
+
+    /**
+     * The operations that are timed
+     */
+    public enum Operation {
+        LOAD_DATA, FIND_SONG_BY_TITLE, GET_ARTIST_BY_TITLE, GET_DURATION_BY_TITLE, FIND_SONG,
+        ADD_ONE_SONG, REMOVE_ONE_SONG, TREE_INSERT, TREE_GET, TREE_REMOVE
+    }
+
+    private Map<Operation, LatencyHistogram> latencies;
+    private LongAdder insertRotations = new LongAdder();
+    private LongAdder removeRotations = new LongAdder();
+    private LongAccumulator maxInsertRotations = new LongAccumulator(Math::max, 0);
+
+    /**
+     * this method creates empty metrics
+     */
+    public MusicFinderMetrics() {
+        this.latencies = new EnumMap<Operation, LatencyHistogram>(Operation.class);
+        for (Operation operation : Operation.values()) {
+            latencies.put(operation, new LatencyHistogram());
+        }
+    }
+
+    /**
+     * this method records one call of an operation
+     *
+     * @param operation  the operation that finished
+     * @param startNanos System.nanoTime() when it started
+     */
+    public void record(Operation operation, long startNanos) {
+        latencies.get(operation).record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * this method records the rotations one insert or remove needed
+     *
+     * @param insert    true for an insert, false for a remove
+     * @param rotations number of rotations
+     */
+    public void recordRotations(boolean insert, int rotations) {
+        if (rotations > 0) {
+            (insert ? insertRotations : removeRotations).add(rotations);
+            if (insert) {
+                maxInsertRotations.accumulate(rotations);
+            }
+        }
+    }
+
+    /**
+     * get the latency histogram of an operation
+     *
+     * @param operation the operation
+     * @return its histogram
+     */
+    public LatencyHistogram getLatencies(Operation operation) {
+        return latencies.get(operation);
+    }
+
+    /**
+     * get the average number of rotations per tree insert
+     */
+    public double getRotationsPerInsert() {
+        long inserts = latencies.get(Operation.TREE_INSERT).getCount();
+        return inserts == 0 ? 0 : (double) insertRotations.sum() / inserts;
+    }
+
+    /**
+     * get the most rotations a single tree insert needed
+     */
+    public long getMaxRotationsPerInsert() {
+        return maxInsertRotations.get();
+    }
+
+    /**
+     * get the average number of rotations per tree remove
+     */
+    public double getRotationsPerRemove() {
+        long removes = latencies.get(Operation.TREE_REMOVE).getCount();
+        return removes == 0 ? 0 : (double) removeRotations.sum() / removes;
+    }
+
+    /**
+     * this method forgets everything recorded so far
+     */
+    public void reset() {
+        for (LatencyHistogram histogram : latencies.values()) {
+            histogram.reset();
+        }
+        insertRotations.reset();
+        removeRotations.reset();
+        maxInsertRotations.reset();
+    }
+
+    /**
+     * this method makes a report of the recorded operations and the shape of a tree
+     *
+     * @param tree the tree to describe, may be null
+     * @return one line per operation that was called, then the tree shape
+     */
+    public String dump(RedBlackTreeInterface<?> tree) {
+        StringBuilder report = new StringBuilder();
+        for (Map.Entry<Operation, LatencyHistogram> entry : latencies.entrySet()) {
+            if (entry.getValue().getCount() > 0) {
+                report.append(String.format("%-22s %s%n", entry.getKey(), entry.getValue()));
+            }
+        }
+        report.append(String.format("rotations per insert %.3f (at most %d), per remove %.3f%n",
+                getRotationsPerInsert(), getMaxRotationsPerInsert(), getRotationsPerRemove()));
+        if (tree != null) {
+            report.append(shape(tree)).append(String.format("%n"));
+        }
+        return report.toString();
+    }
+
+    /**
+     * Helper method that describes the shape of a tree, leaving out what the
+     * structure does not have, like the colors of a B+ tree or the height of a
+     * skip list
+     */
+    private static String shape(RedBlackTreeInterface<?> tree) {
+        StringBuilder shape = new StringBuilder("tree: ").append(tree.size()).append(" nodes");
+        Object stored = tree instanceof MeasuredTree ? ((MeasuredTree<?>) tree).getTree() : tree;
+        if (stored instanceof ColoredTreeInterface) {
+            ColoredTreeInterface colored = (ColoredTreeInterface) stored;
+            shape.append(String.format(", %d black, %d red", colored.getNumBlackNodes(),
+                    colored.getNumRedNodes()));
+        }
+        if (stored instanceof TreeShapeInterface) {
+            TreeShapeInterface balanced = (TreeShapeInterface) stored;
+            shape.append(String.format(", height %d (bound %d)", balanced.height(),
+                    balanced.heightBound()));
+        }
+        if (stored instanceof ColoredTreeInterface) {
+            shape.append(String.format(", black height %d",
+                    ((ColoredTreeInterface) stored).blackHeight()));
+        }
+        return shape.toString();
+    }
+
+}
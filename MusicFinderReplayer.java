@@ -0,0 +1,208 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * This class replays a WorkloadLog, as written by the frontend with
+ * --record, against a new backend and reports the throughput, the latency
+ * percentiles of every kind of call and the heap allocated per call. Calls are
+ * handed out in log order to a number of threads. At a given speed every call
+ * waits until its recorded time, divided by the speed, has come, and its
+ * latency counts from that time, so a backend that falls behind shows it in
+ * the percentiles instead of slowing the replay down. At max speed the calls
+ * run back to back and their latency counts from when they start.
+ *
+ * Arguments: --log=[log file] the calls to replay, --load=[csv file] a
+ * playlist loaded before the replay starts, --speed=[1|10|..|max] 1 by
+ * default, --threads=[n] 1 by default, --store=[rbtree|bplustree|skiplist]
+ * the structure that stores the songs, rbtree by default.
+ */
+public class MusicFinderReplayer {
+
+    private List<WorkloadLog.Operation> operations;
+    private double speed; // 0 runs the calls back to back
+    private int threadCount;
+    private LatencyHistogram total = new LatencyHistogram();
+    private LatencyHistogram[] byKind = new LatencyHistogram[32];
+    private AtomicLong[] rejectedByKind = new AtomicLong[32];
+    private AtomicLong failed = new AtomicLong();
+    private AtomicLong allocatedBytes = new AtomicLong();
+
+    /**
+     * this method sets up a replay
+     *
+     * @param operations  the calls to replay, in log order
+     * @param speed       how many times faster than recorded to replay, 0 for as
+     *                    fast as possible
+     * @param threadCount number of threads that make the calls
+     */
+    public MusicFinderReplayer(List<WorkloadLog.Operation> operations, double speed, int threadCount) {
+        this.operations = operations;
+        this.speed = speed;
+        this.threadCount = threadCount;
+        for (int i = 0; i < byKind.length; i++) {
+            byKind[i] = new LatencyHistogram();
+            rejectedByKind[i] = new AtomicLong();
+        }
+    }
+
+    /**
+     * replays all calls on a backend and waits for them
+     *
+     * @param backend the backend to call
+     * @return the time the replay took in ns
+     * @throws InterruptedException when interrupted while waiting for the threads
+     */
+    public long replay(MusicFinderBackendInterface backend) throws InterruptedException {
+        AtomicInteger next = new AtomicInteger();
+        Thread[] threads = new Thread[threadCount];
+        long start = System.nanoTime();
+        for (int i = 0; i < threadCount; i++) {
+            threads[i] = new Thread(() -> {
+                long allocatedBefore = allocatedBytes();
+                for (int index = next.getAndIncrement(); index < operations.size();
+                        index = next.getAndIncrement()) {
+                    run(backend, operations.get(index), start);
+                }
+                allocatedBytes.addAndGet(allocatedBytes() - allocatedBefore);
+            }, "music-finder-replay-" + i);
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Helper method that waits until a call is due, makes it and records its
+     * latency
+     */
+    private void run(MusicFinderBackendInterface backend, WorkloadLog.Operation operation, long start) {
+        long due = 0;
+        if (speed > 0) {
+            due = start + (long) (operation.getMicros() * 1000 / speed);
+            for (long wait = due - System.nanoTime(); wait > 0; wait = due - System.nanoTime()) {
+                LockSupport.parkNanos(wait);
+            }
+        }
+        long begin = System.nanoTime();
+        int kind = operation.getKind() & (byKind.length - 1);
+        try {
+            operation.applyTo(backend);
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            rejectedByKind[kind].incrementAndGet(); // e.g. a title that is not there
+        } catch (IOException | RuntimeException e) {
+            failed.incrementAndGet();
+        }
+        long latency = System.nanoTime() - (speed > 0 ? due : begin);
+        total.record(latency);
+        byKind[kind].record(latency);
+    }
+
+    /**
+     * Helper method that reads the bytes the current thread allocated so far, -1
+     * when the JVM does not tell
+     */
+    private static long allocatedBytes() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    /**
+     * prints the results of the last replay
+     *
+     * @param nanos the time the replay took
+     */
+    public void report(long nanos) {
+        long calls = total.getCount();
+        System.out.printf("Replayed %d calls with %d threads at %s in %.3f s: %.0f calls/s, "
+                + "%s bytes allocated per call, %d failed%n", calls, threadCount,
+                speed > 0 ? speed + "x" : "max speed", nanos / 1e9, calls * 1e9 / nanos,
+                allocatedBytes.get() < 0 || calls == 0 ? "?" : "" + allocatedBytes.get() / calls,
+                failed.get());
+        System.out.printf("  %-20s %9s %9s %10s %10s %10s %10s%n", "call", "count", "rejected",
+                "p50 us", "p99 us", "p99.9 us", "max us");
+        for (int kind = 0; kind < byKind.length; kind++) {
+            if (byKind[kind].getCount() > 0) {
+                print(WorkloadLog.nameOf(kind), byKind[kind], rejectedByKind[kind].get());
+            }
+        }
+        long rejected = 0;
+        for (AtomicLong count : rejectedByKind) {
+            rejected += count.get();
+        }
+        print("all", total, rejected);
+    }
+
+    /**
+     * Helper method that prints the line of one kind of call
+     */
+    private static void print(String name, LatencyHistogram histogram, long rejected) {
+        System.out.printf("  %-20s %9d %9d %10.1f %10.1f %10.1f %10.1f%n", name, histogram.getCount(),
+                rejected, histogram.getPercentile(0.5) / 1e3, histogram.getPercentile(0.99) / 1e3,
+                histogram.getPercentile(0.999) / 1e3, histogram.getMax() / 1e3);
+    }
+
+    /**
+     * Replays a log and prints the results, see the class comment for the arguments
+     *
+     * @param args command line arguments
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        String logFile = null;
+        String loadFile = null;
+        double speed = 1;
+        int threadCount = 1;
+        String store = "rbtree";
+        for (String arg : args) {
+            if (arg.startsWith("--log=")) {
+                logFile = arg.substring("--log=".length());
+            } else if (arg.startsWith("--load=")) {
+                loadFile = arg.substring("--load=".length());
+            } else if (arg.equals("--speed=max")) {
+                speed = 0;
+            } else if (arg.startsWith("--speed=")) {
+                speed = Double.parseDouble(arg.substring("--speed=".length()));
+            } else if (arg.startsWith("--threads=")) {
+                threadCount = Integer.parseInt(arg.substring("--threads=".length()));
+            } else if (arg.equals("--store=rbtree") || arg.equals("--store=bplustree")
+                    || arg.equals("--store=skiplist")) {
+                store = arg.substring("--store=".length());
+            } else {
+                System.out.println("Unknown argument: " + arg);
+                return;
+            }
+        }
+        if (logFile == null || speed < 0 || threadCount < 1) {
+            System.out.println("Give the log with --log=[log file], a speed of 0 or more and at "
+                    + "least 1 thread");
+            return;
+        }
+
+        RedBlackTreeInterface<SongInterface> tree;
+        if (store.equals("bplustree")) {
+            tree = new BPlusTree<SongInterface>();
+        } else if (store.equals("skiplist")) {
+            tree = new ConcurrentSkipListCollection<SongInterface>();
+        } else {
+            tree = new RedBlackTree<SongInterface>();
+        }
+        MusicFinderBackend backend = new MusicFinderBackend(tree, new SongReader());
+        if (loadFile != null) {
+            backend.loadData(loadFile);
+        }
+        List<WorkloadLog.Operation> operations = WorkloadLog.read(logFile);
+        System.out.println("Replaying " + operations.size() + " calls of " + logFile + " on "
+                + backend.displaySongCount() + " songs");
+        MusicFinderReplayer replayer = new MusicFinderReplayer(operations, speed, threadCount);
+        replayer.report(replayer.replay(backend));
+    }
+
+}
@@ -0,0 +1,164 @@
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntFunction;
+
+/**
+ * This class keeps a bounded number of pages of a file in memory, already
+ * decoded, and loads the others on demand. When it is full, the page to drop
+ * is picked with the clock algorithm: every cached page has a bit that is set
+ * when the page is used, and a hand sweeps over the pages, clearing set bits,
+ * until it finds a page whose bit is clear. Pages used often, like the top of
+ * a tree, keep getting their bit set and stay.
+ *
+ * The pages are not changed once loaded, so a page that is dropped while a
+ * reader still holds it stays valid for that reader. Loads run outside the
+ * lock, so a slow read does not hold up the hits of other threads.
+ */
+public class PageBufferPool<P> {
+
+    private IntFunction<P> loader; // reads and decodes a page from the file
+    private Map<Integer, Integer> frameOf = new HashMap<Integer, Integer>(); // frame of every cached page
+    private Object[] pages; // the cached pages, by frame
+    private int[] pageNumbers; // the page held by every frame
+    private boolean[] referenced; // set when the page of a frame was used since the hand passed
+    private int used; // frames that hold a page
+    private int hand; // next frame the clock looks at
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * this method creates an empty pool
+     *
+     * @param capacity the most pages held at once
+     * @param loader   reads and decodes the page with a given number
+     * @throws IllegalArgumentException when capacity is not positive
+     */
+    public PageBufferPool(int capacity, IntFunction<P> loader) throws IllegalArgumentException {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("The pool needs room for a page, not " + capacity);
+        }
+        this.loader = loader;
+        this.pages = new Object[capacity];
+        this.pageNumbers = new int[capacity];
+        this.referenced = new boolean[capacity];
+    }
+
+    /**
+     * get a page, from memory when it is cached and from the file otherwise
+     *
+     * @param pageNumber the number of the page
+     * @return the page
+     */
+    @SuppressWarnings("unchecked")
+    public P get(int pageNumber) {
+        synchronized (this) {
+            Integer frame = frameOf.get(pageNumber);
+            if (frame != null) {
+                referenced[frame] = true;
+                hits++;
+                return (P) pages[frame];
+            }
+            misses++;
+        }
+        P page = loader.apply(pageNumber);
+        synchronized (this) {
+            Integer frame = frameOf.get(pageNumber);
+            if (frame != null) { // another thread loaded it meanwhile
+                referenced[frame] = true;
+                return (P) pages[frame];
+            }
+            frame = freeFrame();
+            frameOf.put(pageNumber, frame);
+            pages[frame] = page;
+            pageNumbers[frame] = pageNumber;
+            referenced[frame] = true;
+            return page;
+        }
+    }
+
+    /**
+     * Helper method that finds a frame for a new page, dropping the page the
+     * clock hand stops at when all frames are used
+     */
+    private int freeFrame() {
+        if (used < pages.length) {
+            return used++;
+        }
+        while (referenced[hand]) {
+            referenced[hand] = false;
+            hand = (hand + 1) % pages.length;
+        }
+        int frame = hand;
+        hand = (hand + 1) % pages.length;
+        frameOf.remove(pageNumbers[frame]);
+        evictions++;
+        return frame;
+    }
+
+    /**
+     * get the most pages held at once
+     */
+    public int getCapacity() {
+        return pages.length;
+    }
+
+    /**
+     * get the number of pages held now
+     */
+    public synchronized int getCachedPages() {
+        return used;
+    }
+
+    /**
+     * get the number of page requests served from memory
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * get the number of page requests that had to read the file, the page faults
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * get the number of pages dropped to make room for others
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * get the part of the page requests served from memory
+     *
+     * @return a number from 0 to 1, 0 before the first request
+     */
+    public synchronized double getHitRate() {
+        return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+    }
+
+    /**
+     * this method sets the counters back to 0, the cached pages stay
+     */
+    public synchronized void resetStatistics() {
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+    }
+
+    /**
+     * this method will make the statistics of the pool as a string
+     *
+     * @return the pages held, the hit rate, the page faults and the evictions
+     */
+    @Override
+    public synchronized String toString() {
+        return used + "/" + pages.length + " pages cached, hit rate "
+                + String.format("%.1f%%", getHitRate() * 100) + ", " + misses + " page faults, "
+                + evictions + " evictions";
+    }
+
+}
@@ -0,0 +1,195 @@
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * This class passes every call on to another backend and records it in a
+ * WorkloadLog first, with its arguments and the time it came in, so the mix
+ * of calls a frontend or service really makes can be replayed later with
+ * MusicFinderReplayer. Asking for the progress of a load is not recorded, the
+ * menu does that before every command.
+ */
+public class RecordingMusicFinderBackend implements MusicFinderBackendInterface, Closeable {
+
+    private static final String[] NONE = {};
+
+    private MusicFinderBackendInterface backend;
+    private WorkloadLog log;
+
+    /**
+     * this method wraps a backend
+     *
+     * @param backend the backend that answers the calls
+     * @param log     the log the calls are recorded in
+     */
+    public RecordingMusicFinderBackend(MusicFinderBackendInterface backend, WorkloadLog log) {
+        this.backend = backend;
+        this.log = log;
+    }
+
+    /**
+     * get the log the calls are recorded in
+     */
+    public WorkloadLog getLog() {
+        return log;
+    }
+
+    /**
+     * Helper method that records a call
+     */
+    private void record(int kind, String[] strings, long... numbers) {
+        try {
+            log.record(kind, strings, numbers);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not record the call", e);
+        }
+    }
+
+    @Override
+    public void loadData(String filename) throws FileNotFoundException {
+        record(WorkloadLog.LOAD, new String[] {filename});
+        backend.loadData(filename);
+    }
+
+    @Override
+    public LoadProgress loadDataInBackground(String filename)
+            throws FileNotFoundException, IllegalStateException {
+        record(WorkloadLog.LOAD_IN_BACKGROUND, new String[] {filename});
+        return backend.loadDataInBackground(filename);
+    }
+
+    @Override
+    public LoadProgress getLoadProgress() {
+        return backend.getLoadProgress();
+    }
+
+    @Override
+    public String findSongByTitle(String words)
+            throws IllegalArgumentException, IllegalStateException, NullPointerException {
+        record(WorkloadLog.FIND_SONG_BY_TITLE, new String[] {words});
+        return backend.findSongByTitle(words);
+    }
+
+    @Override
+    public SongInterface findSong(String title)
+            throws IllegalArgumentException, IllegalStateException, NullPointerException {
+        record(WorkloadLog.FIND_SONG, new String[] {title});
+        return backend.findSong(title);
+    }
+
+    @Override
+    public String getDurationByTitle(String words)
+            throws IllegalArgumentException, IllegalStateException, NullPointerException {
+        record(WorkloadLog.DURATION_BY_TITLE, new String[] {words});
+        return backend.getDurationByTitle(words);
+    }
+
+    @Override
+    public String getArtistByTitle(String words)
+            throws IllegalArgumentException, IllegalStateException, NullPointerException {
+        record(WorkloadLog.ARTIST_BY_TITLE, new String[] {words});
+        return backend.getArtistByTitle(words);
+    }
+
+    @Override
+    public SongLookupResult findSongsByTitles(Collection<String> titles) throws NullPointerException {
+        record(WorkloadLog.FIND_SONGS_BY_TITLES, titles.toArray(new String[0]));
+        return backend.findSongsByTitles(titles);
+    }
+
+    @Override
+    public List<SongInterface> findSongsByPrefix(String prefix, int limit) throws NullPointerException {
+        record(WorkloadLog.FIND_SONGS_BY_PREFIX, new String[] {prefix}, limit);
+        return backend.findSongsByPrefix(prefix, limit);
+    }
+
+    @Override
+    public List<SongInterface> findSongsInRange(String fromTitle, String toTitle, int limit)
+            throws NullPointerException {
+        record(WorkloadLog.FIND_SONGS_IN_RANGE, new String[] {fromTitle, toTitle}, limit);
+        return backend.findSongsInRange(fromTitle, toTitle, limit);
+    }
+
+    @Override
+    public List<SongInterface> findSongsByArtist(String artist, int limit) throws NullPointerException {
+        record(WorkloadLog.FIND_SONGS_BY_ARTIST, new String[] {artist}, limit);
+        return backend.findSongsByArtist(artist, limit);
+    }
+
+    @Override
+    public List<SongInterface> findSimilarSongs(String title, int k)
+            throws IllegalArgumentException, IllegalStateException, NullPointerException {
+        record(WorkloadLog.FIND_SIMILAR_SONGS, new String[] {title}, k);
+        return backend.findSimilarSongs(title, k);
+    }
+
+    @Override
+    public List<SongInterface> findSongsByGenres(Collection<String> genres, Boolean explicit,
+            String prefix, int limit) throws NullPointerException {
+        // the prefix first, then the genres, see WorkloadLog.Operation.applyTo
+        String[] strings = new String[1 + (genres == null ? 0 : genres.size())];
+        strings[0] = prefix;
+        int at = 1;
+        if (genres != null) {
+            for (String genre : genres) {
+                strings[at++] = genre;
+            }
+        }
+        record(WorkloadLog.FIND_SONGS_BY_GENRES, strings, genres == null ? -1 : genres.size(),
+                explicit == null ? 0 : explicit ? 2 : 1, limit);
+        return backend.findSongsByGenres(genres, explicit, prefix, limit);
+    }
+
+    @Override
+    public List<SongInterface> findTopSongs(String genre, int year, int count)
+            throws IllegalArgumentException {
+        record(WorkloadLog.FIND_TOP_SONGS, new String[] {genre}, year, count);
+        return backend.findTopSongs(genre, year, count);
+    }
+
+    @Override
+    public boolean addOneSong(String title, String duration, String artist)
+            throws NullPointerException, IllegalArgumentException {
+        record(WorkloadLog.ADD, new String[] {title, duration, artist});
+        return backend.addOneSong(title, duration, artist);
+    }
+
+    @Override
+    public boolean removeOneSong(String title) throws NullPointerException, IllegalArgumentException {
+        record(WorkloadLog.REMOVE, new String[] {title});
+        return backend.removeOneSong(title);
+    }
+
+    @Override
+    public int displaySongCount() {
+        record(WorkloadLog.SONG_COUNT, NONE);
+        return backend.displaySongCount();
+    }
+
+    @Override
+    public SongStatistics getStatistics() {
+        record(WorkloadLog.STATISTICS, NONE);
+        return backend.getStatistics();
+    }
+
+    @Override
+    public String dumpMetrics() {
+        record(WorkloadLog.DUMP_METRICS, NONE);
+        return backend.dumpMetrics();
+    }
+
+    /**
+     * this method writes the recorded calls that are still buffered and closes
+     * the log, the backend stays open
+     *
+     * @throws IOException when the log cannot be written
+     */
+    @Override
+    public void close() throws IOException {
+        log.close();
+    }
+
+}
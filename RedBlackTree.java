@@ -1,5 +1,7 @@
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Stack;
 import java.lang.NullPointerException;
 
@@ -7,7 +9,8 @@ import java.lang.NullPointerException;
  * This class implements RedBlackTreeInterfaceAE and contains the Red Black Tree
  * algorithm methods and the methods that travese the range of RBT
  */
-public class RedBlackTree<T extends Comparable<T>> implements RedBlackTreeInterface<T> {
+public class RedBlackTree<T extends Comparable<T>> implements RedBlackTreeInterface<T>, ColoredTreeInterface,
+        Iterable<T> {
 
     /**
      * This class represents a node holding a single value within a binary tree.
@@ -41,7 +44,9 @@ public class RedBlackTree<T extends Comparable<T>> implements RedBlackTreeInterf
     }
 
     protected Node<T> root; // reference to root node of tree, null when empty
-    protected int size = 0; // the number of values in the tree
+    protected int size = 0; // the number of values in the tree, negative while uncounted
+    protected int redCount = 0; // the number of red nodes, kept up to date by setColor, negative while uncounted
+    private int rotations; // rotations made by the current or last insert or remove
 
     /**
      * Performs a naive insertion into a binary search tree: adding the input data
@@ -63,16 +68,53 @@ public class RedBlackTree<T extends Comparable<T>> implements RedBlackTreeInterf
         if (data == null)
             throw new NullPointerException("This RedBlackTree cannot store null references.");
 
+        rotations = 0;
+        insertBelow(this.root, data);
+        return true;
+    }
+
+    /**
+     * returns the number of rotations the last insert or remove made
+     *
+     */
+    public int getLastRotations() {
+        return rotations;
+    }
+
+    /**
+     * Helper method that colors a node and keeps the number of red nodes up to
+     * date, so counting them needs no walk of the tree
+     *
+     * @param node        the node to color
+     * @param blackHeight 1 for black, 0 for red
+     */
+    private void setColor(Node<T> node, int blackHeight) {
+        if (node.blackHeight != blackHeight) {
+            redCount += blackHeight == 0 ? 1 : -1;
+            node.blackHeight = blackHeight;
+        }
+    }
+
+    /**
+     * Helper method that inserts data into the subtree rooted at start. The
+     * caller has to make sure that data belongs into that subtree.
+     *
+     * @param start the root of the subtree to insert into
+     * @param data  to be added into this binary search tree
+     * @return the node that holds data
+     * @throws IllegalArgumentException when data is already contained in the tree
+     */
+    private Node<T> insertBelow(Node<T> start, T data) throws IllegalArgumentException {
         Node<T> newNode = new Node<T>(data);
         if (this.root == null) {
             // add first node to an empty tree
             root = newNode;
             root.blackHeight = 1;
             size++;
-            return true;
+            return newNode;
         } else {
             // insert into subtree
-            Node<T> current = this.root;
+            Node<T> current = start;
             while (true) {
                 int compare = newNode.data.compareTo(current.data);
                 if (compare == 0) {
@@ -84,11 +126,12 @@ public class RedBlackTree<T extends Comparable<T>> implements RedBlackTreeInterf
                         // empty space to insert into
                         current.context[1] = newNode;
                         newNode.context[0] = current;
+                        redCount++; // new nodes are red
                         // Resolves any red-black tree property violations when each new node is
                         // inserted
                         enforceRBTreePropertiesAfterInsert(newNode);
                         this.size++;
-                        return true;
+                        return newNode;
                     } else {
                         // no empty space, keep moving down the tree
                         current = current.context[1];
@@ -99,11 +142,12 @@ public class RedBlackTree<T extends Comparable<T>> implements RedBlackTreeInterf
                         // empty space to insert into
                         current.context[2] = newNode;
                         newNode.context[0] = current;
+                        redCount++; // new nodes are red
                         // Resolves any red-black tree property violations when each new node is
                         // inserted
                         enforceRBTreePropertiesAfterInsert(newNode);
                         this.size++;
-                        return true;
+                        return newNode;
                     } else {
                         // no empty space, keep moving down the tree
                         current = current.context[2];
@@ -115,96 +159,161 @@ public class RedBlackTree<T extends Comparable<T>> implements RedBlackTreeInterf
 
 
     /**
-     * Resolves any red-black tree property violations when each
-     * new node is inserted into the red-black tree
+     * Inserts a batch of values that is sorted in ascending order. When the batch
+     * is at least as big as the tree, the batch and the stored values are merged
+     * and the tree is rebuilt balanced in one linear pass instead of rebalancing
+     * after every single insert. Smaller batches are inserted one at a time, each
+     * starting from the previously inserted node rather than from the root. A
+     * small batch that fails part way keeps the values before the failing one.
      *
-     * @param newChild The new node to insert into the tree
+     * @param sortedData the values to add, sorted in ascending order
+     * @throws NullPointerException     when sortedData or one of its values is null
+     * @throws IllegalArgumentException when the batch is not sorted, holds the same
+     *                                  value twice or a value already in the tree
      */
-    protected void enforceRBTreePropertiesAfterInsert(Node<T> newChild) {
-        // base case
-        if (newChild.blackHeight == 1 || newChild.context[0] == null
-                || newChild.context[0].context[0] == null) {
-            return;
+    public void insertAllSorted(List<T> sortedData) throws NullPointerException, IllegalArgumentException {
+        if (sortedData == null) {
+            throw new NullPointerException("This RedBlackTree cannot store null references.");
         }
-        // if child's parent is red node
-        else if (newChild.context[0].blackHeight == 0) {
-            // if child node is right child
-            if (newChild.isRightChild()) {
-                // case 1
-                if (newChild.context[0].isRightChild()
-                        && (newChild.context[0].context[0].context[1] == null
-                                || newChild.context[0].context[0].context[1].blackHeight == 1)) {
-                    rotate(newChild.context[0], newChild.context[0].context[0]); // rotate left
-                    newChild.context[0].blackHeight = 1; // swap color
-                    newChild.context[0].context[1].blackHeight = 0; // swap color
-                }
-                // case 2
-                else if (!newChild.context[0].isRightChild() &&
-                        (newChild.context[0].context[0].context[2] == null
-                                || newChild.context[0].context[0].context[2].blackHeight == 1)) {
-                    rotate(newChild, newChild.context[0]);
-                    enforceRBTreePropertiesAfterInsert(newChild.context[1]);
+        if (sortedData.size() < this.size()) {
+            Node<T> finger = null; // node of the previous insert
+            T previous = null;
+            for (T data : sortedData) {
+                if (data == null) {
+                    throw new NullPointerException("This RedBlackTree cannot store null references.");
                 }
-                // case 3 : if parent node is right child
-                else if (newChild.context[0].isRightChild() &&
-                        newChild.context[0].context[0].context[1].blackHeight == 0) {
-                    newChild.context[0].blackHeight = 1;
-                    newChild.context[0].context[0].blackHeight = 0;
-                    newChild.context[0].context[0].context[1].blackHeight = 1;
-                    this.root.blackHeight = 1;
-                    enforceRBTreePropertiesAfterInsert(newChild.context[0].context[0]);
+                if (previous != null && previous.compareTo(data) >= 0) {
+                    throw new IllegalArgumentException("The batch is not sorted or contains value "
+                            + data.toString() + " twice");
                 }
-                // case 3 : if parent node is left child
-                else if (!newChild.context[0].isRightChild() &&
-                        newChild.context[0].context[0].context[2].blackHeight == 0) {
-                    newChild.context[0].blackHeight = 1;
-                    newChild.context[0].context[0].blackHeight = 0;
-                    newChild.context[0].context[0].context[2].blackHeight = 1;
-                    this.root.blackHeight = 1;
-                    enforceRBTreePropertiesAfterInsert(newChild.context[0].context[0]);
+                previous = data;
+                Node<T> start = this.root;
+                if (finger != null) {
+                    // climb until the subtree is bounded above by a bigger ancestor, past
+                    // an equal one, so the descent reaches it and rejects the duplicate
+                    start = finger;
+                    while (start.context[0] != null && (start.isRightChild()
+                            || start.context[0].data.compareTo(data) <= 0)) {
+                        start = start.context[0];
+                    }
                 }
-
+                finger = insertBelow(start, data);
             }
-
-            // if child node is left child
-            else if (!newChild.isRightChild()) {
-                // case 1
-                if (!newChild.context[0].isRightChild() &&
-                        (newChild.context[0].context[0].context[2] == null ||
-                                newChild.context[0].context[0].context[2].blackHeight == 1)) {
-                    rotate(newChild.context[0], newChild.context[0].context[0]); // rotate right
-                    newChild.context[0].blackHeight = 1; // swap color
-                    newChild.context[0].context[2].blackHeight = 0; // swap color
-                }
-                // case 2
-                else if (newChild.context[0].isRightChild() &&
-                        (newChild.context[0].context[0].context[1] == null ||
-                                newChild.context[0].context[0].context[1].blackHeight == 1)) {
-                    rotate(newChild, newChild.context[0]); // rotate right
-                    enforceRBTreePropertiesAfterInsert(newChild.context[2]);
-                }
-                // case 3 : if parent node is left child
-                else if (!newChild.context[0].isRightChild() &&
-                        newChild.context[0].context[0].context[1].blackHeight == 0) {
-                    newChild.context[0].blackHeight = 1;
-                    newChild.context[0].context[0].blackHeight = 0;
-                    newChild.context[0].context[0].context[2].blackHeight = 1;
-                    this.root.blackHeight = 1;
-                    enforceRBTreePropertiesAfterInsert(newChild.context[0].context[0]);
-                }
-                // case 3 : if parent node is right child
-                else if (newChild.context[0].isRightChild() &&
-                        newChild.context[0].context[0].context[1].blackHeight == 0) {
-                    newChild.context[0].blackHeight = 1;
-                    newChild.context[0].context[0].blackHeight = 0;
-                    newChild.context[0].context[0].context[1].blackHeight = 1;
-                    this.root.blackHeight = 1;
-                    enforceRBTreePropertiesAfterInsert(newChild.context[0].context[0]);
-                }
+            return;
+        }
+        // merge the batch with the values already stored in the tree
+        List<T> current = new ArrayList<T>(this.size());
+        inOrderListHelper(root, current);
+        List<T> merged = new ArrayList<T>(current.size() + sortedData.size());
+        int i = 0;
+        T previous = null;
+        for (T data : sortedData) {
+            if (data == null) {
+                throw new NullPointerException("This RedBlackTree cannot store null references.");
+            }
+            if (previous != null && previous.compareTo(data) >= 0) {
+                throw new IllegalArgumentException("The batch is not sorted or contains value "
+                        + data.toString() + " twice");
             }
+            previous = data;
+            while (i < current.size() && current.get(i).compareTo(data) < 0) {
+                merged.add(current.get(i++));
+            }
+            if (i < current.size() && current.get(i).compareTo(data) == 0) {
+                throw new IllegalArgumentException("This RedBlackTree already contains value "
+                        + data.toString());
+            }
+            merged.add(data);
+        }
+        while (i < current.size()) {
+            merged.add(current.get(i++));
+        }
+        // rebuild only once the whole batch has been checked
+        int maxDepth = 31 - Integer.numberOfLeadingZeros(Math.max(merged.size(), 1));
+        redCount = 0;
+        root = buildBalanced(merged, 0, merged.size(), 0, maxDepth);
+        size = merged.size();
+    }
 
+    /**
+     * The helper method that builds a balanced subtree out of the sorted values in
+     * [from, to). Every node is black except for the nodes on the deepest level,
+     * which are red so that the paths ending one level higher have the same number
+     * of black nodes.
+     *
+     * @param sorted   the sorted values
+     * @param from     index of the first value of the subtree
+     * @param to       index after the last value of the subtree
+     * @param depth    depth of the subtree's root
+     * @param maxDepth depth of the deepest level of the whole tree
+     * @return the root of the subtree, or null if it is empty
+     */
+    private Node<T> buildBalanced(List<T> sorted, int from, int to, int depth, int maxDepth) {
+        if (from >= to) {
+            return null;
+        }
+        int mid = (from + to) >>> 1;
+        Node<T> node = new Node<T>(sorted.get(mid));
+        node.blackHeight = (depth == maxDepth && depth > 0) ? 0 : 1;
+        if (node.blackHeight == 0) {
+            redCount++;
+        }
+        node.context[1] = buildBalanced(sorted, from, mid, depth + 1, maxDepth);
+        node.context[2] = buildBalanced(sorted, mid + 1, to, depth + 1, maxDepth);
+        if (node.context[1] != null) {
+            node.context[1].context[0] = node;
         }
+        if (node.context[2] != null) {
+            node.context[2].context[0] = node;
+        }
+        return node;
+    }
 
+    /**
+     * Resolves any red-black tree property violations when each
+     * new node is inserted into the red-black tree. The only violation is a red
+     * node under a red parent. While the uncle is red too, recoloring moves it
+     * two levels up; once the uncle is black, one or two rotations end it. Left
+     * and right cases are the same with the sides swapped, so the side of the
+     * parent is kept as a context index.
+     *
+     * @param newChild The new node to insert into the tree
+     * @return true when the root had to be blackened at the end, which made
+     *         every path one black node longer
+     */
+    protected boolean enforceRBTreePropertiesAfterInsert(Node<T> newChild) {
+        Node<T> node = newChild;
+        Node<T> parent = node.context[0];
+        while (parent != null && parent.blackHeight == 0) {
+            Node<T> grandparent = parent.context[0];
+            if (grandparent == null) {
+                break; // a red root, blackened below
+            }
+            int side = grandparent.context[1] == parent ? 1 : 2; // 1 left, 2 right
+            Node<T> uncle = grandparent.context[3 - side];
+            if (uncle != null && uncle.blackHeight == 0) {
+                // red uncle: push the grandparent's black down to parent and uncle
+                setColor(parent, 1);
+                setColor(uncle, 1);
+                setColor(grandparent, 0);
+                node = grandparent;
+                parent = node.context[0];
+                continue;
+            }
+            if (parent.context[3 - side] == node) {
+                // node is the inner grandchild, rotate it to the outside first
+                rotate(node, parent);
+                parent = node;
+            }
+            // black uncle: rotate the parent up and swap its color with the grandparent's
+            rotate(parent, grandparent);
+            setColor(parent, 1);
+            setColor(grandparent, 0);
+            break;
+        }
+        boolean grown = this.root.blackHeight == 0;
+        setColor(this.root, 1);
+        return grown;
     }
 
     /**
@@ -229,101 +338,33 @@ public class RedBlackTree<T extends Comparable<T>> implements RedBlackTreeInterf
      *                                  initially (pre-rotation) related that way
      */
     private void rotate(Node<T> child, Node<T> parent) throws IllegalArgumentException {
-
-        if(child == null || parent == null){
+        if (child == null || parent == null) {
             throw new IllegalArgumentException(" child is null");
         }
-
-        // if the root is parent node
-        if (parent == root) {
-            // when the child node is right child of the parent, rotate left
-            if (child.isRightChild()) {
-                parent.context[2] = child.context[1];               
-                if(child.context[1] != null){
-                    child.context[1].context[0] = parent;
-                }
-                parent.context[0] = child;
-                child.context[1] = parent;
-                root = child;
-
-            }
-            // when child node is left child of the parent, rotate right
-            else if (!child.isRightChild()) {
-                parent.context[1] = child.context[2];
-                if(child.context[2] != null){
-                child.context[2].context[0] = parent;
-            }  
-                parent.context[0] = child;
-                child.context[2] = parent;    
-                root = child;
-                
-               
-
-            } else {
-                throw new IllegalArgumentException("provided child and parent node references " +
-                        "are" + " not initially related");
-            }
+        if (child.context[0] != parent) {
+            throw new IllegalArgumentException("provided child and parent node references "
+                    + "are not initially related");
         }
-
-        // if the root is not parent node
-        else {
-            // if the child node is right child of the parent, rotate left
-            if (child.isRightChild()) {
-                // when the parent node is right child of the root
-                if (parent.isRightChild()) {
-                    parent.context[0].context[2] = child;
-                    parent.context[2] = child.context[1];
-                    if(child.context[1] != null){
-                        child.context[1].context[0] = parent;
-                    }
-                     child.context[0] = parent.context[0];
-                     child.context[1] = parent;
-                     parent.context[0] = child;
-
-                }
-                // when the parent node is left child of the root
-                else if (!parent.isRightChild()) {
-                    parent.context[0].context[1] = child;
-                    parent.context[2] = child.context[1];
-                    if(child.context[1] != null){
-                        child.context[1].context[0] = parent;
-                    }
-                     child.context[0] = parent.context[0];
-                     child.context[1] = parent;
-                     parent.context[0] = child;
-                }
-            }
-
-            // if child node is left child of the parent, rotate right
-            else if (!child.isRightChild()) {
-                // when the parent node is right child of the root
-                if (parent.isRightChild()) {
-                    parent.context[0].context[2] = child;
-                    parent.context[1] = child.context[2];
-                    if(child.context[2] != null){
-                        child.context[2].context[0] = parent;
-                    }
-                    child.context[0] = parent.context[0];
-                    child.context[2] = parent;
-                    parent.context[0] = child;
-                }
-                // when the parent node is left child of the root
-                else if (!parent.isRightChild()) {
-                    parent.context[0].context[1] = child;
-                    parent.context[1] = child.context[2];
-                    if(child.context[2] != null){
-                        child.context[2].context[0] = parent;
-                    }
-                    child.context[0] = parent.context[0];
-                    child.context[2] = parent;
-                    parent.context[0] = child;
-                }
-            } else {
-                throw new IllegalArgumentException("provided child and parent node references " +
-                        "are" + " not initially related");
-            }
+        rotations++;
+        int side = parent.context[1] == child ? 1 : 2; // 1 rotates right, 2 rotates left
+        // the child's inner subtree moves over to the parent
+        Node<T> inner = child.context[3 - side];
+        parent.context[side] = inner;
+        if (inner != null) {
+            inner.context[0] = parent;
         }
-
+        // the child takes the parent's place
+        Node<T> grandparent = parent.context[0];
+        child.context[0] = grandparent;
+        if (grandparent == null) {
+            root = child;
+        } else if (grandparent.context[1] == parent) {
+            grandparent.context[1] = child;
+        } else {
+            grandparent.context[2] = child;
+        }
+        child.context[3 - side] = parent;
+        parent.context[0] = child;
     }
 
 
@@ -346,56 +387,127 @@ public class RedBlackTree<T extends Comparable<T>> implements RedBlackTreeInterf
                 throw new IllegalArgumentException("The following value is not in the tree and " +
                         "cannot be deleted: " + data.toString());
             }
-            boolean hasRightChild = (nodeWithData.context[2] != null);
-            boolean hasLeftChild = (nodeWithData.context[1] != null);
-            if (hasRightChild && hasLeftChild) {
-                // has 2 children
-                Node<T> successorNode = this.findMinOfRightSubtree(nodeWithData);
-                // replace value of node with value of successor node
-                nodeWithData.data = successorNode.data;
-                // remove successor node
-                if (successorNode.context[2] == null) {
-                    // successor has no children, replace with null
-                    this.replaceNode(successorNode, null);
-                } else {
-                    // successor has a right child, replace successor with its child
-                    this.replaceNode(successorNode, successorNode.context[2]);
-                }
-            } else if (hasRightChild) {
-                // only right child, replace with right child
-                this.replaceNode(nodeWithData, nodeWithData.context[2]);
-            } else if (hasLeftChild) {
-                // only left child, replace with left child
-                this.replaceNode(nodeWithData, nodeWithData.context[1]);
-            } else {
-                // no children, replace node with a null node
-                this.replaceNode(nodeWithData, null);
-            }
-            this.size--;
-            //rebalance the tree after removal
-            enforceRBTreePropertiesAfterRemove();
+            removeNode(nodeWithData);
             return true;
         }
     }
 
     /**
-     * The helper method that keeps RBTTreProperties after
-     * remove
+     * Helper method that removes a node of the tree and rebalances the tree
      *
-     * @param newChild The new node to insert into the tree
+     * @param nodeWithData the node to remove
      */
-        protected void enforceRBTreePropertiesAfterRemove(){
-        List<T> list = new ArrayList<T>();
-        // store all the nodes in the tree to the the list
-        inOrderListHelper(root, null); 
-        clear();
-        for(int i = 0; i< list.size(); i++){
-            // insert the node into the RBT tree
-            insert(list.get(i));
+    private void removeNode(Node<T> nodeWithData) {
+        rotations = 0;
+        if (nodeWithData.context[1] != null && nodeWithData.context[2] != null) {
+            // has 2 children: take over the successor's value and remove the
+            // successor's node instead, which has no left child
+            Node<T> successorNode = this.findMinOfRightSubtree(nodeWithData);
+            nodeWithData.data = successorNode.data;
+            nodeWithData = successorNode;
+        }
+        // the node to remove has at most one child, which takes its place
+        Node<T> child = nodeWithData.context[1] != null ? nodeWithData.context[1]
+                : nodeWithData.context[2];
+        Node<T> parent = nodeWithData.context[0];
+        boolean wasLeftChild = parent != null && !nodeWithData.isRightChild();
+        this.replaceNode(nodeWithData, child);
+        this.size--;
+        // removing a red node keeps every property, a black one leaves its
+        // path one black node short
+        if (nodeWithData.blackHeight == 1) {
+            enforceRBTreePropertiesAfterRemove(child, parent, wasLeftChild);
+        } else {
+            redCount--;
         }
+    }
 
+    /**
+     * The helper method that keeps RBTTreProperties after
+     * remove. The path through child has one black node less than the
+     * other paths; this is fixed by recoloring and at most three rotations.
+     *
+     * @param child        the node that took the removed node's place, may be null
+     * @param parent       the parent of that place, null if it is the root
+     * @param isLeftChild  whether that place is the left child of parent
+     */
+    protected void enforceRBTreePropertiesAfterRemove(Node<T> child, Node<T> parent,
+            boolean isLeftChild) {
+        while (child != root && (child == null || child.blackHeight == 1)) {
+            if (isLeftChild) {
+                Node<T> sibling = parent.context[2];
+                if (sibling.blackHeight == 0) {
+                    // red sibling: rotate it up so the new sibling is black
+                    setColor(sibling, 1);
+                    setColor(parent, 0);
+                    rotate(sibling, parent); // rotate left
+                    sibling = parent.context[2];
+                }
+                if (isBlack(sibling.context[1]) && isBlack(sibling.context[2])) {
+                    // black sibling with black children: push the problem up
+                    setColor(sibling, 0);
+                    child = parent;
+                    parent = child.context[0];
+                    isLeftChild = parent != null && !child.isRightChild();
+                } else {
+                    if (isBlack(sibling.context[2])) {
+                        // make the sibling's red child the outer one
+                        setColor(sibling.context[1], 1);
+                        setColor(sibling, 0);
+                        rotate(sibling.context[1], sibling); // rotate right
+                        sibling = parent.context[2];
+                    }
+                    setColor(sibling, parent.blackHeight);
+                    setColor(parent, 1);
+                    setColor(sibling.context[2], 1);
+                    rotate(sibling, parent); // rotate left
+                    child = root;
+                }
+            } else {
+                Node<T> sibling = parent.context[1];
+                if (sibling.blackHeight == 0) {
+                    // red sibling: rotate it up so the new sibling is black
+                    setColor(sibling, 1);
+                    setColor(parent, 0);
+                    rotate(sibling, parent); // rotate right
+                    sibling = parent.context[1];
+                }
+                if (isBlack(sibling.context[1]) && isBlack(sibling.context[2])) {
+                    // black sibling with black children: push the problem up
+                    setColor(sibling, 0);
+                    child = parent;
+                    parent = child.context[0];
+                    isLeftChild = parent != null && !child.isRightChild();
+                } else {
+                    if (isBlack(sibling.context[1])) {
+                        // make the sibling's red child the outer one
+                        setColor(sibling.context[2], 1);
+                        setColor(sibling, 0);
+                        rotate(sibling.context[2], sibling); // rotate left
+                        sibling = parent.context[1];
+                    }
+                    setColor(sibling, parent.blackHeight);
+                    setColor(parent, 1);
+                    setColor(sibling.context[1], 1);
+                    rotate(sibling, parent); // rotate right
+                    child = root;
+                }
+            }
+        }
+        if (child != null) {
+            setColor(child, 1);
+        }
     }
 
+    /**
+     * Helper method that treats missing children as black nodes
+     *
+     * @param node the node to check, may be null
+     * @return true if node is null or black
+     */
+    private boolean isBlack(Node<T> node) {
+        return node == null || node.blackHeight == 1;
+    }
 
     /**
      * Helper method that will return the inorder successor of a node with two
@@ -537,6 +649,7 @@ public class RedBlackTree<T extends Comparable<T>> implements RedBlackTreeInterf
      * @return the number of nodes in the tree
      */
     public int size() {
+        countIfNeeded();
         return this.size;
     }
 
@@ -546,7 +659,7 @@ public class RedBlackTree<T extends Comparable<T>> implements RedBlackTreeInterf
      * @return true of this.size() return 0, false if this.size() > 0
      */
     public boolean isEmpty() {
-        return this.size() == 0;
+        return this.root == null;
     }
 
     /**
@@ -569,7 +682,17 @@ public class RedBlackTree<T extends Comparable<T>> implements RedBlackTreeInterf
         if (isEmpty()) {
             throw new IllegalStateException("The tree is empty");
         }
+        return getHelper(data);
+    }
 
+    /**
+     * The helper method that searches a value from the root
+     *
+     * @param data the data value to search for
+     * @return returns a object that contains the data
+     * @throws IllegalArgumentException when data is not stored in the tree
+     */
+    private T getHelper(T data) throws IllegalArgumentException {
         Node<T> current = root;
         int compareVal = 0;
 
@@ -595,11 +718,185 @@ public class RedBlackTree<T extends Comparable<T>> implements RedBlackTreeInterf
 
     }
 
+    /**
+     * Replaces the stored value that is equal to data, for example to update a
+     * song's details without removing and inserting it again
+     *
+     * @param data the new value
+     * @return the value that was replaced
+     * @throws NullPointerException     when the provided data argument is null
+     * @throws IllegalArgumentException when no equal value is stored in the tree
+     */
+    public T replace(T data) throws NullPointerException, IllegalArgumentException {
+        if (data == null) {
+            throw new NullPointerException("This RedBlackTree cannot store null references.");
+        }
+        Node<T> node = findNodeWithData(data);
+        if (node == null) {
+            throw new IllegalArgumentException("The data is not found in the tree");
+        }
+        T old = node.data;
+        node.data = data;
+        return old;
+    }
+
+    /**
+     * Returns an iterator over the values of the tree in ascending order. It
+     * steps from node to node through the parent references, so it needs no
+     * extra memory. The tree must not be changed while it is in use.
+     *
+     * @return the in-order iterator
+     */
+    public Iterator<T> iterator() {
+        Node<T> first = root;
+        if (first != null) {
+            while (first.context[1] != null) {
+                first = first.context[1];
+            }
+        }
+        return new InOrderIterator(first);
+    }
+
+    /**
+     * Returns an iterator over the values of the tree that are not smaller than
+     * the given value, in ascending order. Finding the first value takes one walk
+     * down the tree, so a range of k values costs O(log n + k).
+     *
+     * @param from the smallest value to return, it does not have to be in the tree
+     * @return the in-order iterator starting at from
+     * @throws NullPointerException when from is null
+     */
+    public Iterator<T> iteratorFrom(T from) throws NullPointerException {
+        if (from == null) {
+            throw new NullPointerException("Start value is null");
+        }
+        Node<T> first = null; // smallest node not smaller than from seen so far
+        Node<T> node = root;
+        while (node != null) {
+            int compare = from.compareTo(node.data);
+            if (compare == 0) {
+                first = node;
+                break;
+            } else if (compare < 0) {
+                first = node;
+                node = node.context[1];
+            } else {
+                node = node.context[2];
+            }
+        }
+        return new InOrderIterator(first);
+    }
+
+    /**
+     * This class walks the tree in order, starting at a given node
+     */
+    private class InOrderIterator implements Iterator<T> {
+        private Node<T> next;
+
+        private InOrderIterator(Node<T> first) {
+            this.next = first;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public T next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            Node<T> current = next;
+            if (current.context[2] != null) {
+                // successor is the leftmost node of the right subtree
+                next = current.context[2];
+                while (next.context[1] != null) {
+                    next = next.context[1];
+                }
+            } else {
+                // successor is the first ancestor reached from its left subtree
+                Node<T> child = current;
+                next = current.context[0];
+                while (next != null && next.context[2] == child) {
+                    child = next;
+                    next = next.context[0];
+                }
+            }
+            return current.data;
+        }
+    }
+
+    /**
+     * Looks up many values in a single walk of the tree. The probes have to be
+     * sorted in ascending order, so each node is compared against at most one run
+     * of probes and consecutive probes share the part of the path they have in
+     * common instead of starting again from the root.
+     *
+     * @param sortedProbes the values to search for, sorted in ascending order
+     * @return a list with the same length as sortedProbes holding the stored value
+     *         for each probe, or null where the probe is not in the tree
+     * @throws NullPointerException when sortedProbes or one of its values is null
+     */
+    public List<T> getAll(List<T> sortedProbes) throws NullPointerException {
+        if (sortedProbes == null) {
+            throw new NullPointerException("Probes are null");
+        }
+        List<T> found = new ArrayList<T>(sortedProbes.size());
+        for (int i = 0; i < sortedProbes.size(); i++) {
+            if (sortedProbes.get(i) == null) {
+                throw new NullPointerException("Probe " + i + " is null");
+            }
+            found.add(null);
+        }
+        getAllHelper(root, sortedProbes, 0, sortedProbes.size(), found);
+        return found;
+    }
+
+    /**
+     * The helper method that resolves the probes in [from, to) against the
+     * subtree rooted at node
+     *
+     * @param node   the root of the subtree to search
+     * @param probes the sorted probes
+     * @param from   index of the first probe that belongs to this subtree
+     * @param to     index after the last probe that belongs to this subtree
+     * @param found  the list that receives the matches
+     */
+    private void getAllHelper(Node<T> node, List<T> probes, int from, int to, List<T> found) {
+        // no probes left for this subtree, or nothing left to match them against
+        if (node == null || from >= to) {
+            return;
+        }
+        // first probe that is not smaller than this node's data
+        int low = from;
+        int high = to;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (probes.get(mid).compareTo(node.data) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        // the smaller probes can only be in the left subtree
+        getAllHelper(node.context[1], probes, from, low, found);
+        // every probe equal to this node is a hit
+        while (low < to && probes.get(low).compareTo(node.data) == 0) {
+            found.set(low, node.data);
+            low++;
+        }
+        // the bigger probes can only be in the right subtree
+        getAllHelper(node.context[2], probes, low, to, found);
+    }
+
     /**
      * clear the RBT
      */
     public void clear() {
         root = null;
+        size = 0;
+        redCount = 0;
     }
 
     /**
@@ -663,64 +960,717 @@ public class RedBlackTree<T extends Comparable<T>> implements RedBlackTreeInterf
      *
      */
     public int getNumBlackNodes() {
-        return countBlackNodes(root);
+        countIfNeeded();
+        return size - redCount;
     }
 
     /**
-     * The helper method that counts the number of black node
+     * returns the number of red nodes in the RBT
      *
-     * @param node the node to start with to traverse the tree in order
      */
-    private int countBlackNodes(Node<T> node) {
-        // return when it reaches to the base case
+    public int getNumRedNodes() {
+        countIfNeeded();
+        return redCount;
+    }
+
+    /**
+     * returns the number of nodes on the longest path from the root to a leaf,
+     * which takes a walk of the whole tree
+     *
+     */
+    public int height() {
+        return heightHelper(root);
+    }
+
+    /**
+     * The helper method that measures the height of a subtree
+     *
+     * @param node the root of the subtree
+     */
+    private int heightHelper(Node<T> node) {
         if (node == null) {
             return 0;
         }
-        int blackCount = 0;
-        // increment when the node is black
-        if (node.blackHeight == 1) {
-            blackCount++;
+        return 1 + Math.max(heightHelper(node.context[1]), heightHelper(node.context[2]));
+    }
+
+    /**
+     * returns the greatest height a red-black tree with this many nodes can have,
+     * 2 * log2(n + 1). A taller tree has lost its balance.
+     *
+     */
+    public int heightBound() {
+        return (int) Math.floor(2 * Math.log(size() + 1.0) / Math.log(2));
+    }
+
+    /**
+     * Checks every invariant of the tree and throws on the first one that does
+     * not hold: the values are in ascending order, the parent references match
+     * the child references, the root is black, no red node has a red child,
+     * every path has the same number of black nodes, and the size and red
+     * node count match the nodes. This walks the whole tree.
+     *
+     * @throws IllegalStateException describing the first violation found
+     */
+    public void verify() throws IllegalStateException {
+        countIfNeeded();
+        if (root == null) {
+            if (size != 0 || redCount != 0) {
+                throw new IllegalStateException("Empty tree has size " + size + " and "
+                        + redCount + " red nodes");
+            }
+            return;
+        }
+        if (root.context[0] != null) {
+            throw new IllegalStateException("Root " + root.data + " has a parent");
         }
-        // traverse left child of RBT
-        blackCount += countBlackNodes(node.context[1]);
-        // traverse right child of RBT
-        blackCount += countBlackNodes(node.context[2]);
+        if (root.blackHeight != 1) {
+            throw new IllegalStateException("Root " + root.data + " is red");
+        }
+        int[] counts = new int[2]; // nodes, red nodes
+        verifyHelper(root, null, null, 1, heightBound(), counts);
+        if (counts[0] != size) {
+            throw new IllegalStateException("Size is " + size + " but the tree has " + counts[0]
+                    + " nodes");
+        }
+        if (counts[1] != redCount) {
+            throw new IllegalStateException("Red node count is " + redCount + " but the tree has "
+                    + counts[1] + " red nodes");
+        }
+    }
 
-        // return the number of black node of RBT
-        return blackCount;
+    /**
+     * The helper method that checks a subtree whose values have to lie strictly
+     * between low and high
+     *
+     * @param node   the root of the subtree, not null
+     * @param low    every value has to be bigger, null for no bound
+     * @param high   every value has to be smaller, null for no bound
+     * @param depth  number of nodes from the root down to node
+     * @param bound  the height bound of the whole tree
+     * @param counts counts the nodes and the red nodes
+     * @return the number of black nodes on every path from node down to a leaf
+     */
+    private int verifyHelper(Node<T> node, T low, T high, int depth, int bound, int[] counts) {
+        if (depth > bound) {
+            // only possible if some other invariant is broken, stops before the stack runs out
+            throw new IllegalStateException("Path to " + node.data + " is longer than " + bound
+                    + " nodes");
+        }
+        if ((low != null && node.data.compareTo(low) <= 0)
+                || (high != null && node.data.compareTo(high) >= 0)) {
+            throw new IllegalStateException(node.data + " is out of order");
+        }
+        counts[0]++;
+        if (node.blackHeight == 0) {
+            counts[1]++;
+        } else if (node.blackHeight != 1) {
+            throw new IllegalStateException(node.data + " has no valid color");
+        }
+        int[] blackHeights = new int[3];
+        for (int side = 1; side <= 2; side++) {
+            Node<T> child = node.context[side];
+            if (child == null) {
+                blackHeights[side] = 1; // the empty leaf counts as black
+                continue;
+            }
+            if (child.context[0] != node) {
+                throw new IllegalStateException(child.data + " does not point back to its parent "
+                        + node.data);
+            }
+            if (node.blackHeight == 0 && child.blackHeight == 0) {
+                throw new IllegalStateException("Red " + node.data + " has red child "
+                        + child.data);
+            }
+            blackHeights[side] = side == 1
+                    ? verifyHelper(child, low, node.data, depth + 1, bound, counts)
+                    : verifyHelper(child, node.data, high, depth + 1, bound, counts);
+        }
+        if (blackHeights[1] != blackHeights[2]) {
+            throw new IllegalStateException("Paths below " + node.data + " have " + blackHeights[1]
+                    + " and " + blackHeights[2] + " black nodes");
+        }
+        return blackHeights[1] + node.blackHeight;
     }
 
     /**
-     * returns the number of red nodes in the RBT
+     * returns the number of black nodes on every path from the root to a leaf
      *
      */
-    public int getNumRedNodes() {
-        return countRedNodes(root);
+    public int blackHeight() {
+        int blackNodes = 0;
+        // every path has the same number, so the leftmost one will do
+        for (Node<T> node = root; node != null; node = node.context[1]) {
+            blackNodes += node.blackHeight;
+        }
+        return blackNodes;
+    }
+
+    private static final int UNCOUNTED = Integer.MIN_VALUE / 2; // stays negative under later inserts and removes
+    private int joinedHeight; // black height of the subtree the last join or set operation returned
+
+    /**
+     * Helper method that counts the values and red nodes with one walk of the
+     * tree after a split left them unknown
+     */
+    private void countIfNeeded() {
+        if (size >= 0 && redCount >= 0) {
+            return;
+        }
+        int[] counts = new int[2]; // nodes, red nodes
+        countHelper(root, counts);
+        size = counts[0];
+        redCount = counts[1];
+    }
 
+    /**
+     * The helper method that counts the nodes and red nodes of a subtree
+     */
+    private void countHelper(Node<T> node, int[] counts) {
+        if (node == null) {
+            return;
+        }
+        counts[0]++;
+        counts[1] += 1 - node.blackHeight;
+        countHelper(node.context[1], counts);
+        countHelper(node.context[2], counts);
     }
 
     /**
-     * The helper method that counts the number of number node
+     * Moves every value that is not smaller than key into a new tree and keeps
+     * the smaller ones. The tree is cut along the search path for key and the
+     * pieces are joined back together, which takes O(log n). The sizes of both
+     * trees are counted again by the next call that needs them.
      *
-     * @param node the node to start with to traverse the tree in order
+     * @param key where to split, it does not have to be stored in the tree
+     * @return a tree holding the values from key on
+     * @throws NullPointerException when key is null
      */
-    private int countRedNodes(Node<T> node) {
-        // return when it reaches to the base case
+    public RedBlackTree<T> split(T key) throws NullPointerException {
+        if (key == null) {
+            throw new NullPointerException("This RedBlackTree cannot store null references.");
+        }
+        Split<T> parts = splitNode(root, blackHeightOf(root), key);
+        RedBlackTree<T> upper = new RedBlackTree<T>();
+        upper.root = parts.found == null ? blacken(parts.right)
+                : joinNodes(null, 0, parts.found, parts.right, parts.rightHeight);
+        upper.size = UNCOUNTED;
+        upper.redCount = UNCOUNTED;
+        root = blacken(parts.left);
+        size = UNCOUNTED;
+        redCount = UNCOUNTED;
+        return upper;
+    }
+
+    /**
+     * Joins two trees and a value that lies between them into one tree in
+     * O(log n), by hanging the lower tree into the spine of the taller one. The
+     * nodes of both trees are taken over, so both are left empty.
+     *
+     * @param left  the tree with the smaller values
+     * @param pivot the value between them
+     * @param right the tree with the bigger values
+     * @return the joined tree
+     * @throws NullPointerException     when an argument is null
+     * @throws IllegalArgumentException when a value of left is not smaller than pivot
+     *                                  or a value of right is not bigger
+     */
+    public static <T extends Comparable<T>> RedBlackTree<T> join(RedBlackTree<T> left, T pivot,
+            RedBlackTree<T> right) throws NullPointerException, IllegalArgumentException {
+        if (left == null || pivot == null || right == null) {
+            throw new NullPointerException("This RedBlackTree cannot store null references.");
+        }
+        if ((left.root != null && last(left.root).data.compareTo(pivot) >= 0)
+                || (right.root != null && first(right.root).data.compareTo(pivot) <= 0)) {
+            throw new IllegalArgumentException("The values of the trees are not on both sides of "
+                    + pivot.toString());
+        }
+        RedBlackTree<T> joined = new RedBlackTree<T>();
+        boolean counted = left.size >= 0 && left.redCount >= 0 && right.size >= 0
+                && right.redCount >= 0;
+        joined.size = counted ? left.size + right.size + 1 : UNCOUNTED;
+        joined.redCount = counted ? left.redCount + right.redCount + 1 : UNCOUNTED; // pivot starts red
+        joined.root = joined.joinNodes(left.root, left.blackHeight(), new Node<T>(pivot), right.root,
+                right.blackHeight());
+        left.clear();
+        right.clear();
+        return joined;
+    }
+
+    /**
+     * Adds every value of another tree that this tree does not hold, the
+     * other tree is left empty. The other tree is split along the values of
+     * this one, so this takes O(m log(n/m + 1)) for trees of m and n values
+     * rather than m separate inserts.
+     *
+     * @param other the tree to take the values from
+     * @return the values of other that were already stored here, in order
+     * @throws NullPointerException when other is null
+     */
+    public List<T> union(RedBlackTree<T> other) throws NullPointerException {
+        List<T> duplicates = new ArrayList<T>();
+        if (other == this) {
+            return duplicates;
+        }
+        boolean counted = size >= 0 && redCount >= 0 && other.size >= 0 && other.redCount >= 0;
+        size = counted ? size + other.size : UNCOUNTED;
+        redCount = counted ? redCount + other.redCount : UNCOUNTED;
+        int[] dropped = new int[2]; // nodes, red nodes
+        root = blacken(unionNodes(root, blackHeight(), other.root, other.blackHeight(), duplicates,
+                dropped));
+        size -= dropped[0];
+        redCount -= dropped[1];
+        other.clear();
+        return duplicates;
+    }
+
+    /**
+     * Keeps only the values that another tree holds too, in O(m log(n/m + 1))
+     * like union. The other tree is left empty and the size of this one is
+     * counted again by the next call that needs it.
+     *
+     * @param other the tree with the values to keep
+     * @throws NullPointerException when other is null
+     */
+    public void intersection(RedBlackTree<T> other) throws NullPointerException {
+        if (other == this) {
+            return;
+        }
+        Node<T> otherRoot = other.root;
+        int otherHeight = other.blackHeight();
+        other.clear();
+        root = blacken(intersectionNodes(root, blackHeight(), otherRoot, otherHeight));
+        size = UNCOUNTED;
+        redCount = UNCOUNTED;
+    }
+
+    /**
+     * Removes every value that another tree holds too, in O(m log(n/m + 1))
+     * like union. The other tree is not changed.
+     *
+     * @param other the tree with the values to remove
+     * @return the values that were removed, in order
+     * @throws NullPointerException when other is null
+     */
+    public List<T> difference(RedBlackTree<T> other) throws NullPointerException {
+        List<T> removed = new ArrayList<T>();
+        if (other == this) {
+            inOrderListHelper(root, removed);
+            clear();
+            return removed;
+        }
+        int[] dropped = new int[2]; // nodes, red nodes
+        root = blacken(differenceNodes(root, blackHeight(), other.root, removed, dropped));
+        size -= dropped[0];
+        redCount -= dropped[1];
+        return removed;
+    }
+
+    /**
+     * Removes every value from from up to but not including to, by splitting
+     * the range out and joining what is left, in O(log n) plus the values
+     * removed.
+     *
+     * @param from the smallest value to remove
+     * @param to   the values removed are smaller than this one
+     * @return the removed values, in order
+     * @throws NullPointerException when from or to is null
+     */
+    public List<T> removeRange(T from, T to) throws NullPointerException {
+        if (from == null || to == null) {
+            throw new NullPointerException("This RedBlackTree cannot store null references.");
+        }
+        List<T> removed = new ArrayList<T>();
+        if (from.compareTo(to) >= 0) {
+            return removed;
+        }
+        Split<T> below = splitNode(root, blackHeightOf(root), from);
+        Node<T> rest = below.right;
+        int restHeight = below.rightHeight;
+        if (below.found != null) {
+            rest = joinNodes(null, 0, below.found, rest, restHeight);
+            restHeight = joinedHeight;
+        }
+        Split<T> inside = splitNode(rest, restHeight, to);
+        Node<T> above = inside.right;
+        int aboveHeight = inside.rightHeight;
+        if (inside.found != null) {
+            above = joinNodes(null, 0, inside.found, above, aboveHeight);
+            aboveHeight = joinedHeight;
+        }
+        root = blacken(join2(below.left, below.leftHeight, above, aboveHeight));
+        // the removed nodes still count, take them off while collecting their values
+        int[] counts = new int[2]; // nodes, red nodes
+        countHelper(inside.left, counts);
+        inOrderListHelper(inside.left, removed);
+        size -= counts[0];
+        redCount -= counts[1];
+        return removed;
+    }
+
+    /**
+     * Adds a batch of values that is sorted in ascending order and skips the
+     * values already stored. When the batch is at least as big as the tree, it
+     * is built into a balanced tree and merged in with union. Smaller batches
+     * are inserted one at a time like in insertAllSorted, which is faster
+     * while the batch is small: union touches more nodes per value and only
+     * wins once it saves most of the searches from the root.
+     *
+     * @param sortedData the values to add, sorted in ascending order
+     * @return the values of the batch that were added, in order
+     * @throws NullPointerException     when sortedData or one of its values is null
+     * @throws IllegalArgumentException when the batch is not sorted or holds the same
+     *                                  value twice
+     */
+    public List<T> union(List<T> sortedData) throws NullPointerException, IllegalArgumentException {
+        if (sortedData.size() < size()) {
+            List<T> found = getAll(checkSorted(sortedData));
+            List<T> added = new ArrayList<T>();
+            for (int i = 0; i < sortedData.size(); i++) {
+                if (found.get(i) == null) {
+                    added.add(sortedData.get(i));
+                }
+            }
+            insertAllSorted(added);
+            return added;
+        }
+        RedBlackTree<T> batch = new RedBlackTree<T>();
+        batch.insertAllSorted(sortedData);
+        List<T> duplicates = union(batch);
+        List<T> added = new ArrayList<T>(sortedData.size() - duplicates.size());
+        int i = 0;
+        for (T data : sortedData) {
+            if (i < duplicates.size() && duplicates.get(i).compareTo(data) == 0) {
+                i++;
+            } else {
+                added.add(data);
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Removes the stored values that are equal to a value of a batch that is
+     * sorted in ascending order. When the batch is at least as big as the tree,
+     * it is built into a balanced tree and taken away with difference, smaller
+     * batches are removed one value at a time, as in union.
+     *
+     * @param sortedData the values to remove, sorted in ascending order
+     * @return the stored values that were removed, in order
+     * @throws NullPointerException     when sortedData or one of its values is null
+     * @throws IllegalArgumentException when the batch is not sorted or holds the same
+     *                                  value twice
+     */
+    public List<T> difference(List<T> sortedData) throws NullPointerException, IllegalArgumentException {
+        if (sortedData.size() < size()) {
+            List<T> removed = new ArrayList<T>();
+            for (T data : checkSorted(sortedData)) {
+                Node<T> node = findNodeWithData(data);
+                if (node != null) {
+                    removed.add(node.data);
+                    removeNode(node);
+                }
+            }
+            return removed;
+        }
+        RedBlackTree<T> batch = new RedBlackTree<T>();
+        batch.insertAllSorted(sortedData);
+        return difference(batch);
+    }
+
+    /**
+     * Helper method that checks that a batch is sorted and holds no null or
+     * value twice
+     *
+     * @return the batch
+     */
+    private static <T extends Comparable<T>> List<T> checkSorted(List<T> sortedData) {
+        T previous = null;
+        for (T data : sortedData) {
+            if (data == null) {
+                throw new NullPointerException("This RedBlackTree cannot store null references.");
+            }
+            if (previous != null && previous.compareTo(data) >= 0) {
+                throw new IllegalArgumentException("The batch is not sorted or contains value "
+                        + data.toString() + " twice");
+            }
+            previous = data;
+        }
+        return sortedData;
+    }
+
+    /**
+     * The three parts of a split subtree, with the black heights of the two
+     * sides
+     */
+    private static class Split<T> {
+        private Node<T> left; // the values smaller than the key
+        private int leftHeight;
+        private Node<T> found; // the node holding the key, detached, or null
+        private Node<T> right; // the values bigger than the key
+        private int rightHeight;
+    }
+
+    /**
+     * The helper method that splits a subtree by a key. The parts are valid
+     * red-black trees except that their roots may be red.
+     *
+     * @param node   the root of the subtree, may be null
+     * @param height the black height of the subtree
+     * @param key    where to split
+     * @return the parts, the subtree's nodes are reused
+     */
+    private Split<T> splitNode(Node<T> node, int height, T key) {
         if (node == null) {
-            return 0;
+            return new Split<T>();
         }
-        int redCount = 0;
-        // increment when the node is red
-        if (node.blackHeight == 0) {
-            redCount++;
+        Node<T> left = detach(node.context[1]);
+        Node<T> right = detach(node.context[2]);
+        int childHeight = height - node.blackHeight;
+        int compare = key.compareTo(node.data);
+        if (compare == 0) {
+            Split<T> parts = new Split<T>();
+            parts.left = left;
+            parts.leftHeight = childHeight;
+            parts.right = right;
+            parts.rightHeight = childHeight;
+            parts.found = node;
+            node.context[0] = node.context[1] = node.context[2] = null;
+            return parts;
+        } else if (compare < 0) {
+            Split<T> parts = splitNode(left, childHeight, key);
+            parts.right = joinNodes(parts.right, parts.rightHeight, node, right, childHeight);
+            parts.rightHeight = joinedHeight;
+            return parts;
+        } else {
+            Split<T> parts = splitNode(right, childHeight, key);
+            parts.left = joinNodes(left, childHeight, node, parts.left, parts.leftHeight);
+            parts.leftHeight = joinedHeight;
+            return parts;
         }
-        // traverse left child of RBT
-        redCount += countBlackNodes(node.context[1]);
-        // traverse right child of RBT
-        redCount += countBlackNodes(node.context[2]);
+    }
 
-        // return the number of red node of RBT
-        return redCount;
+    /**
+     * The helper method that joins two subtrees and a node that lies between
+     * them. The taller subtree's spine facing the other one is walked down to
+     * a black node of the other one's black height, where the pivot is hung in
+     * red with the two as its children, and the insert fix-up repairs the rest.
+     * Knowing the black heights, this takes O(difference of the heights + 1).
+     *
+     * @param left        the subtree with the smaller values, may be null
+     * @param leftHeight  its black height
+     * @param pivot       the node to join with, its references are overwritten
+     * @param right       the subtree with the bigger values, may be null
+     * @param rightHeight its black height
+     * @return the root of the joined tree, black, whose black height is left in
+     *         joinedHeight
+     */
+    private Node<T> joinNodes(Node<T> left, int leftHeight, Node<T> pivot, Node<T> right,
+            int rightHeight) {
+        pivot.context[0] = null;
+        if (left != null && left.blackHeight == 0) {
+            setColor(left, 1);
+            leftHeight++;
+        }
+        if (right != null && right.blackHeight == 0) {
+            setColor(right, 1);
+            rightHeight++;
+        }
+        if (leftHeight == rightHeight) {
+            link(pivot, 1, left);
+            link(pivot, 2, right);
+            setColor(pivot, 1);
+            joinedHeight = leftHeight + 1;
+            return pivot;
+        }
+        int side = leftHeight > rightHeight ? 2 : 1; // the spine of the taller tree to walk down
+        Node<T> taller = side == 2 ? left : right;
+        Node<T> shorter = side == 2 ? right : left;
+        int height = Math.max(leftHeight, rightHeight);
+        int targetHeight = Math.min(leftHeight, rightHeight);
+        Node<T> parent = null;
+        Node<T> node = taller;
+        while (node != null && (node.blackHeight == 0 || height != targetHeight)) {
+            height -= node.blackHeight;
+            parent = node;
+            node = node.context[side];
+        }
+        link(pivot, 3 - side, node);
+        link(pivot, side, shorter);
+        link(parent, side, pivot);
+        setColor(pivot, 0);
+        Node<T> savedRoot = root;
+        root = taller; // the fix-up works on root
+        boolean grown = enforceRBTreePropertiesAfterInsert(pivot);
+        Node<T> joined = root;
+        root = savedRoot;
+        joinedHeight = Math.max(leftHeight, rightHeight) + (grown ? 1 : 0);
+        return joined;
+    }
+
+    /**
+     * The helper method that joins two subtrees without a node between them,
+     * by taking the biggest node out of the left one as the pivot
+     *
+     * @return the root of the joined tree, whose black height is left in joinedHeight
+     */
+    private Node<T> join2(Node<T> left, int leftHeight, Node<T> right, int rightHeight) {
+        if (left == null) {
+            joinedHeight = rightHeight;
+            return detach(right);
+        }
+        if (right == null) {
+            joinedHeight = leftHeight;
+            return detach(left);
+        }
+        Split<T> parts = splitNode(detach(left), leftHeight, last(left).data);
+        return joinNodes(parts.left, parts.leftHeight, parts.found, right, rightHeight);
+    }
+
+    /**
+     * The helper method that merges two subtrees, keeping the nodes of a
+     * where both hold a value
+     *
+     * @param dropped counts the nodes of b that were dropped and the red ones among them
+     * @return the root of the merged tree, whose black height is left in joinedHeight
+     */
+    private Node<T> unionNodes(Node<T> a, int aHeight, Node<T> b, int bHeight, List<T> duplicates,
+            int[] dropped) {
+        if (a == null) {
+            joinedHeight = bHeight;
+            return detach(b);
+        }
+        if (b == null) {
+            joinedHeight = aHeight;
+            return detach(a);
+        }
+        Node<T> left = a.context[1];
+        Node<T> right = a.context[2];
+        int childHeight = aHeight - a.blackHeight;
+        Split<T> parts = splitNode(detach(b), bHeight, a.data);
+        Node<T> lower = unionNodes(left, childHeight, parts.left, parts.leftHeight, duplicates,
+                dropped);
+        int lowerHeight = joinedHeight;
+        if (parts.found != null) {
+            duplicates.add(parts.found.data);
+            dropped[0]++;
+            dropped[1] += 1 - parts.found.blackHeight;
+        }
+        Node<T> upper = unionNodes(right, childHeight, parts.right, parts.rightHeight, duplicates,
+                dropped);
+        return joinNodes(lower, lowerHeight, a, upper, joinedHeight);
+    }
+
+    /**
+     * The helper method that keeps the nodes of a whose values b holds too
+     *
+     * @return the root of the remaining tree, whose black height is left in joinedHeight
+     */
+    private Node<T> intersectionNodes(Node<T> a, int aHeight, Node<T> b, int bHeight) {
+        if (a == null || b == null) {
+            joinedHeight = 0;
+            return null;
+        }
+        Node<T> left = a.context[1];
+        Node<T> right = a.context[2];
+        int childHeight = aHeight - a.blackHeight;
+        Split<T> parts = splitNode(detach(b), bHeight, a.data);
+        Node<T> lower = intersectionNodes(left, childHeight, parts.left, parts.leftHeight);
+        int lowerHeight = joinedHeight;
+        Node<T> upper = intersectionNodes(right, childHeight, parts.right, parts.rightHeight);
+        return parts.found != null ? joinNodes(lower, lowerHeight, a, upper, joinedHeight)
+                : join2(lower, lowerHeight, upper, joinedHeight);
+    }
+
+    /**
+     * The helper method that drops the nodes of a whose values b holds, b is
+     * only read
+     *
+     * @param dropped counts the nodes of a that were dropped and the red ones among them
+     * @return the root of the remaining tree, whose black height is left in joinedHeight
+     */
+    private Node<T> differenceNodes(Node<T> a, int aHeight, Node<T> b, List<T> removed,
+            int[] dropped) {
+        if (a == null) {
+            joinedHeight = 0;
+            return null;
+        }
+        if (b == null) {
+            joinedHeight = aHeight;
+            return detach(a);
+        }
+        Split<T> parts = splitNode(detach(a), aHeight, b.data);
+        Node<T> lower = differenceNodes(parts.left, parts.leftHeight, b.context[1], removed, dropped);
+        int lowerHeight = joinedHeight;
+        if (parts.found != null) {
+            removed.add(parts.found.data);
+            dropped[0]++;
+            dropped[1] += 1 - parts.found.blackHeight;
+        }
+        Node<T> upper = differenceNodes(parts.right, parts.rightHeight, b.context[2], removed,
+                dropped);
+        return join2(lower, lowerHeight, upper, joinedHeight);
+    }
+
+    /**
+     * Helper method that makes a node a child of another on the given side
+     */
+    private static <T> void link(Node<T> parent, int side, Node<T> child) {
+        parent.context[side] = child;
+        if (child != null) {
+            child.context[0] = parent;
+        }
+    }
+
+    /**
+     * Helper method that cuts a subtree off its parent
+     */
+    private static <T> Node<T> detach(Node<T> node) {
+        if (node != null) {
+            node.context[0] = null;
+        }
+        return node;
+    }
+
+    /**
+     * Helper method that colors the root of a subtree black, as every root has to be
+     */
+    private Node<T> blacken(Node<T> node) {
+        if (node != null) {
+            setColor(node, 1);
+        }
+        return node;
+    }
+
+    /**
+     * Helper method that counts the black nodes on the leftmost path of a subtree
+     */
+    private static <T> int blackHeightOf(Node<T> node) {
+        int blackNodes = 0;
+        for (; node != null; node = node.context[1]) {
+            blackNodes += node.blackHeight;
+        }
+        return blackNodes;
+    }
+
+    /**
+     * Helper method that finds the node with the smallest value of a subtree
+     */
+    private static <T> Node<T> first(Node<T> node) {
+        while (node.context[1] != null) {
+            node = node.context[1];
+        }
+        return node;
+    }
+
+    /**
+     * Helper method that finds the node with the biggest value of a subtree
+     */
+    private static <T> Node<T> last(Node<T> node) {
+        while (node.context[2] != null) {
+            node = node.context[2];
+        }
+        return node;
     }
 
 }
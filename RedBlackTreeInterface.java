@@ -29,10 +29,19 @@ public interface RedBlackTreeInterface<T extends Comparable<T>> extends SortedCo
     // return a list of songs that start with what the user inputted
     public List<T> findByInput(String key) throws NullPointerException;
 
-    // gets the number of black nodes within the RBT
-    public int getNumBlackNodes();
+    // gets the number of rotations the last insert or remove made, 0 for structures that do not rotate
+    public int getLastRotations();
 
-    // gets the number of the red nodes within the RBT
-    public int getNumRedNodes();
+    // checks every invariant of the tree, throws IllegalStateException on the first broken one
+    public void verify() throws IllegalStateException;
+
+    // removes the songs from the first value up to but not including the second, returns them in order
+    public List<T> removeRange(T from, T to) throws NullPointerException;
+
+    // adds a sorted batch of songs skipping the ones already stored, returns the songs added
+    public List<T> union(List<T> sortedData) throws NullPointerException, IllegalArgumentException;
+
+    // removes the stored songs equal to a song of a sorted batch, returns the songs removed
+    public List<T> difference(List<T> sortedData) throws NullPointerException, IllegalArgumentException;
 
 }
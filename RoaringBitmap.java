@@ -0,0 +1,505 @@
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * This class is a compressed set of non-negative ints, laid out like a Roaring
+ * bitmap: the ints are grouped by their upper 16 bits, and every group keeps
+ * its lower 16 bits either in a sorted char array, while it holds at most 4096
+ * of them, or in a bitmap of 65536 bits once it holds more. Sparse groups take
+ * 2 bytes per value and dense ones 8 KB, and AND, OR and ANDNOT work group by
+ * group, word by word where both sides are bitmaps.
+ *
+ * The operations return new bitmaps and leave their arguments unchanged.
+ */
+public class RoaringBitmap {
+
+    private static final int MAX_ARRAY = 4096; // a bigger group is kept as a bitmap
+    private static final int WORDS = 1 << 10; // longs in a group's bitmap
+
+    /**
+     * The lower 16 bits of the values of one group
+     */
+    private abstract static class Container {
+        protected int cardinality;
+
+        // adds a value, returns the container that holds the result
+        abstract Container add(char value);
+
+        // removes a value, returns the container that holds the result
+        abstract Container remove(char value);
+
+        abstract boolean contains(char value);
+
+        // copies the values into a bitmap
+        abstract long[] toWords();
+
+        // hands every value, with the group's upper bits, to the consumer in ascending order
+        abstract void forEach(int high, IntConsumer consumer);
+
+        abstract Container copy();
+    }
+
+    /**
+     * A group of at most MAX_ARRAY values in a sorted array
+     */
+    private static class ArrayContainer extends Container {
+        private char[] values;
+
+        private ArrayContainer(char[] values, int cardinality) {
+            this.values = values;
+            this.cardinality = cardinality;
+        }
+
+        @Override
+        Container add(char value) {
+            int index = Arrays.binarySearch(values, 0, cardinality, value);
+            if (index >= 0) {
+                return this;
+            }
+            if (cardinality == MAX_ARRAY) {
+                return new BitmapContainer(toWords(), cardinality).add(value);
+            }
+            index = -index - 1;
+            if (cardinality == values.length) {
+                values = Arrays.copyOf(values, Math.min(Math.max(4, cardinality * 2), MAX_ARRAY));
+            }
+            System.arraycopy(values, index, values, index + 1, cardinality - index);
+            values[index] = value;
+            cardinality++;
+            return this;
+        }
+
+        @Override
+        Container remove(char value) {
+            int index = Arrays.binarySearch(values, 0, cardinality, value);
+            if (index >= 0) {
+                System.arraycopy(values, index + 1, values, index, cardinality - index - 1);
+                cardinality--;
+            }
+            return this;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return Arrays.binarySearch(values, 0, cardinality, value) >= 0;
+        }
+
+        @Override
+        long[] toWords() {
+            long[] words = new long[WORDS];
+            for (int i = 0; i < cardinality; i++) {
+                words[values[i] >>> 6] |= 1L << values[i];
+            }
+            return words;
+        }
+
+        @Override
+        void forEach(int high, IntConsumer consumer) {
+            for (int i = 0; i < cardinality; i++) {
+                consumer.accept(high | values[i]);
+            }
+        }
+
+        @Override
+        Container copy() {
+            return new ArrayContainer(Arrays.copyOf(values, cardinality), cardinality);
+        }
+    }
+
+    /**
+     * A group of more than MAX_ARRAY values in a bitmap
+     */
+    private static class BitmapContainer extends Container {
+        private long[] words;
+
+        private BitmapContainer(long[] words, int cardinality) {
+            this.words = words;
+            this.cardinality = cardinality;
+        }
+
+        @Override
+        Container add(char value) {
+            long bit = 1L << value;
+            if ((words[value >>> 6] & bit) == 0) {
+                words[value >>> 6] |= bit;
+                cardinality++;
+            }
+            return this;
+        }
+
+        @Override
+        Container remove(char value) {
+            long bit = 1L << value;
+            if ((words[value >>> 6] & bit) != 0) {
+                words[value >>> 6] &= ~bit;
+                cardinality--;
+                if (cardinality <= MAX_ARRAY) {
+                    return fromWords(words);
+                }
+            }
+            return this;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return (words[value >>> 6] & (1L << value)) != 0;
+        }
+
+        @Override
+        long[] toWords() {
+            return words.clone();
+        }
+
+        @Override
+        void forEach(int high, IntConsumer consumer) {
+            for (int i = 0; i < WORDS; i++) {
+                long word = words[i];
+                while (word != 0) {
+                    consumer.accept(high | (i << 6) | Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+        }
+
+        @Override
+        Container copy() {
+            return new BitmapContainer(words.clone(), cardinality);
+        }
+    }
+
+    /**
+     * Helper method that turns a group's bitmap into the smaller container,
+     * null when the group is empty
+     */
+    private static Container fromWords(long[] words) {
+        int cardinality = 0;
+        for (long word : words) {
+            cardinality += Long.bitCount(word);
+        }
+        if (cardinality == 0) {
+            return null;
+        }
+        if (cardinality > MAX_ARRAY) {
+            return new BitmapContainer(words, cardinality);
+        }
+        char[] values = new char[cardinality];
+        int count = 0;
+        for (int i = 0; i < WORDS; i++) {
+            long word = words[i];
+            while (word != 0) {
+                values[count++] = (char) ((i << 6) | Long.numberOfTrailingZeros(word));
+                word &= word - 1;
+            }
+        }
+        return new ArrayContainer(values, cardinality);
+    }
+
+    private char[] keys = new char[4]; // upper 16 bits of every group, ascending
+    private Container[] containers = new Container[4];
+    private int groups; // number of groups in use
+
+    /**
+     * Helper method that finds the group of the given upper bits
+     *
+     * @return its index, or -(insertion point) - 1 when there is none
+     */
+    private int groupOf(char key) {
+        return Arrays.binarySearch(keys, 0, groups, key);
+    }
+
+    /**
+     * Helper method that puts a group at the given index
+     */
+    private void insertGroup(int index, char key, Container container) {
+        if (groups == keys.length) {
+            keys = Arrays.copyOf(keys, groups * 2);
+            containers = Arrays.copyOf(containers, groups * 2);
+        }
+        System.arraycopy(keys, index, keys, index + 1, groups - index);
+        System.arraycopy(containers, index, containers, index + 1, groups - index);
+        keys[index] = key;
+        containers[index] = container;
+        groups++;
+    }
+
+    /**
+     * Helper method that appends a group, for the operations that build a
+     * bitmap in ascending order
+     */
+    private void appendGroup(char key, Container container) {
+        if (container != null && container.cardinality > 0) {
+            insertGroup(groups, key, container);
+        }
+    }
+
+    /**
+     * adds a value
+     *
+     * @param value the value, not negative
+     * @throws IllegalArgumentException when the value is negative
+     */
+    public void add(int value) throws IllegalArgumentException {
+        if (value < 0) {
+            throw new IllegalArgumentException("Negative value " + value);
+        }
+        char key = (char) (value >>> 16);
+        // values mostly come in ascending order, so the last group is checked first
+        int index = groups > 0 && keys[groups - 1] == key ? groups - 1 : groupOf(key);
+        if (index < 0) {
+            insertGroup(-index - 1, key, new ArrayContainer(new char[4], 0));
+            index = -index - 1;
+        }
+        containers[index] = containers[index].add((char) value);
+    }
+
+    /**
+     * removes a value, if it is in the bitmap
+     *
+     * @param value the value
+     */
+    public void remove(int value) {
+        if (value < 0) {
+            return;
+        }
+        int index = groupOf((char) (value >>> 16));
+        if (index < 0) {
+            return;
+        }
+        Container container = containers[index].remove((char) value);
+        if (container == null || container.cardinality == 0) {
+            System.arraycopy(keys, index + 1, keys, index, groups - index - 1);
+            System.arraycopy(containers, index + 1, containers, index, groups - index - 1);
+            containers[--groups] = null;
+        } else {
+            containers[index] = container;
+        }
+    }
+
+    /**
+     * checks whether a value is in the bitmap
+     *
+     * @param value the value
+     * @return true if it is
+     */
+    public boolean contains(int value) {
+        if (value < 0) {
+            return false;
+        }
+        int index = groupOf((char) (value >>> 16));
+        return index >= 0 && containers[index].contains((char) value);
+    }
+
+    /**
+     * get the number of values in the bitmap
+     */
+    public int cardinality() {
+        int cardinality = 0;
+        for (int i = 0; i < groups; i++) {
+            cardinality += containers[i].cardinality;
+        }
+        return cardinality;
+    }
+
+    /**
+     * checks whether the bitmap is empty
+     */
+    public boolean isEmpty() {
+        return groups == 0;
+    }
+
+    /**
+     * hands every value to the consumer in ascending order
+     *
+     * @param consumer receives the values
+     */
+    public void forEach(IntConsumer consumer) {
+        for (int i = 0; i < groups; i++) {
+            containers[i].forEach(keys[i] << 16, consumer);
+        }
+    }
+
+    /**
+     * get the values in ascending order
+     */
+    public int[] toArray() {
+        int[] values = new int[cardinality()];
+        int[] count = new int[1];
+        forEach(value -> values[count[0]++] = value);
+        return values;
+    }
+
+    /**
+     * get a copy of the bitmap
+     */
+    public RoaringBitmap copy() {
+        RoaringBitmap copy = new RoaringBitmap();
+        for (int i = 0; i < groups; i++) {
+            copy.appendGroup(keys[i], containers[i].copy());
+        }
+        return copy;
+    }
+
+    /**
+     * get the values that are in both bitmaps
+     *
+     * @param other the other bitmap
+     * @return a new bitmap
+     */
+    public RoaringBitmap and(RoaringBitmap other) {
+        RoaringBitmap result = new RoaringBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < groups && j < other.groups) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                result.appendGroup(keys[i], and(containers[i], other.containers[j]));
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * get the values that are in either bitmap
+     *
+     * @param other the other bitmap
+     * @return a new bitmap
+     */
+    public RoaringBitmap or(RoaringBitmap other) {
+        RoaringBitmap result = new RoaringBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < groups || j < other.groups) {
+            if (j == other.groups || (i < groups && keys[i] < other.keys[j])) {
+                result.appendGroup(keys[i], containers[i].copy());
+                i++;
+            } else if (i == groups || keys[i] > other.keys[j]) {
+                result.appendGroup(other.keys[j], other.containers[j].copy());
+                j++;
+            } else {
+                result.appendGroup(keys[i], or(containers[i], other.containers[j]));
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * get the values of this bitmap that are not in the other one
+     *
+     * @param other the other bitmap
+     * @return a new bitmap
+     */
+    public RoaringBitmap andNot(RoaringBitmap other) {
+        RoaringBitmap result = new RoaringBitmap();
+        int j = 0;
+        for (int i = 0; i < groups; i++) {
+            while (j < other.groups && other.keys[j] < keys[i]) {
+                j++;
+            }
+            if (j < other.groups && other.keys[j] == keys[i]) {
+                result.appendGroup(keys[i], andNot(containers[i], other.containers[j]));
+            } else {
+                result.appendGroup(keys[i], containers[i].copy());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Helper method that intersects two groups, null when nothing is left
+     */
+    private static Container and(Container a, Container b) {
+        if (a instanceof ArrayContainer || b instanceof ArrayContainer) {
+            // filter the array by the other group
+            ArrayContainer array = (ArrayContainer) (a instanceof ArrayContainer ? a : b);
+            Container other = array == a ? b : a;
+            char[] values = new char[array.cardinality];
+            int count = 0;
+            for (int k = 0; k < array.cardinality; k++) {
+                if (other.contains(array.values[k])) {
+                    values[count++] = array.values[k];
+                }
+            }
+            return count == 0 ? null : new ArrayContainer(values, count);
+        }
+        long[] words = ((BitmapContainer) a).toWords();
+        long[] otherWords = ((BitmapContainer) b).words;
+        for (int k = 0; k < WORDS; k++) {
+            words[k] &= otherWords[k];
+        }
+        return fromWords(words);
+    }
+
+    /**
+     * Helper method that unites two groups
+     */
+    private static Container or(Container a, Container b) {
+        if (a instanceof ArrayContainer && b instanceof ArrayContainer
+                && a.cardinality + b.cardinality <= MAX_ARRAY) {
+            // merge the sorted arrays
+            char[] x = ((ArrayContainer) a).values;
+            char[] y = ((ArrayContainer) b).values;
+            char[] values = new char[a.cardinality + b.cardinality];
+            int i = 0;
+            int j = 0;
+            int count = 0;
+            while (i < a.cardinality || j < b.cardinality) {
+                if (j == b.cardinality || (i < a.cardinality && x[i] < y[j])) {
+                    values[count++] = x[i++];
+                } else if (i == a.cardinality || x[i] > y[j]) {
+                    values[count++] = y[j++];
+                } else {
+                    values[count++] = x[i++];
+                    j++;
+                }
+            }
+            return new ArrayContainer(values, count);
+        }
+        long[] words = a.toWords();
+        long[] otherWords = b instanceof BitmapContainer ? ((BitmapContainer) b).words : b.toWords();
+        for (int k = 0; k < WORDS; k++) {
+            words[k] |= otherWords[k];
+        }
+        return fromWords(words);
+    }
+
+    /**
+     * Helper method that takes the values of b out of a, null when nothing is left
+     */
+    private static Container andNot(Container a, Container b) {
+        if (a instanceof ArrayContainer) {
+            ArrayContainer array = (ArrayContainer) a;
+            char[] values = new char[array.cardinality];
+            int count = 0;
+            for (int k = 0; k < array.cardinality; k++) {
+                if (!b.contains(array.values[k])) {
+                    values[count++] = array.values[k];
+                }
+            }
+            return count == 0 ? null : new ArrayContainer(values, count);
+        }
+        long[] words = a.toWords();
+        long[] otherWords = b instanceof BitmapContainer ? ((BitmapContainer) b).words : b.toWords();
+        for (int k = 0; k < WORDS; k++) {
+            words[k] &= ~otherWords[k];
+        }
+        return fromWords(words);
+    }
+
+    /**
+     * this method will make the bitmap as a string
+     *
+     * @return the number of values and groups
+     */
+    @Override
+    public String toString() {
+        return "RoaringBitmap of " + cardinality() + " values in " + groups + " groups";
+    }
+
+}
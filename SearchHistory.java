@@ -0,0 +1,94 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class keeps the songs a user searched for, most recent first. Songs are
+ * indexed by title in insertion order, so searching a song again only moves it
+ * to the front and the oldest song is dropped in constant time once the
+ * history is full. The songs are kept as they were found, so showing the
+ * history does not search the playlist again. The methods are synchronized, so
+ * several frontends serving the same user can share one history.
+ */
+public class SearchHistory {
+
+    public static final int DEFAULT_CAPACITY = 100;
+
+    private LinkedHashMap<String, SongInterface> songs; // oldest search first
+    private int capacity;
+
+    /**
+     * this method creates a history holding the default number of songs
+     */
+    public SearchHistory() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * this method set the number of songs the history holds
+     *
+     * @param capacity maximum number of songs, older searches are forgotten
+     * @throws IllegalArgumentException when the capacity is not positive
+     */
+    public SearchHistory(int capacity) throws IllegalArgumentException {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.songs = new LinkedHashMap<String, SongInterface>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, SongInterface> eldest) {
+                return size() > SearchHistory.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * this method records a searched song as the most recent search
+     *
+     * @param song the song that was found
+     */
+    public synchronized void record(SongInterface song) {
+        songs.remove(song.getTitle()); // so a repeated search moves to the front
+        songs.put(song.getTitle(), song);
+    }
+
+    /**
+     * get the searched songs
+     *
+     * @return the songs, most recent search first
+     */
+    public synchronized List<SongInterface> recent() {
+        List<SongInterface> recent = new ArrayList<SongInterface>(songs.values());
+        for (int i = 0, j = recent.size() - 1; i < j; i++, j--) {
+            recent.set(j, recent.set(i, recent.get(j)));
+        }
+        return recent;
+    }
+
+    /**
+     * get the number of songs in the history
+     *
+     */
+    public synchronized int size() {
+        return songs.size();
+    }
+
+    /**
+     * checks whether no song was searched yet
+     *
+     * @return true if the history is empty
+     */
+    public synchronized boolean isEmpty() {
+        return songs.isEmpty();
+    }
+
+    /**
+     * this method forgets all searches
+     */
+    public synchronized void clear() {
+        songs.clear();
+    }
+
+}
@@ -0,0 +1,490 @@
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * This class splits the playlist over several MusicFinderBackends, each with
+ * its own tree and its own lock, so loads and changes of different shards run
+ * at the same time. A song lives in the shard picked by the hash of its title.
+ *
+ * Lookups, adds and removes of one title go to its shard only. Prefix, range
+ * and artist queries ask every shard in parallel and merge their sorted
+ * answers with a k-way merge, similarity queries keep the closest of every
+ * shard's closest songs. A load reads the file once, splits the rows by
+ * shard and lets every shard insert its part at the same time. When one shard
+ * fails to load, the other shards keep what they loaded. A load in the
+ * background does the same for every batch of rows, and all shards publish a
+ * batch before the next one is read.
+ */
+public class ShardedMusicFinderBackend implements MusicFinderBackendInterface {
+
+    private static final int LOAD_BATCH = 4096; // rows a background load publishes at a time
+
+    private MusicFinderBackend[] shards;
+    private ShardReader[] readers;
+    private SongReaderInterface songReader;
+    private ExecutorService workers; // runs the per-shard parts of a fanned out call
+    private LoadProgress backgroundLoad; // the last load started in the background, or null
+
+    /**
+     * Hands a shard the rows of a file that the sharded backend already read and
+     * split, so the file is parsed only once per load
+     */
+    private class ShardReader implements SongReaderInterface {
+        private int shard;
+        private Map<String, List<SongInterface>> prepared = new ConcurrentHashMap<String, List<SongInterface>>();
+
+        private ShardReader(int shard) {
+            this.shard = shard;
+        }
+
+        @Override
+        public List<SongInterface> readMusicFromFile(String fileName) throws FileNotFoundException {
+            List<SongInterface> songs = prepared.remove(fileName);
+            if (songs == null) {
+                // not prepared, read the file and keep this shard's rows
+                songs = new ArrayList<SongInterface>();
+                readMusicFromFile(fileName, songs::add);
+            }
+            return songs;
+        }
+
+        @Override
+        public void readMusicFromFile(String fileName, Consumer<SongInterface> consumer)
+                throws FileNotFoundException {
+            List<SongInterface> songs = prepared.remove(fileName);
+            if (songs != null) {
+                songs.forEach(consumer);
+                return;
+            }
+            songReader.readMusicFromFile(fileName, song -> {
+                if (shardOf(song.getTitle()) == shard) {
+                    consumer.accept(song);
+                }
+            });
+        }
+    }
+
+    /**
+     * this method creates the shards
+     *
+     * @param shardCount number of shards
+     * @param newTree    makes the tree of each shard
+     * @param songReader reader for the csv files
+     * @throws IllegalArgumentException when shardCount is not positive
+     */
+    public ShardedMusicFinderBackend(int shardCount, Supplier<RedBlackTreeInterface<SongInterface>> newTree,
+            SongReaderInterface songReader) throws IllegalArgumentException {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("Need at least one shard, not " + shardCount);
+        }
+        this.songReader = songReader;
+        this.shards = new MusicFinderBackend[shardCount];
+        this.readers = new ShardReader[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            readers[i] = new ShardReader(i);
+            shards[i] = new MusicFinderBackend(newTree.get(), readers[i]);
+        }
+        this.workers = Executors.newFixedThreadPool(shardCount, task -> {
+            Thread thread = new Thread(task, "music-finder-shard");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * get the number of shards
+     */
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    /**
+     * this method lets every shard record its operation latencies, reported by
+     * dumpMetrics one shard after the other
+     */
+    public void enableMetrics() {
+        for (MusicFinderBackend shard : shards) {
+            shard.setMetrics(new MusicFinderMetrics());
+        }
+    }
+
+    /**
+     * Helper method that picks the shard of a title
+     */
+    private int shardOf(String title) {
+        if (title == null) {
+            throw new NullPointerException("Title is null");
+        }
+        int hash = title.hashCode();
+        hash ^= hash >>> 16; // the low bits of String hashes alone spread poorly
+        return Math.floorMod(hash, shards.length);
+    }
+
+    /**
+     * Helper method that runs a task on every shard at the same time and waits
+     * for all of them
+     *
+     * @return the answers of the shards, in shard order
+     */
+    private <R> List<R> fanOut(Function<Integer, R> task) {
+        if (shards.length == 1) {
+            List<R> answers = new ArrayList<R>(1);
+            answers.add(task.apply(0));
+            return answers;
+        }
+        List<Future<R>> futures = new ArrayList<Future<R>>(shards.length);
+        for (int i = 0; i < shards.length; i++) {
+            int shard = i;
+            futures.add(workers.submit(() -> task.apply(shard)));
+        }
+        List<R> answers = new ArrayList<R>(shards.length);
+        RuntimeException failure = null;
+        for (Future<R> future : futures) {
+            try {
+                answers.add(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for the shards", e);
+            } catch (ExecutionException e) {
+                // every shard finishes before the first failure is rethrown
+                if (failure == null) {
+                    failure = e.getCause() instanceof RuntimeException
+                            ? (RuntimeException) e.getCause()
+                            : new IllegalStateException("Shard failed", e.getCause());
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return answers;
+    }
+
+    /**
+     * Helper method that merges the sorted answers of the shards into one sorted
+     * list of at most limit songs. Titles are unique across shards, so no song
+     * shows up twice.
+     */
+    private static List<SongInterface> merge(List<List<SongInterface>> sortedLists, int limit) {
+        PriorityQueue<Map.Entry<SongInterface, Iterator<SongInterface>>> heads =
+                new PriorityQueue<Map.Entry<SongInterface, Iterator<SongInterface>>>(
+                        Math.max(sortedLists.size(), 1), Map.Entry.comparingByKey());
+        for (List<SongInterface> list : sortedLists) {
+            Iterator<SongInterface> songs = list.iterator();
+            if (songs.hasNext()) {
+                heads.add(Map.entry(songs.next(), songs));
+            }
+        }
+        List<SongInterface> merged = new ArrayList<SongInterface>();
+        while (merged.size() < limit && !heads.isEmpty()) {
+            Map.Entry<SongInterface, Iterator<SongInterface>> head = heads.poll();
+            merged.add(head.getKey());
+            if (head.getValue().hasNext()) {
+                heads.add(Map.entry(head.getValue().next(), head.getValue()));
+            }
+        }
+        return merged;
+    }
+
+    @Override
+    public void loadData(String filename) throws FileNotFoundException {
+        List<List<SongInterface>> parts = new ArrayList<List<SongInterface>>(shards.length);
+        for (int i = 0; i < shards.length; i++) {
+            parts.add(new ArrayList<SongInterface>());
+        }
+        songReader.readMusicFromFile(filename, song -> parts.get(shardOf(song.getTitle())).add(song));
+        for (int i = 0; i < shards.length; i++) {
+            readers[i].prepared.put(filename, parts.get(i));
+        }
+        try {
+            fanOut(shard -> {
+                try {
+                    shards[shard].loadData(filename);
+                } catch (FileNotFoundException e) {
+                    throw new IllegalStateException(filename + " vanished during the load", e);
+                }
+                return null;
+            });
+        } finally {
+            for (ShardReader reader : readers) {
+                reader.prepared.remove(filename);
+            }
+        }
+    }
+
+    @Override
+    public synchronized LoadProgress loadDataInBackground(String filename)
+            throws FileNotFoundException, IllegalStateException {
+        File file = new File(filename);
+        if (!file.isFile()) {
+            throw new FileNotFoundException(filename + " does not exist");
+        }
+        if (backgroundLoad != null && !backgroundLoad.isDone()) {
+            throw new IllegalStateException("Still loading " + backgroundLoad);
+        }
+        LoadProgress progress = new LoadProgress(filename, file.length());
+        boolean reload = shards[0].isLoaded(filename);
+        for (MusicFinderBackend shard : shards) {
+            shard.startLoading(progress); // the shards share the progress
+        }
+        backgroundLoad = progress;
+        Thread loader = new Thread(() -> {
+            try {
+                if (reload) {
+                    loadData(filename);
+                } else {
+                    loadInBatches(filename, progress);
+                }
+                progress.finish(null);
+            } catch (FileNotFoundException e) {
+                progress.finish(failLoading(
+                        new UncheckedIOException(filename + " vanished during the load", e)));
+            } catch (RuntimeException e) {
+                progress.finish(failLoading(e));
+            }
+        }, "music-finder-loader");
+        loader.setDaemon(true);
+        loader.start();
+        return progress;
+    }
+
+    /**
+     * Helper method that ends a load that failed part way on every shard, so
+     * each replays its log and a retry resumes the load
+     */
+    private RuntimeException failLoading(RuntimeException failure) {
+        for (MusicFinderBackend shard : shards) {
+            shard.failLoading(failure);
+        }
+        return failure;
+    }
+
+    /**
+     * Helper method that reads a file once and lets every shard insert its rows
+     * of every batch at the same time
+     *
+     * @param filename the csv file, not loaded before
+     * @param progress progress of the load, updated while the file is read
+     * @throws FileNotFoundException when the file does not exist
+     */
+    private void loadInBatches(String filename, LoadProgress progress) throws FileNotFoundException {
+        List<List<SongInterface>> parts = new ArrayList<List<SongInterface>>(shards.length);
+        List<List<String>> titles = new ArrayList<List<String>>(shards.length);
+        for (int i = 0; i < shards.length; i++) {
+            parts.add(new ArrayList<SongInterface>());
+            titles.add(new ArrayList<String>());
+        }
+        int[] pending = {0};
+        String[] last = {null};
+        boolean[] sorted = {true}; // whether the rows so far came in title order
+        songReader.readMusicFromFile(filename, song -> {
+            String title = song.getTitle();
+            if (last[0] != null && title.compareTo(last[0]) <= 0) {
+                sorted[0] = false;
+            }
+            last[0] = title;
+            int shard = shardOf(title);
+            parts.get(shard).add(song);
+            titles.get(shard).add(title);
+            if (++pending[0] == LOAD_BATCH) {
+                // every shard has seen every title up to this one
+                publish(parts, sorted[0] ? title : null);
+                pending[0] = 0;
+            }
+        }, progress::setBytesRead);
+        publish(parts, sorted[0] ? last[0] : null);
+        fanOut(shard -> {
+            shards[shard].finishLoading(filename, titles.get(shard));
+            return null;
+        });
+    }
+
+    /**
+     * Helper method that hands every shard its part of a batch and empties the
+     * parts for the next one
+     */
+    private void publish(List<List<SongInterface>> parts, String watermark) {
+        fanOut(shard -> {
+            shards[shard].loadBatch(parts.get(shard), watermark);
+            return null;
+        });
+        for (List<SongInterface> part : parts) {
+            part.clear();
+        }
+    }
+
+    @Override
+    public synchronized LoadProgress getLoadProgress() {
+        return backgroundLoad;
+    }
+
+    @Override
+    public String findSongByTitle(String words)
+            throws IllegalArgumentException, IllegalStateException, NullPointerException {
+        return shards[shardOf(words)].findSongByTitle(words);
+    }
+
+    @Override
+    public SongInterface findSong(String title)
+            throws IllegalArgumentException, IllegalStateException, NullPointerException {
+        return shards[shardOf(title)].findSong(title);
+    }
+
+    @Override
+    public String getDurationByTitle(String words)
+            throws IllegalArgumentException, IllegalStateException, NullPointerException {
+        return shards[shardOf(words)].getDurationByTitle(words);
+    }
+
+    @Override
+    public String getArtistByTitle(String words)
+            throws IllegalArgumentException, IllegalStateException, NullPointerException {
+        return shards[shardOf(words)].getArtistByTitle(words);
+    }
+
+    @Override
+    public SongLookupResult findSongsByTitles(Collection<String> titles) throws NullPointerException {
+        if (titles == null) {
+            throw new NullPointerException("Titles are null");
+        }
+        List<List<String>> parts = new ArrayList<List<String>>(shards.length);
+        for (int i = 0; i < shards.length; i++) {
+            parts.add(new ArrayList<String>());
+        }
+        for (String title : titles) {
+            parts.get(shardOf(title)).add(title);
+        }
+        List<SongLookupResult> answers = fanOut(shard -> shards[shard].findSongsByTitles(parts.get(shard)));
+        // same order as a single backend gives: found and missing titles sorted
+        TreeMap<String, SongInterface> found = new TreeMap<String, SongInterface>();
+        List<String> missing = new ArrayList<String>();
+        List<String> notLoaded = new ArrayList<String>();
+        for (SongLookupResult answer : answers) {
+            found.putAll(answer.getFound());
+            missing.addAll(answer.getMissing());
+            notLoaded.addAll(answer.getNotLoaded());
+        }
+        missing.sort(null);
+        notLoaded.sort(null);
+        return new SongLookupResult(new LinkedHashMap<String, SongInterface>(found), missing, notLoaded);
+    }
+
+    @Override
+    public List<SongInterface> findSongsByPrefix(String prefix, int limit) throws NullPointerException {
+        if (prefix == null) {
+            throw new NullPointerException("Prefix is null");
+        }
+        return merge(fanOut(shard -> shards[shard].findSongsByPrefix(prefix, limit)), limit);
+    }
+
+    @Override
+    public List<SongInterface> findSongsInRange(String fromTitle, String toTitle, int limit)
+            throws NullPointerException {
+        if (fromTitle == null) {
+            throw new NullPointerException("Range bound is null");
+        }
+        return merge(fanOut(shard -> shards[shard].findSongsInRange(fromTitle, toTitle, limit)), limit);
+    }
+
+    @Override
+    public List<SongInterface> findSongsByArtist(String artist, int limit) throws NullPointerException {
+        if (artist == null) {
+            throw new NullPointerException("Artist is null");
+        }
+        return merge(fanOut(shard -> shards[shard].findSongsByArtist(artist, limit)), limit);
+    }
+
+    @Override
+    public List<SongInterface> findSimilarSongs(String title, int k)
+            throws IllegalArgumentException, IllegalStateException, NullPointerException {
+        SongInterface song = findSong(title);
+        List<SongInterface> candidates = new ArrayList<SongInterface>();
+        for (List<SongInterface> answer : fanOut(shard -> shards[shard].findSimilarSongs(song, k))) {
+            candidates.addAll(answer);
+        }
+        // every shard sent its k closest, the k closest of those are the closest overall
+        candidates.sort(Comparator.comparingDouble(other -> SongFeatureIndex.distance(song, other)));
+        return new ArrayList<SongInterface>(candidates.subList(0, Math.min(Math.max(k, 0), candidates.size())));
+    }
+
+    @Override
+    public List<SongInterface> findSongsByGenres(Collection<String> genres, Boolean explicit, String prefix,
+            int limit) throws NullPointerException {
+        if (prefix == null) {
+            throw new NullPointerException("Prefix is null");
+        }
+        return merge(fanOut(shard -> shards[shard].findSongsByGenres(genres, explicit, prefix, limit)), limit);
+    }
+
+    @Override
+    public List<SongInterface> findTopSongs(String genre, int year, int count) throws IllegalArgumentException {
+        List<SongInterface> candidates = new ArrayList<SongInterface>();
+        for (List<SongInterface> answer : fanOut(shard -> shards[shard].findTopSongs(genre, year, count))) {
+            candidates.addAll(answer);
+        }
+        // every shard sent its most popular songs, the best of those are the best overall
+        candidates.sort(SongRankings.MOST_POPULAR);
+        return new ArrayList<SongInterface>(candidates.subList(0, Math.min(Math.max(count, 0), candidates.size())));
+    }
+
+    @Override
+    public boolean addOneSong(String title, String duration, String artist)
+            throws NullPointerException, IllegalArgumentException {
+        return shards[shardOf(title)].addOneSong(title, duration, artist);
+    }
+
+    @Override
+    public boolean removeOneSong(String title) throws NullPointerException, IllegalArgumentException {
+        return shards[shardOf(title)].removeOneSong(title);
+    }
+
+    @Override
+    public int displaySongCount() {
+        int count = 0;
+        for (MusicFinderBackend shard : shards) {
+            count += shard.displaySongCount();
+        }
+        return count;
+    }
+
+    @Override
+    public SongStatistics getStatistics() {
+        // the sketches of all shards have the same size, so they merge without losing accuracy
+        SongStatistics merged = new SongStatistics(null);
+        for (MusicFinderBackend shard : shards) {
+            merged.merge(shard.getStatistics());
+        }
+        return merged;
+    }
+
+    @Override
+    public String dumpMetrics() {
+        StringBuilder report = new StringBuilder();
+        for (int i = 0; i < shards.length; i++) {
+            report.append("shard ").append(i).append(":\n").append(shards[i].dumpMetrics());
+            if (report.charAt(report.length() - 1) != '\n') {
+                report.append('\n');
+            }
+        }
+        return report.toString();
+    }
+
+}
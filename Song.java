@@ -1,3 +1,6 @@
+import java.util.Collections;
+import java.util.List;
+
 /**
  * This class is set the artists, title and duration of the song
  */
@@ -6,6 +9,11 @@ public class Song implements SongInterface {
     private String title;
     private String artist;
     private String duration;
+    private float[] features; // audio features in SongFeatureIndex.FEATURES order, null when unknown
+    private List<String> genres = Collections.emptyList();
+    private boolean explicit;
+    private int year; // 0 when unknown
+    private int popularity; // 0 to 100, 0 when unknown
 
     /**
      * 
@@ -21,6 +29,43 @@ public class Song implements SongInterface {
         this.duration = duration;
     }
 
+    /**
+     * 
+     * this method set the details of the song together with its audio features
+     * 
+     * @param title    title of the song
+     * @param artist   artist name of the song
+     * @param duration duration of the song
+     * @param features audio features in SongFeatureIndex.FEATURES order, or null
+     */
+    public Song(String title, String artist, String duration, float[] features) {
+        this(title, artist, duration);
+        this.features = features;
+    }
+
+    /**
+     * 
+     * this method set the details of the song together with its audio features,
+     * genres, explicit flag, year and popularity
+     * 
+     * @param title      title of the song
+     * @param artist     artist name of the song
+     * @param duration   duration of the song
+     * @param features   audio features in SongFeatureIndex.FEATURES order, or null
+     * @param genres     the genres of the song, lower case
+     * @param explicit   whether the song has explicit lyrics
+     * @param year       release year of the song, 0 when unknown
+     * @param popularity popularity of the song from 0 to 100
+     */
+    public Song(String title, String artist, String duration, float[] features, List<String> genres,
+            boolean explicit, int year, int popularity) {
+        this(title, artist, duration, features);
+        this.genres = Collections.unmodifiableList(genres);
+        this.explicit = explicit;
+        this.year = year;
+        this.popularity = popularity;
+    }
+
     /**
      * get artist name of the song
      * 
@@ -45,6 +90,51 @@ public class Song implements SongInterface {
         return duration;
     }
 
+    /**
+     * get the audio features of the song
+     * 
+     * @return the features in SongFeatureIndex.FEATURES order, or null when the
+     *         song has none
+     */
+    public float[] getFeatures() {
+        return features;
+    }
+
+    /**
+     * get the genres of the song
+     * 
+     * @return the genres in lower case, empty when the song has none
+     */
+    public List<String> getGenres() {
+        return genres;
+    }
+
+    /**
+     * get whether the song has explicit lyrics
+     * 
+     */
+    public boolean isExplicit() {
+        return explicit;
+    }
+
+    /**
+     * get the release year of the song
+     * 
+     * @return the year, or 0 when it is unknown
+     */
+    public int getYear() {
+        return year;
+    }
+
+    /**
+     * get the popularity of the song
+     * 
+     * @return the popularity from 0 to 100, 0 when it is unknown
+     */
+    public int getPopularity() {
+        return popularity;
+    }
+
     /**
      * this method compare two song's duration
      * 
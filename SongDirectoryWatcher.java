@@ -0,0 +1,312 @@
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class watches a directory for new csv files and ingests them into the
+ * backend in the background. A reader thread streams each new file through the
+ * SongReader and hands the rows on in fixed-size batches through a bounded
+ * queue. When the queue is full the reader waits, so memory stays bounded no
+ * matter how big the files are. An ingest thread adds one batch at a time, so
+ * lookups keep being served between batches.
+ *
+ * Files should be moved into the directory once they are complete; a file that
+ * is still growing is only read once it has not changed for a moment.
+ */
+public class SongDirectoryWatcher {
+
+    /**
+     * A batch of rows together with the time its file was seen
+     */
+    private static class Batch {
+        private List<SongInterface> songs;
+        private long fileSeenAt;
+        private boolean lastOfFile;
+
+        private Batch(List<SongInterface> songs, long fileSeenAt, boolean lastOfFile) {
+            this.songs = songs;
+            this.fileSeenAt = fileSeenAt;
+            this.lastOfFile = lastOfFile;
+        }
+    }
+
+    private static final long SETTLE_MILLIS = 200; // a file is read once its size holds this long
+
+    private MusicFinderBackend backend;
+    private SongReaderInterface songReader;
+    private Path directory;
+    private int batchSize;
+    private BlockingQueue<Batch> queue;
+    private WatchService watchService;
+    private Thread readerThread;
+    private Thread ingestThread;
+    private volatile boolean running;
+
+    // metrics
+    private AtomicLong rowsIngested = new AtomicLong();
+    private AtomicLong rowsSkipped = new AtomicLong();
+    private AtomicLong filesIngested = new AtomicLong();
+    private AtomicLong filesFailed = new AtomicLong();
+    private AtomicLong busyNanos = new AtomicLong(); // time spent with files waiting or in progress
+    private ConcurrentLinkedQueue<Long> pendingFiles = new ConcurrentLinkedQueue<Long>();
+    private volatile long busySince;
+
+    /**
+     * Constructor to initialize the watcher, call start to begin watching
+     *
+     * @param backend      - backend the songs are added to
+     * @param songReader   - reader for the csv files
+     * @param directory    - directory to watch
+     * @param batchSize    - number of rows added under one lock
+     * @param queuedBatches - number of batches that may wait for the ingest thread
+     * @throws IllegalArgumentException when a size is not positive or directory is not a directory
+     */
+    public SongDirectoryWatcher(MusicFinderBackend backend, SongReaderInterface songReader,
+            Path directory, int batchSize, int queuedBatches) throws IllegalArgumentException {
+        if (batchSize < 1 || queuedBatches < 1) {
+            throw new IllegalArgumentException("Batch size and queue length must be positive");
+        }
+        if (!Files.isDirectory(directory)) {
+            throw new IllegalArgumentException(directory + " is not a directory");
+        }
+        this.backend = backend;
+        this.songReader = songReader;
+        this.directory = directory;
+        this.batchSize = batchSize;
+        this.queue = new ArrayBlockingQueue<Batch>(queuedBatches);
+    }
+
+    /**
+     * Starts watching the directory. Only files that arrive from now on are ingested.
+     *
+     * @throws IOException when the directory cannot be watched
+     */
+    public synchronized void start() throws IOException {
+        if (running) {
+            return;
+        }
+        watchService = FileSystems.getDefault().newWatchService();
+        directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+        running = true;
+        readerThread = new Thread(this::watchAndRead, "song-watcher-reader");
+        ingestThread = new Thread(this::ingest, "song-watcher-ingest");
+        readerThread.setDaemon(true);
+        ingestThread.setDaemon(true);
+        readerThread.start();
+        ingestThread.start();
+    }
+
+    /**
+     * Stops watching. Batches that are still queued are dropped.
+     *
+     * @throws IOException when the watch service cannot be closed
+     */
+    public synchronized void stop() throws IOException {
+        if (!running) {
+            return;
+        }
+        running = false;
+        watchService.close();
+        readerThread.interrupt();
+        ingestThread.interrupt();
+    }
+
+    /**
+     * Reader thread: waits for new csv files and streams them into the queue
+     */
+    private void watchAndRead() {
+        List<Path> seen = new ArrayList<Path>();
+        try {
+            while (running) {
+                // while a file is still being written, wake up again to see if it has settled
+                WatchKey key = seen.isEmpty() ? watchService.take()
+                        : watchService.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            continue;
+                        }
+                        Path file = directory.resolve((Path) event.context());
+                        if (file.toString().toLowerCase().endsWith(".csv") && !seen.contains(file)) {
+                            seen.add(file);
+                        }
+                    }
+                    key.reset();
+                }
+                // read every file that stopped growing, in the order they arrived
+                for (Path file : new ArrayList<Path>(seen)) {
+                    if (hasSettled(file)) {
+                        seen.remove(file);
+                        readFile(file);
+                    }
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // stop was called
+        } catch (IOException e) {
+            running = false;
+        }
+    }
+
+    /**
+     * Helper method that checks whether a file has not been written to for a while
+     */
+    private boolean hasSettled(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return false;
+        }
+        long age = System.currentTimeMillis() - Files.getLastModifiedTime(file).toMillis();
+        return age >= SETTLE_MILLIS;
+    }
+
+    /**
+     * Helper method that streams one file into the queue in batches
+     */
+    private void readFile(Path file) throws InterruptedException {
+        long seenAt = System.nanoTime();
+        if (pendingFiles.isEmpty()) {
+            busySince = seenAt;
+        }
+        pendingFiles.add(seenAt);
+        List<List<SongInterface>> current = new ArrayList<List<SongInterface>>();
+        current.add(new ArrayList<SongInterface>(batchSize));
+        try {
+            songReader.readMusicFromFile(file.toString(), song -> {
+                List<SongInterface> batch = current.get(0);
+                batch.add(song);
+                if (batch.size() == batchSize) {
+                    putBatch(new Batch(batch, seenAt, false));
+                    current.set(0, new ArrayList<SongInterface>(batchSize));
+                }
+            });
+        } catch (FileNotFoundException | UncheckedIOException | IllegalStateException
+                | ArrayIndexOutOfBoundsException e) {
+            filesFailed.incrementAndGet(); // rows read so far are still ingested
+        }
+        queue.put(new Batch(current.get(0), seenAt, true));
+    }
+
+    /**
+     * Helper method that blocks until the queue has room, which is the back-pressure on the reader
+     */
+    private void putBatch(Batch batch) {
+        try {
+            queue.put(batch);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Watcher stopped while reading", e);
+        }
+    }
+
+    /**
+     * Ingest thread: adds the queued batches to the backend one at a time
+     */
+    private void ingest() {
+        try {
+            while (running) {
+                Batch batch = queue.take();
+                int added = batch.songs.isEmpty() ? 0 : backend.ingestBatch(batch.songs);
+                rowsIngested.addAndGet(added);
+                rowsSkipped.addAndGet(batch.songs.size() - added);
+                if (batch.lastOfFile) {
+                    filesIngested.incrementAndGet();
+                    pendingFiles.remove(batch.fileSeenAt);
+                    if (pendingFiles.isEmpty()) {
+                        busyNanos.addAndGet(System.nanoTime() - busySince);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            // stop was called
+        }
+    }
+
+    /**
+     * get the number of rows that were added to the playlist
+     */
+    public long getRowsIngested() {
+        return rowsIngested.get();
+    }
+
+    /**
+     * get the number of rows that were skipped because their title was already in the playlist
+     */
+    public long getRowsSkipped() {
+        return rowsSkipped.get();
+    }
+
+    /**
+     * get the number of files that were completely ingested
+     */
+    public long getFilesIngested() {
+        return filesIngested.get();
+    }
+
+    /**
+     * get the number of files that could not be read to the end
+     */
+    public long getFilesFailed() {
+        return filesFailed.get();
+    }
+
+    /**
+     * get the number of batches waiting for the ingest thread
+     */
+    public int getQueuedBatches() {
+        return queue.size();
+    }
+
+    /**
+     * get the ingest lag: how long the oldest file that is not completely ingested has been waiting
+     *
+     * @return the lag in ms, 0 when every file seen so far is ingested
+     */
+    public long getIngestLagMillis() {
+        Long oldest = pendingFiles.peek();
+        return oldest == null ? 0 : (System.nanoTime() - oldest) / 1000000;
+    }
+
+    /**
+     * get the ingest rate while there were files to ingest
+     *
+     * @return rows per second, counting only the time with files waiting or in progress
+     */
+    public double getRowsPerSecond() {
+        long busy = busyNanos.get();
+        if (!pendingFiles.isEmpty()) {
+            busy += System.nanoTime() - busySince;
+        }
+        long rows = rowsIngested.get() + rowsSkipped.get();
+        return busy == 0 ? 0 : rows * 1e9 / busy;
+    }
+
+    /**
+     * this method will make the metrics as a string
+     *
+     * @return the ingest metrics on one line
+     */
+    @Override
+    public String toString() {
+        return String.format("%d files, %d rows ingested, %d skipped, %d files failed, "
+                + "%d batches queued, lag %d ms, %.0f rows/s", getFilesIngested(), getRowsIngested(),
+                getRowsSkipped(), getFilesFailed(), getQueuedBatches(), getIngestLagMillis(),
+                getRowsPerSecond());
+    }
+
+}
@@ -0,0 +1,245 @@
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * This class writes the songs of a backend out as CSV, in the columns
+ * SongReader reads, or as JSON Lines, one object per song. The songs are
+ * fetched in title order in chunks of a fixed size through range queries, so
+ * the memory used stays the same however big the playlist is, and the backend
+ * is only locked while one chunk is fetched. Songs added or removed during an
+ * export may or may not be in it.
+ */
+public class SongExporter {
+
+    /**
+     * The formats songs can be written in
+     */
+    public enum Format {
+        CSV, JSON_LINES
+    }
+
+    private static final int CHUNK = 1024; // songs fetched from the backend at a time
+
+    private Writer out;
+    private Format format;
+
+    /**
+     * this method creates an exporter that writes to the given writer
+     *
+     * @param out    the writer, should be buffered
+     * @param format the format to write in
+     */
+    public SongExporter(Writer out, Format format) {
+        this.out = out;
+        this.format = format;
+    }
+
+    /**
+     * get the format a file name asks for: .jsonl for JSON Lines, anything
+     * else for CSV, with or without .gz behind it
+     *
+     * @param fileName the name of the file
+     * @return the format
+     */
+    public static Format formatOf(String fileName) {
+        String name = fileName.toLowerCase();
+        if (name.endsWith(".gz")) {
+            name = name.substring(0, name.length() - 3);
+        }
+        return name.endsWith(".jsonl") ? Format.JSON_LINES : Format.CSV;
+    }
+
+    /**
+     * opens a buffered UTF-8 writer on a file, gzipped when the name ends with
+     * .gz
+     *
+     * @param fileName the name of the file, it is overwritten
+     * @return the writer, to be closed by the caller
+     * @throws IOException when the file cannot be created
+     */
+    public static Writer open(String fileName) throws IOException {
+        OutputStream file = new FileOutputStream(fileName);
+        if (fileName.toLowerCase().endsWith(".gz")) {
+            file = new GZIPOutputStream(file, 1 << 16);
+        }
+        return new BufferedWriter(new OutputStreamWriter(file, StandardCharsets.UTF_8), 1 << 16);
+    }
+
+    /**
+     * get the end of the range of titles that start with a prefix: every title
+     * that starts with the prefix is at least the prefix and below the end
+     *
+     * @param prefix the start of the titles
+     * @return the smallest string after all titles with the prefix, or null
+     *         when there is none, as for the empty prefix
+     */
+    public static String prefixEnd(String prefix) {
+        int end = prefix.length();
+        while (end > 0 && prefix.charAt(end - 1) == Character.MAX_VALUE) {
+            end--;
+        }
+        if (end == 0) {
+            return null;
+        }
+        return prefix.substring(0, end - 1) + (char) (prefix.charAt(end - 1) + 1);
+    }
+
+    /**
+     * writes the songs of a backend whose titles are in a range, in title order
+     *
+     * @param backend   the backend to export
+     * @param fromTitle the smallest title to write, null for no lower bound
+     * @param toTitle   the titles written are below this one, null for no upper bound
+     * @return the number of songs written
+     * @throws IOException when writing fails
+     */
+    public int export(MusicFinderBackendInterface backend, String fromTitle, String toTitle)
+            throws IOException {
+        writeHeader();
+        String from = fromTitle == null ? "" : fromTitle;
+        int count = 0;
+        while (true) {
+            List<SongInterface> chunk = backend.findSongsInRange(from, toTitle, CHUNK);
+            for (SongInterface song : chunk) {
+                write(song);
+            }
+            count += chunk.size();
+            if (chunk.size() < CHUNK) {
+                break;
+            }
+            // the smallest title after the last one written
+            from = chunk.get(chunk.size() - 1).getTitle() + '\0';
+        }
+        out.flush();
+        return count;
+    }
+
+    /**
+     * writes the header line, CSV only
+     *
+     * @throws IOException when writing fails
+     */
+    public void writeHeader() throws IOException {
+        if (format == Format.CSV) {
+            out.write("artist,song,duration_ms,explicit,year,popularity,");
+            out.write(String.join(",", SongFeatureIndex.FEATURES));
+            out.write(",genre\n");
+        }
+    }
+
+    /**
+     * writes one song as one line
+     *
+     * @param song the song to write
+     * @throws IOException when writing fails
+     */
+    public void write(SongInterface song) throws IOException {
+        if (format == Format.CSV) {
+            writeCsv(song);
+        } else {
+            writeJson(song);
+        }
+    }
+
+    /**
+     * Helper method that writes a song in the columns of writeHeader
+     */
+    private void writeCsv(SongInterface song) throws IOException {
+        out.write(csvField(song.getArtist()));
+        out.write(',');
+        out.write(csvField(song.getTitle()));
+        out.write(',');
+        out.write(csvField(song.getDuration()));
+        out.write(song.isExplicit() ? ",TRUE," : ",FALSE,");
+        out.write(Integer.toString(song.getYear()));
+        out.write(',');
+        out.write(Integer.toString(song.getPopularity()));
+        float[] features = song.getFeatures();
+        for (int i = 0; i < SongFeatureIndex.FEATURES.length; i++) {
+            out.write(',');
+            if (features != null) {
+                out.write(Float.toString(features[i]));
+            }
+        }
+        out.write(',');
+        out.write(csvField(String.join(", ", song.getGenres())));
+        out.write('\n');
+    }
+
+    /**
+     * Helper method that quotes a CSV field when it holds a comma, a quote or
+     * a line break
+     */
+    private static String csvField(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0
+                && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    /**
+     * Helper method that writes a song as one JSON object
+     */
+    private void writeJson(SongInterface song) throws IOException {
+        out.write("{\"title\":");
+        out.write(jsonString(song.getTitle()));
+        out.write(",\"artist\":");
+        out.write(jsonString(song.getArtist()));
+        out.write(",\"duration_ms\":");
+        out.write(jsonString(song.getDuration()));
+        out.write(",\"explicit\":");
+        out.write(Boolean.toString(song.isExplicit()));
+        out.write(",\"year\":");
+        out.write(Integer.toString(song.getYear()));
+        out.write(",\"popularity\":");
+        out.write(Integer.toString(song.getPopularity()));
+        out.write(",\"genres\":[");
+        List<String> genres = song.getGenres();
+        for (int i = 0; i < genres.size(); i++) {
+            out.write(i == 0 ? "" : ",");
+            out.write(jsonString(genres.get(i)));
+        }
+        out.write(']');
+        float[] features = song.getFeatures();
+        if (features != null) {
+            for (int i = 0; i < SongFeatureIndex.FEATURES.length; i++) {
+                out.write(",\"");
+                out.write(SongFeatureIndex.FEATURES[i]);
+                out.write("\":");
+                out.write(Float.toString(features[i]));
+            }
+        }
+        out.write("}\n");
+    }
+
+    /**
+     * turns a string into a quoted JSON string
+     *
+     * @param value the string
+     * @return the string in double quotes, with quotes, backslashes and control
+     *         characters escaped
+     */
+    public static String jsonString(String value) {
+        StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+}
@@ -0,0 +1,427 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class finds the songs that sound most like a given song, by the
+ * distance between their audio features. The features of all songs are packed
+ * row by row into one float array, scaled so every feature spans about 0 to 1,
+ * and a k-d tree is laid over the rows: the rows are ordered so the middle row
+ * of every range splits it on the feature that spreads the most, and the
+ * splitting feature is kept per row. A query walks down to the rows nearest to
+ * the song first and skips every range that cannot hold anything closer than
+ * the k best found so far.
+ *
+ * The k-d tree is a snapshot, the owner reports every later change with
+ * changed. A query skips the rows of titles changed since the build and
+ * compares the songs added since one by one, before walking the tree, so they
+ * tighten its bound. Once the changes grow too many the owner builds a new
+ * index. Songs without features are left out.
+ */
+public class SongFeatureIndex {
+
+    /**
+     * The csv columns kept as audio features, in the order of Song.getFeatures()
+     */
+    public static final String[] FEATURES = {"danceability", "energy", "speechiness",
+        "acousticness", "instrumentalness", "liveness", "valence", "tempo", "loudness"};
+
+    // scaled feature = (feature + OFFSET) * SCALE, tempo is in bpm and loudness in dB
+    private static final float[] OFFSET = {0, 0, 0, 0, 0, 0, 0, 0, 60};
+    private static final float[] SCALE = {1, 1, 1, 1, 1, 1, 1, 1 / 250f, 1 / 60f};
+    private static final int DIMENSIONS = FEATURES.length;
+    private static final int LEAF_SIZE = 16; // ranges this small are scanned
+
+    private SongInterface[] songs; // in k-d order
+    private float[] points; // scaled features, row i belongs to songs[i]
+    private byte[] splitFeature; // feature the middle row of a range splits on
+    // songs added or changed since the build, by title, and every title changed since
+    private Map<String, SongInterface> added = new ConcurrentHashMap<String, SongInterface>();
+    private Set<String> changed = ConcurrentHashMap.newKeySet();
+
+    /**
+     * this method builds the index
+     *
+     * @param songs the songs to index, songs without features are skipped
+     */
+    public SongFeatureIndex(Iterable<SongInterface> songs) {
+        List<SongInterface> indexed = new ArrayList<SongInterface>();
+        for (SongInterface song : songs) {
+            if (song.getFeatures() != null) {
+                indexed.add(song);
+            }
+        }
+        this.songs = indexed.toArray(new SongInterface[0]);
+        this.points = new float[this.songs.length * DIMENSIONS];
+        for (int i = 0; i < this.songs.length; i++) {
+            scale(this.songs[i].getFeatures(), points, i * DIMENSIONS);
+        }
+        this.splitFeature = new byte[this.songs.length];
+        build(0, this.songs.length);
+    }
+
+    /**
+     * Helper method that scales features into the given array
+     */
+    private static void scale(float[] features, float[] into, int offset) {
+        for (int d = 0; d < DIMENSIONS; d++) {
+            into[offset + d] = (features[d] + OFFSET[d]) * SCALE[d];
+        }
+    }
+
+    /**
+     * get the number of songs in the k-d tree
+     */
+    public int size() {
+        return songs.length;
+    }
+
+    /**
+     * this method records a song that was added, changed or removed after the
+     * build. It may run while queries do.
+     *
+     * @param title title of the song
+     * @param song  the song as it is now, null when it was removed
+     */
+    public void changed(String title, SongInterface song) {
+        if (song == null) {
+            changed.add(title);
+            added.remove(title);
+        } else {
+            added.put(title, song);
+            changed.add(title);
+        }
+    }
+
+    /**
+     * get the number of titles changed since the build
+     */
+    public int changes() {
+        return changed.size();
+    }
+
+    /**
+     * get the distance between the scaled features of two songs
+     *
+     * @param a one song
+     * @param b the other song
+     * @return the euclidean distance
+     * @throws IllegalArgumentException when a song has no features
+     */
+    public static double distance(SongInterface a, SongInterface b) throws IllegalArgumentException {
+        float[] scaledA = scaledFeatures(a);
+        float[] scaledB = scaledFeatures(b);
+        double sum = 0;
+        for (int d = 0; d < DIMENSIONS; d++) {
+            double diff = scaledA[d] - scaledB[d];
+            sum += diff * diff;
+        }
+        return Math.sqrt(sum);
+    }
+
+    /**
+     * Helper method that scales the features of a song
+     *
+     * @throws IllegalArgumentException when the song has no features
+     */
+    private static float[] scaledFeatures(SongInterface song) throws IllegalArgumentException {
+        if (song.getFeatures() == null) {
+            throw new IllegalArgumentException(song.getTitle() + " has no audio features");
+        }
+        float[] scaled = new float[DIMENSIONS];
+        scale(song.getFeatures(), scaled, 0);
+        return scaled;
+    }
+
+    /**
+     * The helper method that orders the rows in [from, to) into a k-d tree: the
+     * middle row splits the range on the feature that spreads the most, smaller
+     * values go before it and bigger ones after it
+     */
+    private void build(int from, int to) {
+        while (to - from > LEAF_SIZE) {
+            int feature = widestFeature(from, to);
+            int middle = (from + to) >>> 1;
+            select(from, to, middle, feature);
+            splitFeature[middle] = (byte) feature;
+            // recurse into the smaller half, loop on the bigger one
+            if (middle - from < to - middle - 1) {
+                build(from, middle);
+                from = middle + 1;
+            } else {
+                build(middle + 1, to);
+                to = middle;
+            }
+        }
+    }
+
+    /**
+     * Helper method that finds the feature whose values spread the most in [from, to)
+     */
+    private int widestFeature(int from, int to) {
+        float[] min = new float[DIMENSIONS];
+        float[] max = new float[DIMENSIONS];
+        Arrays.fill(min, Float.MAX_VALUE);
+        Arrays.fill(max, -Float.MAX_VALUE);
+        for (int i = from; i < to; i++) {
+            for (int d = 0; d < DIMENSIONS; d++) {
+                float value = points[i * DIMENSIONS + d];
+                min[d] = Math.min(min[d], value);
+                max[d] = Math.max(max[d], value);
+            }
+        }
+        int widest = 0;
+        for (int d = 1; d < DIMENSIONS; d++) {
+            if (max[d] - min[d] > max[widest] - min[widest]) {
+                widest = d;
+            }
+        }
+        return widest;
+    }
+
+    /**
+     * Helper method that moves the row with the nth smallest value of a feature
+     * to index nth, smaller rows before it and bigger ones after it (quickselect)
+     */
+    private void select(int from, int to, int nth, int feature) {
+        int low = from;
+        int high = to - 1;
+        while (low < high) {
+            float pivot = points[((low + high) >>> 1) * DIMENSIONS + feature];
+            int i = low;
+            int j = high;
+            while (i <= j) {
+                while (points[i * DIMENSIONS + feature] < pivot) {
+                    i++;
+                }
+                while (points[j * DIMENSIONS + feature] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(i++, j--);
+                }
+            }
+            if (nth <= j) {
+                high = j;
+            } else if (nth >= i) {
+                low = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Helper method that swaps two rows
+     */
+    private void swap(int a, int b) {
+        SongInterface song = songs[a];
+        songs[a] = songs[b];
+        songs[b] = song;
+        for (int d = 0; d < DIMENSIONS; d++) {
+            float value = points[a * DIMENSIONS + d];
+            points[a * DIMENSIONS + d] = points[b * DIMENSIONS + d];
+            points[b * DIMENSIONS + d] = value;
+        }
+    }
+
+    /**
+     * The k best rows found so far, kept as a max-heap on the squared distance
+     * so the worst of them is at the top
+     */
+    private static class Nearest {
+        private float[] distances;
+        private int[] rows;
+        private int count;
+
+        private Nearest(int k) {
+            this.distances = new float[k];
+            this.rows = new int[k];
+        }
+
+        private boolean isFull() {
+            return count == rows.length;
+        }
+
+        private float worst() {
+            return isFull() ? distances[0] : Float.MAX_VALUE;
+        }
+
+        private void offer(int row, float distance) {
+            if (count < rows.length) {
+                // sift up from the end
+                int i = count++;
+                while (i > 0 && distances[(i - 1) / 2] < distance) {
+                    distances[i] = distances[(i - 1) / 2];
+                    rows[i] = rows[(i - 1) / 2];
+                    i = (i - 1) / 2;
+                }
+                distances[i] = distance;
+                rows[i] = row;
+            } else if (distance < distances[0]) {
+                // replace the worst and sift down
+                int i = 0;
+                while (true) {
+                    int child = 2 * i + 1;
+                    if (child >= count) {
+                        break;
+                    }
+                    if (child + 1 < count && distances[child + 1] > distances[child]) {
+                        child++;
+                    }
+                    if (distances[child] <= distance) {
+                        break;
+                    }
+                    distances[i] = distances[child];
+                    rows[i] = rows[child];
+                    i = child;
+                }
+                distances[i] = distance;
+                rows[i] = row;
+            }
+        }
+    }
+
+    /**
+     * Finds the k songs whose features are closest to the given song's, using
+     * the k-d tree
+     *
+     * @param song the song to compare with, it is left out of the answer
+     * @param k    the number of songs to return
+     * @return up to k songs, closest first
+     * @throws IllegalArgumentException when the song has no features
+     */
+    public List<SongInterface> nearest(SongInterface song, int k) throws IllegalArgumentException {
+        float[] query = scaledFeatures(song);
+        Nearest nearest = new Nearest(Math.max(k, 0));
+        SongInterface[] recent = new SongInterface[0];
+        if (k > 0) {
+            recent = offerAdded(query, song, nearest);
+            search(0, songs.length, query, song, nearest);
+        }
+        return sorted(nearest, recent);
+    }
+
+    /**
+     * Finds the k songs whose features are closest to the given song's by
+     * comparing with every song, to check and time the k-d tree against
+     *
+     * @param song the song to compare with, it is left out of the answer
+     * @param k    the number of songs to return
+     * @return up to k songs, closest first
+     * @throws IllegalArgumentException when the song has no features
+     */
+    public List<SongInterface> nearestByScan(SongInterface song, int k) throws IllegalArgumentException {
+        float[] query = scaledFeatures(song);
+        Nearest nearest = new Nearest(Math.max(k, 0));
+        SongInterface[] recent = new SongInterface[0];
+        if (k > 0) {
+            recent = offerAdded(query, song, nearest);
+            scan(0, songs.length, query, song, nearest);
+        }
+        return sorted(nearest, recent);
+    }
+
+    /**
+     * Helper method that offers the songs added since the build to the k best,
+     * as rows -1, -2 and so on
+     *
+     * @return the added songs, row -1 - i belongs to the song at i
+     */
+    private SongInterface[] offerAdded(float[] query, SongInterface exclude, Nearest nearest) {
+        if (added.isEmpty()) {
+            return new SongInterface[0];
+        }
+        SongInterface[] recent = added.values().toArray(new SongInterface[0]);
+        float[] point = new float[DIMENSIONS];
+        for (int i = 0; i < recent.length; i++) {
+            if (recent[i].getFeatures() == null || recent[i].compareTo(exclude) == 0) {
+                continue;
+            }
+            scale(recent[i].getFeatures(), point, 0);
+            float sum = 0;
+            for (int d = 0; d < DIMENSIONS; d++) {
+                float diff = query[d] - point[d];
+                sum += diff * diff;
+            }
+            if (sum < nearest.worst()) {
+                nearest.offer(-1 - i, sum);
+            }
+        }
+        return recent;
+    }
+
+    /**
+     * The helper method that searches the k-d tree over the rows in [from, to)
+     */
+    private void search(int from, int to, float[] query, SongInterface exclude, Nearest nearest) {
+        if (to - from <= LEAF_SIZE) {
+            scan(from, to, query, exclude, nearest);
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        offer(middle, query, exclude, nearest);
+        int feature = splitFeature[middle];
+        float diff = query[feature] - points[middle * DIMENSIONS + feature];
+        // the side of the query first, the other side only if it can hold a closer row
+        if (diff < 0) {
+            search(from, middle, query, exclude, nearest);
+            if (diff * diff < nearest.worst()) {
+                search(middle + 1, to, query, exclude, nearest);
+            }
+        } else {
+            search(middle + 1, to, query, exclude, nearest);
+            if (diff * diff < nearest.worst()) {
+                search(from, middle, query, exclude, nearest);
+            }
+        }
+    }
+
+    /**
+     * The helper method that compares the query with every row in [from, to).
+     * The loop over the packed rows has no branches but the last compare, so
+     * the JIT can keep it tight.
+     */
+    private void scan(int from, int to, float[] query, SongInterface exclude, Nearest nearest) {
+        for (int row = from; row < to; row++) {
+            offer(row, query, exclude, nearest);
+        }
+    }
+
+    /**
+     * Helper method that offers one row to the k best
+     */
+    private void offer(int row, float[] query, SongInterface exclude, Nearest nearest) {
+        int offset = row * DIMENSIONS;
+        float sum = 0;
+        for (int d = 0; d < DIMENSIONS; d++) {
+            float diff = query[d] - points[offset + d];
+            sum += diff * diff;
+        }
+        if (sum < nearest.worst() && songs[row].compareTo(exclude) != 0
+                && (changed.isEmpty() || !changed.contains(songs[row].getTitle()))) {
+            nearest.offer(row, sum);
+        }
+    }
+
+    /**
+     * Helper method that lists the k best, closest first
+     */
+    private List<SongInterface> sorted(Nearest nearest, SongInterface[] recent) {
+        Integer[] order = new Integer[nearest.count];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Float.compare(nearest.distances[a], nearest.distances[b]));
+        List<SongInterface> found = new ArrayList<SongInterface>(order.length);
+        for (int i : order) {
+            int row = nearest.rows[i];
+            found.add(row >= 0 ? songs[row] : recent[-1 - row]);
+        }
+        return found;
+    }
+
+}
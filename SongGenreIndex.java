@@ -0,0 +1,243 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+
+/**
+ * This class answers boolean filters over the genres and the explicit flag of
+ * the songs without looking at every song. Every song gets a dense id, the ids
+ * of removed songs are handed out again, and there is one RoaringBitmap of ids
+ * per genre, one of the explicit songs and one of all songs. "Clean pop or R&B
+ * songs" is then (pop OR r&b) ANDNOT explicit, worked out on the bitmaps.
+ *
+ * The index is kept up to date on every change by its owner; it is not
+ * thread-safe, so the owner has to lock around it. A query may copy the
+ * bitmap and the songs under the lock and pick its songs after releasing it,
+ * checking them with accepts, since an id may be handed out again meanwhile.
+ */
+public class SongGenreIndex {
+
+    private Map<String, Integer> ids = new HashMap<String, Integer>(); // id of every title
+    private SongInterface[] songs = new SongInterface[16]; // song of every id, null when free
+    private int[] freeIds = new int[16]; // ids of removed songs, handed out first
+    private int freeCount;
+    private int nextId; // ids below this have been handed out
+    private Map<String, RoaringBitmap> byGenre = new HashMap<String, RoaringBitmap>();
+    private RoaringBitmap explicit = new RoaringBitmap();
+    private RoaringBitmap all = new RoaringBitmap();
+
+    /**
+     * adds a song, or updates the genres and flag of the song with the same title
+     *
+     * @param song the song to index
+     * @return the song with the same title that was indexed before, or null
+     */
+    public SongInterface put(SongInterface song) {
+        Integer id = ids.get(song.getTitle());
+        SongInterface old = null;
+        if (id != null) {
+            old = songs[id];
+            unset(id, old);
+        } else {
+            id = freeCount > 0 ? freeIds[--freeCount] : nextId++;
+            if (id == songs.length) {
+                songs = Arrays.copyOf(songs, id * 2);
+            }
+            ids.put(song.getTitle(), id);
+        }
+        songs[id] = song;
+        for (String genre : song.getGenres()) {
+            byGenre.computeIfAbsent(genre, name -> new RoaringBitmap()).add(id);
+        }
+        if (song.isExplicit()) {
+            explicit.add(id);
+        }
+        all.add(id);
+        return old;
+    }
+
+    /**
+     * removes the song with the given title, if it is indexed
+     *
+     * @param title the title of the song
+     * @return the song that was removed, or null
+     */
+    public SongInterface remove(String title) {
+        Integer id = ids.remove(title);
+        if (id == null) {
+            return null;
+        }
+        SongInterface old = songs[id];
+        unset(id, old);
+        songs[id] = null;
+        if (freeCount == freeIds.length) {
+            freeIds = Arrays.copyOf(freeIds, freeCount * 2);
+        }
+        freeIds[freeCount++] = id;
+        return old;
+    }
+
+    /**
+     * Helper method that clears the bits of a song
+     */
+    private void unset(int id, SongInterface song) {
+        for (String genre : song.getGenres()) {
+            RoaringBitmap ofGenre = byGenre.get(genre);
+            ofGenre.remove(id);
+            if (ofGenre.isEmpty()) {
+                byGenre.remove(genre);
+            }
+        }
+        explicit.remove(id);
+        all.remove(id);
+    }
+
+    /**
+     * get the number of indexed songs
+     */
+    public int size() {
+        return ids.size();
+    }
+
+    /**
+     * get the genres of the indexed songs, sorted
+     */
+    public Set<String> genres() {
+        return new TreeSet<String>(byGenre.keySet());
+    }
+
+    /**
+     * get the ids of the songs of a genre. The bitmap belongs to the index and
+     * must not be changed.
+     *
+     * @param genre the genre, in any case
+     * @return the ids, empty when no song has the genre
+     */
+    public RoaringBitmap genre(String genre) {
+        RoaringBitmap ofGenre = byGenre.get(genre.trim().toLowerCase());
+        return ofGenre == null ? new RoaringBitmap() : ofGenre;
+    }
+
+    /**
+     * get the ids of the explicit songs. The bitmap belongs to the index and
+     * must not be changed.
+     */
+    public RoaringBitmap explicitSongs() {
+        return explicit;
+    }
+
+    /**
+     * get the ids of all songs. The bitmap belongs to the index and must not be
+     * changed.
+     */
+    public RoaringBitmap allSongs() {
+        return all;
+    }
+
+    /**
+     * Finds the songs that have any of the given genres and the given flag
+     *
+     * @param genres   the genres, any of them will do, null or empty for all songs
+     * @param explicit true for explicit songs only, false for clean songs only,
+     *                 null for both
+     * @return the ids of the matching songs
+     */
+    public RoaringBitmap filter(Collection<String> genres, Boolean explicit) {
+        RoaringBitmap matches;
+        if (genres == null || genres.isEmpty()) {
+            matches = all;
+        } else {
+            matches = new RoaringBitmap();
+            for (String genre : genres) {
+                matches = matches.or(genre(genre));
+            }
+        }
+        if (explicit == null) {
+            return matches == all ? all.copy() : matches;
+        }
+        return explicit ? matches.and(this.explicit) : matches.andNot(this.explicit);
+    }
+
+    /**
+     * get the song of every id, null for free ids. The array belongs to the
+     * index and must not be changed, the index may move to a bigger one.
+     */
+    public SongInterface[] songsById() {
+        return songs;
+    }
+
+    /**
+     * makes the test of filter for one song, without the index
+     *
+     * @param genres   the genres, any of them will do, null or empty for all songs
+     * @param explicit true for explicit songs only, false for clean songs only,
+     *                 null for both
+     * @return a test that passes the songs filter would find
+     */
+    public static Predicate<SongInterface> accepts(Collection<String> genres, Boolean explicit) {
+        Set<String> wanted = new HashSet<String>();
+        if (genres != null) {
+            for (String genre : genres) {
+                wanted.add(genre.trim().toLowerCase());
+            }
+        }
+        return song -> {
+            if (explicit != null && song.isExplicit() != explicit) {
+                return false;
+            }
+            if (wanted.isEmpty()) {
+                return true;
+            }
+            for (String genre : song.getGenres()) {
+                if (wanted.contains(genre)) {
+                    return true;
+                }
+            }
+            return false;
+        };
+    }
+
+    /**
+     * checks whether the song with the given title is among the ids
+     *
+     * @param title the title of the song
+     * @param ids   the ids to look in
+     * @return true if the song is indexed and its id is in ids
+     */
+    public boolean matches(String title, RoaringBitmap ids) {
+        Integer id = this.ids.get(title);
+        return id != null && ids.contains(id);
+    }
+
+    /**
+     * get the songs of the given ids
+     *
+     * @param ids the ids of indexed songs
+     * @return the songs in id order
+     */
+    public List<SongInterface> songsOf(RoaringBitmap ids) {
+        List<SongInterface> found = new ArrayList<SongInterface>(ids.cardinality());
+        ids.forEach(id -> found.add(songs[id]));
+        return found;
+    }
+
+    /**
+     * removes every song
+     */
+    public void clear() {
+        ids.clear();
+        songs = new SongInterface[16];
+        freeCount = 0;
+        nextId = 0;
+        byGenre.clear();
+        explicit = new RoaringBitmap();
+        all = new RoaringBitmap();
+    }
+
+}
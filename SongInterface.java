@@ -1,3 +1,5 @@
+import java.util.List;
+
 public interface SongInterface extends Comparable<SongInterface> {
     public String getTitle();
 
@@ -5,6 +7,16 @@ public interface SongInterface extends Comparable<SongInterface> {
 
     public String getDuration();
 
+    public float[] getFeatures();
+
+    public List<String> getGenres();
+
+    public boolean isExplicit();
+
+    public int getYear();
+
+    public int getPopularity();
+
     public int compareTo(SongInterface newSong);
 
     public String toString();
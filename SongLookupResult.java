@@ -0,0 +1,89 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class holds the outcome of a batch lookup: the songs that were found,
+ * keyed by the title that was searched for, and the titles that are not in the
+ * playlist. While a load runs in the background, titles that may still come
+ * with the part of the file not loaded yet are kept apart from the missing
+ * ones. All are kept in ascending title order.
+ */
+public class SongLookupResult {
+
+    private Map<String, SongInterface> found;
+    private List<String> missing;
+    private List<String> notLoaded;
+
+    /**
+     * this method set the found songs and the missing titles
+     *
+     * @param found   the songs that were found, keyed by title
+     * @param missing the titles that were not found
+     */
+    public SongLookupResult(Map<String, SongInterface> found, List<String> missing) {
+        this(found, missing, new ArrayList<String>());
+    }
+
+    /**
+     * this method set the found songs, the missing titles and the titles that
+     * are not loaded yet
+     *
+     * @param found     the songs that were found, keyed by title
+     * @param missing   the titles that were not found
+     * @param notLoaded the titles that were not found but may still be loaded
+     */
+    public SongLookupResult(Map<String, SongInterface> found, List<String> missing,
+            List<String> notLoaded) {
+        this.found = found;
+        this.missing = missing;
+        this.notLoaded = notLoaded;
+    }
+
+    /**
+     * get the songs that were found, keyed by the searched title
+     *
+     */
+    public Map<String, SongInterface> getFound() {
+        return found;
+    }
+
+    /**
+     * get the titles that are not in the playlist
+     *
+     */
+    public List<String> getMissing() {
+        return missing;
+    }
+
+    /**
+     * get the titles that were not found but may still come with a load that
+     * runs in the background
+     *
+     */
+    public List<String> getNotLoaded() {
+        return notLoaded;
+    }
+
+    /**
+     * get the song for one of the searched titles
+     *
+     * @param title the searched title
+     * @return the song, or null if the title was missing or not part of the batch
+     */
+    public SongInterface get(String title) {
+        return found.get(title);
+    }
+
+    /**
+     * this method will make the result as a string
+     *
+     * @return it will return the number of found and missing titles
+     */
+    @Override
+    public String toString() {
+        String result = found.size() + " found, " + missing.size() + " missing";
+        return notLoaded.isEmpty() ? result : result + ", " + notLoaded.size() + " not loaded yet";
+    }
+
+}
@@ -0,0 +1,248 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * This class keeps the most popular songs overall, of every year and of every
+ * genre, so a ranking is served without sorting the playlist. Every ranking
+ * holds its best songs in a small sorted list: the size that is served plus as
+ * many songs in reserve, so removing a top song moves the next one up. Only
+ * when a ranking that dropped songs has less than its size left is it rebuilt,
+ * with one pass over the playlist on the next read.
+ *
+ * All methods are synchronized, since rankings are rebuilt while serving reads.
+ */
+public class SongRankings {
+
+    /**
+     * Orders songs by popularity, the most popular first, and songs just as
+     * popular by title
+     */
+    public static final Comparator<SongInterface> MOST_POPULAR =
+            Comparator.comparingInt(SongInterface::getPopularity).reversed()
+                    .thenComparing(SongInterface::getTitle);
+
+    private static final String OVERALL = "";
+
+    /**
+     * The best songs of one ranking
+     */
+    private static class Ranking {
+        private List<SongInterface> best = new ArrayList<SongInterface>(); // sorted by MOST_POPULAR
+        private boolean complete = true; // false once a song of this ranking was dropped
+        private boolean stale; // too few songs left to serve, rebuilt on the next read
+    }
+
+    private int size; // songs served by a ranking
+    private int capacity; // songs kept by a ranking, the rest is in reserve
+    private Supplier<Iterable<SongInterface>> playlist; // every song, for rebuilds
+    private Map<String, Ranking> rankings = new HashMap<String, Ranking>();
+    private int rebuilds;
+
+    /**
+     * this method creates empty rankings
+     *
+     * @param size     the most songs a ranking serves
+     * @param playlist gives every song of the playlist when a ranking has to be rebuilt
+     * @throws IllegalArgumentException when size is not positive
+     */
+    public SongRankings(int size, Supplier<Iterable<SongInterface>> playlist)
+            throws IllegalArgumentException {
+        if (size < 1) {
+            throw new IllegalArgumentException("Rankings need a positive size, not " + size);
+        }
+        this.size = size;
+        this.capacity = 2 * size;
+        this.playlist = playlist;
+        this.rankings.put(OVERALL, new Ranking());
+    }
+
+    /**
+     * Helper method that names the rankings a song is in
+     */
+    private static List<String> rankingsOf(SongInterface song) {
+        List<String> names = new ArrayList<String>(2 + song.getGenres().size());
+        names.add(OVERALL);
+        if (song.getYear() > 0) {
+            names.add(yearRanking(song.getYear()));
+        }
+        for (String genre : song.getGenres()) {
+            names.add(genreRanking(genre));
+        }
+        return names;
+    }
+
+    private static String yearRanking(int year) {
+        return "year " + year;
+    }
+
+    private static String genreRanking(String genre) {
+        return "genre " + genre.trim().toLowerCase();
+    }
+
+    /**
+     * updates the rankings after a song was added, changed or removed
+     *
+     * @param old  the song before the change, null when it was added
+     * @param song the song after the change, null when it was removed
+     */
+    public synchronized void changed(SongInterface old, SongInterface song) {
+        if (old != null) {
+            for (String name : rankingsOf(old)) {
+                Ranking ranking = rankings.get(name);
+                if (ranking != null) {
+                    remove(ranking, old);
+                }
+            }
+        }
+        if (song != null) {
+            for (String name : rankingsOf(song)) {
+                offer(rankings.computeIfAbsent(name, key -> new Ranking()), song);
+            }
+        }
+    }
+
+    /**
+     * Helper method that puts a song into a ranking if it is among the best
+     */
+    private void offer(Ranking ranking, SongInterface song) {
+        List<SongInterface> best = ranking.best;
+        // once songs were dropped, a song behind the last one held may be behind a dropped one too
+        if (!best.isEmpty() && (best.size() == capacity || !ranking.complete)
+                && MOST_POPULAR.compare(song, best.get(best.size() - 1)) > 0) {
+            ranking.complete = false;
+            return;
+        }
+        int index = -binarySearch(best, song) - 1;
+        if (index < 0) {
+            return; // already held
+        }
+        best.add(index, song);
+        if (best.size() > capacity) {
+            best.remove(capacity);
+            ranking.complete = false;
+        }
+    }
+
+    /**
+     * Helper method that takes a song out of a ranking
+     */
+    private void remove(Ranking ranking, SongInterface song) {
+        int index = binarySearch(ranking.best, song);
+        if (index >= 0) {
+            ranking.best.remove(index);
+            if (!ranking.complete && ranking.best.size() < size) {
+                ranking.stale = true;
+            }
+        }
+    }
+
+    /**
+     * Helper method that finds a song in a ranking's sorted list
+     *
+     * @return its index, or -(insertion point) - 1 when it is not held
+     */
+    private static int binarySearch(List<SongInterface> best, SongInterface song) {
+        int low = 0;
+        int high = best.size() - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int compare = MOST_POPULAR.compare(best.get(middle), song);
+            if (compare < 0) {
+                low = middle + 1;
+            } else if (compare > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -low - 1;
+    }
+
+    /**
+     * get the most popular songs of the playlist
+     *
+     * @param count the number of songs, at most the size of the rankings
+     * @return up to count songs, the most popular first
+     * @throws IllegalArgumentException when count is bigger than the size of the rankings
+     */
+    public List<SongInterface> top(int count) throws IllegalArgumentException {
+        return top(OVERALL, count);
+    }
+
+    /**
+     * get the most popular songs of a year
+     *
+     * @param year  the release year
+     * @param count the number of songs, at most the size of the rankings
+     * @return up to count songs, the most popular first
+     * @throws IllegalArgumentException when count is bigger than the size of the rankings
+     */
+    public List<SongInterface> topOfYear(int year, int count) throws IllegalArgumentException {
+        return top(yearRanking(year), count);
+    }
+
+    /**
+     * get the most popular songs of a genre
+     *
+     * @param genre the genre, in any case
+     * @param count the number of songs, at most the size of the rankings
+     * @return up to count songs, the most popular first
+     * @throws IllegalArgumentException when count is bigger than the size of the rankings
+     */
+    public List<SongInterface> topOfGenre(String genre, int count) throws IllegalArgumentException {
+        return top(genreRanking(genre), count);
+    }
+
+    /**
+     * Helper method that serves a ranking, rebuilding it first when it is stale
+     */
+    private synchronized List<SongInterface> top(String name, int count) throws IllegalArgumentException {
+        if (count > size) {
+            throw new IllegalArgumentException("Rankings only keep the top " + size + " songs");
+        }
+        Ranking ranking = rankings.get(name);
+        if (ranking == null) {
+            return new ArrayList<SongInterface>();
+        }
+        if (ranking.stale) {
+            rebuild(name, ranking);
+        }
+        return new ArrayList<SongInterface>(ranking.best.subList(0, Math.min(Math.max(count, 0),
+                ranking.best.size())));
+    }
+
+    /**
+     * Helper method that fills a ranking again from the whole playlist
+     */
+    private void rebuild(String name, Ranking ranking) {
+        ranking.best.clear();
+        ranking.complete = true;
+        ranking.stale = false;
+        for (SongInterface song : playlist.get()) {
+            if (rankingsOf(song).contains(name)) {
+                offer(ranking, song);
+            }
+        }
+        rebuilds++;
+    }
+
+    /**
+     * get the number of rankings rebuilt from the playlist so far
+     */
+    public synchronized int getRebuilds() {
+        return rebuilds;
+    }
+
+    /**
+     * removes every song
+     */
+    public synchronized void clear() {
+        rankings.clear();
+        rankings.put(OVERALL, new Ranking());
+    }
+
+}
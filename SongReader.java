@@ -1,9 +1,15 @@
 import java.util.List;
 import java.util.ArrayList;
-import java.util.Scanner;
-import java.io.File;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+import java.io.BufferedReader;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
 
 /**
  * This class will read the data file
@@ -20,32 +26,211 @@ public class SongReader implements SongReaderInterface {
      */
     public List<SongInterface> readMusicFromFile(String fileName) throws FileNotFoundException {
         List<SongInterface> songs = new ArrayList<>();
+        readMusicFromFile(fileName, songs::add);
+        return songs;
+    }
 
+    /**
+     * this is the method that hands every song of the file to the consumer while
+     * the file is read, so the songs never have to be held in memory all at once
+     * 
+     * @param fileName file name will be "./songsReader.csv"
+     * @param consumer receives the songs in file order
+     * @exception FileNotFoundException if the file does not exist
+     */
+    public void readMusicFromFile(String fileName, Consumer<SongInterface> consumer)
+            throws FileNotFoundException {
+        readMusicFromFile(fileName, consumer, bytes -> {
+        });
+    }
+
+    /**
+     * this is the method that hands every song of the file to the consumer and
+     * tells after every chunk of the file how many bytes were read, so a load can
+     * report its progress
+     * 
+     * @param fileName  file name will be "./songsReader.csv"
+     * @param consumer  receives the songs in file order
+     * @param bytesRead receives the number of bytes read so far
+     * @exception FileNotFoundException if the file does not exist
+     */
+    @Override
+    public void readMusicFromFile(String fileName, Consumer<SongInterface> consumer, LongConsumer bytesRead)
+            throws FileNotFoundException {
+        // open the file
+        BufferedReader in = new BufferedReader(
+                new InputStreamReader(new CountingInputStream(new FileInputStream(fileName), bytesRead)), 1 << 16);
+
+        try (in) {
+            // the header names the columns, so they are found by name
+            String line = in.readLine();
+            List<String> header = line == null ? new ArrayList<String>() : splitLine(line);
+            int artist = columnOf(header, "artist", 0);
+            int title = columnOf(header, "song", 1);
+            int duration = columnOf(header, "duration_ms", 2);
+            int[] features = new int[SongFeatureIndex.FEATURES.length];
+            for (int i = 0; i < features.length; i++) {
+                features[i] = header.indexOf(SongFeatureIndex.FEATURES[i]);
+            }
+            int genre = header.indexOf("genre");
+            int explicit = header.indexOf("explicit");
+            int year = header.indexOf("year");
+            int popularity = header.indexOf("popularity");
+
+            // it will run while there is next line
+            while ((line = in.readLine()) != null) {
+                // split that line into parts around the delimiter: , outside of quotes
+                List<String> parts = splitLine(line);
+
+                // hand the music to the consumer
+                consumer.accept(new Song(parts.get(title), parts.get(artist), parts.get(duration),
+                        readFeatures(parts, features), readGenres(parts, genre),
+                        explicit >= 0 && explicit < parts.size() && parts.get(explicit).equalsIgnoreCase("true"),
+                        readNumber(parts, year), readNumber(parts, popularity)));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read " + fileName, e);
+        }
+    }
+
+    /**
+     * Helper method that finds a column by its name in the header
+     *
+     * @param header   the names of the columns
+     * @param name     the column to find
+     * @param fallback the column to use when the header does not name it
+     * @return the index of the column
+     */
+    private static int columnOf(List<String> header, String name, int fallback) {
+        int column = header.indexOf(name);
+        return column < 0 ? fallback : column;
+    }
+
+    /**
+     * Helper method that reads the audio features of a row
+     *
+     * @param parts    the fields of the row
+     * @param features the column of every feature, -1 where the file has none
+     * @return the features, or null when one of them is missing or not a number
+     */
+    private static float[] readFeatures(List<String> parts, int[] features) {
+        float[] values = new float[features.length];
+        for (int i = 0; i < features.length; i++) {
+            if (features[i] < 0 || features[i] >= parts.size()) {
+                return null;
+            }
+            try {
+                values[i] = Float.parseFloat(parts.get(features[i]));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Helper method that reads a whole number of a row
+     *
+     * @param parts  the fields of the row
+     * @param column the column of the number, -1 when the file has none
+     * @return the number, or 0 when it is missing or not a number
+     */
+    private static int readNumber(List<String> parts, int column) {
+        if (column < 0 || column >= parts.size()) {
+            return 0;
+        }
         try {
-            FileInputStream input = new FileInputStream(new File(fileName));
-        } catch (FileNotFoundException e) {
-            e.getMessage();
+            return Integer.parseInt(parts.get(column).trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Helper method that reads the genres of a row, the genre column lists them
+     * separated by commas
+     *
+     * @param parts the fields of the row
+     * @param genre the genre column, -1 when the file has none
+     * @return the genres in lower case without duplicates, empty for the "set()"
+     *         the file writes for songs without genres
+     */
+    private static List<String> readGenres(List<String> parts, int genre) {
+        List<String> genres = new ArrayList<String>();
+        if (genre < 0 || genre >= parts.size()) {
+            return genres;
+        }
+        for (String name : parts.get(genre).split(",")) {
+            name = name.trim().toLowerCase();
+            if (!name.isEmpty() && !name.equals("set()") && !genres.contains(name)) {
+                genres.add(name);
+            }
         }
+        return genres;
+    }
+
+    /**
+     * Helper method that splits a csv line at the commas that are not inside
+     * double quotes, and drops the quotes. Two double quotes inside quotes stand
+     * for one.
+     *
+     * @param line the line to split
+     * @return the fields of the line
+     */
+    private static List<String> splitLine(String line) {
+        List<String> parts = new ArrayList<String>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                if (quoted && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = !quoted;
+                }
+            } else if (c == ',' && !quoted) {
+                parts.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        parts.add(field.toString());
+        return parts;
+    }
 
-        // scan the file
-        Scanner in = new Scanner(new File(fileName));
+    /**
+     * Tells a listener how many bytes went through the stream after every read
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        private long count;
+        private LongConsumer listener;
+
+        private CountingInputStream(InputStream in, LongConsumer listener) {
+            super(in);
+            this.listener = listener;
+        }
 
-        // it will jump the title and directly move to the body
-        in.nextLine();
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                listener.accept(++count);
+            }
+            return b;
+        }
 
-        // it will run while there is next line
-        while (in.hasNextLine()) {
-            // for each line in the file being read:
-            String line = in.nextLine();
-            // split that line into parts around around the delimiter: ,
-            String[] parts = line.split(",");
-            
-            // add musics to the list
-            songs.add(new Song(parts[1], parts[0], parts[2]));
-            // then close the scanner before returning the list of posts
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+                listener.accept(count);
+            }
+            return n;
         }
-        in.close();
-        return songs;
     }
 
 }
@@ -1,6 +1,15 @@
 import java.io.FileNotFoundException;
 import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
 
 public interface SongReaderInterface {
     public List<SongInterface> readMusicFromFile(String fileName) throws FileNotFoundException;
+
+    public void readMusicFromFile(String fileName, Consumer<SongInterface> consumer) throws FileNotFoundException;
+
+    public default void readMusicFromFile(String fileName, Consumer<SongInterface> consumer, LongConsumer bytesRead)
+            throws FileNotFoundException {
+        readMusicFromFile(fileName, consumer);
+    }
 }
@@ -0,0 +1,403 @@
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * This class keeps statistics of the playlist up to date as songs come and go,
+ * in memory that does not grow with the playlist: the number of distinct
+ * artists in a HyperLogLog, quantiles of duration, tempo and popularity in
+ * t-digests, and the most frequent artists and genres in count-min sketches.
+ * Every song is counted once when it is loaded or added, so the statistics are
+ * answered right away however big the playlist is.
+ *
+ * A count-min sketch only knows counts, not which strings are frequent, so
+ * the strings whose estimate was among the highest are kept as candidates,
+ * and a string beating the lowest candidate replaces it.
+ *
+ * The sketches of artists and quantiles cannot take a removed song back out.
+ * Removed songs stay counted there until more than one in eight of the songs
+ * they hold were removed, then they are rebuilt with one pass over the
+ * playlist on the next read. The frequent artists and genres take removed
+ * songs back right away.
+ *
+ * All methods are synchronized, since the sketches are rebuilt while serving
+ * reads.
+ */
+public class SongStatistics {
+
+    private static final int CANDIDATES = 64; // strings kept as the most frequent
+    private static final int TEMPO = Arrays.asList(SongFeatureIndex.FEATURES).indexOf("tempo");
+
+    /**
+     * The strings counted most often, estimated by a count-min sketch
+     */
+    private static class FrequentItems {
+        private CountMinSketch counts = new CountMinSketch(4, 8192);
+        private Set<String> candidates = new HashSet<String>();
+        private long floor; // at most the lowest estimate of a candidate
+
+        /**
+         * counts a string, negative counts take it back
+         */
+        private void add(String value, long count) {
+            long estimate = counts.add(value, count);
+            if (count < 0 || estimate <= floor || candidates.contains(value)) {
+                return;
+            }
+            if (candidates.size() < CANDIDATES) {
+                candidates.add(value);
+                return;
+            }
+            // the estimates of the candidates may have changed since the floor was set
+            String lowest = null;
+            long lowestEstimate = Long.MAX_VALUE;
+            for (String candidate : candidates) {
+                long candidateEstimate = counts.estimate(candidate);
+                if (candidateEstimate < lowestEstimate) {
+                    lowest = candidate;
+                    lowestEstimate = candidateEstimate;
+                }
+            }
+            if (estimate > lowestEstimate) {
+                candidates.remove(lowest);
+                candidates.add(value);
+            }
+            floor = lowestEstimate;
+        }
+
+        /**
+         * lists the candidates with their estimates, the highest first
+         */
+        private List<Map.Entry<String, Long>> top(int count) {
+            List<Map.Entry<String, Long>> top = new ArrayList<Map.Entry<String, Long>>();
+            for (String candidate : candidates) {
+                long estimate = counts.estimate(candidate);
+                if (estimate > 0) {
+                    top.add(new AbstractMap.SimpleImmutableEntry<String, Long>(candidate,
+                            estimate));
+                }
+            }
+            top.sort(Map.Entry.<String, Long>comparingByValue().reversed()
+                    .thenComparing(Map.Entry.comparingByKey()));
+            return top.subList(0, Math.min(Math.max(count, 0), top.size()));
+        }
+
+        private FrequentItems copy() {
+            FrequentItems copy = new FrequentItems();
+            copy.counts = counts.copy();
+            copy.candidates.addAll(candidates);
+            copy.floor = floor;
+            return copy;
+        }
+
+        /**
+         * adds the counts of other items and keeps the best candidates of both
+         */
+        private void merge(FrequentItems other) {
+            counts.merge(other.counts);
+            candidates.addAll(other.candidates);
+            List<Map.Entry<String, Long>> best = top(CANDIDATES);
+            candidates.clear();
+            for (Map.Entry<String, Long> entry : best) {
+                candidates.add(entry.getKey());
+            }
+            floor = 0;
+        }
+
+        private void clear() {
+            counts.clear();
+            candidates.clear();
+            floor = 0;
+        }
+    }
+
+    private Supplier<Iterable<SongInterface>> playlist; // every song, for rebuilds, null for a copy
+    private int songs;
+    private int removed; // songs removed since the last rebuild, still in the sketches
+    private HyperLogLog artists = new HyperLogLog();
+    private TDigest durations = new TDigest(); // in ms
+    private TDigest tempos = new TDigest(); // in bpm
+    private TDigest popularities = new TDigest();
+    private FrequentItems frequentArtists = new FrequentItems();
+    private FrequentItems frequentGenres = new FrequentItems();
+    private int rebuilds;
+
+    /**
+     * this method creates empty statistics
+     *
+     * @param playlist gives every song of the playlist when the sketches have to
+     *                 be rebuilt, null when they never are
+     */
+    public SongStatistics(Supplier<Iterable<SongInterface>> playlist) {
+        this.playlist = playlist;
+    }
+
+    /**
+     * updates the statistics after a song was added, changed or removed
+     *
+     * @param old  the song before the change, null when it was added
+     * @param song the song after the change, null when it was removed
+     */
+    public synchronized void changed(SongInterface old, SongInterface song) {
+        if (old != null) {
+            songs--;
+            removed++;
+            frequentArtists.add(old.getArtist(), -1);
+            for (String genre : old.getGenres()) {
+                frequentGenres.add(genre, -1);
+            }
+        }
+        if (song != null) {
+            songs++;
+            count(song);
+        }
+    }
+
+    /**
+     * Helper method that counts a song in every sketch
+     */
+    private void count(SongInterface song) {
+        artists.add(song.getArtist());
+        frequentArtists.add(song.getArtist(), 1);
+        for (String genre : song.getGenres()) {
+            frequentGenres.add(genre, 1);
+        }
+        durations.add(durationMillis(song.getDuration()));
+        float[] features = song.getFeatures();
+        if (features != null && TEMPO >= 0) {
+            tempos.add(features[TEMPO]);
+        }
+        popularities.add(song.getPopularity());
+    }
+
+    /**
+     * turns a duration in ms, or in minutes:seconds, into ms
+     *
+     * @param duration the duration of a song
+     * @return the duration in ms, NaN when it is not a number
+     */
+    public static double durationMillis(String duration) {
+        try {
+            int colon = duration.indexOf(':');
+            if (colon < 0) {
+                return Double.parseDouble(duration);
+            }
+            return (Integer.parseInt(duration.substring(0, colon).trim()) * 60
+                    + Double.parseDouble(duration.substring(colon + 1))) * 1000;
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * Helper method that rebuilds the sketches that hold removed songs once too
+     * many of their songs were removed
+     */
+    private void refresh() {
+        if (playlist == null || removed * 8L <= songs + removed) {
+            return;
+        }
+        artists.clear();
+        durations.clear();
+        tempos.clear();
+        popularities.clear();
+        frequentArtists.clear();
+        frequentGenres.clear();
+        songs = 0;
+        for (SongInterface song : playlist.get()) {
+            songs++;
+            count(song);
+        }
+        removed = 0;
+        rebuilds++;
+    }
+
+    /**
+     * get the number of songs
+     */
+    public synchronized int getSongs() {
+        return songs;
+    }
+
+    /**
+     * get the estimated number of distinct artists, within about 1%
+     */
+    public synchronized long getDistinctArtists() {
+        refresh();
+        return artists.estimate();
+    }
+
+    /**
+     * get the estimated duration that a share of the songs do not exceed
+     *
+     * @param q the share from 0 to 1, 0.5 for the median
+     * @return the duration in ms, NaN when there are no songs
+     * @throws IllegalArgumentException when q is not from 0 to 1
+     */
+    public synchronized double getDurationQuantile(double q) throws IllegalArgumentException {
+        refresh();
+        return durations.quantile(q);
+    }
+
+    /**
+     * get the estimated tempo that a share of the songs do not exceed
+     *
+     * @param q the share from 0 to 1, 0.5 for the median
+     * @return the tempo in bpm, NaN when no song has audio features
+     * @throws IllegalArgumentException when q is not from 0 to 1
+     */
+    public synchronized double getTempoQuantile(double q) throws IllegalArgumentException {
+        refresh();
+        return tempos.quantile(q);
+    }
+
+    /**
+     * get the estimated popularity that a share of the songs do not exceed
+     *
+     * @param q the share from 0 to 1, 0.5 for the median
+     * @return the popularity, NaN when there are no songs
+     * @throws IllegalArgumentException when q is not from 0 to 1
+     */
+    public synchronized double getPopularityQuantile(double q) throws IllegalArgumentException {
+        refresh();
+        return popularities.quantile(q);
+    }
+
+    /**
+     * get the artists with the most songs
+     *
+     * @param count the most artists to return, at most 64 are kept
+     * @return the artists and their estimated number of songs, the most first
+     */
+    public synchronized List<Map.Entry<String, Long>> getTopArtists(int count) {
+        return frequentArtists.top(count);
+    }
+
+    /**
+     * get the genres with the most songs
+     *
+     * @param count the most genres to return, at most 64 are kept
+     * @return the genres and their estimated number of songs, the most first
+     */
+    public synchronized List<Map.Entry<String, Long>> getTopGenres(int count) {
+        return frequentGenres.top(count);
+    }
+
+    /**
+     * get the number of times the sketches were rebuilt from the playlist
+     */
+    public synchronized int getRebuilds() {
+        return rebuilds;
+    }
+
+    /**
+     * get an independent copy of the statistics, which is never rebuilt
+     */
+    public synchronized SongStatistics copy() {
+        refresh();
+        SongStatistics copy = new SongStatistics(null);
+        copy.songs = songs;
+        copy.removed = removed;
+        copy.artists = artists.copy();
+        copy.durations = durations.copy();
+        copy.tempos = tempos.copy();
+        copy.popularities = popularities.copy();
+        copy.frequentArtists = frequentArtists.copy();
+        copy.frequentGenres = frequentGenres.copy();
+        copy.rebuilds = rebuilds;
+        return copy;
+    }
+
+    /**
+     * this method adds the songs counted by other statistics, e.g. of another
+     * shard
+     *
+     * @param other the statistics to add, they are not changed
+     */
+    public synchronized void merge(SongStatistics other) {
+        SongStatistics source = other.copy();
+        songs += source.songs;
+        removed += source.removed;
+        artists.merge(source.artists);
+        durations.merge(source.durations);
+        tempos.merge(source.tempos);
+        popularities.merge(source.popularities);
+        frequentArtists.merge(source.frequentArtists);
+        frequentGenres.merge(source.frequentGenres);
+        rebuilds += source.rebuilds;
+    }
+
+    /**
+     * removes every song
+     */
+    public synchronized void clear() {
+        songs = 0;
+        removed = 0;
+        artists.clear();
+        durations.clear();
+        tempos.clear();
+        popularities.clear();
+        frequentArtists.clear();
+        frequentGenres.clear();
+    }
+
+    /**
+     * this method will make the statistics as a string
+     *
+     * @return the song count, distinct artists, the quartiles of duration, tempo
+     *         and popularity and the five most frequent artists and genres, one
+     *         per line
+     */
+    @Override
+    public synchronized String toString() {
+        refresh();
+        StringBuilder text = new StringBuilder();
+        text.append("Songs: ").append(songs).append("\n");
+        text.append("Distinct artists: about ").append(artists.estimate()).append("\n");
+        text.append("Duration: ").append(quartiles(durations, true)).append("\n");
+        text.append("Tempo (bpm): ").append(quartiles(tempos, false)).append("\n");
+        text.append("Popularity: ").append(quartiles(popularities, false)).append("\n");
+        text.append("Most frequent artists: ").append(frequent(frequentArtists)).append("\n");
+        text.append("Most frequent genres: ").append(frequent(frequentGenres));
+        return text.toString();
+    }
+
+    /**
+     * Helper method that describes the quartiles of a digest
+     */
+    private static String quartiles(TDigest digest, boolean duration) {
+        if (digest.getCount() == 0) {
+            return "none";
+        }
+        String[] names = {"min", "25%", "median", "75%", "max"};
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < names.length; i++) {
+            double value = digest.quantile(i / 4.0);
+            text.append(i == 0 ? "" : ", ").append(names[i]).append(" ");
+            if (duration) {
+                long seconds = Math.round(value / 1000);
+                text.append(seconds / 60).append(":").append(String.format("%02d", seconds % 60));
+            } else {
+                text.append(String.format("%.1f", value));
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * Helper method that describes the five most frequent strings
+     */
+    private static String frequent(FrequentItems items) {
+        List<String> top = new ArrayList<String>();
+        for (Map.Entry<String, Long> entry : items.top(5)) {
+            top.add(entry.getKey() + " (" + entry.getValue() + ")");
+        }
+        return top.isEmpty() ? "none" : String.join(", ", top);
+    }
+
+}
@@ -0,0 +1,423 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * This class is an append-only log of the songs added and removed at runtime,
+ * so they survive a restart. Every record is written as
+ * [payload length][CRC32 of payload][payload] through a FileChannel, where the
+ * payload is an operation byte followed by length-prefixed UTF-8 strings.
+ * Records are forced to disk in groups: after a given number of records or
+ * once the oldest unsynced record reaches a given age. The age is checked when
+ * a record is appended and by syncIfDue, which the owner of the log calls from
+ * a timer so the end of a burst is forced as well. Replay stops at the
+ * first torn or corrupted record and cuts the log there. Compaction rewrites
+ * the log with only the net effect of every title.
+ *
+ * The log owns a base snapshot of all songs, the file named like the log
+ * plus ".base", which is loaded in front of the log. A checkpoint rotates the
+ * log to a new segment, writes the snapshot and then drops the old segment.
+ * Until it is dropped the old segment is replayed before the new one, so a
+ * crash during a checkpoint loses no change.
+ */
+public class SongWriteAheadLog {
+
+    /**
+     * The operations found in the log are handed to this target on replay
+     */
+    public interface ReplayTarget {
+        // re-applies an add, returns false if it no longer applies
+        public boolean add(String title, String artist, String duration);
+
+        // re-applies a remove, returns false if it no longer applies
+        public boolean remove(String title);
+    }
+
+    private static final byte ADD = 1;
+    private static final byte REMOVE = 2;
+    private static final int HEADER_SIZE = 8; // length and CRC
+    private static final int MAX_PAYLOAD_SIZE = 1 << 20;
+    private static final int READ_CHUNK_SIZE = 1 << 20;
+
+    private Path path;
+    private Path rotated; // the segment before the last rotation, until it is dropped
+    private Path base;
+    private FileChannel channel;
+    private int syncEveryRecords;
+    private long syncIntervalNanos;
+    private int unsyncedRecords;
+    private long oldestUnsyncedAt;
+    private long compactEveryRecords;
+    private long recordsSinceCompaction;
+    private ByteBuffer writeBuffer;
+    private CRC32 crc;
+
+    /**
+     * this method opens or creates the log
+     *
+     * @param fileName            path of the log file
+     * @param syncEveryRecords    number of records after which the log is forced
+     *                            to disk, 1 forces every record
+     * @param syncIntervalMillis  time in ms an unsynced record may wait, checked
+     *                            whenever a record is appended and by syncIfDue
+     * @param compactEveryRecords number of appended records after which the log
+     *                            is compacted, 0 never compacts automatically
+     * @throws IOException              when the file cannot be opened
+     * @throws IllegalArgumentException when a threshold is out of range
+     */
+    public SongWriteAheadLog(String fileName, int syncEveryRecords, long syncIntervalMillis,
+            long compactEveryRecords) throws IOException, IllegalArgumentException {
+        if (syncEveryRecords < 1 || syncIntervalMillis < 0 || compactEveryRecords < 0) {
+            throw new IllegalArgumentException("Invalid log thresholds");
+        }
+        this.path = Paths.get(fileName);
+        this.rotated = path.resolveSibling(path.getFileName() + ".old");
+        this.base = path.resolveSibling(path.getFileName() + ".base");
+        this.syncEveryRecords = syncEveryRecords;
+        this.syncIntervalNanos = syncIntervalMillis * 1000000L;
+        this.compactEveryRecords = compactEveryRecords;
+        this.writeBuffer = ByteBuffer.allocate(1024);
+        this.crc = new CRC32();
+        this.channel = open(path);
+    }
+
+    /**
+     * Helper method that opens a log file for appending
+     */
+    private static FileChannel open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        channel.position(channel.size());
+        return channel;
+    }
+
+    /**
+     * this method appends an added song to the log
+     *
+     * @param song the song that was added
+     * @throws IOException when the record cannot be written
+     */
+    public synchronized void appendAdd(SongInterface song) throws IOException {
+        append(ADD, song.getTitle(), song.getArtist(), song.getDuration());
+    }
+
+    /**
+     * this method appends a removed title to the log
+     *
+     * @param title title of the song that was removed
+     * @throws IOException when the record cannot be written
+     */
+    public synchronized void appendRemove(String title) throws IOException {
+        append(REMOVE, title);
+    }
+
+    /**
+     * Helper method that encodes and writes one record, then syncs or compacts if
+     * that is due
+     */
+    private void append(byte operation, String... fields) throws IOException {
+        writeRecord(channel, operation, fields);
+        if (unsyncedRecords == 0) {
+            oldestUnsyncedAt = System.nanoTime();
+        }
+        unsyncedRecords++;
+        recordsSinceCompaction++;
+        if (unsyncedRecords >= syncEveryRecords
+                || System.nanoTime() - oldestUnsyncedAt >= syncIntervalNanos) {
+            sync();
+        }
+        if (compactEveryRecords > 0 && recordsSinceCompaction >= compactEveryRecords) {
+            compact();
+        }
+    }
+
+    /**
+     * Helper method that encodes one record and writes it to the given channel
+     */
+    private void writeRecord(FileChannel target, byte operation, String... fields)
+            throws IOException {
+        byte[][] encoded = new byte[fields.length][];
+        int payloadSize = 1;
+        for (int i = 0; i < fields.length; i++) {
+            encoded[i] = (fields[i] == null ? "" : fields[i]).getBytes(StandardCharsets.UTF_8);
+            payloadSize += 4 + encoded[i].length;
+        }
+        if (payloadSize > MAX_PAYLOAD_SIZE) {
+            throw new IllegalArgumentException("Song is too big for the log");
+        }
+        if (writeBuffer.capacity() < HEADER_SIZE + payloadSize) {
+            writeBuffer = ByteBuffer.allocate(HEADER_SIZE + payloadSize);
+        }
+        writeBuffer.clear();
+        writeBuffer.position(HEADER_SIZE);
+        writeBuffer.put(operation);
+        for (byte[] field : encoded) {
+            writeBuffer.putInt(field.length);
+            writeBuffer.put(field);
+        }
+        crc.reset();
+        crc.update(writeBuffer.array(), HEADER_SIZE, payloadSize);
+        writeBuffer.putInt(0, payloadSize);
+        writeBuffer.putInt(4, (int) crc.getValue());
+        writeBuffer.flip();
+        while (writeBuffer.hasRemaining()) {
+            target.write(writeBuffer);
+        }
+    }
+
+    /**
+     * forces all appended records to disk
+     *
+     * @throws IOException when the log cannot be synced
+     */
+    public synchronized void sync() throws IOException {
+        if (unsyncedRecords > 0) {
+            channel.force(false);
+            unsyncedRecords = 0;
+        }
+    }
+
+    /**
+     * forces the appended records to disk once the oldest of them waited the
+     * sync interval, for a timer that runs while no record is appended
+     *
+     * @throws IOException when the log cannot be synced
+     */
+    public synchronized void syncIfDue() throws IOException {
+        if (unsyncedRecords > 0 && System.nanoTime() - oldestUnsyncedAt >= syncIntervalNanos) {
+            sync();
+        }
+    }
+
+    /**
+     * get the time in ms an unsynced record may wait
+     */
+    public long getSyncIntervalMillis() {
+        return syncIntervalNanos / 1000000L;
+    }
+
+    /**
+     * this method syncs and closes the log
+     *
+     * @throws IOException when the log cannot be synced or closed
+     */
+    public synchronized void close() throws IOException {
+        sync();
+        channel.close();
+    }
+
+    /**
+     * this method reads the whole log and hands every record to the target. The log
+     * is cut after the last intact record, so a record torn by a crash is dropped.
+     *
+     * @param target receives the operations in log order
+     * @return the number of records that were replayed
+     * @throws IOException when the log cannot be read
+     */
+    public synchronized long replay(ReplayTarget target) throws IOException {
+        long records = 0;
+        if (Files.exists(rotated)) {
+            // a checkpoint did not finish, its changes may not be in the snapshot
+            try (FileChannel older = FileChannel.open(rotated, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE)) {
+                records += replay(older, target);
+            }
+        }
+        return records + replay(channel, target);
+    }
+
+    /**
+     * Helper method that replays one segment of the log and cuts it after its
+     * last intact record
+     */
+    private long replay(FileChannel segment, ReplayTarget target) throws IOException {
+        long validEnd = 0;
+        long records = 0;
+        ByteBuffer chunk = ByteBuffer.allocate(READ_CHUNK_SIZE);
+        long filePosition = 0;
+        long fileSize = segment.size();
+        chunk.limit(0);
+        while (true) {
+            // make sure a whole header and then a whole payload are in the chunk
+            if (chunk.remaining() < HEADER_SIZE) {
+                filePosition = refill(segment, chunk, filePosition);
+                if (chunk.remaining() < HEADER_SIZE) {
+                    break;
+                }
+            }
+            int payloadSize = chunk.getInt(chunk.position());
+            int expectedCrc = chunk.getInt(chunk.position() + 4);
+            if (payloadSize < 1 || payloadSize > MAX_PAYLOAD_SIZE) {
+                break;
+            }
+            if (chunk.remaining() < HEADER_SIZE + payloadSize) {
+                if (chunk.capacity() < HEADER_SIZE + payloadSize) {
+                    ByteBuffer bigger = ByteBuffer.allocate(HEADER_SIZE + payloadSize);
+                    bigger.put(chunk);
+                    bigger.flip();
+                    chunk = bigger;
+                }
+                filePosition = refill(segment, chunk, filePosition);
+                if (chunk.remaining() < HEADER_SIZE + payloadSize) {
+                    break;
+                }
+            }
+            int payloadStart = chunk.position() + HEADER_SIZE;
+            crc.reset();
+            crc.update(chunk.array(), payloadStart, payloadSize);
+            if ((int) crc.getValue() != expectedCrc) {
+                break;
+            }
+            chunk.position(payloadStart);
+            byte operation = chunk.get();
+            if (operation == ADD) {
+                target.add(readString(chunk), readString(chunk), readString(chunk));
+            } else if (operation == REMOVE) {
+                target.remove(readString(chunk));
+            } else {
+                break;
+            }
+            chunk.position(payloadStart + payloadSize);
+            validEnd = filePosition - chunk.remaining();
+            records++;
+        }
+        if (validEnd < fileSize) {
+            // drop the torn or corrupted tail so new records follow intact ones
+            segment.truncate(validEnd);
+        }
+        segment.position(validEnd);
+        return records;
+    }
+
+    /**
+     * Helper method that moves the unread bytes of the chunk to its front and
+     * fills the rest from the file
+     *
+     * @return the file position after the bytes that were read
+     */
+    private static long refill(FileChannel segment, ByteBuffer chunk, long filePosition)
+            throws IOException {
+        chunk.compact();
+        int read;
+        while (chunk.hasRemaining() && (read = segment.read(chunk, filePosition)) > 0) {
+            filePosition += read;
+        }
+        chunk.flip();
+        return filePosition;
+    }
+
+    /**
+     * Helper method that reads one length-prefixed UTF-8 string
+     */
+    private static String readString(ByteBuffer chunk) {
+        int length = chunk.getInt();
+        String value = new String(chunk.array(), chunk.position(), length, StandardCharsets.UTF_8);
+        chunk.position(chunk.position() + length);
+        return value;
+    }
+
+    /**
+     * get the file of the base snapshot, it exists once a checkpoint finished
+     */
+    public String getBaseFile() {
+        return base.toString();
+    }
+
+    /**
+     * checks whether a checkpoint wrote a base snapshot, which has to be loaded
+     * before the log is replayed
+     */
+    public boolean hasBase() {
+        return Files.exists(base);
+    }
+
+    /**
+     * this method starts a checkpoint: the records so far go to the old segment
+     * and new records to a new, empty one. When the old segment of an earlier
+     * checkpoint was not dropped yet, the log keeps the current segment, since
+     * the next snapshot covers both of them as well.
+     *
+     * @throws IOException when the log cannot be synced or moved
+     */
+    public synchronized void rotate() throws IOException {
+        if (Files.exists(rotated)) {
+            return;
+        }
+        sync();
+        channel.close();
+        Files.move(path, rotated, StandardCopyOption.ATOMIC_MOVE);
+        channel = open(path);
+        recordsSinceCompaction = 0;
+    }
+
+    /**
+     * this method ends a checkpoint, once the base snapshot holds every change
+     * of the old segment
+     *
+     * @throws IOException when the old segment cannot be deleted
+     */
+    public synchronized void dropRotated() throws IOException {
+        Files.deleteIfExists(rotated);
+    }
+
+    /**
+     * this method rewrites the log so that it only holds the net effect of every
+     * title. A title that was added and later removed again disappears, and only
+     * the last add of a title is kept. A remove is kept when the title was not
+     * added by the log itself, since it then removes a song of the loaded data.
+     *
+     * @throws IOException when the log cannot be read or rewritten
+     */
+    public synchronized void compact() throws IOException {
+        sync();
+        // fold the log per title: whether it started with a remove, and the last add
+        Map<String, Boolean> startsWithRemove = new LinkedHashMap<String, Boolean>();
+        Map<String, String[]> lastAdd = new HashMap<String, String[]>();
+        replay(channel, new ReplayTarget() {
+            @Override
+            public boolean add(String title, String artist, String duration) {
+                startsWithRemove.putIfAbsent(title, false);
+                lastAdd.put(title, new String[] {title, artist, duration});
+                return true;
+            }
+
+            @Override
+            public boolean remove(String title) {
+                startsWithRemove.putIfAbsent(title, true);
+                lastAdd.remove(title);
+                return true;
+            }
+        });
+
+        Path compacted = path.resolveSibling(path.getFileName() + ".compact");
+        try (FileChannel target = FileChannel.open(compacted, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (Map.Entry<String, Boolean> title : startsWithRemove.entrySet()) {
+                String[] song = lastAdd.get(title.getKey());
+                if (title.getValue()) {
+                    writeRecord(target, REMOVE, title.getKey());
+                }
+                if (song != null) {
+                    writeRecord(target, ADD, song);
+                }
+            }
+            target.force(false);
+        }
+        channel.close();
+        Files.move(compacted, path, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        channel = open(path);
+        recordsSinceCompaction = 0;
+    }
+
+}
@@ -0,0 +1,138 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * This class collects newly added songs until they are merged into the tree as
+ * one batch sorted by title. Songs are indexed by title, so reads and duplicate
+ * checks against the buffer take constant time, and they are sorted only once
+ * when the buffer is merged. A flush is due once the buffer holds a given
+ * number of songs or once its oldest song has waited a given amount of time,
+ * which the owner checks on every add and from a timer.
+ */
+public class SongWriteBuffer {
+
+    private HashMap<String, SongInterface> songs;
+    private int flushSize;
+    private long flushIntervalNanos;
+    private long oldestAddedAt; // System.nanoTime() of the oldest buffered song
+
+    /**
+     * this method set the thresholds that trip a flush
+     *
+     * @param flushSize           number of buffered songs that trips a flush
+     * @param flushIntervalMillis time in ms the oldest song may wait before a
+     *                            flush is due
+     * @throws IllegalArgumentException when flushSize is not positive or the
+     *                                  interval is negative
+     */
+    public SongWriteBuffer(int flushSize, long flushIntervalMillis) throws IllegalArgumentException {
+        if (flushSize < 1 || flushIntervalMillis < 0) {
+            throw new IllegalArgumentException("Invalid flush thresholds");
+        }
+        this.songs = new HashMap<String, SongInterface>();
+        this.flushSize = flushSize;
+        this.flushIntervalNanos = flushIntervalMillis * 1000000L;
+    }
+
+    /**
+     * this method add a song to the buffer
+     *
+     * @param song song to buffer
+     * @throws IllegalArgumentException when a song with the same title is already
+     *                                  buffered
+     */
+    public void add(SongInterface song) throws IllegalArgumentException {
+        if (songs.isEmpty()) {
+            oldestAddedAt = System.nanoTime();
+        }
+        if (songs.putIfAbsent(song.getTitle(), song) != null) {
+            throw new IllegalArgumentException("The buffer already contains " + song.getTitle());
+        }
+    }
+
+    /**
+     * get a buffered song by its title
+     *
+     * @param title title of the song
+     * @return the buffered song, or null if no song with this title is buffered
+     */
+    public SongInterface get(String title) {
+        return songs.get(title);
+    }
+
+    /**
+     * this method takes a song out of the buffer
+     *
+     * @param title title of the song
+     * @return the removed song, or null if no song with this title is buffered
+     */
+    public SongInterface remove(String title) {
+        return songs.remove(title);
+    }
+
+    /**
+     * get the buffered songs whose title starts with the given prefix
+     *
+     * @param prefix start of the titles
+     * @return the matching songs, in no particular order
+     */
+    public List<SongInterface> findByPrefix(String prefix) {
+        return findAll(song -> song.getTitle().startsWith(prefix));
+    }
+
+    /**
+     * get the buffered songs that pass the given filter
+     *
+     * @param filter test the songs have to pass
+     * @return the matching songs, in no particular order
+     */
+    public List<SongInterface> findAll(Predicate<SongInterface> filter) {
+        List<SongInterface> found = new ArrayList<SongInterface>();
+        for (SongInterface song : songs.values()) {
+            if (filter.test(song)) {
+                found.add(song);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * get the number of buffered songs
+     *
+     */
+    public int size() {
+        return songs.size();
+    }
+
+    /**
+     * checks whether the size or the time threshold has been reached
+     *
+     * @return true if the buffer should be merged into the tree now
+     */
+    public boolean isFlushDue() {
+        return songs.size() >= flushSize
+                || (!songs.isEmpty() && System.nanoTime() - oldestAddedAt >= flushIntervalNanos);
+    }
+
+    /**
+     * get the buffered songs to merge, they stay buffered until clear is called,
+     * so a merge that fails part way loses none of them
+     *
+     * @return the buffered songs sorted by title
+     */
+    public List<SongInterface> sorted() {
+        List<SongInterface> sorted = new ArrayList<SongInterface>(songs.values());
+        sorted.sort(null); // songs compare by title
+        return sorted;
+    }
+
+    /**
+     * empties the buffer, once its songs were merged
+     */
+    public void clear() {
+        songs.clear();
+    }
+
+}
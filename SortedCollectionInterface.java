@@ -1,11 +1,22 @@
-public interface SortedCollectionInterface<T extends Comparable<T>>{
+import java.util.Iterator;
+import java.util.List;
+
+public interface SortedCollectionInterface<T extends Comparable<T>> extends Iterable<T> {
 
     public boolean insert(T data) throws NullPointerException, IllegalArgumentException;
 
+    public void insertAllSorted(List<T> sortedData) throws NullPointerException, IllegalArgumentException;
+
     public boolean remove(T data) throws NullPointerException, IllegalArgumentException;
 
+    public T replace(T data) throws NullPointerException, IllegalArgumentException;
+
     public boolean contains(T data);
 
+    public List<T> getAll(List<T> sortedProbes) throws NullPointerException;
+
+    public Iterator<T> iteratorFrom(T from) throws NullPointerException;
+
     public int size();
 
     public boolean isEmpty();
@@ -0,0 +1,278 @@
+import java.util.Arrays;
+
+/**
+ * This class estimates quantiles of a stream of numbers, like the median, in
+ * constant memory. It is a merging t-digest: the numbers are summarized by
+ * centroids, a mean and a weight each, sorted by mean. New numbers collect in
+ * a buffer, and a full buffer is sorted and merged into the centroids in one
+ * pass. A centroid may only grow while it covers a small range of the scale
+ * function k(q) = compression / 2pi * asin(2q - 1), which is steep near q = 0
+ * and q = 1, so the centroids near the ends stay small and the extreme
+ * quantiles stay accurate. About compression centroids are kept.
+ *
+ * Numbers cannot be taken out again. Two digests can be merged, the result
+ * summarizes the numbers given to either.
+ */
+public class TDigest {
+
+    /**
+     * The compression when none is given
+     */
+    public static final double DEFAULT_COMPRESSION = 100;
+
+    private double compression;
+    private double[] means; // sorted
+    private double[] weights;
+    private int centroids;
+    private double[] buffer; // numbers not merged yet, weight 1 each
+    private int buffered;
+    private long count;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    /**
+     * this method creates an empty digest of the default compression
+     */
+    public TDigest() {
+        this(DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * this method creates an empty digest
+     *
+     * @param compression about the number of centroids kept, at least 10
+     * @throws IllegalArgumentException when the compression is below 10
+     */
+    public TDigest(double compression) throws IllegalArgumentException {
+        if (!(compression >= 10)) {
+            throw new IllegalArgumentException("Compression must be at least 10, not "
+                    + compression);
+        }
+        this.compression = compression;
+        this.means = new double[(int) Math.ceil(compression) + 10];
+        this.weights = new double[means.length];
+        this.buffer = new double[(int) Math.ceil(5 * compression)];
+    }
+
+    /**
+     * this method adds a number
+     *
+     * @param value the number, NaN is skipped
+     */
+    public void add(double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+        if (buffered == buffer.length) {
+            flush();
+        }
+        buffer[buffered++] = value;
+        count++;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    /**
+     * Helper method that sorts the buffer and merges it into the centroids
+     */
+    private void flush() {
+        if (buffered == 0) {
+            return;
+        }
+        Arrays.sort(buffer, 0, buffered);
+        mergeCentroids(buffer, null, buffered);
+        buffered = 0;
+    }
+
+    /**
+     * Helper method that merges sorted centroids into the centroids of this
+     * digest, walking both in order of their means and combining neighbours as
+     * long as the scale function allows. Without weights every mean weighs 1.
+     */
+    private void mergeCentroids(double[] otherMeans, double[] otherWeights, int otherCount) {
+        double total = 0;
+        for (int i = 0; i < centroids; i++) {
+            total += weights[i];
+        }
+        for (int i = 0; i < otherCount; i++) {
+            total += otherWeights == null ? 1 : otherWeights[i];
+        }
+        double[] newMeans = new double[means.length];
+        double[] newWeights = new double[means.length];
+        int merged = 0;
+        double before = 0; // weight of the centroids already finished
+        double limit = weightLimit(0, total); // the centroid being built may grow up to here
+        double mean = 0;
+        double weight = 0;
+        int mine = 0;
+        int theirs = 0;
+        while (mine < centroids || theirs < otherCount) {
+            double nextMean;
+            double nextWeight;
+            if (theirs >= otherCount || (mine < centroids && means[mine] <= otherMeans[theirs])) {
+                nextMean = means[mine];
+                nextWeight = weights[mine++];
+            } else {
+                nextMean = otherMeans[theirs];
+                nextWeight = otherWeights == null ? 1 : otherWeights[theirs];
+                theirs++;
+            }
+            if (weight == 0) {
+                mean = nextMean;
+                weight = nextWeight;
+            } else if (before + weight + nextWeight <= limit) {
+                weight += nextWeight;
+                mean += (nextMean - mean) * nextWeight / weight;
+            } else {
+                if (merged == newMeans.length) {
+                    newMeans = Arrays.copyOf(newMeans, merged * 2);
+                    newWeights = Arrays.copyOf(newWeights, merged * 2);
+                }
+                newMeans[merged] = mean;
+                newWeights[merged++] = weight;
+                before += weight;
+                limit = weightLimit(before, total);
+                mean = nextMean;
+                weight = nextWeight;
+            }
+        }
+        if (weight > 0) {
+            if (merged == newMeans.length) {
+                newMeans = Arrays.copyOf(newMeans, merged * 2);
+                newWeights = Arrays.copyOf(newWeights, merged * 2);
+            }
+            newMeans[merged] = mean;
+            newWeights[merged++] = weight;
+        }
+        means = newMeans;
+        weights = newWeights;
+        centroids = merged;
+    }
+
+    /**
+     * Helper method that finds how far a centroid starting after the given
+     * weight may reach: up to where the scale function k(q) has grown by 1
+     */
+    private double weightLimit(double before, double total) {
+        double k = compression / (2 * Math.PI) * Math.asin(2 * Math.min(1, before / total) - 1);
+        if (k + 1 >= compression / 4) {
+            return total; // the last step of k reaches q = 1
+        }
+        return total * (Math.sin((k + 1) * 2 * Math.PI / compression) + 1) / 2;
+    }
+
+    /**
+     * get the number of numbers added
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * get the smallest number added
+     *
+     * @return the minimum, NaN when no number was added
+     */
+    public double getMin() {
+        return count == 0 ? Double.NaN : min;
+    }
+
+    /**
+     * get the biggest number added
+     *
+     * @return the maximum, NaN when no number was added
+     */
+    public double getMax() {
+        return count == 0 ? Double.NaN : max;
+    }
+
+    /**
+     * get the estimated number that a share of the added numbers do not exceed
+     *
+     * @param q the share from 0 to 1, 0.5 for the median
+     * @return the quantile, NaN when no number was added
+     * @throws IllegalArgumentException when q is not from 0 to 1
+     */
+    public double quantile(double q) throws IllegalArgumentException {
+        if (!(q >= 0 && q <= 1)) {
+            throw new IllegalArgumentException("Quantile must be from 0 to 1, not " + q);
+        }
+        flush();
+        if (count == 0) {
+            return Double.NaN;
+        }
+        if (q == 0 || q == 1) {
+            return q == 0 ? min : max;
+        }
+        // every centroid stands at the middle of its weight, between them the
+        // quantile is interpolated, before the first and after the last towards
+        // min and max
+        double target = q * count;
+        double center = weights[0] / 2;
+        if (target < center) {
+            return min + (means[0] - min) * target / center;
+        }
+        for (int i = 0; i < centroids - 1; i++) {
+            double nextCenter = center + (weights[i] + weights[i + 1]) / 2;
+            if (target < nextCenter) {
+                double step = (target - center) / (nextCenter - center);
+                return means[i] + (means[i + 1] - means[i]) * step;
+            }
+            center = nextCenter;
+        }
+        double rest = count - center;
+        double last = means[centroids - 1];
+        return rest <= 0 ? max : last + (max - last) * (target - center) / rest;
+    }
+
+    /**
+     * this method adds the numbers summarized by another digest
+     *
+     * @param other the digest to add, it is not changed
+     */
+    public void merge(TDigest other) {
+        TDigest source = other.copy();
+        source.flush();
+        flush();
+        mergeCentroids(source.means, source.weights, source.centroids);
+        count += source.count;
+        min = Math.min(min, source.min);
+        max = Math.max(max, source.max);
+    }
+
+    /**
+     * get an independent copy of this digest
+     */
+    public TDigest copy() {
+        TDigest copy = new TDigest(compression);
+        copy.means = Arrays.copyOf(means, means.length);
+        copy.weights = Arrays.copyOf(weights, weights.length);
+        copy.centroids = centroids;
+        System.arraycopy(buffer, 0, copy.buffer, 0, buffered);
+        copy.buffered = buffered;
+        copy.count = count;
+        copy.min = min;
+        copy.max = max;
+        return copy;
+    }
+
+    /**
+     * this method forgets all numbers
+     */
+    public void clear() {
+        centroids = 0;
+        buffered = 0;
+        count = 0;
+        min = Double.POSITIVE_INFINITY;
+        max = Double.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * get the number of centroids, after merging the buffered numbers
+     */
+    public int getCentroids() {
+        flush();
+        return centroids;
+    }
+
+}
@@ -0,0 +1,100 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class is a scalable Bloom filter over song titles. It answers "this title
+ * is definitely not in the playlist" without walking the tree, and only says
+ * "maybe" for titles that were added or for about 1% of the others. Once a
+ * filter segment is full a new one with twice the capacity is started, so the
+ * false positive rate stays low however many songs are added. Titles cannot be
+ * taken out again; a removed title just costs a tree walk when it is checked.
+ */
+public class TitleBloomFilter {
+
+    private static final int BITS_PER_TITLE = 10; // about 1% false positives
+    private static final int HASH_COUNT = 7;
+
+    private List<long[]> segments;
+    private int lastSegmentCapacity;
+    private int lastSegmentCount;
+
+    /**
+     * this method set the capacity of the first filter segment
+     *
+     * @param initialCapacity number of titles the first segment holds
+     */
+    public TitleBloomFilter(int initialCapacity) {
+        this.segments = new ArrayList<long[]>();
+        addSegment(Math.max(initialCapacity, 64));
+    }
+
+    /**
+     * Helper method that starts a new segment
+     *
+     * @param capacity number of titles the new segment holds
+     */
+    private void addSegment(int capacity) {
+        segments.add(new long[(int) (((long) capacity * BITS_PER_TITLE + 63) / 64)]);
+        lastSegmentCapacity = capacity;
+        lastSegmentCount = 0;
+    }
+
+    /**
+     * this method add a title to the filter
+     *
+     * @param title title to add
+     */
+    public void add(String title) {
+        if (lastSegmentCount >= lastSegmentCapacity) {
+            addSegment(lastSegmentCapacity * 2);
+        }
+        long[] bits = segments.get(segments.size() - 1);
+        long hash = mix(title.hashCode());
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        long bitCount = (long) bits.length * 64;
+        for (int i = 0; i < HASH_COUNT; i++) {
+            long bit = ((h1 + i * h2) & 0x7fffffffL) % bitCount;
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+        lastSegmentCount++;
+    }
+
+    /**
+     * checks whether a title may have been added
+     *
+     * @param title title to check
+     * @return false if the title was never added, true if it may have been
+     */
+    public boolean mightContain(String title) {
+        long hash = mix(title.hashCode());
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (long[] bits : segments) {
+            long bitCount = (long) bits.length * 64;
+            boolean allSet = true;
+            for (int i = 0; i < HASH_COUNT && allSet; i++) {
+                long bit = ((h1 + i * h2) & 0x7fffffffL) % bitCount;
+                allSet = (bits[(int) (bit >>> 6)] & (1L << bit)) != 0;
+            }
+            if (allSet) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Helper method that spreads a 32 bit hash code over 64 bits
+     *
+     * @param hashCode the title's hash code
+     * @return the mixed hash
+     */
+    private static long mix(int hashCode) {
+        long hash = hashCode * 0x9E3779B97F4A7C15L;
+        hash ^= hash >>> 31;
+        hash *= 0xBF58476D1CE4E5B9L;
+        return hash ^ (hash >>> 29);
+    }
+
+}
@@ -0,0 +1,13 @@
+/**
+ * The shape of a balanced search tree, for the metrics and the checks. Only
+ * the trees implement it, a skip list has no height worth reporting.
+ */
+public interface TreeShapeInterface {
+
+    // gets the number of nodes on the longest path from the root to a leaf
+    public int height();
+
+    // gets the greatest height a balanced tree with this many values can have
+    public int heightBound();
+
+}
@@ -0,0 +1,346 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class writes and reads a compact binary log of the calls made to a
+ * backend, so a real workload can be replayed later. The file starts with a
+ * magic number and a version, then every call is one record:
+ * [kind][microseconds since the last record][string count][strings][number count][numbers],
+ * where counts, times and numbers are varints, numbers zigzag encoded, and a
+ * string is its UTF-8 length plus one followed by its bytes, 0 for null. A
+ * record holds a few dozen bytes, so logging costs far less than the call.
+ *
+ * Records are buffered and written when the buffer fills up, on flush and on
+ * close. A log cut short by a crash is read up to its last whole record.
+ */
+public class WorkloadLog {
+
+    // the kinds of calls, one per method of MusicFinderBackendInterface that takes part in a workload
+    public static final int LOAD = 1;
+    public static final int LOAD_IN_BACKGROUND = 2;
+    public static final int FIND_SONG_BY_TITLE = 3;
+    public static final int FIND_SONG = 4;
+    public static final int DURATION_BY_TITLE = 5;
+    public static final int ARTIST_BY_TITLE = 6;
+    public static final int FIND_SONGS_BY_TITLES = 7;
+    public static final int FIND_SONGS_BY_PREFIX = 8;
+    public static final int FIND_SONGS_IN_RANGE = 9;
+    public static final int FIND_SONGS_BY_ARTIST = 10;
+    public static final int FIND_SIMILAR_SONGS = 11;
+    public static final int FIND_SONGS_BY_GENRES = 12;
+    public static final int FIND_TOP_SONGS = 13;
+    public static final int ADD = 14;
+    public static final int REMOVE = 15;
+    public static final int SONG_COUNT = 16;
+    public static final int DUMP_METRICS = 17;
+    public static final int STATISTICS = 18;
+
+    private static final String[] NAMES = {null, "load", "loadInBackground", "findSongByTitle",
+        "findSong", "getDurationByTitle", "getArtistByTitle", "findSongsByTitles",
+        "findSongsByPrefix", "findSongsInRange", "findSongsByArtist", "findSimilarSongs",
+        "findSongsByGenres", "findTopSongs", "addOneSong", "removeOneSong", "displaySongCount",
+        "dumpMetrics", "getStatistics"};
+
+    private static final int MAGIC = 0x4D46574C; // "MFWL"
+    private static final int VERSION = 1;
+
+    /**
+     * One recorded call: its kind, when it was made and its arguments
+     */
+    public static class Operation {
+        private int kind;
+        private long micros; // since the first record of the log
+        private String[] strings;
+        private long[] numbers;
+
+        /**
+         * this method creates a call
+         *
+         * @param kind    one of the kinds of this class
+         * @param micros  time of the call in microseconds since the first record
+         * @param strings the string arguments
+         * @param numbers the number arguments
+         */
+        public Operation(int kind, long micros, String[] strings, long[] numbers) {
+            this.kind = kind;
+            this.micros = micros;
+            this.strings = strings;
+            this.numbers = numbers;
+        }
+
+        /**
+         * get the kind of the call
+         */
+        public int getKind() {
+            return kind;
+        }
+
+        /**
+         * get the name of the kind of the call
+         */
+        public String getName() {
+            return nameOf(kind);
+        }
+
+        /**
+         * get the time of the call in microseconds since the first record
+         */
+        public long getMicros() {
+            return micros;
+        }
+
+        /**
+         * get the string arguments
+         */
+        public String[] getStrings() {
+            return strings;
+        }
+
+        /**
+         * get the number arguments
+         */
+        public long[] getNumbers() {
+            return numbers;
+        }
+
+        /**
+         * makes the call again on a backend
+         *
+         * @param backend the backend to call
+         * @return the result of the call, null for calls without one
+         * @throws FileNotFoundException    when a load does not find its file
+         * @throws IllegalArgumentException when the backend rejects the call, e.g.
+         *                                  for a title it does not hold
+         * @throws IllegalStateException    when the backend is empty or still loading
+         */
+        public Object applyTo(MusicFinderBackendInterface backend)
+                throws FileNotFoundException, IllegalArgumentException, IllegalStateException {
+            switch (kind) {
+                case LOAD:
+                    backend.loadData(strings[0]);
+                    return null;
+                case LOAD_IN_BACKGROUND:
+                    return backend.loadDataInBackground(strings[0]);
+                case FIND_SONG_BY_TITLE:
+                    return backend.findSongByTitle(strings[0]);
+                case FIND_SONG:
+                    return backend.findSong(strings[0]);
+                case DURATION_BY_TITLE:
+                    return backend.getDurationByTitle(strings[0]);
+                case ARTIST_BY_TITLE:
+                    return backend.getArtistByTitle(strings[0]);
+                case FIND_SONGS_BY_TITLES:
+                    return backend.findSongsByTitles(Arrays.asList(strings));
+                case FIND_SONGS_BY_PREFIX:
+                    return backend.findSongsByPrefix(strings[0], (int) numbers[0]);
+                case FIND_SONGS_IN_RANGE:
+                    return backend.findSongsInRange(strings[0], strings[1], (int) numbers[0]);
+                case FIND_SONGS_BY_ARTIST:
+                    return backend.findSongsByArtist(strings[0], (int) numbers[0]);
+                case FIND_SIMILAR_SONGS:
+                    return backend.findSimilarSongs(strings[0], (int) numbers[0]);
+                case FIND_SONGS_BY_GENRES:
+                    // the prefix comes first, the genres after it, -1 genres for null
+                    List<String> genres = numbers[0] < 0 ? null
+                            : Arrays.asList(strings).subList(1, strings.length);
+                    Boolean explicit = numbers[1] == 0 ? null : Boolean.valueOf(numbers[1] == 2);
+                    return backend.findSongsByGenres(genres, explicit, strings[0], (int) numbers[2]);
+                case FIND_TOP_SONGS:
+                    return backend.findTopSongs(strings[0], (int) numbers[0], (int) numbers[1]);
+                case ADD:
+                    return backend.addOneSong(strings[0], strings[1], strings[2]);
+                case REMOVE:
+                    return backend.removeOneSong(strings[0]);
+                case SONG_COUNT:
+                    return backend.displaySongCount();
+                case DUMP_METRICS:
+                    return backend.dumpMetrics();
+                case STATISTICS:
+                    return backend.getStatistics();
+                default:
+                    throw new IllegalArgumentException("Unknown call kind " + kind);
+            }
+        }
+
+        /**
+         * this method will make the call as a string
+         *
+         * @return the time, name and arguments of the call
+         */
+        @Override
+        public String toString() {
+            return micros + " us " + getName() + " " + Arrays.toString(strings) + " "
+                    + Arrays.toString(numbers);
+        }
+    }
+
+    private DataOutputStream out;
+    private long startNanos = -1; // time of the first record
+    private long lastMicros;
+    private long records;
+
+    /**
+     * this method creates a log file to record calls into, an existing file is
+     * overwritten
+     *
+     * @param fileName path of the log file
+     * @throws IOException when the file cannot be created
+     */
+    public WorkloadLog(String fileName) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName), 1 << 16));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+    }
+
+    /**
+     * get the name of a kind of call
+     *
+     * @param kind one of the kinds of this class
+     * @return the name of the backend method
+     */
+    public static String nameOf(int kind) {
+        return kind > 0 && kind < NAMES.length ? NAMES[kind] : "unknown " + kind;
+    }
+
+    /**
+     * this method records a call, the time is taken now
+     *
+     * @param kind    one of the kinds of this class
+     * @param strings the string arguments, may hold nulls
+     * @param numbers the number arguments
+     * @throws IOException when the record cannot be written
+     */
+    public synchronized void record(int kind, String[] strings, long... numbers) throws IOException {
+        long now = System.nanoTime();
+        if (startNanos < 0) {
+            startNanos = now;
+        }
+        long micros = (now - startNanos) / 1000;
+        writeNumber(kind);
+        writeNumber(micros - lastMicros);
+        lastMicros = micros;
+        writeNumber(strings.length);
+        for (String string : strings) {
+            if (string == null) {
+                writeNumber(0);
+            } else {
+                byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+                writeNumber(bytes.length + 1);
+                out.write(bytes);
+            }
+        }
+        writeNumber(numbers.length);
+        for (long number : numbers) {
+            writeNumber((number << 1) ^ (number >> 63));
+        }
+        records++;
+    }
+
+    /**
+     * Helper method that writes a number 7 bits at a time, the low bits first
+     */
+    private void writeNumber(long number) throws IOException {
+        while ((number & ~0x7FL) != 0) {
+            out.writeByte((int) (number & 0x7F) | 0x80);
+            number >>>= 7;
+        }
+        out.writeByte((int) number);
+    }
+
+    /**
+     * get the number of calls recorded so far
+     */
+    public synchronized long getRecords() {
+        return records;
+    }
+
+    /**
+     * this method writes the buffered records to the file
+     *
+     * @throws IOException when the records cannot be written
+     */
+    public synchronized void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * this method writes the buffered records and closes the file
+     *
+     * @throws IOException when the records cannot be written
+     */
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+
+    /**
+     * reads all calls of a log. A record cut short at the end of the file, as a
+     * crash leaves it, is dropped.
+     *
+     * @param fileName path of the log file
+     * @return the calls in the order they were made
+     * @throws IOException when the file cannot be read or is not a workload log
+     */
+    public static List<Operation> read(String fileName) throws IOException {
+        List<Operation> operations = new ArrayList<Operation>();
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(fileName), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException(fileName + " is not a workload log");
+            }
+            long micros = 0;
+            while (true) {
+                int first = in.read();
+                if (first < 0) {
+                    break;
+                }
+                try {
+                    int kind = (int) readNumber(in, first);
+                    micros += readNumber(in, in.readUnsignedByte());
+                    String[] strings = new String[(int) readNumber(in, in.readUnsignedByte())];
+                    for (int i = 0; i < strings.length; i++) {
+                        int length = (int) readNumber(in, in.readUnsignedByte());
+                        if (length > 0) {
+                            byte[] bytes = new byte[length - 1];
+                            in.readFully(bytes);
+                            strings[i] = new String(bytes, StandardCharsets.UTF_8);
+                        }
+                    }
+                    long[] numbers = new long[(int) readNumber(in, in.readUnsignedByte())];
+                    for (int i = 0; i < numbers.length; i++) {
+                        long zigzag = readNumber(in, in.readUnsignedByte());
+                        numbers[i] = (zigzag >>> 1) ^ -(zigzag & 1);
+                    }
+                    operations.add(new Operation(kind, micros, strings, numbers));
+                } catch (EOFException e) {
+                    break; // torn last record
+                }
+            }
+        }
+        return operations;
+    }
+
+    /**
+     * Helper method that reads a number written by writeNumber, whose first byte
+     * was read already
+     */
+    private static long readNumber(DataInputStream in, int first) throws IOException {
+        long number = first & 0x7F;
+        for (int shift = 7; (first & 0x80) != 0; shift += 7) {
+            first = in.readUnsignedByte();
+            number |= (long) (first & 0x7F) << shift;
+        }
+        return number;
+    }
+
+}